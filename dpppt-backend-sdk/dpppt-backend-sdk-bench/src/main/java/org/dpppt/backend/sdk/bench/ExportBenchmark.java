@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.bench;
+
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature.ProtoSignatureWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of the signed key exports for the v1, v2 and v2 UMA (cuckoo filter)
+ * downloads. The allocation rate is reported by the gc profiler, which {@link BenchmarkRunner}
+ * always enables; the size of each export is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ExportBenchmark {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+  private static final int RETENTION_DAYS = 14;
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int numberOfKeys;
+
+  private ProtoSignature protoSignature;
+  private List<GaenKey> keys;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+    keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+    protoSignature =
+        new ProtoSignature(
+            "1.2.840.10045.4.3.2",
+            keyPairGenerator.generateKeyPair(),
+            "org.dpppt.ios.demo",
+            "org.dpppt.android.demo",
+            "v1",
+            "228",
+            "ch",
+            BUCKET);
+    keys = randomKeys(numberOfKeys);
+
+    System.out.printf(
+        "%n%d keys, export size in bytes: v1 %d, v2 %d, v2 UMA %d%n",
+        numberOfKeys,
+        protoSignature.getPayload(keys).getZip().length,
+        protoSignature.getPayloadV2(keys).getZip().length,
+        protoSignature.getPayloadV2UMA(keys).getZip().length);
+  }
+
+  @Benchmark
+  public ProtoSignatureWrapper payloadV1() throws Exception {
+    return protoSignature.getPayload(keys);
+  }
+
+  @Benchmark
+  public ProtoSignatureWrapper payloadV2() throws Exception {
+    return protoSignature.getPayloadV2(keys);
+  }
+
+  @Benchmark
+  public ProtoSignatureWrapper payloadV2UMA() throws Exception {
+    return protoSignature.getPayloadV2UMA(keys);
+  }
+
+  /** Keys as they are read from the database, spread over the days of the retention period. */
+  private static List<GaenKey> randomKeys(int numberOfKeys) {
+    // fixed seed, so every run exports the same keys
+    Random random = new Random(42);
+    UTCInstant today = UTCInstant.today();
+    // the keys are shuffled in place by the v2 UMA export, so the list must be mutable
+    List<GaenKey> keys = new ArrayList<>(numberOfKeys);
+    for (int i = 0; i < numberOfKeys; i++) {
+      UTCInstant keyDate = today.minusDays(1 + random.nextInt(RETENTION_DAYS));
+      byte[] keyBytes = new byte[16];
+      random.nextBytes(keyBytes);
+      GaenKey key =
+          new GaenKey(
+              null,
+              (int) keyDate.get10MinutesSince1970(),
+              144,
+              0,
+              "ES",
+              1,
+              1L,
+              Boolean.FALSE,
+              List.of("ES"));
+      key.setKeyBytes(keyBytes);
+      keys.add(key);
+    }
+    return keys;
+  }
+}
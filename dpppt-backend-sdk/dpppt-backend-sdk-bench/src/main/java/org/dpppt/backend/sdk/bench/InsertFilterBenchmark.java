@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.bench;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.model.gaen.GaenUnit;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
+import org.dpppt.backend.sdk.ws.insertmanager.OSType;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.AssertKeyFormat;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.EnforceMatchingJWTClaimsForExposed;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.EnforceRetentionPeriod;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.EnforceValidRollingPeriod;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.FusedKeyInsertionFilter;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.KeyInsertionPredicate;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.RemoveFakeKeys;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.RemoveKeysFromFuture;
+import org.dpppt.backend.sdk.ws.security.NoValidateRequest;
+import org.dpppt.backend.sdk.ws.security.ValidateRequest;
+import org.dpppt.backend.sdk.ws.security.ValidateRequest.ClaimIsBeforeOnsetException;
+import org.dpppt.backend.sdk.ws.security.ValidateRequest.InvalidDateException;
+import org.dpppt.backend.sdk.ws.util.ValidationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the default filters of the exposed insert manager on a single upload: fused into one
+ * pass ({@link #fused}), applied one after the other ({@link #perFilter}) and as the former stream
+ * based filters, which created a list and several {@link UTCInstant} per key and filter ({@link
+ * #streams}). An upload contains one key per day up to today, uploads of 30 keys reach beyond the
+ * retention period.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class InsertFilterBenchmark {
+
+  private static final Duration RETENTION_PERIOD = Duration.ofDays(14);
+
+  @Param({"14", "30"})
+  public int keyCount;
+
+  private ValidationUtils validationUtils;
+  private ValidateRequest validateRequest;
+  private KeyInsertionPredicate[] predicates;
+  private FusedKeyInsertionFilter fusedFilter;
+  private UTCInstant now;
+  private List<GaenKey> keys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    validationUtils = new ValidationUtils(16, RETENTION_PERIOD, Duration.ofHours(2).toMillis());
+    validateRequest = new NoValidateRequest();
+    predicates =
+        new KeyInsertionPredicate[] {
+          new AssertKeyFormat(validationUtils),
+          new EnforceMatchingJWTClaimsForExposed(validateRequest),
+          new RemoveKeysFromFuture(),
+          new EnforceRetentionPeriod(validationUtils),
+          new RemoveFakeKeys(),
+          new EnforceValidRollingPeriod()
+        };
+    fusedFilter = new FusedKeyInsertionFilter(predicates);
+    now = UTCInstant.now();
+
+    Random random = new Random(42);
+    keys = new ArrayList<>(keyCount);
+    var today = now.atStartOfDay();
+    for (int day = 0; day < keyCount; day++) {
+      byte[] keyData = new byte[16];
+      random.nextBytes(keyData);
+      // the key of today is still rolling
+      int rollingPeriod =
+          day == 0 ? (int) (now.get10MinutesSince1970() - today.get10MinutesSince1970()) : 144;
+      var key =
+          new GaenKey(
+              Base64.getEncoder().encodeToString(keyData),
+              (int) today.minusDays(day).get10MinutesSince1970(),
+              rollingPeriod,
+              0,
+              "ES",
+              1,
+              1L,
+              true,
+              Collections.singletonList("ES"));
+      key.setFake(0);
+      keys.add(key);
+    }
+  }
+
+  @Benchmark
+  public List<GaenKey> fused() throws InsertException {
+    return fusedFilter.filter(now, keys, OSType.ANDROID, null, null, null);
+  }
+
+  @Benchmark
+  public List<GaenKey> perFilter() throws InsertException {
+    List<GaenKey> result = keys;
+    for (KeyInsertionPredicate predicate : predicates) {
+      result = predicate.filter(now, result, OSType.ANDROID, null, null, null);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public List<GaenKey> streams() {
+    if (keys.stream().anyMatch(key -> !validationUtils.isValidKeyFormat(key))) {
+      throw new IllegalStateException("invalid key format");
+    }
+    return keys.stream()
+        .filter(this::isValidKeyDate)
+        .collect(Collectors.toList())
+        .stream()
+        .filter(
+            key ->
+                UTCInstant.of(key.getRollingStartNumber(), GaenUnit.TenMinutes)
+                    .isBeforeDateOf(now.plusDays(2)))
+        .collect(Collectors.toList())
+        .stream()
+        .filter(
+            key ->
+                !validationUtils.isBeforeRetention(
+                    UTCInstant.of(key.getRollingStartNumber(), GaenUnit.TenMinutes), now))
+        .collect(Collectors.toList())
+        .stream()
+        .filter(key -> key.getFake().equals(0))
+        .collect(Collectors.toList())
+        .stream()
+        .filter(key -> key.getRollingPeriod() >= 1 && key.getRollingPeriod() <= 144)
+        .collect(Collectors.toList());
+  }
+
+  private boolean isValidKeyDate(GaenKey key) {
+    try {
+      validateRequest.validateKeyDate(now, null, key);
+      return true;
+    } catch (InvalidDateException | ClaimIsBeforeOnsetException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.filter.MembershipFilter;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngine;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngines;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the filter engines of the v2 UMA export: construction time ({@link #build}), query time
+ * ({@link #query}) and the bytes per key, which are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class KeyFilterBenchmark {
+
+  // the size of a protobuf encoded TemporaryExposureKey of the v2 export
+  private static final int ELEMENT_SIZE = 30;
+  private static final int QUERIES = 1024;
+
+  @Param({"cuckoo", "bloom", "xor"})
+  public String engine;
+
+  @Param({"0.03", "0.01", "0.001"})
+  public double fpp;
+
+  @Param({"10000", "100000", "1000000"})
+  public int numberOfKeys;
+
+  private KeyFilterEngine filterEngine;
+  private List<byte[]> elements;
+  private MembershipFilter filter;
+  /** Half of the queries are keys of the filter, half are not. */
+  private byte[][] queries;
+
+  private int nextQuery;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    filterEngine = KeyFilterEngines.withDefaults().resolve(engine, null).getEngine();
+    Random random = new Random(42);
+    elements = randomElements(random, numberOfKeys);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    filterEngine.writeFilter(elements, fpp, out);
+    filter = filterEngine.readFilter(new ByteArrayInputStream(out.toByteArray()));
+
+    List<byte[]> others = randomElements(random, QUERIES / 2);
+    queries = new byte[QUERIES][];
+    for (int i = 0; i < QUERIES; i++) {
+      queries[i] = i % 2 == 0 ? elements.get(random.nextInt(numberOfKeys)) : others.get(i / 2);
+    }
+
+    System.out.printf(
+        "%n%s, fpp %s, %d keys: %d bytes, %.2f bytes per key%n",
+        engine, fpp, numberOfKeys, out.size(), (double) out.size() / numberOfKeys);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void build() throws Exception {
+    filterEngine.writeFilter(elements, fpp, OutputStream.nullOutputStream());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public boolean query() {
+    nextQuery = (nextQuery + 1) % QUERIES;
+    return filter.mightContain(queries[nextQuery]);
+  }
+
+  private static List<byte[]> randomElements(Random random, int count) {
+    List<byte[]> elements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] element = new byte[ELEMENT_SIZE];
+      random.nextBytes(element);
+      elements.add(element);
+    }
+    return elements;
+  }
+}
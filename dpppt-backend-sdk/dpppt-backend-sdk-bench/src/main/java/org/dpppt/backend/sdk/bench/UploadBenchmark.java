@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.bench;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/**
+ * Measures the insert of a single upload into an in-memory HSQLDB with the schema of the
+ * migrations. Every upload contains new keys, which visited several countries. The round trips of
+ * an upload are asserted by GaenUploadRoundTripTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class UploadBenchmark {
+
+  @Param({"14"})
+  public int keyCount;
+
+  private EmbeddedDatabase dataSource;
+  private GAENDataService gaenDataService;
+  private UTCInstant now;
+  private int nextKey;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    dataSource =
+        new EmbeddedDatabaseBuilder()
+            .generateUniqueName(true)
+            .setType(EmbeddedDatabaseType.HSQL)
+            .build();
+    Flyway.configure()
+        .dataSource(dataSource)
+        .locations("classpath:/db/migration/hsqldb")
+        .load()
+        .migrate();
+    gaenDataService =
+        new SpanishJDBCGAENDataServiceImpl(
+            "hsqldb", dataSource, Duration.ofHours(2), Duration.ofHours(2));
+    now = UTCInstant.now();
+  }
+
+  /** Keeps the table at the same size for every iteration. */
+  @Setup(Level.Iteration)
+  public void clearKeys() {
+    new JdbcTemplate(dataSource).execute("delete from t_gaen_exposed");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataSource.shutdown();
+  }
+
+  @Benchmark
+  public void upload() {
+    gaenDataService.upsertExposees(newKeys(), now);
+  }
+
+  private List<GaenKey> newKeys() {
+    var rollingStart = (int) now.atStartOfDay().minusDays(1).get10MinutesSince1970();
+    var keys = new ArrayList<GaenKey>(keyCount);
+    for (int i = 0; i < keyCount; i++) {
+      var key = new GaenKey();
+      key.setKeyData(
+          Base64.getEncoder().encodeToString(String.format("benchKey%8d", nextKey++).getBytes()));
+      key.setRollingStartNumber(rollingStart);
+      key.setRollingPeriod(144);
+      key.setTransmissionRiskLevel(0);
+      key.setFake(0);
+      key.setCountryOrigin("ES");
+      key.setReportType(1);
+      key.setDaysSinceOnsetOfSymptons(0L);
+      key.setEfgsSharing(true);
+      key.setVisitedCountries(List.of("IT", "DE", "PT"));
+      keys.add(key);
+    }
+    return keys;
+  }
+}
@@ -11,47 +11,82 @@
 package org.dpppt.backend.sdk.data;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.transaction.annotation.Transactional;
 
 public class JDBCRedeemDataServiceImpl implements RedeemDataService {
 
   private static final Logger logger = LoggerFactory.getLogger(JDBCRedeemDataServiceImpl.class);
 
+  private static final String PGSQL = "pgsql";
+
+  private final String dbType;
   private final NamedParameterJdbcTemplate jt;
-  private final SimpleJdbcInsert reedemUUIDInsert;
+  // recently redeemed uuids with their received_at, in the order they were redeemed. Replays of
+  // these uuids are rejected without a query
+  private final Map<String, Long> redeemed;
+
+  public JDBCRedeemDataServiceImpl(String dbType, DataSource dataSource) {
+    this(dbType, dataSource, 0);
+  }
 
-  public JDBCRedeemDataServiceImpl(DataSource dataSource) {
+  /**
+   * @param redeemedCacheSize the number of recently redeemed uuids kept in memory, 0 disables the
+   *     cache
+   */
+  public JDBCRedeemDataServiceImpl(String dbType, DataSource dataSource, int redeemedCacheSize) {
+    this.dbType = dbType;
     this.jt = new NamedParameterJdbcTemplate(dataSource);
-    this.reedemUUIDInsert =
-        new SimpleJdbcInsert(dataSource)
-            .withTableName("t_redeem_uuid")
-            .usingGeneratedKeyColumns("pk_redeem_uuid_id");
+    this.redeemed =
+        new LinkedHashMap<>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > redeemedCacheSize;
+          }
+        };
   }
 
+  /**
+   * Inserts the uuid with a single statement, which skips it if it already exists. The unique
+   * constraint on uuid decides which of concurrent requests with the same uuid redeems it.
+   */
   @Override
-  @Transactional(readOnly = false)
   public boolean checkAndInsertPublishUUID(String uuid) {
-    String sql = "select count(1) from t_redeem_uuid where uuid = :uuid";
+    synchronized (redeemed) {
+      if (redeemed.containsKey(uuid)) {
+        return false;
+      }
+    }
+    // set the received_at to the next day, with no time information
+    // it will stay longer in the DB but we mitigate the risk that the JWT
+    // can be used twice (c.f. testTokensArentDeletedBeforeExpire).
+    var startOfTomorrow = UTCInstant.today().plusDays(1);
     MapSqlParameterSource params = new MapSqlParameterSource("uuid", uuid);
-    Integer count = jt.queryForObject(sql, params, Integer.class);
-    if (count > 0) {
-      return false;
-    } else {
-      // set the received_at to the next day, with no time information
-      // it will stay longer in the DB but we mitigate the risk that the JWT
-      // can be used twice (c.f. testTokensArentDeletedBeforeExpire).
-      var startOfTomorrow = UTCInstant.today().plusDays(1);
-      params.addValue("received_at", startOfTomorrow.getDate());
-      reedemUUIDInsert.execute(params);
-      return true;
+    params.addValue("received_at", startOfTomorrow.getDate());
+    int inserted = jt.update(insertUUIDSql(), params);
+    // either way the uuid is redeemed now
+    synchronized (redeemed) {
+      redeemed.put(uuid, startOfTomorrow.getTimestamp());
     }
+    return inserted > 0;
+  }
+
+  private String insertUUIDSql() {
+    if (dbType.equals(PGSQL)) {
+      return "insert into t_redeem_uuid (uuid, received_at) values (:uuid, :received_at)"
+          + " on conflict on constraint uuid do nothing";
+    }
+    return "merge into t_redeem_uuid using (values (cast(:uuid as varchar(50)),"
+        + " cast(:received_at as timestamp with time zone))) as vals(uuid, received_at)"
+        + " on t_redeem_uuid.uuid = vals.uuid when not matched then"
+        + " insert (uuid, received_at) values (vals.uuid, vals.received_at)";
   }
 
   @Override
@@ -63,5 +98,8 @@ public void cleanDB(Duration retentionPeriod) {
         new MapSqlParameterSource("retention_time", retentionTime.getDate());
     String sqlRedeem = "delete from t_redeem_uuid where received_at < :retention_time";
     jt.update(sqlRedeem, params);
+    synchronized (redeemed) {
+      redeemed.values().removeIf(receivedAt -> receivedAt < retentionTime.getTimestamp());
+    }
   }
 }
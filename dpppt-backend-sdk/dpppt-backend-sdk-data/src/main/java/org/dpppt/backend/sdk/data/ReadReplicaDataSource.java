@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes the connections of read-only transactions (<code>@Transactional(readOnly = true)</code>)
+ * to a read replica and all other connections to the primary database. If no connection to the
+ * replica can be obtained, the replica is skipped for retryInterval and its reads go to the
+ * primary.
+ *
+ * <p>The replica may lag behind the primary, so it is only used once it replayed the commits of the
+ * primary up to the start of the current release bucket, as reported by
+ * pg_last_xact_replay_timestamp(). Otherwise a bucket could be released and cached without its
+ * latest keys, which the clients would never download. A replica which isn't a standby reports no
+ * replay timestamp and isn't used.
+ *
+ * <p>The connection of a transaction is only obtained on its first statement, because the
+ * transaction manager opens the connection before the transaction is marked as read-only.
+ */
+public class ReadReplicaDataSource extends LazyConnectionDataSourceProxy implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReadReplicaDataSource.class);
+
+  private final DataSource primary;
+  private final DataSource replica;
+  private final Router router;
+
+  /**
+   * @param retryInterval how long the replica is skipped after a connection to it failed
+   * @param releaseBucketDuration the length of the release buckets
+   */
+  public ReadReplicaDataSource(
+      DataSource primary,
+      DataSource replica,
+      Duration retryInterval,
+      Duration releaseBucketDuration) {
+    this.primary = primary;
+    this.replica = replica;
+    this.router = new Router(primary, replica, retryInterval.toMillis(), releaseBucketDuration);
+    router.afterPropertiesSet();
+    setTargetDataSource(router);
+    // set explicitly, so no connection is needed to determine them
+    setDefaultAutoCommit(true);
+    setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    afterPropertiesSet();
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public DataSource getReplica() {
+    return replica;
+  }
+
+  /**
+   * @return the database read-only transactions are currently routed to. Until the replica is
+   *     known to have replayed the current bucket, this is the primary.
+   */
+  public DataSource getReadDataSource() {
+    return router.isReplicaReadable() ? replica : primary;
+  }
+
+  /** Closes both pools. */
+  @Override
+  public void close() throws Exception {
+    try {
+      if (replica instanceof AutoCloseable) {
+        ((AutoCloseable) replica).close();
+      }
+    } finally {
+      if (primary instanceof AutoCloseable) {
+        ((AutoCloseable) primary).close();
+      }
+    }
+  }
+
+  private static class Router extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final String REPLAY_TIMESTAMP_QUERY = "select pg_last_xact_replay_timestamp()";
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long retryIntervalMillis;
+    private final Duration releaseBucketDuration;
+
+    private volatile long replicaDownUntil = 0;
+    // the start of the latest bucket the replica is known to have replayed
+    private volatile long replayedBucket = Long.MIN_VALUE;
+
+    Router(
+        DataSource primary,
+        DataSource replica,
+        long retryIntervalMillis,
+        Duration releaseBucketDuration) {
+      this.primary = primary;
+      this.replica = replica;
+      this.retryIntervalMillis = retryIntervalMillis;
+      this.releaseBucketDuration = releaseBucketDuration;
+      setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+      setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+      if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+          && System.currentTimeMillis() >= replicaDownUntil) {
+        return REPLICA;
+      }
+      return PRIMARY;
+    }
+
+    boolean isReplicaReadable() {
+      return System.currentTimeMillis() >= replicaDownUntil && replayedBucket == currentBucket();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      DataSource target = determineTargetDataSource();
+      if (target != replica) {
+        return target.getConnection();
+      }
+      Connection connection;
+      try {
+        connection = replica.getConnection();
+      } catch (SQLException e) {
+        markReplicaDown(e);
+        return primary.getConnection();
+      }
+      long bucket = currentBucket();
+      if (replayedBucket == bucket) {
+        return connection;
+      }
+      try {
+        if (hasReplayed(connection, bucket)) {
+          replayedBucket = bucket;
+          return connection;
+        }
+      } catch (SQLException e) {
+        connection.close();
+        markReplicaDown(e);
+        return primary.getConnection();
+      }
+      connection.close();
+      logger.debug(
+          "Read replica hasn't replayed the bucket starting at {} yet, reading from the primary",
+          UTCInstant.ofEpochMillis(bucket));
+      return primary.getConnection();
+    }
+
+    private long currentBucket() {
+      return UTCInstant.now().roundToBucketStart(releaseBucketDuration).getTimestamp();
+    }
+
+    private static boolean hasReplayed(Connection connection, long bucket) throws SQLException {
+      try (var statement = connection.createStatement();
+          var result = statement.executeQuery(REPLAY_TIMESTAMP_QUERY)) {
+        if (!result.next()) {
+          return false;
+        }
+        var replayed = result.getTimestamp(1);
+        return replayed != null && replayed.getTime() >= bucket;
+      }
+    }
+
+    private void markReplicaDown(SQLException e) {
+      replicaDownUntil = System.currentTimeMillis() + retryIntervalMillis;
+      logger.warn(
+          "Read replica unavailable, reading from the primary for the next {} ms: {}",
+          retryIntervalMillis,
+          e.getMessage());
+    }
+  }
+}
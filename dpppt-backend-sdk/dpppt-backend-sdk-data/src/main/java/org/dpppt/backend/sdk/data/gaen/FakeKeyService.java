@@ -8,41 +8,51 @@
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
+/**
+ * Generates random keys for every day of the retention period, which are added to the keys of the
+ * v1 download. The keys are only kept in memory: each day is an immutable array of keys, and
+ * updateFakeKeys replaces all days at once, so reads don't need any locking.
+ */
 public class FakeKeyService {
 
   private static final Long EFGS_DEFAULT_DAYS_SINCE_ONSET_OF_SYMPTOMS = 1L;
   private static final Boolean EFGS_DEFAULT_SHARING = Boolean.FALSE;
 
-  private final GAENDataService dataService;
   private final Integer minNumOfKeys;
   private final SecureRandom random;
   private final Integer keySize;
   private final Duration retentionPeriod;
+  private final Duration releaseBucketDuration;
+  private final Duration timeSkew;
   private final boolean isEnabled;
   private final String countryOrigin;
   private final Integer reportType;
 
+  private volatile FakeKeys fakeKeys = new FakeKeys(Collections.emptyNavigableMap(), null);
+
   private static final Logger logger = LoggerFactory.getLogger(FakeKeyService.class);
 
   public FakeKeyService(
-      GAENDataService dataService,
       Integer minNumOfKeys,
       Integer keySize,
       Duration retentionPeriod,
+      Duration releaseBucketDuration,
+      Duration timeSkew,
       boolean isEnabled,
       String countryOrigin,
       Integer reportType)
       throws NoSuchAlgorithmException {
-    this.dataService = dataService;
     this.minNumOfKeys = minNumOfKeys;
     this.random = new SecureRandom();
     this.keySize = keySize;
     this.retentionPeriod = retentionPeriod;
+    this.releaseBucketDuration = releaseBucketDuration;
+    this.timeSkew = timeSkew;
     this.isEnabled = isEnabled;
     this.countryOrigin = countryOrigin;
     this.reportType = reportType;
@@ -50,30 +60,29 @@ public FakeKeyService(
   }
 
   public void updateFakeKeys() {
-    deleteAllKeys();
     var currentKeyDate = UTCInstant.today();
     var tmpDate = currentKeyDate.minusDays(retentionPeriod.toDays()).atStartOfDay();
     logger.debug("Fill Fake keys. Start: " + currentKeyDate + " End: " + tmpDate);
+    // like uploaded keys, the fake keys are received at the end of the current release bucket
+    var receivedAt =
+        currentKeyDate.roundToNextBucket(releaseBucketDuration).minus(Duration.ofMillis(1));
+    NavigableMap<Long, GaenKey[]> keysByDay = new TreeMap<>();
     do {
-      var keys = new ArrayList<GaenKey>();
+      var keys = new GaenKey[minNumOfKeys];
       for (int i = 0; i < minNumOfKeys; i++) {
         byte[] keyData = new byte[keySize];
         random.nextBytes(keyData);
         var keyGAENTime = (int) tmpDate.get10MinutesSince1970();
-        var key = new GaenKey(Base64.getEncoder().encodeToString(keyData), keyGAENTime, 144, 0,
+        var key = new GaenKey(null, keyGAENTime, 144, 0,
                               countryOrigin, reportType, EFGS_DEFAULT_DAYS_SINCE_ONSET_OF_SYMPTOMS, EFGS_DEFAULT_SHARING,
                               Collections.singletonList(countryOrigin));
-        keys.add(key);
+        key.setKeyBytes(keyData);
+        keys[i] = key;
       }
-      // TODO: Check if currentKeyDate is indeed intended here
-      this.dataService.upsertExposees(keys, currentKeyDate);
+      keysByDay.put(tmpDate.get10MinutesSince1970(), keys);
       tmpDate = tmpDate.plusDays(1);
     } while (tmpDate.isBeforeDateOf(currentKeyDate));
-  }
-
-  private void deleteAllKeys() {
-    logger.debug("Delete all fake keys");
-    this.dataService.cleanDB(Duration.ofDays(0));
+    this.fakeKeys = new FakeKeys(Collections.unmodifiableNavigableMap(keysByDay), receivedAt);
   }
 
   public List<GaenKey> fillUpKeys(
@@ -86,11 +95,37 @@ public List<GaenKey> fillUpKeys(
     if (today.hasSameDateAs(keyLocalDate)) {
       return keys;
     }
-    var fakeKeys =
-        this.dataService.getSortedExposedForKeyDate(
-            keyDate, publishedafter, UTCInstant.today().plusDays(1), now);
-
-    keys.addAll(fakeKeys);
+    var currentFakeKeys = this.fakeKeys;
+    if (currentFakeKeys.receivedAt == null
+        || !currentFakeKeys.receivedAt.isBeforeEpochMillisOf(UTCInstant.today().plusDays(1))
+        || (publishedafter != null
+            && currentFakeKeys.receivedAt.isBeforeEpochMillisOf(publishedafter))) {
+      return keys;
+    }
+    // same as for real keys, a key is only released once it can't be used anymore
+    var maxAllowedStartNumber =
+        now.roundToBucketStart(releaseBucketDuration).minus(timeSkew).get10MinutesSince1970();
+    var days =
+        currentFakeKeys.keysByDay.subMap(
+            keyDate.get10MinutesSince1970(), true, keyDate.plusDays(1).get10MinutesSince1970(), false);
+    for (var day : days.values()) {
+      for (var key : day) {
+        if (key.getRollingStartNumber() + key.getRollingPeriod() < maxAllowedStartNumber) {
+          keys.add(key);
+        }
+      }
+    }
     return keys;
   }
+
+  /** A consistent snapshot of all fake keys, replaced as a whole on every update. */
+  private static class FakeKeys {
+    private final NavigableMap<Long, GaenKey[]> keysByDay;
+    private final UTCInstant receivedAt;
+
+    FakeKeys(NavigableMap<Long, GaenKey[]> keysByDay, UTCInstant receivedAt) {
+      this.keysByDay = keysByDay;
+      this.receivedAt = receivedAt;
+    }
+  }
 }
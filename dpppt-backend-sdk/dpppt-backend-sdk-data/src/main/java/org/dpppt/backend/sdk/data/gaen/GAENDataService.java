@@ -77,4 +77,80 @@ List<GaenKey> getSortedExposedForKeyDate(
    */
   List<GaenKey> getSortedExposedSince(UTCInstant keysSince, UTCInstant now, List<String> visitedCountries,
                                       List<String> originCountries);
+
+  /**
+   * Streaming variant of {@link #getSortedExposedSince(UTCInstant, UTCInstant, List, List)}. The
+   * keys are read with a database cursor and passed to the handler as they arrive, ordered by their
+   * key data instead of their arrival.
+   *
+   * @param keysSince
+   * @param now
+   * @param visitedCountries
+   * @param originCountries
+   * @param handler receives the keys
+   * @return the number of keys
+   */
+  int streamExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      GaenKeyHandler handler);
+
+  /**
+   * Checks if {@link #streamExposedSince(UTCInstant, UTCInstant, List, List, GaenKeyHandler)}
+   * would return any keys, without reading them.
+   *
+   * @param keysSince
+   * @param now
+   * @param visitedCountries
+   * @param originCountries
+   * @return true if at least one key was released since keysSince
+   */
+  boolean hasExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries);
+
+  /**
+   * Returns the number of keys {@link #streamExposedSince(UTCInstant, UTCInstant, List, List,
+   * GaenKeyHandler)} would return.
+   *
+   * @param keysSince
+   * @param now
+   * @param visitedCountries
+   * @param originCountries
+   * @return the number of keys released since keysSince
+   */
+  int countExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries);
+
+  /**
+   * One page of {@link #streamExposedSince(UTCInstant, UTCInstant, List, List, GaenKeyHandler)},
+   * selected by keyset pagination on pk_exposed_id: the page contains the first pageSize keys with a
+   * pk_exposed_id larger than afterId. The keys of the page are passed to the handler ordered by
+   * their key data instead of their arrival.
+   *
+   * @param keysSince
+   * @param now
+   * @param visitedCountries
+   * @param originCountries
+   * @param afterId the largest pk_exposed_id of the previous page, or 0 for the first page
+   * @param pageSize the maximum number of keys of the page
+   * @param handler receives the keys
+   * @return the largest pk_exposed_id of this page, which is the afterId of the next page, or null
+   *     if the page is empty
+   */
+  Long streamExposedSincePage(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      long afterId,
+      int pageSize,
+      GaenKeyHandler handler);
 }
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.gaen;
+
+/**
+ * Receives the keys of a streaming query one row at a time. The columns are passed as they are read
+ * from the result set, so no {@link org.dpppt.backend.sdk.model.gaen.GaenKey} is created per row.
+ * The key bytes are not reused and may be kept by the handler.
+ */
+@FunctionalInterface
+public interface GaenKeyHandler {
+
+  void handleKey(
+      byte[] keyData, int rollingStartNumber, int rollingPeriod, int transmissionRiskLevel);
+}
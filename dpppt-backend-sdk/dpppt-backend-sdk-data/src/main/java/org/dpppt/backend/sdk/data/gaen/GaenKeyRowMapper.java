@@ -10,7 +10,7 @@ public class GaenKeyRowMapper implements RowMapper<GaenKey> {
   @Override
   public GaenKey mapRow(ResultSet rs, int rowNum) throws SQLException {
     var gaenKey = new GaenKey();
-    gaenKey.setKeyData(rs.getString("key"));
+    gaenKey.setKeyBytes(rs.getBytes("key"));
     gaenKey.setRollingStartNumber(rs.getInt("rolling_start_number"));
     gaenKey.setRollingPeriod(rs.getInt("rolling_period"));
     gaenKey.setTransmissionRiskLevel(rs.getInt("transmission_risk_level"));
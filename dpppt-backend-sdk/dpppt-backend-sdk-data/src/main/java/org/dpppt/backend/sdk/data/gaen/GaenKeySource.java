@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.gaen;
+
+/** A set of keys which can be passed to a {@link GaenKeyHandler}, e.g. a streaming query. */
+@FunctionalInterface
+public interface GaenKeySource {
+
+  /**
+   * Passes every key to the handler. Exceptions thrown by the handler abort the iteration and are
+   * passed on unchanged.
+   *
+   * @return the number of keys
+   */
+  int forEachKey(GaenKeyHandler handler);
+}
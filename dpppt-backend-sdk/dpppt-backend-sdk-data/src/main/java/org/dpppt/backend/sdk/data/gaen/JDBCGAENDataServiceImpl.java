@@ -18,6 +18,8 @@
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -26,9 +28,19 @@ public class JDBCGAENDataServiceImpl implements GAENDataService {
 
   private static final Logger logger = LoggerFactory.getLogger(JDBCGAENDataServiceImpl.class);
 
+  /** Number of rows fetched per round trip by the streaming queries. */
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
   protected static final String PGSQL = "pgsql";
+  // the columns of t_gaen_exposed selected by the released since query
+  protected static final String RELEASED_KEY_COLUMNS =
+      "keys.pk_exposed_id, keys.key, keys.rolling_start_number, keys.rolling_period,"
+          + " keys.transmission_risk_level";
   protected final String dbType;
   protected final NamedParameterJdbcTemplate jt;
+  // used for the streaming queries. Postgres only reads the result with a cursor instead of loading
+  // it at once if a fetch size is set and the query runs within a transaction
+  protected final NamedParameterJdbcTemplate cursorJt;
   protected final Duration releaseBucketDuration;
   // Time skew means the duration for how long a key still is valid __after__ it has expired (e.g 2h
   // for now
@@ -37,8 +49,21 @@ public class JDBCGAENDataServiceImpl implements GAENDataService {
 
   public JDBCGAENDataServiceImpl(
       String dbType, DataSource dataSource, Duration releaseBucketDuration, Duration timeSkew) {
+    this(dbType, dataSource, releaseBucketDuration, timeSkew, DEFAULT_FETCH_SIZE);
+  }
+
+  /** @param fetchSize the number of rows fetched per round trip by the streaming queries */
+  public JDBCGAENDataServiceImpl(
+      String dbType,
+      DataSource dataSource,
+      Duration releaseBucketDuration,
+      Duration timeSkew,
+      int fetchSize) {
     this.dbType = dbType;
     this.jt = new NamedParameterJdbcTemplate(dataSource);
+    var cursorTemplate = new JdbcTemplate(dataSource);
+    cursorTemplate.setFetchSize(fetchSize);
+    this.cursorJt = new NamedParameterJdbcTemplate(cursorTemplate);
     this.releaseBucketDuration = releaseBucketDuration;
     this.timeSkew = timeSkew;
   }
@@ -62,7 +87,7 @@ public void upsertExposeesDelayed(
               + " constraint gaen_exposed_key do nothing";
     } else {
       sql =
-          "merge into t_gaen_exposed using (values(cast(:key as varchar(24)),"
+          "merge into t_gaen_exposed using (values(cast(:key as varbinary(16)),"
               + " :rolling_start_number, :rolling_period, :transmission_risk_level, :received_at))"
               + " as vals(key, rolling_start_number, rolling_period, transmission_risk_level,"
               + " received_at) on t_gaen_exposed.key = vals.key when not matched then insert (key,"
@@ -78,7 +103,7 @@ public void upsertExposeesDelayed(
             : delayedReceivedAt;
     for (var gaenKey : gaenKeys) {
       MapSqlParameterSource params = new MapSqlParameterSource();
-      params.addValue("key", gaenKey.getKeyData());
+      params.addValue("key", gaenKey.getKeyBytes());
       params.addValue("rolling_start_number", gaenKey.getRollingStartNumber());
       params.addValue("rolling_period", gaenKey.getRollingPeriod());
       params.addValue("transmission_risk_level", gaenKey.getTransmissionRiskLevel());
@@ -94,6 +119,18 @@ public void upsertExposeesDelayed(
   public List<GaenKey> getSortedExposedForKeyDate(
       UTCInstant keyDate, UTCInstant publishedAfter, UTCInstant publishedUntil, UTCInstant now) {
     MapSqlParameterSource params = new MapSqlParameterSource();
+    String sql = keyDateQuery(params, keyDate, publishedAfter, publishedUntil, now);
+    sql += " order by pk_exposed_id desc";
+
+    return jt.query(sql, params, new GaenKeyRowMapper());
+  }
+
+  private String keyDateQuery(
+      MapSqlParameterSource params,
+      UTCInstant keyDate,
+      UTCInstant publishedAfter,
+      UTCInstant publishedUntil,
+      UTCInstant now) {
     params.addValue("rollingPeriodStartNumberStart", keyDate.get10MinutesSince1970());
     params.addValue("rollingPeriodStartNumberEnd", keyDate.plusDays(1).get10MinutesSince1970());
     params.addValue("publishedUntil", publishedUntil.getDate());
@@ -119,56 +156,97 @@ public List<GaenKey> getSortedExposedForKeyDate(
       params.addValue("publishedAfter", publishedAfter.getDate());
       sql += " and received_at >= :publishedAfter";
     }
+    return sql;
+  }
 
-    sql += " order by pk_exposed_id desc";
-
-    return jt.query(sql, params, new GaenKeyRowMapper());
+  /**
+   * Runs the query with a cursor and passes the rows to the handler. The query must select the
+   * columns key, rolling_start_number, rolling_period and transmission_risk_level.
+   *
+   * @return the number of rows
+   */
+  protected int streamKeys(String sql, MapSqlParameterSource params, GaenKeyHandler handler) {
+    int[] count = {0};
+    cursorJt.query(
+        sql,
+        params,
+        (RowCallbackHandler)
+            rs -> {
+              handler.handleKey(
+                  rs.getBytes("key"),
+                  rs.getInt("rolling_start_number"),
+                  rs.getInt("rolling_period"),
+                  rs.getInt("transmission_risk_level"));
+              count[0]++;
+            });
+    return count[0];
   }
 
   @Override
   @Transactional(readOnly = true)
   public List<GaenKey> getSortedExposedSince(UTCInstant keysSince, UTCInstant now) {
     MapSqlParameterSource params = new MapSqlParameterSource();
-    params.addValue("since", keysSince.getDate());
-    params.addValue("maxBucket", now.roundToBucketStart(releaseBucketDuration).getDate());
-    params.addValue("timeSkewSeconds", timeSkew.toSeconds());
-
-    // Select keys since the given date. We need to make sure, only keys are returned
-    // that are allowed to be published.
-    // For this, we calculate the expiry for each key in a sub query. The expiry is then used for
-    // the where clause:
-    // - if expiry <= received_at: the key was ready to publish when we received it. Release this
-    // key, if received_at in [since, maxBucket)
-    // - if expiry > received_at: we have to wait until expiry till we can release this key. This
-    // means we only release the key if expiry in [since, maxBucket)
-    // This problem arises, because we only want key with received_at after since, but we need to
-    // ensure that we relase ALL keys meaning keys which were still valid when they were received
-
-    // we need to add the time skew to calculate the expiry timestamp of a key:
-    // TO_TIMESTAMP((rolling_start_number + rolling_period) * 10 * 60 + :timeSkewSeconds
-
-    String sql =
-        "select keys.pk_exposed_id, keys.key, keys.rolling_start_number, keys.rolling_period,"
-            + " keys.transmission_risk_level from (select pk_exposed_id, key,"
-            + " rolling_start_number, rolling_period, transmission_risk_level, received_at,  "
-            + getSQLExpressionForExpiry()
-            + " as expiry from t_gaen_exposed) as keys where ( (keys.expiry <= keys.received_at"
-            + " AND keys.received_at >= :since AND keys.received_at < :maxBucket) OR (keys.expiry"
-            + " > keys.received_at AND keys.expiry >= :since AND keys.expiry < :maxBucket) )";
-
+    String sql = releasedSinceQuery(params, keysSince, now, "");
     sql += " order by keys.pk_exposed_id desc";
 
     return jt.query(sql, params, new GaenKeyRowMapper());
   }
 
-  private String getSQLExpressionForExpiry() {
-    if (this.dbType.equals(PGSQL)) {
-      return "TO_TIMESTAMP((rolling_start_number + rolling_period) * 10 * 60 +"
-          + " :timeSkewSeconds)";
-    } else {
-      return "TIMESTAMP_WITH_ZONE((rolling_start_number + rolling_period) * 10 * 60 +"
-          + " :timeSkewSeconds)";
-    }
+  /**
+   * Builds the query of all keys released in [keysSince, bucket of now). We need to make sure only
+   * keys are returned that are allowed to be published, which depends on their expiry (the end of
+   * their rolling period plus the time skew):
+   *
+   * <ul>
+   *   <li>if expiry <= received_at: the key was ready to publish when we received it. Release this
+   *       key, if received_at in [since, maxBucket)
+   *   <li>if expiry > received_at: we have to wait until expiry till we can release this key. This
+   *       means we only release the key if expiry in [since, maxBucket)
+   * </ul>
+   *
+   * <p>The two cases are disjoint and are selected separately and combined with union all, instead
+   * of one where clause with an or. Like this each of them is a range scan of one index (see
+   * migration V2_3), while the or of two ranges on different columns needs a full scan.
+   *
+   * @param params the parameters of the query are added to it
+   * @param filter additional conditions on the table alias keys, each starting with "and", or an
+   *     empty string
+   * @return the query of the columns pk_exposed_id, key, rolling_start_number, rolling_period and
+   *     transmission_risk_level of the alias keys, without an order
+   */
+  protected String releasedSinceQuery(
+      MapSqlParameterSource params, UTCInstant keysSince, UTCInstant now, String filter) {
+    return releasedSinceQuery(params, keysSince, now, filter, RELEASED_KEY_COLUMNS);
+  }
+
+  /**
+   * Same as {@link #releasedSinceQuery(MapSqlParameterSource, UTCInstant, UTCInstant, String)}
+   * with other columns.
+   *
+   * @param columns the columns of the alias keys to select, separated by commas
+   */
+  protected String releasedSinceQuery(
+      MapSqlParameterSource params,
+      UTCInstant keysSince,
+      UTCInstant now,
+      String filter,
+      String columns) {
+    params.addValue("since", keysSince.getDate());
+    params.addValue("maxBucket", now.roundToBucketStart(releaseBucketDuration).getDate());
+
+    return "select "
+        + columns
+        + " from (select "
+        + columns
+        + " from t_gaen_exposed as keys where keys.received_at >= :since"
+        + " and keys.received_at < :maxBucket and keys.expiry <= keys.received_at "
+        + filter
+        + " union all select "
+        + columns
+        + " from t_gaen_exposed as keys where keys.expiry >= :since"
+        + " and keys.expiry < :maxBucket and keys.expiry > keys.received_at "
+        + filter
+        + ") as keys";
   }
 
   @Override
@@ -181,10 +259,171 @@ public void cleanDB(Duration retentionPeriod) {
     String sqlExposed = "delete from t_gaen_exposed where received_at < :retention_time";
     jt.update(sqlExposed, params);
   }
-  
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<GaenKey> getSortedExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    String sql =
+        exposedSinceQuery(params, keysSince, now, visitedCountries, originCountries, "")
+            + " order by keys.pk_exposed_id desc";
+
+    return jt.query(sql, params, new GaenKeyRowMapper());
+  }
+
   @Override
-  public List<GaenKey> getSortedExposedSince(UTCInstant keysSince, UTCInstant now, List<String> visitedCountries,
-	List<String> originCountries) {
-	throw new UnsupportedOperationException("Not supported yet.");
+  @Transactional(readOnly = true)
+  public int streamExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      GaenKeyHandler handler) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    // the keys are random, so their order doesn't reveal when they were received
+    String sql =
+        exposedSinceQuery(params, keysSince, now, visitedCountries, originCountries, "")
+            + " order by keys.key";
+
+    return streamKeys(sql, params, handler);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public boolean hasExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    String sql =
+        exposedSinceQuery(params, keysSince, now, visitedCountries, originCountries, "")
+            + " limit 1";
+
+    return !jt.queryForList(sql, params).isEmpty();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public int countExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    String sql =
+        "select count(*) from ("
+            + exposedSinceQuery(params, keysSince, now, visitedCountries, originCountries, "")
+            + ") as released";
+
+    Integer count = jt.queryForObject(sql, params, Integer.class);
+    return count == null ? 0 : count;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public Long streamExposedSincePage(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      long afterId,
+      int pageSize,
+      GaenKeyHandler handler) {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    params.addValue("afterId", afterId);
+    params.addValue("pageSize", pageSize);
+    // the page is selected by pk_exposed_id, but its keys are passed on ordered by the keys, which
+    // are random and don't reveal when they were received. a page is bounded, so it is not read
+    // with a cursor
+    String sql =
+        "select * from ("
+            + exposedSinceQuery(
+                params,
+                keysSince,
+                now,
+                visitedCountries,
+                originCountries,
+                "and keys.pk_exposed_id > :afterId ")
+            + " order by keys.pk_exposed_id limit :pageSize) as page order by page.key";
+
+    long[] lastId = {0};
+    jt.query(
+        sql,
+        params,
+        (RowCallbackHandler)
+            rs -> {
+              lastId[0] = Math.max(lastId[0], rs.getLong("pk_exposed_id"));
+              handler.handleKey(
+                  rs.getBytes("key"),
+                  rs.getInt("rolling_start_number"),
+                  rs.getInt("rolling_period"),
+                  rs.getInt("transmission_risk_level"));
+            });
+    return lastId[0] > 0 ? lastId[0] : null;
+  }
+
+  /**
+   * Builds the query of the keys released in [keysSince, bucket of now) which match the country
+   * filters. Subclasses may read the keys from elsewhere, e.g. from snapshots of the buckets.
+   *
+   * @param additionalFilter further conditions on the alias keys, starting with "and", or an empty
+   *     string
+   * @return the query of the same columns as {@link #releasedSinceQuery(MapSqlParameterSource,
+   *     UTCInstant, UTCInstant, String)}, without an order
+   */
+  protected String exposedSinceQuery(
+      MapSqlParameterSource params,
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      String additionalFilter) {
+    String filter = exposedSinceFilter(params, visitedCountries, originCountries, additionalFilter);
+    return releasedSinceQuery(params, keysSince, now, filter);
+  }
+
+  /** @return the conditions of the country filters on the alias keys, each starting with "and" */
+  protected String exposedSinceFilter(
+      MapSqlParameterSource params,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      String additionalFilter) {
+    StringBuilder filter = new StringBuilder(additionalFilter);
+    if (originCountries != null && !originCountries.isEmpty()) {
+      filter.append("and keys.country_origin in (:originc) ");
+      params.addValue("originc", originCountries);
+    }
+
+    if (visitedCountries != null && !visitedCountries.isEmpty()) {
+      filter.append(visitedCountriesFilter(params, visitedCountries));
+    }
+    return filter.toString();
+  }
+
+  /**
+   * Matches the keys which visited any of the given countries. On Postgres this is an overlap of
+   * arrays, which can use the GIN index on visited_countries.
+   */
+  private String visitedCountriesFilter(
+      MapSqlParameterSource params, List<String> visitedCountries) {
+    if (dbType.equals(PGSQL)) {
+      params.addValue("visitedc", visitedCountries);
+      return "and keys.visited_countries && cast(array[:visitedc] as text[]) ";
+    }
+    StringBuilder filter = new StringBuilder("and (");
+    for (int i = 0; i < visitedCountries.size(); i++) {
+      params.addValue("visitedc" + i, visitedCountries.get(i));
+      filter
+          .append(i == 0 ? "" : " or ")
+          .append("position_array(cast(:visitedc")
+          .append(i)
+          .append(" as varchar(2)) in keys.visited_countries) > 0");
+    }
+    return filter.append(") ").toString();
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020 Gobierno de España
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.radarcovid.gaen;
+
+import java.sql.Date;
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Maintains the daily partitions of t_gaen_exposed on Postgres (see migrations V2_1 and V2_4).
+ * Partitions are created ahead of time, and partitions which only contain expired keys are
+ * detached and dropped, which replaces deleting most of the expired rows.
+ */
+public class GaenPartitionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(GaenPartitionManager.class);
+
+	private final NamedParameterJdbcTemplate jt;
+
+	public GaenPartitionManager(DataSource dataSource) {
+		this.jt = new NamedParameterJdbcTemplate(dataSource);
+	}
+
+	/**
+	 * Creates the missing partitions from today up to daysAhead days in the future.
+	 *
+	 * @return the number of created partitions
+	 */
+	public int createPartitions(UTCInstant now, int daysAhead) {
+		int created = 0;
+		for (int day = 0; day <= daysAhead; day++) {
+			var params = new MapSqlParameterSource("day", Date.valueOf(now.plusDays(day).getLocalDate()));
+			Boolean partitionCreated = jt.queryForObject("select create_gaen_exposed_partition(:day)", params,
+					Boolean.class);
+			if (Boolean.TRUE.equals(partitionCreated)) {
+				created++;
+			}
+		}
+		if (created > 0) {
+			logger.info("Created {} t_gaen_exposed partitions", created);
+		}
+		return created;
+	}
+
+	/**
+	 * Drops the partitions of all days which ended before the retention period. The oldest remaining
+	 * partition still contains the keys received on the day the retention period starts, the expired
+	 * ones of them are deleted, so no key is kept longer than the retention period.
+	 *
+	 * @return the number of dropped partitions
+	 */
+	public int dropExpiredPartitions(Duration retentionPeriod) {
+		var retentionTime = UTCInstant.now().minus(retentionPeriod);
+		var params = new MapSqlParameterSource("retention_time", retentionTime.getDate());
+		Integer dropped = jt.queryForObject("select drop_gaen_exposed_partitions(:retention_time)", params,
+				Integer.class);
+		logger.info("Dropped {} t_gaen_exposed partitions before: {}", dropped, retentionTime);
+		// only scans the oldest partition, the older ones were dropped
+		int deleted = jt.update("delete from t_gaen_exposed where received_at < :retention_time", params);
+		logger.info("Deleted {} expired keys of the oldest t_gaen_exposed partition", deleted);
+		return dropped == null ? 0 : dropped;
+	}
+}
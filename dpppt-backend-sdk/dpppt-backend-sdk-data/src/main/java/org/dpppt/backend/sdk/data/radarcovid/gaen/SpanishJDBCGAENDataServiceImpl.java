@@ -10,141 +10,421 @@
 
 package org.dpppt.backend.sdk.data.radarcovid.gaen;
 
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import javax.sql.DataSource;
 
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
-import org.dpppt.backend.sdk.data.gaen.GaenKeyRowMapper;
 import org.dpppt.backend.sdk.data.gaen.JDBCGAENDataServiceImpl;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 public class SpanishJDBCGAENDataServiceImpl extends JDBCGAENDataServiceImpl implements GAENDataService {
-	
+
+	private static final Logger logger = LoggerFactory.getLogger(SpanishJDBCGAENDataServiceImpl.class);
+
+	// keeps the number of bind parameters per statement well below the driver limits
+	private static final int MAX_KEYS_PER_STATEMENT = 500;
+
+	// columns of t_gaen_exposed set on upload, with the types needed to cast the parameters of
+	// multi-row values. the types of the key and of the visited countries depend on the database,
+	// see columnType()
+	private static final String[][] KEY_COLUMN_TYPES = {
+			{ "key", null },
+			{ "rolling_start_number", "bigint" },
+			{ "rolling_period", "bigint" },
+			{ "transmission_risk_level", "int" },
+			{ "received_at", "timestamp with time zone" },
+			{ "country_origin", "char(2)" },
+			{ "report_type", "smallint" },
+			{ "days_since_onset", "smallint" },
+			{ "efgs_sharing", "boolean" },
+			{ "expiry", "timestamp with time zone" },
+			{ "visited_countries", null } };
+
+	private static final String KEY_COLUMNS = "key, rolling_start_number, rolling_period, transmission_risk_level,"
+			+ " received_at, country_origin, report_type, days_since_onset, efgs_sharing, expiry, visited_countries";
+
+	// keys are still inserted into a bucket for a short time after it closed, e.g. by uploads which
+	// started before. Later inserts are moved to the next bucket, see receivedAfterSnapshots(), so
+	// a bucket is only materialized once this time passed to keep their keys in their bucket
+	private static final Duration SNAPSHOT_DELAY = Duration.ofMinutes(5);
+
+	// the columns of t_gaen_bucket_key written from the released keys
+	private static final String SNAPSHOT_COLUMNS = "pk_exposed_id, key, rolling_start_number, rolling_period,"
+			+ " transmission_risk_level, country_origin, visited_countries";
+
+	private final GaenPartitionManager partitionManager;
+	private final boolean bucketSnapshots;
+	// every bucket snapshot is written in its own transaction
+	private final TransactionTemplate snapshotTransaction;
 
 	public SpanishJDBCGAENDataServiceImpl(String dbType, DataSource dataSource, Duration releaseBucketDuration,
 			Duration timeSkew) {
-		super(dbType, dataSource, releaseBucketDuration, timeSkew);
+		this(dbType, dataSource, releaseBucketDuration, timeSkew, null);
+	}
+
+	/**
+	 * @param partitionManager if set, expired keys are removed by dropping their partitions instead
+	 *                         of deleting them
+	 */
+	public SpanishJDBCGAENDataServiceImpl(String dbType, DataSource dataSource, Duration releaseBucketDuration,
+			Duration timeSkew, GaenPartitionManager partitionManager) {
+		this(dbType, dataSource, releaseBucketDuration, timeSkew, partitionManager, DEFAULT_FETCH_SIZE);
+	}
+
+	/**
+	 * @param partitionManager if set, expired keys are removed by dropping their partitions instead
+	 *                         of deleting them
+	 * @param fetchSize        the number of rows fetched per round trip by the streaming queries
+	 */
+	public SpanishJDBCGAENDataServiceImpl(String dbType, DataSource dataSource, Duration releaseBucketDuration,
+			Duration timeSkew, GaenPartitionManager partitionManager, int fetchSize) {
+		this(dbType, dataSource, releaseBucketDuration, timeSkew, partitionManager, fetchSize, false);
+	}
+
+	/**
+	 * @param partitionManager if set, expired keys are removed by dropping their partitions instead
+	 *                         of deleting them
+	 * @param fetchSize        the number of rows fetched per round trip by the streaming queries
+	 * @param bucketSnapshots  if set, the keys released since a bucket are read from the snapshots of
+	 *                         closed buckets, see {@link #materializeBucketSnapshots(UTCInstant, Duration)}
+	 */
+	public SpanishJDBCGAENDataServiceImpl(String dbType, DataSource dataSource, Duration releaseBucketDuration,
+			Duration timeSkew, GaenPartitionManager partitionManager, int fetchSize, boolean bucketSnapshots) {
+		super(dbType, dataSource, releaseBucketDuration, timeSkew, fetchSize);
+		this.partitionManager = partitionManager;
+		this.bucketSnapshots = bucketSnapshots;
+		this.snapshotTransaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
 	}
 
 	@Override
+	@Transactional(readOnly = false)
 	public void upsertExposeesDelayed(List<GaenKey> gaenKeys, UTCInstant delayedReceivedAt, UTCInstant now) {
 		// Calculate the `receivedAt` just at the end of the current releaseBucket.
 		var receivedAt = delayedReceivedAt == null
 				? now.roundToNextBucket(releaseBucketDuration).minus(Duration.ofMillis(1))
 				: delayedReceivedAt;
+		if (bucketSnapshots) {
+			receivedAt = receivedAfterSnapshots(receivedAt, now);
+		}
+
+		// a key can only be inserted once, so later duplicates within the same upload are ignored
+		Map<ByteBuffer, GaenKey> uniqueKeys = new LinkedHashMap<>();
 		for (var gaenKey : gaenKeys) {
-			internalUpsertKey(gaenKey, receivedAt);
+			uniqueKeys.putIfAbsent(ByteBuffer.wrap(gaenKey.getKeyBytes()), gaenKey);
+		}
+		List<GaenKey> keys = new ArrayList<>(uniqueKeys.values());
+		if (dbType.equals(PGSQL)) {
+			lockKeysPgsql(keys);
+		}
+
+		// the visited countries are stored with their key, so every chunk is a single statement
+		for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_STATEMENT) {
+			var chunk = keys.subList(from, Math.min(keys.size(), from + MAX_KEYS_PER_STATEMENT));
+			if (dbType.equals(PGSQL)) {
+				insertKeysPgsql(chunk, receivedAt);
+			} else {
+				mergeKeysHsql(chunk, receivedAt);
+			}
 		}
 	}
 
 	@Override
-	@Transactional(readOnly = true)
-	public List<GaenKey> getSortedExposedSince(UTCInstant keysSince, UTCInstant now, List<String> visitedCountries,
-			List<String> originCountries) {
-		MapSqlParameterSource params = new MapSqlParameterSource();
-		params.addValue("since", keysSince.getDate());
-		params.addValue("maxBucket", now.roundToBucketStart(releaseBucketDuration).getDate());
+	public void cleanDB(Duration retentionPeriod) {
+		if (partitionManager != null) {
+			partitionManager.dropExpiredPartitions(retentionPeriod);
+		} else {
+			super.cleanDB(retentionPeriod);
+		}
+		if (bucketSnapshots) {
+			var params = new MapSqlParameterSource("retention_time",
+					UTCInstant.now().minus(retentionPeriod).getDate());
+			// the buckets are removed first, so they are no longer read while their keys are deleted
+			jt.update("delete from t_gaen_bucket where bucket < :retention_time", params);
+			jt.update("delete from t_gaen_bucket_key where bucket < :retention_time", params);
+		}
+	}
 
-		StringBuilder sql = new StringBuilder().append(
-				"select distinct keys.pk_exposed_id, keys.key, keys.rolling_start_number, keys.rolling_period, ")
-				.append("keys.transmission_risk_level from t_gaen_exposed as keys ");
+	/**
+	 * Keys can't be added to a bucket once it is materialized, so keys which would be received in a
+	 * materialized bucket, e.g. by an upload which was written late, are received at the end of the
+	 * current bucket instead. On Postgres the insert lock on t_gaen_exposed is taken before the check,
+	 * so a bucket can't be materialized between the check and the commit of the keys, see
+	 * {@link #materializeBucket(UTCInstant)}.
+	 */
+	private UTCInstant receivedAfterSnapshots(UTCInstant receivedAt, UTCInstant now) {
+		if (dbType.equals(PGSQL)) {
+			jt.getJdbcOperations().execute("lock table t_gaen_exposed in row exclusive mode");
+		}
+		var lastBucket = jt.queryForObject("select max(bucket) from t_gaen_bucket", new MapSqlParameterSource(),
+				Timestamp.class);
+		if (lastBucket == null) {
+			return receivedAt;
+		}
+		var open = UTCInstant.ofEpochMillis(lastBucket.getTime()).plus(releaseBucketDuration);
+		if (!receivedAt.isBeforeEpochMillisOf(open)) {
+			return receivedAt;
+		}
+		var current = now.roundToNextBucket(releaseBucketDuration);
+		return (current.isAfterEpochMillisOf(open) ? current : open.plus(releaseBucketDuration))
+				.minus(Duration.ofMillis(1));
+	}
 
-		if (visitedCountries != null && !visitedCountries.isEmpty()) {
-			sql.append("inner join t_visited as visited on pk_exposed_id = pfk_exposed_id ");
+	/**
+	 * Materializes the keys released in every closed bucket of the retention period which has no
+	 * snapshot yet. Once a bucket is closed, the keys released in it don't change anymore, so they are
+	 * copied to t_gaen_bucket_key and the downloads read them with a range scan of the bucket instead of
+	 * evaluating the release conditions on t_gaen_exposed. The buckets are materialized in order, so the
+	 * snapshots always cover a contiguous range of buckets.
+	 *
+	 * <p>Every bucket is written in its own transaction, so a failed bucket leaves no partial snapshot
+	 * and is simply materialized again by the next run. Must not run concurrently.
+	 *
+	 * @return the number of materialized buckets
+	 */
+	public int materializeBucketSnapshots(UTCInstant now, Duration retentionPeriod) {
+		var firstBucket = now.minus(retentionPeriod).roundToNextBucket(releaseBucketDuration);
+		var closedUntil = now.minus(SNAPSHOT_DELAY).roundToBucketStart(releaseBucketDuration);
+		var existing = new TreeSet<Long>();
+		for (var bucket : jt.queryForList("select bucket from t_gaen_bucket where bucket >= :first",
+				new MapSqlParameterSource("first", firstBucket.getDate()), Timestamp.class)) {
+			existing.add(bucket.getTime());
 		}
 
-		sql.append("where ((keys.expiry <= keys.received_at and keys.received_at >= :since and keys.received_at < ")
-				.append(":maxBucket) or (keys.expiry > keys.received_at and keys.expiry >= :since and keys.expiry < :maxBucket)) ");
+		int materialized = 0;
+		for (var bucket = firstBucket; bucket.isBeforeEpochMillisOf(closedUntil); bucket = bucket
+				.plus(releaseBucketDuration)) {
+			if (!existing.contains(bucket.getTimestamp())) {
+				int keys = materializeBucket(bucket);
+				logger.debug("Materialized bucket {} with {} keys", bucket, keys);
+				materialized++;
+			}
+		}
+		if (materialized > 0) {
+			logger.info("Materialized {} release buckets", materialized);
+		}
+		return materialized;
+	}
+
+	/**
+	 * @return the number of keys released in the bucket
+	 */
+	private int materializeBucket(UTCInstant bucket) {
+		return snapshotTransaction.execute(status -> {
+			if (dbType.equals(PGSQL)) {
+				// waits for the uploads which are still being written and blocks new ones until the
+				// bucket is materialized. Uploads after it see the bucket and move their keys to the
+				// next one, see receivedAfterSnapshots()
+				jt.getJdbcOperations().execute("lock table t_gaen_exposed in share mode");
+			}
+			return copyBucket(bucket);
+		});
+	}
+
+	private int copyBucket(UTCInstant bucket) {
+		var params = new MapSqlParameterSource("bucket", bucket.getDate());
+		jt.update("delete from t_gaen_bucket_key where bucket = :bucket", params);
+
+		String released = releasedSinceQuery(params, bucket, bucket.plus(releaseBucketDuration), "",
+				RELEASED_KEY_COLUMNS + ", keys.country_origin, keys.visited_countries");
+		int keys = jt.update("insert into t_gaen_bucket_key (bucket, " + SNAPSHOT_COLUMNS + ")"
+				+ " select cast(:bucket as timestamp with time zone), released.* from (" + released + ") as released",
+				params);
+
+		params.addValue("key_count", keys);
+		jt.update("insert into t_gaen_bucket (bucket, key_count) values (:bucket, :key_count)", params);
+		return keys;
+	}
 
-		if (originCountries != null && !originCountries.isEmpty()) {
-			sql.append("and keys.country_origin in (:originc) ");
-			params.addValue("originc", originCountries);
+	/**
+	 * Reads the materialized buckets from their snapshots, if there are any.
+	 */
+	@Override
+	protected String exposedSinceQuery(MapSqlParameterSource params, UTCInstant keysSince, UTCInstant now,
+			List<String> visitedCountries, List<String> originCountries, String additionalFilter) {
+		String filter = exposedSinceFilter(params, visitedCountries, originCountries, additionalFilter);
+		var snapshotUntil = bucketSnapshots ? snapshotUntil(keysSince, now) : keysSince;
+		if (!snapshotUntil.isAfterEpochMillisOf(keysSince)) {
+			return releasedSinceQuery(params, keysSince, now, filter);
 		}
 
-		if (visitedCountries != null && !visitedCountries.isEmpty()) {
-			sql.append("and visited.country in (:visitedc) ");
-			params.addValue("visitedc", visitedCountries);
+		// the materialized buckets are read from their snapshots, only the remaining ones are derived
+		// from t_gaen_exposed
+		params.addValue("snapshotSince", keysSince.getDate());
+		params.addValue("snapshotUntil", snapshotUntil.getDate());
+		String snapshot = "select " + RELEASED_KEY_COLUMNS + " from t_gaen_bucket_key as keys"
+				+ " where keys.bucket >= :snapshotSince and keys.bucket < :snapshotUntil " + filter;
+		if (!snapshotUntil.isBeforeEpochMillisOf(now.roundToBucketStart(releaseBucketDuration))) {
+			return "select " + RELEASED_KEY_COLUMNS + " from (" + snapshot + ") as keys";
 		}
+		return "select " + RELEASED_KEY_COLUMNS + " from (" + snapshot + " union all "
+				+ releasedSinceQuery(params, snapshotUntil, now, filter) + ") as keys";
+	}
 
-		sql.append("order by keys.pk_exposed_id desc");
+	/**
+	 * The snapshots are only used if they cover the buckets right from keysSince, which is the case
+	 * for all requests of the retention period once the snapshots were backfilled.
+	 *
+	 * @return the end of the contiguous range of materialized buckets starting at keysSince, or
+	 *         keysSince if its bucket is not materialized
+	 */
+	private UTCInstant snapshotUntil(UTCInstant keysSince, UTCInstant now) {
+		var params = new MapSqlParameterSource("since", keysSince.getDate());
+		params.addValue("maxBucket", now.roundToBucketStart(releaseBucketDuration).getDate());
+		return jt.queryForObject("select count(*), min(bucket), max(bucket) from t_gaen_bucket"
+				+ " where bucket >= :since and bucket < :maxBucket", params, (rs, rowNum) -> {
+					long buckets = rs.getLong(1);
+					Timestamp first = rs.getTimestamp(2);
+					Timestamp last = rs.getTimestamp(3);
+					if (buckets == 0 || first.getTime() != keysSince.getTimestamp()
+							|| last.getTime() - first.getTime() != (buckets - 1) * releaseBucketDuration.toMillis()) {
+						return keysSince;
+					}
+					return UTCInstant.ofEpochMillis(last.getTime()).plus(releaseBucketDuration);
+				});
+	}
 
-		return jt.query(sql.toString(), params, new GaenKeyRowMapper());
+	/**
+	 * Takes a transaction-level advisory lock for every key, in a fixed order so concurrent uploads
+	 * can't deadlock. t_gaen_exposed is partitioned, so no index can enforce the uniqueness of a key
+	 * across partitions: without the lock, two concurrent transactions could both find a key missing
+	 * and insert it twice. With it, the second insert only starts after the first one committed, and
+	 * its statement sees the key. The lock id is the first 8 bytes of the random key; a collision only
+	 * serializes two uploads. The locks are held until the end of the transaction, so the keys must be
+	 * inserted in the same transaction.
+	 */
+	private void lockKeysPgsql(List<GaenKey> gaenKeys) {
+		var lockIds = new TreeSet<Long>();
+		for (var gaenKey : gaenKeys) {
+			lockIds.add(ByteBuffer.wrap(gaenKey.getKeyBytes()).getLong());
+		}
+		var params = new MapSqlParameterSource("lockIds", new AbstractSqlTypeValue() {
+			@Override
+			protected Object createTypeValue(Connection connection, int sqlType, String typeName)
+					throws SQLException {
+				return connection.createArrayOf("bigint", lockIds.toArray());
+			}
+		});
+		// the locks are taken after the sort
+		jt.query("select pg_advisory_xact_lock(id) from unnest(cast(:lockIds as bigint[])) as id order by id",
+				params, (RowCallbackHandler) rs -> {
+				});
 	}
 
-	private void internalUpsertKey(GaenKey gaenKey, UTCInstant receivedAt) {
+	/**
+	 * Inserts all keys with one multi-row statement. t_gaen_exposed is partitioned by received_at, so
+	 * the unique constraint only covers keys received at the same time and keys which were received
+	 * earlier are skipped explicitly. Concurrent inserts of the same key are serialized by
+	 * {@link #lockKeysPgsql(List)}.
+	 */
+	private void insertKeysPgsql(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		StringBuilder sql = new StringBuilder().append("insert into t_gaen_exposed (").append(KEY_COLUMNS)
+				.append(") select * from (values ");
+		for (int i = 0; i < gaenKeys.size(); i++) {
+			sql.append(i == 0 ? "" : ", ").append(valuesRow(params, i, gaenKeys.get(i), receivedAt));
+		}
+		sql.append(") as vals(").append(KEY_COLUMNS).append(")")
+				.append(" where not exists (select 1 from t_gaen_exposed where t_gaen_exposed.key = vals.key)")
+				.append(" on conflict on constraint gaen_exposed_key do nothing");
+		jt.update(sql.toString(), params);
+	}
 
+	/**
+	 * Merges all keys with one multi-row statement, keys which already exist are skipped.
+	 */
+	private void mergeKeysHsql(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < gaenKeys.size(); i++) {
+			rows.append(i == 0 ? "" : ", ").append(valuesRow(params, i, gaenKeys.get(i), receivedAt));
+		}
+
+		String sqlKeys = "merge into t_gaen_exposed using (values " + rows + ")"
+				+ " as vals(" + KEY_COLUMNS + ")"
+				+ " on t_gaen_exposed.key = vals.key when not matched then insert (" + KEY_COLUMNS + ")"
+				+ " values (vals.key, vals.rolling_start_number, vals.rolling_period,"
+				+ " vals.transmission_risk_level, vals.received_at, vals.country_origin, vals.report_type,"
+				+ " vals.days_since_onset, vals.efgs_sharing, vals.expiry, vals.visited_countries)";
+		jt.update(sqlKeys, params);
+	}
+
+	/**
+	 * Adds the parameters of one key, suffixed with its index, and returns the matching row of a
+	 * values list.
+	 */
+	private String valuesRow(MapSqlParameterSource params, int index, GaenKey gaenKey, UTCInstant receivedAt) {
 		var expiry = UTCInstant.of(gaenKey.getRollingStartNumber() + gaenKey.getRollingPeriod(), GaenUnit.TenMinutes)
 				.plus(timeSkew);
 
-		String sqlKey = null;
-		String sqlVisited = null;
-		if (dbType.equals(PGSQL)) {
-			sqlKey = "insert into t_gaen_exposed (key, rolling_start_number, rolling_period,"
-					+ " transmission_risk_level, received_at,"
-					+ " country_origin, report_type, days_since_onset, efgs_sharing, expiry)"
-					+ " values (:key, :rolling_start_number,"
-					+ " :rolling_period, :transmission_risk_level, :received_at,"
-					+ " :country_origin, :report_type, :days_since_onset, :efgs_sharing, :expiry)"
-					+ " on conflict on constraint gaen_exposed_key do nothing";
-			sqlVisited = "insert into t_visited (pfk_exposed_id, country) values (:keyId, :country) on conflict on"
-					+ " constraint pk_t_visited do nothing";
-		} else {
-			sqlKey = "merge into t_gaen_exposed using (values(cast(:key as varchar(24)),"
-					+ " :rolling_start_number, :rolling_period, :transmission_risk_level, :received_at,"
-					+ " :country_origin, :report_type, :days_since_onset, :efgs_sharing, :expiry))"
-					+ " as vals(key, rolling_start_number, rolling_period, transmission_risk_level,"
-					+ " received_at, country_origin, report_type, days_since_onset, efgs_sharing, expiry)"
-					+ " on t_gaen_exposed.key = vals.key when not matched then insert (key,"
-					+ " rolling_start_number, rolling_period, transmission_risk_level, received_at,"
-					+ " country_origin, report_type, days_since_onset, efgs_sharing, expiry)"
-					+ " values (vals.key, vals.rolling_start_number, vals.rolling_period,"
-					+ " transmission_risk_level, vals.received_at,"
-					+ " vals.country_origin, vals.report_type, vals.days_since_onset, vals.efgs_sharing, vals.expiry)";
-			sqlVisited = "merge into t_visited using (values(:keyId, :country)) as vals(keyId, country) on"
-					+ " t_visited.pfk_exposed_id = vals.keyId and t_visited.country = vals.country when"
-					+ " not matched then insert (pfk_exposed_id, country) values (vals.keyId, vals.country)";
-		}
-
-		List<MapSqlParameterSource> visitedBatch = new ArrayList<>();
-		MapSqlParameterSource params = new MapSqlParameterSource();
-		params.addValue("key", gaenKey.getKeyData());
-		params.addValue("rolling_start_number", gaenKey.getRollingStartNumber());
-		params.addValue("rolling_period", gaenKey.getRollingPeriod());
-		params.addValue("transmission_risk_level", gaenKey.getTransmissionRiskLevel());
-		params.addValue("received_at", receivedAt.getDate());
-		params.addValue("country_origin", gaenKey.getCountryOrigin());
-		params.addValue("report_type", gaenKey.getReportType());
-		params.addValue("days_since_onset", gaenKey.getDaysSinceOnsetOfSymptons());
-		params.addValue("efgs_sharing", gaenKey.getEfgsSharing());
-		params.addValue("expiry", expiry.getDate());
-		KeyHolder keyHolder = new GeneratedKeyHolder();
-		jt.update(sqlKey, params, keyHolder);
-
-		// if the key already exists, no ids are returned. in this case we assume that
-		// we do not need to modify the visited countries also
-		if (keyHolder.getKeys() != null && !keyHolder.getKeys().isEmpty()) {
-			Object keyObject = keyHolder.getKeys().get("pk_exposed_id");
-			if (keyObject != null) {
-				int gaenKeyId = ((Integer) keyObject).intValue();
-				for (String country : gaenKey.getVisitedCountries()) {
-					MapSqlParameterSource visitedParams = new MapSqlParameterSource();
-					visitedParams.addValue("keyId", gaenKeyId);
-					visitedParams.addValue("country", country);
-					visitedBatch.add(visitedParams);
-				}
-			}
+		params.addValue("key" + index, gaenKey.getKeyBytes());
+		params.addValue("rolling_start_number" + index, gaenKey.getRollingStartNumber());
+		params.addValue("rolling_period" + index, gaenKey.getRollingPeriod());
+		params.addValue("transmission_risk_level" + index, gaenKey.getTransmissionRiskLevel());
+		params.addValue("received_at" + index, receivedAt.getDate());
+		params.addValue("country_origin" + index, gaenKey.getCountryOrigin());
+		params.addValue("report_type" + index, gaenKey.getReportType());
+		params.addValue("days_since_onset" + index, gaenKey.getDaysSinceOnsetOfSymptons());
+		params.addValue("efgs_sharing" + index, gaenKey.getEfgsSharing());
+		params.addValue("expiry" + index, expiry.getDate());
+		params.addValue("visited_countries" + index, visitedCountries(gaenKey));
+
+		StringBuilder row = new StringBuilder("(");
+		for (int column = 0; column < KEY_COLUMN_TYPES.length; column++) {
+			String name = ":" + KEY_COLUMN_TYPES[column][0] + index;
+			row.append(column == 0 ? "" : ", ").append("cast(").append(name).append(" as ").append(columnType(column))
+					.append(")");
+		}
+		return row.append(")").toString();
+	}
+
+	/**
+	 * @return the distinct visited countries of the key as an sql array, or null if there are none
+	 */
+	private Object visitedCountries(GaenKey gaenKey) {
+		if (gaenKey.getVisitedCountries() == null || gaenKey.getVisitedCountries().isEmpty()) {
+			return null;
 		}
-		if (!visitedBatch.isEmpty()) {
-			jt.batchUpdate(sqlVisited, visitedBatch.toArray(new MapSqlParameterSource[visitedBatch.size()]));
+		String[] countries = new TreeSet<>(gaenKey.getVisitedCountries()).toArray(new String[0]);
+		return new AbstractSqlTypeValue() {
+			@Override
+			protected Object createTypeValue(Connection connection, int sqlType, String typeName)
+					throws SQLException {
+				return connection.createArrayOf(dbType.equals(PGSQL) ? "text" : "VARCHAR", countries);
+			}
+		};
+	}
+
+	/**
+	 * Keys are stored as their raw 16 bytes, the visited countries as an array of country codes.
+	 */
+	private String columnType(int column) {
+		switch (KEY_COLUMN_TYPES[column][0]) {
+		case "key":
+			return dbType.equals(PGSQL) ? "bytea" : "varbinary(16)";
+		case "visited_countries":
+			return dbType.equals(PGSQL) ? "text[]" : "varchar(2) array";
+		default:
+			return KEY_COLUMN_TYPES[column][1];
 		}
 	}
 }
@@ -0,0 +1,12 @@
+/*
+ * Stores the Temporary Exposure Keys as their raw 16 bytes instead of base64. HSQLDB only runs
+ * embedded and in memory, so there are no existing keys to convert.
+ */
+
+ALTER TABLE t_gaen_exposed DROP CONSTRAINT gaen_exposed_key;
+ALTER TABLE t_gaen_exposed ALTER COLUMN key SET DATA TYPE VARBINARY(16);
+ALTER TABLE t_gaen_exposed ADD CONSTRAINT gaen_exposed_key UNIQUE (key);
+
+ALTER TABLE t_debug_gaen_exposed DROP CONSTRAINT debug_gaen_exposed_key;
+ALTER TABLE t_debug_gaen_exposed ALTER COLUMN key SET DATA TYPE VARBINARY(16);
+ALTER TABLE t_debug_gaen_exposed ADD CONSTRAINT debug_gaen_exposed_key UNIQUE (key);
@@ -0,0 +1,9 @@
+/*
+ * Supports the query of the keys released since a bucket, which is split into two halves combined
+ * with UNION ALL (see JDBCGAENDataServiceImpl.releasedSinceQuery). HSQLDB has no partial indexes,
+ * so each half is a range scan of an index which also contains the column of its other condition.
+ */
+
+CREATE INDEX IN_GAEN_EXPOSED_RELEASED_RECEIVED_AT ON t_gaen_exposed (received_at, expiry);
+
+CREATE INDEX IN_GAEN_EXPOSED_RELEASED_EXPIRY ON t_gaen_exposed (expiry, received_at);
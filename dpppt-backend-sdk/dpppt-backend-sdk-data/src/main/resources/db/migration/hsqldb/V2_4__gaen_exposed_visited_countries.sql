@@ -0,0 +1,8 @@
+/*
+ * Stores the visited countries of a key as an array on t_gaen_exposed instead of one t_visited row
+ * per country. HSQLDB only runs embedded and in memory, so there are no existing rows to convert.
+ */
+
+ALTER TABLE t_gaen_exposed ADD COLUMN visited_countries VARCHAR(2) ARRAY;
+
+DROP TABLE t_visited;
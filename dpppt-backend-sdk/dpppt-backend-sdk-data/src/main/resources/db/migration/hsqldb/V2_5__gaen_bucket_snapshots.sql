@@ -0,0 +1,23 @@
+/*
+ * Snapshots of the keys released in closed buckets (see
+ * SpanishJDBCGAENDataServiceImpl.materializeBucketSnapshots), with the same columns as on Postgres.
+ */
+
+CREATE TABLE t_gaen_bucket_key (
+    bucket                  Timestamp with time zone NOT NULL,
+    pk_exposed_id           Int                      NOT NULL,
+    key                     VARBINARY(16)            NOT NULL,
+    rolling_start_number    BigInt                   NOT NULL,
+    rolling_period          BigInt                   NOT NULL,
+    transmission_risk_level Int                      NOT NULL,
+    country_origin          CHAR(2),
+    visited_countries       VARCHAR(2) ARRAY,
+    CONSTRAINT pk_gaen_bucket_key PRIMARY KEY (bucket, pk_exposed_id)
+);
+
+CREATE TABLE t_gaen_bucket (
+    bucket          Timestamp with time zone NOT NULL,
+    key_count       Int                      NOT NULL,
+    materialized_at Timestamp with time zone DEFAULT now() NOT NULL,
+    CONSTRAINT pk_gaen_bucket PRIMARY KEY (bucket)
+);
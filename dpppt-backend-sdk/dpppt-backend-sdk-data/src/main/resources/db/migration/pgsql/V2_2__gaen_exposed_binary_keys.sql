@@ -0,0 +1,10 @@
+/*
+ * Stores the Temporary Exposure Keys as their raw 16 bytes instead of base64, which shrinks the
+ * key column and its unique index by a third and saves decoding the keys on every download.
+ */
+
+ALTER TABLE T_GAEN_EXPOSED
+    ALTER COLUMN KEY TYPE BYTEA USING decode(KEY, 'base64');
+
+ALTER TABLE T_DEBUG_GAEN_EXPOSED
+    ALTER COLUMN KEY TYPE BYTEA USING decode(KEY, 'base64');
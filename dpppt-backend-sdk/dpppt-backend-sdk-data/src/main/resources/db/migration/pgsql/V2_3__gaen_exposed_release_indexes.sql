@@ -0,0 +1,15 @@
+/*
+ * Supports the query of the keys released since a bucket, which is split into two halves combined
+ * with UNION ALL (see JDBCGAENDataServiceImpl.releasedSinceQuery). Keys which could be released as
+ * soon as they were received are found by RECEIVED_AT, keys which had to wait for their expiry by
+ * EXPIRY. Each half is a range scan of one of these partial indexes. The plain index on EXPIRY
+ * was only used by this query and is replaced.
+ */
+
+CREATE INDEX IN_GAEN_EXPOSED_RELEASED_RECEIVED_AT
+    ON T_GAEN_EXPOSED (RECEIVED_AT) WHERE EXPIRY <= RECEIVED_AT;
+
+CREATE INDEX IN_GAEN_EXPOSED_RELEASED_EXPIRY
+    ON T_GAEN_EXPOSED (EXPIRY) WHERE EXPIRY > RECEIVED_AT;
+
+DROP INDEX IN_DPPPT_GAEN_EXPOSED_EXPIRY;
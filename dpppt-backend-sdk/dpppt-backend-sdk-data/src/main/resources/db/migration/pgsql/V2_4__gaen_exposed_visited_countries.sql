@@ -0,0 +1,87 @@
+/*
+ * Stores the visited countries of a key as an array on T_GAEN_EXPOSED instead of one T_VISITED row
+ * per country. Downloads filtered by visited countries no longer need a join and a DISTINCT, and
+ * uploads no longer need a second insert. The GIN index supports the "any of these countries"
+ * filter, which is an overlap (&&) of arrays.
+ *
+ * T_VISITED is dropped right away: since V2_1 and V2_2 changed T_VISITED and the key column, the
+ * release before the 2.x migrations can't write keys anymore, so it has to be stopped before they
+ * run in any case.
+ */
+
+ALTER TABLE T_GAEN_EXPOSED
+    ADD COLUMN VISITED_COUNTRIES TEXT[];
+
+UPDATE T_GAEN_EXPOSED e
+SET VISITED_COUNTRIES = v.COUNTRIES
+FROM (SELECT PFK_EXPOSED_ID,
+             RECEIVED_AT,
+             array_agg(DISTINCT COUNTRY::TEXT ORDER BY COUNTRY::TEXT) AS COUNTRIES
+      FROM T_VISITED
+      GROUP BY PFK_EXPOSED_ID, RECEIVED_AT) v
+WHERE e.PK_EXPOSED_ID = v.PFK_EXPOSED_ID
+  AND e.RECEIVED_AT = v.RECEIVED_AT;
+
+CREATE INDEX IN_GAEN_EXPOSED_VISITED_COUNTRIES
+    ON T_GAEN_EXPOSED USING GIN (VISITED_COUNTRIES);
+
+-- drops the partitions of T_VISITED as well
+DROP TABLE T_VISITED;
+
+/*
+ * Creates the partition of T_GAEN_EXPOSED for the given day, if it doesn't exist yet. Rows of that
+ * day which were written to the default partition before are moved.
+ */
+CREATE OR REPLACE FUNCTION create_gaen_exposed_partition(partition_day DATE) RETURNS BOOLEAN
+    LANGUAGE plpgsql
+AS
+$BODY$
+DECLARE
+    suffix      TEXT                     := to_char(partition_day, 'YYYYMMDD');
+    range_start TIMESTAMP WITH TIME ZONE := partition_day::TIMESTAMP AT TIME ZONE 'UTC';
+    range_end   TIMESTAMP WITH TIME ZONE := (partition_day + 1)::TIMESTAMP AT TIME ZONE 'UTC';
+BEGIN
+    IF to_regclass('t_gaen_exposed_' || suffix) IS NOT NULL THEN
+        RETURN FALSE;
+    END IF;
+
+    EXECUTE format('CREATE TABLE t_gaen_exposed_%s (LIKE t_gaen_exposed INCLUDING DEFAULTS)', suffix);
+    EXECUTE format('INSERT INTO t_gaen_exposed_%s SELECT * FROM t_gaen_exposed_default'
+                       || ' WHERE received_at >= %L AND received_at < %L', suffix, range_start, range_end);
+    DELETE FROM t_gaen_exposed_default WHERE received_at >= range_start AND received_at < range_end;
+    EXECUTE format('ALTER TABLE t_gaen_exposed ATTACH PARTITION t_gaen_exposed_%s FOR VALUES FROM (%L) TO (%L)',
+                   suffix, range_start, range_end);
+    RETURN TRUE;
+END
+$BODY$;
+
+/*
+ * Detaches and drops all day partitions which only contain rows received before retention_time
+ * and deletes the expired rows of the default partition. Returns the number of dropped days.
+ */
+CREATE OR REPLACE FUNCTION drop_gaen_exposed_partitions(retention_time TIMESTAMP WITH TIME ZONE) RETURNS INTEGER
+    LANGUAGE plpgsql
+AS
+$BODY$
+DECLARE
+    expired RECORD;
+    dropped INTEGER := 0;
+BEGIN
+    FOR expired IN
+        SELECT substring(c.relname FROM '[0-9]{8}$') AS suffix
+        FROM pg_inherits i
+                 JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 't_gaen_exposed'::REGCLASS
+          AND c.relname ~ '^t_gaen_exposed_[0-9]{8}$'
+          AND (to_date(substring(c.relname FROM '[0-9]{8}$'), 'YYYYMMDD') + 1)::TIMESTAMP AT TIME ZONE 'UTC'
+            <= retention_time
+        LOOP
+            EXECUTE format('ALTER TABLE t_gaen_exposed DETACH PARTITION t_gaen_exposed_%s', expired.suffix);
+            EXECUTE format('DROP TABLE t_gaen_exposed_%s', expired.suffix);
+            dropped := dropped + 1;
+        END LOOP;
+
+    DELETE FROM t_gaen_exposed_default WHERE received_at < retention_time;
+    RETURN dropped;
+END
+$BODY$;
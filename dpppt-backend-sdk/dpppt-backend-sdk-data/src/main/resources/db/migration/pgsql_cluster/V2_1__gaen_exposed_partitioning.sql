@@ -0,0 +1,163 @@
+/*
+ * Range partitions T_GAEN_EXPOSED and T_VISITED by the day of RECEIVED_AT, so expired keys can be
+ * removed by dropping whole partitions instead of deleting rows. The partitions are named by
+ * their day in UTC (e.g. T_GAEN_EXPOSED_20201018). Rows outside of all day partitions end up in
+ * the default partitions.
+ *
+ * Unique constraints of a partitioned table must contain the partition key, hence RECEIVED_AT is
+ * part of the primary keys and of GAEN_EXPOSED_KEY.
+ */
+
+-- keep the old tables until the data is copied
+ALTER TABLE T_VISITED RENAME TO T_VISITED_UNPARTITIONED;
+ALTER TABLE T_VISITED_UNPARTITIONED RENAME CONSTRAINT PK_T_VISITED TO PK_T_VISITED_UNPARTITIONED;
+ALTER TABLE T_GAEN_EXPOSED RENAME TO T_GAEN_EXPOSED_UNPARTITIONED;
+ALTER TABLE T_GAEN_EXPOSED_UNPARTITIONED RENAME CONSTRAINT PK_T_GAEN_EXPOSED TO PK_T_GAEN_EXPOSED_UNPARTITIONED;
+ALTER TABLE T_GAEN_EXPOSED_UNPARTITIONED RENAME CONSTRAINT GAEN_EXPOSED_KEY TO GAEN_EXPOSED_KEY_UNPARTITIONED;
+
+CREATE TABLE T_GAEN_EXPOSED (
+    PK_EXPOSED_ID           INTEGER                  NOT NULL DEFAULT nextval('t_gaen_exposed_pk_exposed_id_seq'),
+    KEY                     VARCHAR(24)              NOT NULL,
+    ROLLING_START_NUMBER    INTEGER                  NOT NULL,
+    ROLLING_PERIOD          INTEGER                  NOT NULL,
+    TRANSMISSION_RISK_LEVEL INTEGER                  NOT NULL,
+    RECEIVED_AT             TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    COUNTRY_ORIGIN          CHAR(2),
+    REPORT_TYPE             SMALLINT,
+    DAYS_SINCE_ONSET        SMALLINT,
+    EFGS_SHARING            BOOLEAN,
+    EXPIRY                  TIMESTAMP WITH TIME ZONE NOT NULL,
+    CONSTRAINT PK_T_GAEN_EXPOSED
+        PRIMARY KEY (PK_EXPOSED_ID, RECEIVED_AT),
+    CONSTRAINT GAEN_EXPOSED_KEY
+        UNIQUE (KEY, RECEIVED_AT)
+) PARTITION BY RANGE (RECEIVED_AT);
+
+-- the visited countries are dropped together with their keys, so there is no foreign key
+CREATE TABLE T_VISITED (
+    PFK_EXPOSED_ID INTEGER                  NOT NULL,
+    COUNTRY        CHAR(2)                  NOT NULL,
+    RECEIVED_AT    TIMESTAMP WITH TIME ZONE NOT NULL,
+    CONSTRAINT PK_T_VISITED
+        PRIMARY KEY (PFK_EXPOSED_ID, COUNTRY, RECEIVED_AT)
+) PARTITION BY RANGE (RECEIVED_AT);
+
+CREATE TABLE T_GAEN_EXPOSED_DEFAULT PARTITION OF T_GAEN_EXPOSED DEFAULT;
+CREATE TABLE T_VISITED_DEFAULT PARTITION OF T_VISITED DEFAULT;
+
+/*
+ * Creates the partitions of T_GAEN_EXPOSED and T_VISITED for the given day, if they don't exist
+ * yet. Rows of that day which were written to the default partitions before are moved.
+ */
+CREATE OR REPLACE FUNCTION create_gaen_exposed_partition(partition_day DATE) RETURNS BOOLEAN
+    LANGUAGE plpgsql
+AS
+$BODY$
+DECLARE
+    suffix      TEXT                     := to_char(partition_day, 'YYYYMMDD');
+    range_start TIMESTAMP WITH TIME ZONE := partition_day::TIMESTAMP AT TIME ZONE 'UTC';
+    range_end   TIMESTAMP WITH TIME ZONE := (partition_day + 1)::TIMESTAMP AT TIME ZONE 'UTC';
+BEGIN
+    IF to_regclass('t_gaen_exposed_' || suffix) IS NOT NULL THEN
+        RETURN FALSE;
+    END IF;
+
+    EXECUTE format('CREATE TABLE t_gaen_exposed_%s (LIKE t_gaen_exposed INCLUDING DEFAULTS)', suffix);
+    EXECUTE format('INSERT INTO t_gaen_exposed_%s SELECT * FROM t_gaen_exposed_default'
+                       || ' WHERE received_at >= %L AND received_at < %L', suffix, range_start, range_end);
+    DELETE FROM t_gaen_exposed_default WHERE received_at >= range_start AND received_at < range_end;
+    EXECUTE format('ALTER TABLE t_gaen_exposed ATTACH PARTITION t_gaen_exposed_%s FOR VALUES FROM (%L) TO (%L)',
+                   suffix, range_start, range_end);
+
+    EXECUTE format('CREATE TABLE t_visited_%s (LIKE t_visited INCLUDING DEFAULTS)', suffix);
+    EXECUTE format('INSERT INTO t_visited_%s SELECT * FROM t_visited_default'
+                       || ' WHERE received_at >= %L AND received_at < %L', suffix, range_start, range_end);
+    DELETE FROM t_visited_default WHERE received_at >= range_start AND received_at < range_end;
+    EXECUTE format('ALTER TABLE t_visited ATTACH PARTITION t_visited_%s FOR VALUES FROM (%L) TO (%L)',
+                   suffix, range_start, range_end);
+    RETURN TRUE;
+END
+$BODY$;
+
+/*
+ * Detaches and drops all day partitions which only contain rows received before retention_time
+ * and deletes the expired rows of the default partitions. Returns the number of dropped days.
+ */
+CREATE OR REPLACE FUNCTION drop_gaen_exposed_partitions(retention_time TIMESTAMP WITH TIME ZONE) RETURNS INTEGER
+    LANGUAGE plpgsql
+AS
+$BODY$
+DECLARE
+    expired RECORD;
+    dropped INTEGER := 0;
+BEGIN
+    FOR expired IN
+        SELECT substring(c.relname FROM '[0-9]{8}$') AS suffix
+        FROM pg_inherits i
+                 JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 't_gaen_exposed'::REGCLASS
+          AND c.relname ~ '^t_gaen_exposed_[0-9]{8}$'
+          AND (to_date(substring(c.relname FROM '[0-9]{8}$'), 'YYYYMMDD') + 1)::TIMESTAMP AT TIME ZONE 'UTC'
+            <= retention_time
+        LOOP
+            IF to_regclass('t_visited_' || expired.suffix) IS NOT NULL THEN
+                EXECUTE format('ALTER TABLE t_visited DETACH PARTITION t_visited_%s', expired.suffix);
+                EXECUTE format('DROP TABLE t_visited_%s', expired.suffix);
+            END IF;
+            EXECUTE format('ALTER TABLE t_gaen_exposed DETACH PARTITION t_gaen_exposed_%s', expired.suffix);
+            EXECUTE format('DROP TABLE t_gaen_exposed_%s', expired.suffix);
+            dropped := dropped + 1;
+        END LOOP;
+
+    DELETE FROM t_visited_default WHERE received_at < retention_time;
+    DELETE FROM t_gaen_exposed_default WHERE received_at < retention_time;
+    RETURN dropped;
+END
+$BODY$;
+
+-- partitions for the retention period and the next week, older rows go to the default partitions.
+-- The partitions are UTC days, so the days are counted from the UTC date, not the session's one
+SELECT create_gaen_exposed_partition(day::DATE)
+FROM generate_series((now() AT TIME ZONE 'UTC')::DATE - 30, (now() AT TIME ZONE 'UTC')::DATE + 7,
+                     INTERVAL '1 day') AS day;
+
+INSERT INTO T_GAEN_EXPOSED (PK_EXPOSED_ID, KEY, ROLLING_START_NUMBER, ROLLING_PERIOD, TRANSMISSION_RISK_LEVEL,
+                            RECEIVED_AT, COUNTRY_ORIGIN, REPORT_TYPE, DAYS_SINCE_ONSET, EFGS_SHARING, EXPIRY)
+SELECT PK_EXPOSED_ID,
+       KEY,
+       ROLLING_START_NUMBER,
+       ROLLING_PERIOD,
+       TRANSMISSION_RISK_LEVEL,
+       RECEIVED_AT,
+       COUNTRY_ORIGIN,
+       REPORT_TYPE,
+       DAYS_SINCE_ONSET,
+       EFGS_SHARING,
+       EXPIRY
+FROM T_GAEN_EXPOSED_UNPARTITIONED;
+
+INSERT INTO T_VISITED (PFK_EXPOSED_ID, COUNTRY, RECEIVED_AT)
+SELECT v.PFK_EXPOSED_ID, v.COUNTRY, e.RECEIVED_AT
+FROM T_VISITED_UNPARTITIONED v
+         JOIN T_GAEN_EXPOSED_UNPARTITIONED e ON e.PK_EXPOSED_ID = v.PFK_EXPOSED_ID;
+
+ALTER SEQUENCE t_gaen_exposed_pk_exposed_id_seq OWNED BY T_GAEN_EXPOSED.PK_EXPOSED_ID;
+
+DROP TABLE T_VISITED_UNPARTITIONED;
+DROP TABLE T_GAEN_EXPOSED_UNPARTITIONED;
+
+-- the indexes are created on every partition
+CREATE INDEX IN_GAEN_EXPOSED_COUNTRY_SHARING_RECEIVED
+    ON T_GAEN_EXPOSED (COUNTRY_ORIGIN, EFGS_SHARING, RECEIVED_AT);
+
+CREATE INDEX IN_DPPPT_GAEN_EXPOSED
+    ON T_GAEN_EXPOSED (ROLLING_START_NUMBER, RECEIVED_AT);
+
+CREATE INDEX IN_DPPPT_GAEN_EXPOSED_RECEIVED_AT
+    ON T_GAEN_EXPOSED (RECEIVED_AT);
+
+CREATE INDEX IN_DPPPT_GAEN_EXPOSED_EXPIRY
+    ON T_GAEN_EXPOSED (EXPIRY);
+
+CREATE INDEX IN_VISITED_EXPOSED_COUNTRY
+    ON T_VISITED (COUNTRY);
@@ -0,0 +1,28 @@
+/*
+ * Snapshots of the keys released in closed buckets (see
+ * SpanishJDBCGAENDataServiceImpl.materializeBucketSnapshots). T_GAEN_BUCKET_KEY holds the released
+ * keys of each bucket with the columns needed to filter them by country, T_GAEN_BUCKET marks the
+ * buckets which are complete. Downloads read the materialized buckets with a range scan of the
+ * primary key of T_GAEN_BUCKET_KEY instead of evaluating the release conditions on T_GAEN_EXPOSED.
+ */
+
+CREATE TABLE T_GAEN_BUCKET_KEY (
+    BUCKET                  TIMESTAMP WITH TIME ZONE NOT NULL,
+    PK_EXPOSED_ID           INTEGER                  NOT NULL,
+    KEY                     BYTEA                    NOT NULL,
+    ROLLING_START_NUMBER    INTEGER                  NOT NULL,
+    ROLLING_PERIOD          INTEGER                  NOT NULL,
+    TRANSMISSION_RISK_LEVEL INTEGER                  NOT NULL,
+    COUNTRY_ORIGIN          CHAR(2),
+    VISITED_COUNTRIES       TEXT[],
+    CONSTRAINT PK_GAEN_BUCKET_KEY
+        PRIMARY KEY (BUCKET, PK_EXPOSED_ID)
+);
+
+CREATE TABLE T_GAEN_BUCKET (
+    BUCKET          TIMESTAMP WITH TIME ZONE NOT NULL,
+    KEY_COUNT       INTEGER                  NOT NULL,
+    MATERIALIZED_AT TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
+    CONSTRAINT PK_GAEN_BUCKET
+        PRIMARY KEY (BUCKET)
+);
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class ReadReplicaDataSourceTest {
+
+  private static final String NAME_QUERY = "select name from t_database";
+  private static final String UNAVAILABLE_URL = "jdbc:hsqldb:hsql://localhost:1/unavailable";
+  private static final Duration BUCKET_LENGTH = Duration.ofHours(2);
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  @Test
+  public void readOnlyTransactionsAreRoutedToTheReplica() {
+    var replica = replica("replica", new Timestamp(System.currentTimeMillis()));
+    var dataSource =
+        new ReadReplicaDataSource(
+            database("primary"), replica, Duration.ofSeconds(30), BUCKET_LENGTH);
+
+    assertEquals("replica", readName(dataSource, true));
+    assertSame(replica, dataSource.getReadDataSource());
+    assertEquals("primary", readName(dataSource, false));
+    assertEquals("primary", new JdbcTemplate(dataSource).queryForObject(NAME_QUERY, String.class));
+  }
+
+  @Test
+  public void readsFallBackToThePrimaryWhileTheReplicaIsDown() {
+    var unavailable = new SimpleDriverDataSource(new JDBCDriver(), UNAVAILABLE_URL);
+    var primary = database("fallback");
+    var dataSource =
+        new ReadReplicaDataSource(primary, unavailable, Duration.ofSeconds(30), BUCKET_LENGTH);
+
+    assertEquals("fallback", readName(dataSource, true));
+    // the replica is skipped until the retry interval passed
+    assertEquals("fallback", readName(dataSource, true));
+    assertSame(primary, dataSource.getReadDataSource());
+  }
+
+  @Test
+  public void readsGoToThePrimaryWhileTheReplicaLags() {
+    var bucketStart = UTCInstant.now().roundToBucketStart(BUCKET_LENGTH);
+    var lagging =
+        replica("lagging", new Timestamp(bucketStart.minus(Duration.ofMinutes(1)).getTimestamp()));
+    var primary = database("primary");
+    var dataSource =
+        new ReadReplicaDataSource(primary, lagging, Duration.ofSeconds(30), BUCKET_LENGTH);
+
+    assertEquals("primary", readName(dataSource, true));
+    assertSame(primary, dataSource.getReadDataSource());
+
+    // caught up with the current bucket
+    new JdbcTemplate(lagging)
+        .update("update t_replay set replayed = ?", new Timestamp(System.currentTimeMillis()));
+    assertEquals("lagging", readName(dataSource, true));
+    assertSame(lagging, dataSource.getReadDataSource());
+  }
+
+  @Test
+  public void replicasWithoutReplayTimestampAreNotRead() {
+    var standalone = replica("standalone", null);
+    var dataSource =
+        new ReadReplicaDataSource(
+            database("primary"), standalone, Duration.ofSeconds(30), BUCKET_LENGTH);
+
+    assertEquals("primary", readName(dataSource, true));
+  }
+
+  private static String readName(DataSource dataSource, boolean readOnly) {
+    var transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    transaction.setReadOnly(readOnly);
+    return transaction.execute(
+        status -> new JdbcTemplate(dataSource).queryForObject(NAME_QUERY, String.class));
+  }
+
+  /** @return a new in-memory database whose t_database contains its name */
+  private static DataSource database(String name) {
+    var dataSource =
+        new SimpleDriverDataSource(
+            new JDBCDriver(), "jdbc:hsqldb:mem:" + name + databases.incrementAndGet(), "sa", "");
+    var jt = new JdbcTemplate(dataSource);
+    jt.execute("create table t_database (name varchar(20))");
+    jt.update("insert into t_database (name) values (?)", name);
+    return dataSource;
+  }
+
+  /** @return a database whose pg_last_xact_replay_timestamp() returns the given timestamp */
+  private static DataSource replica(String name, Timestamp replayed) {
+    var dataSource = database(name);
+    var jt = new JdbcTemplate(dataSource);
+    jt.execute("create table t_replay (replayed timestamp)");
+    jt.update("insert into t_replay (replayed) values (?)", replayed);
+    jt.execute(
+        "create function pg_last_xact_replay_timestamp() returns timestamp"
+            + " reads sql data return (select replayed from t_replay)");
+    return dataSource;
+  }
+}
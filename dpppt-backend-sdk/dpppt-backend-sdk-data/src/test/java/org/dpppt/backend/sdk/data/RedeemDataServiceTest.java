@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.data.config.FlyWayConfig;
+import org.dpppt.backend.sdk.data.config.GaenDataServiceConfig;
+import org.dpppt.backend.sdk.data.config.StandaloneDataConfig;
+import org.dpppt.backend.sdk.data.util.RoundTripCountingDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+/**
+ * Every redemption is a single statement, and replays of recently redeemed uuids are rejected
+ * without a query.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(
+    loader = AnnotationConfigContextLoader.class,
+    classes = {StandaloneDataConfig.class, FlyWayConfig.class, GaenDataServiceConfig.class})
+@ActiveProfiles("hsqldb")
+public class RedeemDataServiceTest {
+
+  @Autowired private DataSource dataSource;
+
+  private RoundTripCountingDataSource countingDataSource;
+
+  @Before
+  public void setUp() {
+    new JdbcTemplate(dataSource).execute("delete from t_redeem_uuid");
+    countingDataSource = new RoundTripCountingDataSource(dataSource);
+  }
+
+  @Test
+  public void redeemsEveryUUIDOnce() {
+    var redeemDataService = new JDBCRedeemDataServiceImpl("hsqldb", countingDataSource);
+    var uuid = UUID.randomUUID().toString();
+
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(uuid));
+    assertEquals(1, countingDataSource.getRoundTrips());
+    assertFalse(redeemDataService.checkAndInsertPublishUUID(uuid));
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void cachedReplaysSkipTheDatabase() {
+    var redeemDataService = new JDBCRedeemDataServiceImpl("hsqldb", countingDataSource, 1);
+    var uuid = UUID.randomUUID().toString();
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(uuid));
+
+    countingDataSource.reset();
+    assertFalse(redeemDataService.checkAndInsertPublishUUID(uuid));
+    assertEquals(0, countingDataSource.getRoundTrips());
+
+    // evicted by a newer uuid, the replay is rejected by the database
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(UUID.randomUUID().toString()));
+    countingDataSource.reset();
+    assertFalse(redeemDataService.checkAndInsertPublishUUID(uuid));
+    assertEquals(1, countingDataSource.getRoundTrips());
+  }
+
+  @Test
+  public void cleanDBEvictsExpiredUUIDs() {
+    var redeemDataService = new JDBCRedeemDataServiceImpl("hsqldb", countingDataSource, 10);
+    var uuid = UUID.randomUUID().toString();
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(uuid));
+
+    // the uuids are kept until the end of tomorrow
+    redeemDataService.cleanDB(Duration.ofDays(-2));
+    assertTrue(redeemDataService.checkAndInsertPublishUUID(uuid));
+  }
+}
@@ -68,18 +68,13 @@ public GAENDataService gaenDataService() {
 
   @Bean
   public RedeemDataService redeemDataService() {
-    return new JDBCRedeemDataServiceImpl(dataSource);
-  }
-
-  @Bean
-  public GAENDataService fakeService() {
-    return new SpanishJDBCGAENDataServiceImpl(
-        "hsql", fakeDataSource(), Duration.ofMillis(releaseBucketDuration), timeSkew);
+    return new JDBCRedeemDataServiceImpl(dbType, dataSource);
   }
 
   @Bean
   public FakeKeyService fakeKeyService() throws NoSuchAlgorithmException {
-    return new FakeKeyService(fakeService(), 10, 16, Duration.ofDays(21), randomkeysenabled,
+    return new FakeKeyService(10, 16, Duration.ofDays(21), Duration.ofMillis(releaseBucketDuration),
+                              timeSkew, randomkeysenabled,
                               efgsCountryOrigin, efgsReportType);
   }
 
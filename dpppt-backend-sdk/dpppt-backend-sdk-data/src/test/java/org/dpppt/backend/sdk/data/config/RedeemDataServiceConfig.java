@@ -26,6 +26,6 @@ public class RedeemDataServiceConfig {
 
   @Bean
   public RedeemDataService redeemDataService() {
-    return new JDBCRedeemDataServiceImpl(dataSource);
+    return new JDBCRedeemDataServiceImpl(dbType, dataSource);
   }
 }
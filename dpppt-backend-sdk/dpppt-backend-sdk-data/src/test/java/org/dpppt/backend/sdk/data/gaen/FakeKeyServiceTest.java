@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.gaen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.Test;
+
+public class FakeKeyServiceTest {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+
+  private static FakeKeyService fakeKeyService(boolean enabled) throws Exception {
+    return new FakeKeyService(10, 16, Duration.ofDays(14), BUCKET, Duration.ofHours(2), enabled,
+                              "ES", 1);
+  }
+
+  @Test
+  public void everyPastDayOfTheRetentionPeriodHasKeys() throws Exception {
+    var service = fakeKeyService(true);
+    var today = UTCInstant.today();
+    var now = UTCInstant.now();
+
+    assertEquals(0, service.fillUpKeys(new ArrayList<>(), null, today.minusDays(15), now).size());
+    for (var day = today.minusDays(14); day.isBeforeDateOf(today.minusDays(1)); day = day.plusDays(1)) {
+      var keys = service.fillUpKeys(new ArrayList<>(), null, day, now);
+      assertEquals(10, keys.size());
+      for (GaenKey key : keys) {
+        assertEquals(16, key.getKeyBytes().length);
+        assertEquals(day.get10MinutesSince1970(), (long) key.getRollingStartNumber());
+      }
+    }
+    assertEquals(0, service.fillUpKeys(new ArrayList<>(), null, today, now).size());
+  }
+
+  @Test
+  public void keysAreOnlyReturnedIfPublishedAfterTheRequestedBucket() throws Exception {
+    var service = fakeKeyService(true);
+    var day = UTCInstant.today().minusDays(3);
+    var now = UTCInstant.now();
+    var receivedAt = UTCInstant.today().roundToNextBucket(BUCKET);
+
+    assertEquals(10, service.fillUpKeys(new ArrayList<>(), UTCInstant.today(), day, now).size());
+    assertEquals(0, service.fillUpKeys(new ArrayList<>(), receivedAt, day, now).size());
+  }
+
+  @Test
+  public void keysAreAddedToTheGivenKeys() throws Exception {
+    var service = fakeKeyService(true);
+    var keys = new ArrayList<GaenKey>();
+    keys.add(new GaenKey());
+    var result = service.fillUpKeys(keys, null, UTCInstant.today().minusDays(3), UTCInstant.now());
+    assertEquals(11, result.size());
+
+    var disabled = fakeKeyService(false);
+    keys = new ArrayList<>();
+    result = disabled.fillUpKeys(keys, null, UTCInstant.today().minusDays(3), UTCInstant.now());
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  public void updateReplacesAllKeys() throws Exception {
+    var service = fakeKeyService(true);
+    var day = UTCInstant.today().minusDays(3);
+    var before = service.fillUpKeys(new ArrayList<>(), null, day, UTCInstant.now());
+    service.updateFakeKeys();
+    var after = service.fillUpKeys(new ArrayList<>(), null, day, UTCInstant.now());
+    assertEquals(before.size(), after.size());
+    assertNotEquals(before.get(0).getKeyData(), after.get(0).getKeyData());
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.gaen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.data.config.FlyWayConfig;
+import org.dpppt.backend.sdk.data.config.GaenDataServiceConfig;
+import org.dpppt.backend.sdk.data.config.StandaloneDataConfig;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+/**
+ * Reads of the keys released since a bucket return the same keys, whether the closed buckets are
+ * read from their snapshots or derived from t_gaen_exposed.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(
+    loader = AnnotationConfigContextLoader.class,
+    classes = {StandaloneDataConfig.class, FlyWayConfig.class, GaenDataServiceConfig.class})
+@ActiveProfiles("hsqldb")
+public class GaenBucketSnapshotTest {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+  private static final Duration RETENTION = Duration.ofDays(10);
+
+  @Autowired private DataSource dataSource;
+
+  private JdbcTemplate jdbcTemplate;
+  private SpanishJDBCGAENDataServiceImpl liveDataService;
+  private SpanishJDBCGAENDataServiceImpl snapshotDataService;
+
+  @Before
+  public void setUp() {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("delete from t_gaen_exposed");
+    jdbcTemplate.execute("delete from t_gaen_bucket");
+    jdbcTemplate.execute("delete from t_gaen_bucket_key");
+    liveDataService =
+        new SpanishJDBCGAENDataServiceImpl(
+            "hsqldb",
+            dataSource,
+            BUCKET,
+            BUCKET,
+            null,
+            JDBCGAENDataServiceImpl.DEFAULT_FETCH_SIZE,
+            false);
+    snapshotDataService =
+        new SpanishJDBCGAENDataServiceImpl(
+            "hsqldb",
+            dataSource,
+            BUCKET,
+            BUCKET,
+            null,
+            JDBCGAENDataServiceImpl.DEFAULT_FETCH_SIZE,
+            true);
+  }
+
+  @Test
+  public void snapshotsReturnTheReleasedKeys() throws Exception {
+    var today = UTCInstant.now().atStartOfDay();
+    try (var now = UTCInstant.setClock(clockAt(today.plusHours(2)))) {
+      snapshotDataService.upsertExposees(getKeys(today, 0, 5), now);
+    }
+    try (var now = UTCInstant.setClock(clockAt(today.plusHours(14)))) {
+      // the closed buckets from 16:00 ten days ago up to 12:00 today
+      assertEquals(
+          RETENTION.minusHours(4).dividedBy(BUCKET),
+          snapshotDataService.materializeBucketSnapshots(now, RETENTION));
+      assertEquals(0, snapshotDataService.materializeBucketSnapshots(now, RETENTION));
+      // released after the snapshots, read from t_gaen_exposed
+      snapshotDataService.upsertExposees(getKeys(today, 5, 7), now);
+    }
+    var materializedKeys = "select sum(key_count) from t_gaen_bucket";
+    assertEquals(5, (int) jdbcTemplate.queryForObject(materializedKeys, Integer.class));
+
+    try (var now = UTCInstant.setClock(clockAt(today.plusHours(16).plusMinutes(30)))) {
+      for (var since : List.of(today.minusDays(9), today.plusHours(2), today.plusHours(12))) {
+        var expected = liveDataService.getSortedExposedSince(since, now, null, null);
+        var actual = snapshotDataService.getSortedExposedSince(since, now, null, null);
+        assertEquals(keyData(expected), keyData(actual));
+        assertEquals(
+            expected.size(), snapshotDataService.countExposedSince(since, now, null, null));
+      }
+      assertEquals(
+          7, snapshotDataService.getSortedExposedSince(today.minusDays(9), now, null, null).size());
+      assertTrue(snapshotDataService.hasExposedSince(today.plusHours(2), now, null, null));
+    }
+  }
+
+  @Test
+  public void keysWrittenIntoMaterializedBucketsAreMovedToTheNextBucket() throws Exception {
+    var today = UTCInstant.now().atStartOfDay();
+    try (var now = UTCInstant.setClock(clockAt(today.plusHours(14)))) {
+      snapshotDataService.materializeBucketSnapshots(now, RETENTION);
+      // written late into the bucket from 10:00 to 12:00, which is already materialized
+      snapshotDataService.upsertExposeesDelayed(getKeys(today, 0, 3), today.plusHours(11), now);
+    }
+    try (var now = UTCInstant.setClock(clockAt(today.plusHours(16).plusMinutes(30)))) {
+      // still downloaded by clients which already got the buckets up to 14:00
+      assertEquals(
+          3, snapshotDataService.getSortedExposedSince(today.plusHours(14), now, null, null).size());
+    }
+  }
+
+  private static Clock clockAt(UTCInstant instant) {
+    return Clock.fixed(instant.getInstant(), ZoneOffset.UTC);
+  }
+
+  private static List<String> keyData(List<GaenKey> keys) {
+    var keyData = new ArrayList<String>();
+    for (var key : keys) {
+      keyData.add(key.getKeyData());
+    }
+    return keyData;
+  }
+
+  /** @return keys of yesterday, which are released as soon as they are received */
+  private static List<GaenKey> getKeys(UTCInstant today, int from, int to) throws Exception {
+    var keys = new ArrayList<GaenKey>();
+    for (int i = from; i < to; i++) {
+      var tmpKey = new GaenKey();
+      tmpKey.setRollingStartNumber((int) today.minusDays(1).get10MinutesSince1970());
+      tmpKey.setKeyData(
+          Base64.getEncoder().encodeToString(("snapKey32Bytes--" + i).getBytes("UTF-8")));
+      tmpKey.setRollingPeriod(144);
+      tmpKey.setFake(0);
+      tmpKey.setTransmissionRiskLevel(0);
+      keys.add(tmpKey);
+    }
+    return keys;
+  }
+}
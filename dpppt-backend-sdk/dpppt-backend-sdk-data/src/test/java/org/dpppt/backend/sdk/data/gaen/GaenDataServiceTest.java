@@ -12,6 +12,8 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -21,10 +23,17 @@
 import java.time.Clock;
 import java.time.Duration;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(
@@ -44,6 +53,8 @@ public class GaenDataServiceTest {
 
   @Autowired private GAENDataService gaenDataService;
 
+  @Autowired private DataSource dataSource;
+
   @Test
   @Transactional
   public void upsert() throws Exception {
@@ -160,4 +171,207 @@ public void testNoEarlyRelease() throws Exception {
       assertEquals(1, returnedKeys.size());
     }
   }
+
+  @Test
+  @Transactional
+  public void streamingReturnsTheSameKeys() throws Exception {
+    var outerNow = UTCInstant.now();
+    Clock twoOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(2).getInstant(), ZoneOffset.UTC);
+    Clock fourteenOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(14).getInstant(), ZoneOffset.UTC);
+
+    try (var now = UTCInstant.setClock(twoOClock)) {
+      var keys = new ArrayList<GaenKey>();
+      for (int i = 0; i < 3; i++) {
+        var tmpKey = new GaenKey();
+        tmpKey.setRollingStartNumber((int) now.atStartOfDay().minusDays(1).get10MinutesSince1970());
+        tmpKey.setKeyData(
+            Base64.getEncoder().encodeToString(("testKey32Bytes-" + i).getBytes("UTF-8")));
+        tmpKey.setRollingPeriod(144);
+        tmpKey.setFake(0);
+        tmpKey.setTransmissionRiskLevel(0);
+        keys.add(tmpKey);
+      }
+      gaenDataService.upsertExposees(keys, now);
+    }
+
+    try (var now = UTCInstant.setClock(fourteenOClock)) {
+      var since = now.minusDays(10);
+      var expected = new HashSet<String>();
+      for (var key : gaenDataService.getSortedExposedSince(since, now, null, null)) {
+        expected.add(key.getKeyData());
+      }
+      var streamed = new ArrayList<String>();
+      int count =
+          gaenDataService.streamExposedSince(
+              since,
+              now,
+              null,
+              null,
+              (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) ->
+                  streamed.add(Base64.getEncoder().encodeToString(keyData)));
+
+      assertEquals(3, count);
+      assertEquals(expected, new HashSet<>(streamed));
+      // the keys are ordered by their data, not by their arrival
+      var sorted = new ArrayList<>(streamed);
+      Collections.sort(sorted);
+      assertEquals(sorted, streamed);
+      assertTrue(gaenDataService.hasExposedSince(since, now, null, null));
+      assertFalse(gaenDataService.hasExposedSince(now, now, null, null));
+    }
+  }
+
+  @Test
+  public void pagesReturnEveryKeyOnce() throws Exception {
+    var outerNow = UTCInstant.now();
+    Clock twoOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(2).getInstant(), ZoneOffset.UTC);
+    Clock fourteenOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(14).getInstant(), ZoneOffset.UTC);
+
+    try (var now = UTCInstant.setClock(twoOClock)) {
+      var keys = new ArrayList<GaenKey>();
+      for (int i = 0; i < 5; i++) {
+        var tmpKey = new GaenKey();
+        tmpKey.setRollingStartNumber((int) now.atStartOfDay().minusDays(1).get10MinutesSince1970());
+        tmpKey.setKeyData(
+            Base64.getEncoder().encodeToString(("pageKey32Bytes-" + i).getBytes("UTF-8")));
+        tmpKey.setRollingPeriod(144);
+        tmpKey.setFake(0);
+        tmpKey.setTransmissionRiskLevel(0);
+        keys.add(tmpKey);
+      }
+      gaenDataService.upsertExposees(keys, now);
+    }
+
+    try (var now = UTCInstant.setClock(fourteenOClock)) {
+      var since = now.minusDays(10);
+      var expected = new HashSet<String>();
+      for (var key : gaenDataService.getSortedExposedSince(since, now, null, null)) {
+        expected.add(key.getKeyData());
+      }
+      assertEquals(expected.size(), gaenDataService.countExposedSince(since, now, null, null));
+
+      var paged = new ArrayList<String>();
+      long afterId = 0;
+      for (Long lastId = 0L; lastId != null; ) {
+        var page = new ArrayList<String>();
+        lastId =
+            gaenDataService.streamExposedSincePage(
+                since,
+                now,
+                null,
+                null,
+                afterId,
+                2,
+                (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) ->
+                    page.add(Base64.getEncoder().encodeToString(keyData)));
+        assertTrue(page.size() <= 2);
+        // the keys of a page are ordered by their data, not by their arrival
+        var sorted = new ArrayList<>(page);
+        Collections.sort(sorted);
+        assertEquals(sorted, page);
+        paged.addAll(page);
+        if (lastId != null) {
+          assertTrue(lastId > afterId);
+          afterId = lastId;
+        }
+      }
+
+      assertEquals(expected.size(), paged.size());
+      assertEquals(expected, new HashSet<>(paged));
+    }
+  }
+
+  @Test
+  @Transactional
+  public void baseServiceReturnsTheSameKeys() throws Exception {
+    var baseService =
+        new JDBCGAENDataServiceImpl("hsqldb", dataSource, BUCKET_LENGTH, Duration.ofHours(2));
+    var outerNow = UTCInstant.now();
+    Clock twoOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(2).getInstant(), ZoneOffset.UTC);
+    Clock fourteenOClock =
+        Clock.fixed(outerNow.atStartOfDay().plusHours(14).getInstant(), ZoneOffset.UTC);
+
+    try (var now = UTCInstant.setClock(twoOClock)) {
+      var keys = new ArrayList<GaenKey>();
+      for (int i = 0; i < 3; i++) {
+        var tmpKey = new GaenKey();
+        tmpKey.setRollingStartNumber((int) now.atStartOfDay().minusDays(1).get10MinutesSince1970());
+        tmpKey.setKeyData(
+            Base64.getEncoder().encodeToString(("baseKey32Bytes-" + i).getBytes("UTF-8")));
+        tmpKey.setRollingPeriod(144);
+        tmpKey.setFake(0);
+        tmpKey.setTransmissionRiskLevel(0);
+        keys.add(tmpKey);
+      }
+      gaenDataService.upsertExposees(keys, now);
+    }
+
+    try (var now = UTCInstant.setClock(fourteenOClock)) {
+      var since = now.minusDays(10);
+      var expected = new HashSet<String>();
+      for (var key : gaenDataService.getSortedExposedSince(since, now, null, null)) {
+        expected.add(key.getKeyData());
+      }
+      var streamed = new HashSet<String>();
+      baseService.streamExposedSince(
+          since,
+          now,
+          null,
+          null,
+          (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) ->
+              streamed.add(Base64.getEncoder().encodeToString(keyData)));
+      var paged = new HashSet<String>();
+      Long lastId =
+          baseService.streamExposedSincePage(
+              since,
+              now,
+              null,
+              null,
+              0,
+              expected.size(),
+              (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) ->
+                  paged.add(Base64.getEncoder().encodeToString(keyData)));
+
+      assertEquals(expected, streamed);
+      assertEquals(expected, paged);
+      assertTrue(lastId != null);
+      assertEquals(expected.size(), baseService.countExposedSince(since, now, null, null));
+      assertTrue(baseService.hasExposedSince(since, now, null, null));
+      assertFalse(baseService.hasExposedSince(now, now, null, null));
+    }
+  }
+
+  @Test
+  public void releasedSinceQueryUsesIndexes() throws Exception {
+    var dataService =
+        new JDBCGAENDataServiceImpl("hsqldb", dataSource, BUCKET_LENGTH, Duration.ofHours(2));
+    var params = new MapSqlParameterSource();
+    var now = UTCInstant.now();
+    var sql = dataService.releasedSinceQuery(params, now.minusDays(14), now, "");
+
+    var plan =
+        String.join(
+            "\n",
+            new NamedParameterJdbcTemplate(dataSource)
+                .queryForList("explain plan for " + sql, params, String.class));
+
+    // every access of t_gaen_exposed must be a range scan of one of the release indexes
+    var table = Pattern.compile("table=(\\S+)");
+    int tableScans = 0;
+    for (var rangeVariable : plan.split("\\[range variable")) {
+      var tableName = table.matcher(rangeVariable);
+      if (tableName.find() && tableName.group(1).endsWith("T_GAEN_EXPOSED")) {
+        tableScans++;
+        assertFalse(rangeVariable.contains("access=FULL SCAN"), plan);
+      }
+    }
+    assertEquals(2, tableScans, plan);
+    assertTrue(plan.contains("IN_GAEN_EXPOSED_RELEASED_RECEIVED_AT"), plan);
+    assertTrue(plan.contains("IN_GAEN_EXPOSED_RELEASED_EXPIRY"), plan);
+  }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.gaen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.data.config.FlyWayConfig;
+import org.dpppt.backend.sdk.data.config.GaenDataServiceConfig;
+import org.dpppt.backend.sdk.data.config.StandaloneDataConfig;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.data.util.RoundTripCountingDataSource;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+/**
+ * Measures the round trips of an upload. Every upload costs the same small number of round trips,
+ * no matter how many keys and visited countries it contains.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(
+    loader = AnnotationConfigContextLoader.class,
+    classes = {StandaloneDataConfig.class, FlyWayConfig.class, GaenDataServiceConfig.class})
+@ActiveProfiles("hsqldb")
+public class GaenUploadRoundTripTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GaenUploadRoundTripTest.class);
+
+  // one merge, the visited countries are stored with their keys
+  private static final int HSQL_ROUND_TRIPS_PER_UPLOAD = 1;
+
+  @Autowired private DataSource dataSource;
+
+  private RoundTripCountingDataSource countingDataSource;
+  private GAENDataService gaenDataService;
+
+  @Before
+  public void setUp() {
+    var jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("delete from t_gaen_exposed");
+    countingDataSource = new RoundTripCountingDataSource(dataSource);
+    gaenDataService =
+        new SpanishJDBCGAENDataServiceImpl(
+            "hsqldb", countingDataSource, Duration.ofHours(2), Duration.ofHours(2));
+  }
+
+  @Test
+  public void uploadRoundTripsDoNotDependOnKeyCount() {
+    var now = UTCInstant.now();
+    gaenDataService.upsertExposees(getKeys(0, 1), now);
+    assertEquals(HSQL_ROUND_TRIPS_PER_UPLOAD, countingDataSource.getRoundTrips());
+
+    countingDataSource.reset();
+    gaenDataService.upsertExposees(getKeys(1, 14), now);
+    logger.info("Upload of 14 keys took {} round trips", countingDataSource.getRoundTrips());
+    // one statement and one visited batch per key before
+    assertTrue(countingDataSource.getRoundTrips() < 14 * 2);
+    assertEquals(HSQL_ROUND_TRIPS_PER_UPLOAD, countingDataSource.getRoundTrips());
+
+    var keys =
+        gaenDataService.getSortedExposedSince(
+            now.minusDays(1), now.plus(Duration.ofHours(4)), List.of("IT"), null);
+    assertEquals(15, keys.size());
+  }
+
+  @Test
+  public void existingAndDuplicateKeysAreSkipped() {
+    var now = UTCInstant.now();
+    gaenDataService.upsertExposees(getKeys(0, 5), now);
+
+    countingDataSource.reset();
+    var keys = getKeys(3, 5);
+    keys.addAll(getKeys(5, 1));
+    gaenDataService.upsertExposees(keys, now);
+    assertTrue(countingDataSource.getRoundTrips() <= HSQL_ROUND_TRIPS_PER_UPLOAD);
+
+    // an upload which only contains known keys doesn't insert anything
+    countingDataSource.reset();
+    gaenDataService.upsertExposees(getKeys(0, 8), now);
+    assertEquals(1, countingDataSource.getRoundTrips());
+
+    var exposed =
+        gaenDataService.getSortedExposedSince(
+            now.minusDays(1), now.plus(Duration.ofHours(4)), null, null);
+    assertEquals(8, exposed.size());
+  }
+
+  @Test
+  public void keysAreFilteredByAnyVisitedCountry() {
+    var now = UTCInstant.now();
+    var keys = getKeys(0, 2);
+    keys.get(1).setVisitedCountries(null);
+    gaenDataService.upsertExposees(keys, now);
+
+    var until = now.plus(Duration.ofHours(4));
+    var since = now.minusDays(1);
+    assertEquals(2, gaenDataService.getSortedExposedSince(since, until, null, null).size());
+    // every key is only returned once, even if it visited several of the countries
+    assertEquals(
+        1, gaenDataService.getSortedExposedSince(since, until, List.of("IT", "DE"), null).size());
+    assertEquals(
+        1, gaenDataService.getSortedExposedSince(since, until, List.of("FR", "PT"), null).size());
+    assertEquals(0, gaenDataService.getSortedExposedSince(since, until, List.of("FR"), null).size());
+  }
+
+  @Test
+  public void everyUploadOfASeriesTakesTheSameRoundTrips() {
+    // the time of the uploads is measured by UploadBenchmark of dpppt-backend-sdk-bench
+    var uploads = 20;
+    var now = UTCInstant.now();
+    for (int i = 0; i < uploads; i++) {
+      gaenDataService.upsertExposees(getKeys(i * 14, 14), now);
+    }
+    assertEquals(uploads * HSQL_ROUND_TRIPS_PER_UPLOAD, countingDataSource.getRoundTrips());
+  }
+
+  private static List<GaenKey> getKeys(int offset, int count) {
+    var rollingStart = (int) UTCInstant.today().minusDays(1).get10MinutesSince1970();
+    var keys = new ArrayList<GaenKey>();
+    for (int i = offset; i < offset + count; i++) {
+      var key = new GaenKey();
+      key.setKeyData(Base64.getEncoder().encodeToString(String.format("testKey%9d", i).getBytes()));
+      key.setRollingStartNumber(rollingStart);
+      key.setRollingPeriod(144);
+      key.setTransmissionRiskLevel(0);
+      key.setFake(0);
+      key.setCountryOrigin("ES");
+      key.setReportType(1);
+      key.setDaysSinceOnsetOfSymptons(0L);
+      key.setEfgsSharing(true);
+      key.setVisitedCountries(List.of("IT", "DE", "PT"));
+      keys.add(key);
+    }
+    return keys;
+  }
+}
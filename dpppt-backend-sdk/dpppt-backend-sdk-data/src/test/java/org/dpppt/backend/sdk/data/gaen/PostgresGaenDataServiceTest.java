@@ -25,11 +25,16 @@
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 import org.dpppt.backend.sdk.data.RedeemDataService;
 import org.dpppt.backend.sdk.data.config.FlyWayConfig;
 import org.dpppt.backend.sdk.data.config.GaenDataServiceConfig;
 import org.dpppt.backend.sdk.data.config.PostgresDataConfig;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.GaenPartitionManager;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.utils.UTCInstant;
@@ -37,11 +42,16 @@
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(
@@ -141,11 +151,11 @@ public void testTokensArentDeletedBeforeExpire() throws Exception {
   }
 
   @Test
-  public void cleanup() throws SQLException {
+  public void cleanup() throws Exception {
     var now = UTCInstant.now();
     var receivedAt = now.minusDays(21);
     Connection connection = dataSource.getConnection();
-    String key = "someKey";
+    String key = Base64.getEncoder().encodeToString("testKey32Bytes-1".getBytes("UTF-8"));
     insertExposeeWithReceivedAtAndKeyDate(
         receivedAt.getInstant(), receivedAt.minusDays(1).getInstant(), key);
 
@@ -161,6 +171,58 @@ public void cleanup() throws SQLException {
     assertTrue(sortedExposedForDay.isEmpty());
   }
 
+  @Test
+  public void expiredPartitionsAreDropped() throws Exception {
+    var partitionManager = new GaenPartitionManager(dataSource);
+    // far from the partitions created by the migration, so the result doesn't depend on the clock
+    var partitionDay = UTCInstant.parseDate("2100-01-01");
+    assertEquals(11, partitionManager.createPartitions(partitionDay, 10));
+    assertEquals(0, partitionManager.createPartitions(partitionDay, 10));
+
+    var now = UTCInstant.now();
+
+    var receivedAt = now.minusDays(25);
+    insertExposeeWithReceivedAtAndKeyDate(
+        receivedAt.getInstant(),
+        receivedAt.minusDays(1).getInstant(),
+        Base64.getEncoder().encodeToString("testKey32Bytes-2".getBytes("UTF-8")));
+    assertFalse(
+        gaenDataService
+            .getSortedExposedForKeyDate(receivedAt.minusDays(1), null, now, now)
+            .isEmpty());
+
+    assertTrue(partitionManager.dropExpiredPartitions(Duration.ofDays(21)) > 0);
+    assertTrue(
+        gaenDataService
+            .getSortedExposedForKeyDate(receivedAt.minusDays(1), null, now, now)
+            .isEmpty());
+    // nothing left to drop
+    assertEquals(0, partitionManager.dropExpiredPartitions(Duration.ofDays(21)));
+  }
+
+  @Test
+  public void expiredKeysOfTheOldestPartitionAreDeleted() throws Exception {
+    var partitionManager = new GaenPartitionManager(dataSource);
+    var now = UTCInstant.now();
+
+    // the partition of its day may still be attached
+    var receivedAt = now.minusDays(21).minus(Duration.ofMinutes(1));
+    insertExposeeWithReceivedAtAndKeyDate(
+        receivedAt.getInstant(),
+        receivedAt.minusDays(1).getInstant(),
+        Base64.getEncoder().encodeToString("testKey32Bytes-3".getBytes("UTF-8")));
+    assertFalse(
+        gaenDataService
+            .getSortedExposedForKeyDate(receivedAt.minusDays(1), null, now, now)
+            .isEmpty());
+
+    partitionManager.dropExpiredPartitions(Duration.ofDays(21));
+    assertTrue(
+        gaenDataService
+            .getSortedExposedForKeyDate(receivedAt.minusDays(1), null, now, now)
+            .isEmpty());
+  }
+
   @Test
   public void upsert() throws Exception {
     var tmpKey = new GaenKey();
@@ -188,10 +250,76 @@ public void upsert() throws Exception {
   }
 
   @Test
-  public void testBatchReleaseTime() throws SQLException {
+  public void concurrentUploadsOfAKeyStoreItOnce() throws Exception {
+    var dataService =
+        new SpanishJDBCGAENDataServiceImpl("pgsql", dataSource, BATCH_LENGTH, Duration.ofHours(2));
+    var transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    var key = new GaenKey();
+    key.setRollingStartNumber(
+        (int) UTCInstant.today().minus(Duration.ofDays(1)).get10MinutesSince1970());
+    key.setKeyData(Base64.getEncoder().encodeToString("testKeyConcurren".getBytes("UTF-8")));
+    key.setRollingPeriod(144);
+    key.setFake(0);
+    key.setTransmissionRiskLevel(0);
+    var now = UTCInstant.now();
+
+    var inserted = new CountDownLatch(1);
+    var commit = new CountDownLatch(1);
+    var executor = Executors.newFixedThreadPool(2);
+    try {
+      // received at different times, so the unique constraint doesn't cover the two rows
+      var first =
+          executor.submit(
+              () ->
+                  transaction.execute(
+                      status -> {
+                        dataService.upsertExposeesDelayed(List.of(key), now.minusMinutes(1), now);
+                        inserted.countDown();
+                        await(commit);
+                        return null;
+                      }));
+      assertTrue(inserted.await(10, TimeUnit.SECONDS));
+      var second =
+          executor.submit(
+              () ->
+                  transaction.execute(
+                      status -> {
+                        dataService.upsertExposeesDelayed(List.of(key), now, now);
+                        return null;
+                      }));
+      // waits for the lock of the first upload
+      Thread.sleep(500);
+      assertFalse(second.isDone());
+      commit.countDown();
+      first.get(10, TimeUnit.SECONDS);
+      second.get(10, TimeUnit.SECONDS);
+    } finally {
+      commit.countDown();
+      executor.shutdown();
+    }
+
+    var jt = new NamedParameterJdbcTemplate(dataSource);
+    assertEquals(
+        Integer.valueOf(1),
+        jt.queryForObject(
+            "select count(*) from t_gaen_exposed where key = :key",
+            new MapSqlParameterSource("key", key.getKeyBytes()),
+            Integer.class));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void testBatchReleaseTime() throws Exception {
     var receivedAt = UTCInstant.parseDateTime("2014-01-28T00:00:00");
     var now = UTCInstant.now();
-    String key = "key555";
+    String key = Base64.getEncoder().encodeToString("testKey32Bytes55".getBytes("UTF-8"));
     insertExposeeWithReceivedAtAndKeyDate(
         receivedAt.getInstant(), receivedAt.minus(Duration.ofDays(2)).getInstant(), key);
 
@@ -211,6 +339,28 @@ public void testBatchReleaseTime() throws SQLException {
     assertEquals(0, returnedKeys.size());
   }
 
+  @Test
+  public void releasedSinceQueryUsesIndexes() throws Exception {
+    var dataService =
+        new JDBCGAENDataServiceImpl("pgsql", dataSource, BATCH_LENGTH, Duration.ofHours(2));
+    var params = new MapSqlParameterSource();
+    var now = UTCInstant.now();
+    var sql = dataService.releasedSinceQuery(params, now.minusDays(14), now, "");
+
+    String plan;
+    try (Connection connection = dataSource.getConnection()) {
+      // the test tables are tiny, so Postgres would prefer a seq scan even if an index can be used.
+      // with seq scans disabled it only falls back to one if there is no usable index
+      connection.createStatement().execute("set enable_seqscan = off");
+      var jt = new NamedParameterJdbcTemplate(new SingleConnectionDataSource(connection, true));
+      plan = String.join("\n", jt.queryForList("explain " + sql, params, String.class));
+      connection.createStatement().execute("reset enable_seqscan");
+    }
+
+    assertFalse(plan.contains("Seq Scan"), plan);
+    assertTrue(plan.contains("Index"), plan);
+  }
+
   private void insertExposeeWithReceivedAtAndKeyDate(
       Instant receivedAt, Instant keyDate, String key) throws SQLException {
     Connection connection = dataSource.getConnection();
@@ -218,7 +368,7 @@ private void insertExposeeWithReceivedAtAndKeyDate(
         "into t_gaen_exposed (pk_exposed_id, key, received_at, rolling_start_number,"
             + " rolling_period, transmission_risk_level, expiry) values (100, ?, ?, ?, 144, 0, ?)";
     PreparedStatement preparedStatement = connection.prepareStatement("insert " + sql);
-    preparedStatement.setString(1, key);
+    preparedStatement.setBytes(1, Base64.getDecoder().decode(key));
     preparedStatement.setTimestamp(2, new Timestamp(receivedAt.toEpochMilli()));
     preparedStatement.setInt(
         3, (int) GaenUnit.TenMinutes.between(Instant.ofEpochMilli(0), keyDate));
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.data.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Counts the statement executions, i.e. the round trips to the database. A JDBC batch counts as a
+ * single round trip.
+ */
+public class RoundTripCountingDataSource extends DelegatingDataSource {
+
+  private final AtomicInteger roundTrips = new AtomicInteger();
+
+  public RoundTripCountingDataSource(DataSource targetDataSource) {
+    super(targetDataSource);
+  }
+
+  public int getRoundTrips() {
+    return roundTrips.get();
+  }
+
+  public void reset() {
+    roundTrips.set(0);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return countingConnection(super.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return countingConnection(super.getConnection(username, password));
+  }
+
+  private Connection countingConnection(Connection connection) {
+    return (Connection)
+        Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] {Connection.class},
+            (proxy, method, args) -> {
+              Object result = invoke(connection, method, args);
+              if (result instanceof Statement) {
+                return countingStatement((Statement) result);
+              }
+              return result;
+            });
+  }
+
+  private Object countingStatement(Statement statement) {
+    Class<?> type =
+        statement instanceof CallableStatement
+            ? CallableStatement.class
+            : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+    return Proxy.newProxyInstance(
+        getClass().getClassLoader(),
+        new Class<?>[] {type},
+        (proxy, method, args) -> {
+          if (method.getName().startsWith("execute")) {
+            roundTrips.incrementAndGet();
+          }
+          return invoke(statement, method, args);
+        });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
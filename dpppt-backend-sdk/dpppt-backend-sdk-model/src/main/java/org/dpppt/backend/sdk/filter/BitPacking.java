@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+/**
+ * Packs fixed width entries into a byte array, most significant bit first and without padding
+ * between the entries. The last byte is filled up with zero bits.
+ */
+class BitPacking {
+
+  private BitPacking() {}
+
+  static int packedSize(int entries, int bitsPerEntry) {
+    return Math.toIntExact(((long) entries * bitsPerEntry + 7) / 8);
+  }
+
+  /** Packs the lowest bitsPerEntry bits of every entry. */
+  static byte[] pack(int[] entries, int bitsPerEntry) {
+    byte[] packed = new byte[packedSize(entries.length, bitsPerEntry)];
+    long buffer = 0;
+    int bufferedBits = 0;
+    int position = 0;
+    long mask = (1L << bitsPerEntry) - 1;
+    for (int entry : entries) {
+      buffer = (buffer << bitsPerEntry) | (entry & mask);
+      bufferedBits += bitsPerEntry;
+      while (bufferedBits >= 8) {
+        bufferedBits -= 8;
+        packed[position++] = (byte) (buffer >>> bufferedBits);
+      }
+    }
+    if (bufferedBits > 0) {
+      packed[position] = (byte) (buffer << (8 - bufferedBits));
+    }
+    return packed;
+  }
+
+  static int[] unpack(byte[] packed, int entries, int bitsPerEntry) {
+    int[] unpacked = new int[entries];
+    long buffer = 0;
+    int bufferedBits = 0;
+    int position = 0;
+    long mask = (1L << bitsPerEntry) - 1;
+    for (int i = 0; i < entries; i++) {
+      while (bufferedBits < bitsPerEntry) {
+        buffer = (buffer << 8) | (packed[position++] & 0xff);
+        bufferedBits += 8;
+      }
+      bufferedBits -= bitsPerEntry;
+      unpacked[i] = (int) ((buffer >>> bufferedBits) & mask);
+    }
+    return unpacked;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Reads a {@link CompactBloomFilter} written by {@link BloomFilterWriter}. */
+public class BloomFilterReader {
+
+  private BloomFilterReader() {}
+
+  /**
+   * Reads a filter from the stream. Only the bytes of the filter are consumed, the stream is not
+   * closed.
+   *
+   * @param in the stream positioned at the start of the header
+   * @return the filter
+   * @throws IOException if the stream ends early or doesn't contain a filter of a known version
+   */
+  public static CompactBloomFilter read(InputStream in) throws IOException {
+    DataInputStream dataIn = new DataInputStream(in);
+    byte[] magic = new byte[BloomFilterWriter.MAGIC.length];
+    dataIn.readFully(magic);
+    if (!Arrays.equals(magic, BloomFilterWriter.MAGIC)) {
+      throw new IOException("Not a bloom filter");
+    }
+    int version = dataIn.readUnsignedByte();
+    if (version != BloomFilterWriter.FORMAT_VERSION) {
+      throw new IOException("Unsupported bloom filter version: " + version);
+    }
+    int hashAlgorithm = dataIn.readUnsignedByte();
+    if (hashAlgorithm != BloomFilterWriter.HASH_SHA_256) {
+      throw new IOException("Unsupported bloom filter hash: " + hashAlgorithm);
+    }
+    int numHashFunctions = dataIn.readUnsignedByte();
+    dataIn.readUnsignedByte();
+    int numBits = dataIn.readInt();
+    int size = dataIn.readInt();
+    if (numHashFunctions < 1 || numBits < 1 || size < 0) {
+      throw new IOException("Invalid bloom filter header");
+    }
+    byte[] bits = new byte[BitPacking.packedSize(numBits, 1)];
+    dataIn.readFully(bits);
+    return new CompactBloomFilter(numBits, numHashFunctions, size, bits);
+  }
+}
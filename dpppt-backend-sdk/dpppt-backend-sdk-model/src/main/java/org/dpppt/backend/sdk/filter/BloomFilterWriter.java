@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Writes a {@link CompactBloomFilter} in the binary format described in the README. */
+public class BloomFilterWriter {
+
+  static final byte[] MAGIC = {'D', 'P', 'B', 'F'};
+  static final int FORMAT_VERSION = 1;
+  static final int HASH_SHA_256 = 1;
+  static final int HEADER_SIZE = 16;
+
+  private BloomFilterWriter() {}
+
+  /**
+   * Writes the header followed by the bits of the filter. The stream is not closed.
+   *
+   * @param filter the filter to write
+   * @param out the target stream
+   * @throws IOException
+   */
+  public static void write(CompactBloomFilter filter, OutputStream out) throws IOException {
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.write(MAGIC);
+    dataOut.writeByte(FORMAT_VERSION);
+    dataOut.writeByte(HASH_SHA_256);
+    dataOut.writeByte(filter.getNumHashFunctions());
+    // reserved
+    dataOut.writeByte(0);
+    dataOut.writeInt(filter.getNumBits());
+    dataOut.writeInt(filter.size());
+    dataOut.write(filter.getBits());
+    dataOut.flush();
+  }
+
+  /** @return the number of bytes written by {@link #write(CompactBloomFilter, OutputStream)} */
+  public static long serializedSize(CompactBloomFilter filter) {
+    return HEADER_SIZE + filter.getBits().length;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter with the hashing and bit layout of the format described in the README. Use {@link
+ * BloomFilterWriter} and {@link BloomFilterReader} to encode and decode it.
+ *
+ * <p>A filter is not thread safe while elements are added.
+ */
+public class CompactBloomFilter implements MembershipFilter {
+
+  private static final int MAX_HASH_FUNCTIONS = 255;
+
+  private final int numBits;
+  private final int numHashFunctions;
+  /** Bit i is the bit (7 - i % 8) of byte i / 8, i.e. the bits are stored msb first. */
+  private final byte[] bits;
+
+  private int size;
+
+  CompactBloomFilter(int numBits, int numHashFunctions, int size, byte[] bits) {
+    this.numBits = numBits;
+    this.numHashFunctions = numHashFunctions;
+    this.size = size;
+    this.bits = bits;
+  }
+
+  /**
+   * Creates an empty filter for the given number of elements.
+   *
+   * @param expectedElements the number of elements which will be added
+   * @param fpp the desired false positive probability, between 0 and 1 (exclusive)
+   * @return an empty filter
+   */
+  public static CompactBloomFilter create(int expectedElements, double fpp) {
+    if (expectedElements < 0) {
+      throw new IllegalArgumentException("expectedElements must not be negative");
+    }
+    if (!(fpp > 0 && fpp < 1)) {
+      throw new IllegalArgumentException("fpp must be between 0 and 1");
+    }
+    // the usual optimum: m = -n ln(p) / ln(2)^2 and k = m / n ln(2)
+    long optimalBits =
+        (long) Math.ceil(-Math.max(1, expectedElements) * Math.log(fpp) / Math.pow(Math.log(2), 2));
+    int numBits = (int) Math.min(Integer.MAX_VALUE - 7L, Math.max(Byte.SIZE, optimalBits));
+    int numHashFunctions =
+        (int)
+            Math.max(
+                1,
+                Math.min(
+                    MAX_HASH_FUNCTIONS,
+                    Math.round((double) numBits / Math.max(1, expectedElements) * Math.log(2))));
+    return new CompactBloomFilter(
+        numBits, numHashFunctions, 0, new byte[BitPacking.packedSize(numBits, 1)]);
+  }
+
+  /**
+   * Creates a filter containing all given elements.
+   *
+   * @param elements the elements of the filter
+   * @param fpp the desired false positive probability, between 0 and 1 (exclusive)
+   * @return a filter containing all elements
+   */
+  public static CompactBloomFilter of(Collection<byte[]> elements, double fpp) {
+    CompactBloomFilter filter = create(elements.size(), fpp);
+    for (byte[] element : elements) {
+      filter.put(element);
+    }
+    return filter;
+  }
+
+  /**
+   * Adds an element to the filter. Contrary to a cuckoo filter, this always succeeds, the false
+   * positive rate just grows if more elements than expected are added.
+   *
+   * @param element the element to add
+   */
+  public void put(byte[] element) {
+    byte[] hash = FilterHashing.sha256(element);
+    long hash1 = FilterHashing.readLong(hash, 0);
+    long hash2 = FilterHashing.readLong(hash, 8);
+    for (int i = 0; i < numHashFunctions; i++) {
+      int bit = bitIndex(hash1, hash2, i);
+      bits[bit >>> 3] |= (byte) (0x80 >>> (bit & 7));
+    }
+    size++;
+  }
+
+  @Override
+  public boolean mightContain(byte[] element) {
+    byte[] hash = FilterHashing.sha256(element);
+    long hash1 = FilterHashing.readLong(hash, 0);
+    long hash2 = FilterHashing.readLong(hash, 8);
+    for (int i = 0; i < numHashFunctions; i++) {
+      int bit = bitIndex(hash1, hash2, i);
+      if ((bits[bit >>> 3] & (0x80 >>> (bit & 7))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public int getNumBits() {
+    return numBits;
+  }
+
+  public int getNumHashFunctions() {
+    return numHashFunctions;
+  }
+
+  byte[] getBits() {
+    return bits;
+  }
+
+  /** The i-th bit of an element is (hash1 + i * hash2) mod numBits (double hashing). */
+  private int bitIndex(long hash1, long hash2, int i) {
+    return (int) Long.remainderUnsigned(hash1 + i * hash2, numBits);
+  }
+}
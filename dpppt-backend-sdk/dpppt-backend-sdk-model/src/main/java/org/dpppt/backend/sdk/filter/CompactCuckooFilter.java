@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Cuckoo filter whose hashing and table layout are fixed by the binary format described in the
+ * README of this package, so that it can be read by any client and not only by the JVM. Use
+ * {@link CuckooFilterWriter} and {@link CuckooFilterReader} to encode and decode it.
+ *
+ * <p>A filter is not thread safe while elements are added.
+ */
+public class CompactCuckooFilter implements MembershipFilter {
+
+  public static final int DEFAULT_ENTRIES_PER_BUCKET = 4;
+
+  private static final double MAX_LOAD_FACTOR = 0.95;
+  private static final int MAX_KICKS = 500;
+  private static final double GROWTH_ON_FAILURE = 1.1;
+
+  private final int numBuckets;
+  private final int entriesPerBucket;
+  private final int bitsPerFingerprint;
+  /** The fingerprints of bucket i are at [i * entriesPerBucket, (i + 1) * entriesPerBucket). */
+  private final int[] table;
+
+  private int size;
+  // fixed seed, so the same elements added in the same order always give the same table
+  private final Random random = new Random(0);
+
+  CompactCuckooFilter(
+      int numBuckets, int entriesPerBucket, int bitsPerFingerprint, int size, int[] table) {
+    this.numBuckets = numBuckets;
+    this.entriesPerBucket = entriesPerBucket;
+    this.bitsPerFingerprint = bitsPerFingerprint;
+    this.size = size;
+    this.table = table;
+  }
+
+  /**
+   * Creates an empty filter for the given number of elements.
+   *
+   * @param expectedElements the number of elements which will be added
+   * @param fpp the desired false positive probability, between 0 and 1 (exclusive)
+   * @return an empty filter
+   */
+  public static CompactCuckooFilter create(int expectedElements, double fpp) {
+    if (expectedElements < 0) {
+      throw new IllegalArgumentException("expectedElements must not be negative");
+    }
+    if (!(fpp > 0 && fpp < 1)) {
+      throw new IllegalArgumentException("fpp must be between 0 and 1");
+    }
+    int numBuckets =
+        (int)
+            Math.max(
+                1,
+                Math.ceil(expectedElements / (DEFAULT_ENTRIES_PER_BUCKET * MAX_LOAD_FACTOR)));
+    return new CompactCuckooFilter(
+        numBuckets,
+        DEFAULT_ENTRIES_PER_BUCKET,
+        bitsPerFingerprint(fpp),
+        0,
+        new int[Math.multiplyExact(numBuckets, DEFAULT_ENTRIES_PER_BUCKET)]);
+  }
+
+  /**
+   * Creates a filter containing all given elements. If the elements don't fit into the table, the
+   * table is enlarged until they do.
+   *
+   * @param elements the elements of the filter
+   * @param fpp the desired false positive probability, between 0 and 1 (exclusive)
+   * @return a filter containing all elements
+   */
+  public static CompactCuckooFilter of(Collection<byte[]> elements, double fpp) {
+    CompactCuckooFilter filter = create(elements.size(), fpp);
+    while (!filter.putAll(elements)) {
+      int numBuckets = (int) Math.ceil(filter.numBuckets * GROWTH_ON_FAILURE);
+      filter =
+          new CompactCuckooFilter(
+              numBuckets,
+              filter.entriesPerBucket,
+              filter.bitsPerFingerprint,
+              0,
+              new int[Math.multiplyExact(numBuckets, filter.entriesPerBucket)]);
+    }
+    return filter;
+  }
+
+  private boolean putAll(Collection<byte[]> elements) {
+    for (byte[] element : elements) {
+      if (!put(element)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds an element to the filter.
+   *
+   * @param element the element to add
+   * @return false if the table is too full to add the element. The filter is left unchanged in
+   *     this case.
+   */
+  public boolean put(byte[] element) {
+    byte[] hash = FilterHashing.sha256(element);
+    int fingerprint = fingerprint(hash);
+    int index = index(hash);
+    if (insert(index, fingerprint) || insert(alternateIndex(index, fingerprint), fingerprint)) {
+      size++;
+      return true;
+    }
+
+    // kick out existing fingerprints to their alternate bucket, the kicks are recorded to undo
+    // them if no free entry is found
+    int[] kickedSlots = new int[MAX_KICKS];
+    int[] kickedFingerprints = new int[MAX_KICKS];
+    if (random.nextBoolean()) {
+      index = alternateIndex(index, fingerprint);
+    }
+    for (int kick = 0; kick < MAX_KICKS; kick++) {
+      int slot = index * entriesPerBucket + random.nextInt(entriesPerBucket);
+      int kicked = table[slot];
+      kickedSlots[kick] = slot;
+      kickedFingerprints[kick] = kicked;
+      table[slot] = fingerprint;
+      fingerprint = kicked;
+      index = alternateIndex(index, fingerprint);
+      if (insert(index, fingerprint)) {
+        size++;
+        return true;
+      }
+    }
+    for (int kick = MAX_KICKS - 1; kick >= 0; kick--) {
+      table[kickedSlots[kick]] = kickedFingerprints[kick];
+    }
+    return false;
+  }
+
+  @Override
+  public boolean mightContain(byte[] element) {
+    byte[] hash = FilterHashing.sha256(element);
+    int fingerprint = fingerprint(hash);
+    int index = index(hash);
+    return bucketContains(index, fingerprint)
+        || bucketContains(alternateIndex(index, fingerprint), fingerprint);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public int getNumBuckets() {
+    return numBuckets;
+  }
+
+  public int getEntriesPerBucket() {
+    return entriesPerBucket;
+  }
+
+  public int getBitsPerFingerprint() {
+    return bitsPerFingerprint;
+  }
+
+  int[] getTable() {
+    return table;
+  }
+
+  private boolean insert(int index, int fingerprint) {
+    int start = index * entriesPerBucket;
+    for (int slot = start; slot < start + entriesPerBucket; slot++) {
+      if (table[slot] == 0) {
+        table[slot] = fingerprint;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean bucketContains(int index, int fingerprint) {
+    int start = index * entriesPerBucket;
+    for (int slot = start; slot < start + entriesPerBucket; slot++) {
+      if (table[slot] == fingerprint) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The bucket index is the first 8 bytes of the hash as unsigned integer modulo numBuckets. */
+  private int index(byte[] hash) {
+    return (int) Long.remainderUnsigned(FilterHashing.readLong(hash, 0), numBuckets);
+  }
+
+  /** The fingerprint is the highest bits of the bytes 8 to 11 of the hash, 0 is replaced by 1. */
+  private int fingerprint(byte[] hash) {
+    long bits = (FilterHashing.readInt(hash, 8) & 0xffffffffL) >>> (Integer.SIZE - bitsPerFingerprint);
+    return bits == 0 ? 1 : (int) bits;
+  }
+
+  /**
+   * (h(fingerprint) - index) mod numBuckets. Applied twice, this gives back the original index for
+   * any number of buckets, so the table doesn't need to be a power of two.
+   */
+  private int alternateIndex(int index, int fingerprint) {
+    long fingerprintHash = ((fingerprint & 0xffffffffL) * 0x5bd1e995L) & 0xffffffffL;
+    return (int) Math.floorMod(fingerprintHash - index, (long) numBuckets);
+  }
+
+  static int bitsPerFingerprint(double fpp) {
+    // an element is looked up in 2 buckets, each fingerprint matches with probability 2^-f
+    int bits = (int) Math.ceil(FilterHashing.log2(2 * DEFAULT_ENTRIES_PER_BUCKET / fpp));
+    return Math.max(1, Math.min(Integer.SIZE, bits));
+  }
+}
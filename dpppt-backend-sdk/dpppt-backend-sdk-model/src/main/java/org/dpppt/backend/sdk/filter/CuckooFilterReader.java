@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Reads a {@link CompactCuckooFilter} written by {@link CuckooFilterWriter}. */
+public class CuckooFilterReader {
+
+  private CuckooFilterReader() {}
+
+  /**
+   * Reads a filter from the stream. Only the bytes of the filter are consumed, the stream is not
+   * closed.
+   *
+   * @param in the stream positioned at the start of the header
+   * @return the filter
+   * @throws IOException if the stream ends early or doesn't contain a filter of a known version
+   */
+  public static CompactCuckooFilter read(InputStream in) throws IOException {
+    DataInputStream dataIn = new DataInputStream(in);
+    byte[] magic = new byte[CuckooFilterWriter.MAGIC.length];
+    dataIn.readFully(magic);
+    if (!Arrays.equals(magic, CuckooFilterWriter.MAGIC)) {
+      throw new IOException("Not a cuckoo filter");
+    }
+    int version = dataIn.readUnsignedByte();
+    if (version != CuckooFilterWriter.FORMAT_VERSION) {
+      throw new IOException("Unsupported cuckoo filter version: " + version);
+    }
+    int hashAlgorithm = dataIn.readUnsignedByte();
+    if (hashAlgorithm != CuckooFilterWriter.HASH_SHA_256) {
+      throw new IOException("Unsupported cuckoo filter hash: " + hashAlgorithm);
+    }
+    int bitsPerFingerprint = dataIn.readUnsignedByte();
+    int entriesPerBucket = dataIn.readUnsignedByte();
+    int numBuckets = dataIn.readInt();
+    int size = dataIn.readInt();
+    if (bitsPerFingerprint < 1
+        || bitsPerFingerprint > Integer.SIZE
+        || entriesPerBucket < 1
+        || numBuckets < 1
+        || size < 0) {
+      throw new IOException("Invalid cuckoo filter header");
+    }
+    int entries;
+    try {
+      entries = Math.multiplyExact(numBuckets, entriesPerBucket);
+    } catch (ArithmeticException e) {
+      throw new IOException("Invalid cuckoo filter header", e);
+    }
+    byte[] packed = new byte[BitPacking.packedSize(entries, bitsPerFingerprint)];
+    dataIn.readFully(packed);
+    return new CompactCuckooFilter(
+        numBuckets,
+        entriesPerBucket,
+        bitsPerFingerprint,
+        size,
+        BitPacking.unpack(packed, entries, bitsPerFingerprint));
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The hashing shared by all filter formats, see the README. */
+class FilterHashing {
+
+  private static final ThreadLocal<MessageDigest> SHA_256 =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+              throw new IllegalStateException("SHA-256 is not available", e);
+            }
+          });
+
+  private FilterHashing() {}
+
+  static byte[] sha256(byte[] element) {
+    return SHA_256.get().digest(element);
+  }
+
+  /** Reads 8 bytes as big endian integer. */
+  static long readLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + Long.BYTES; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  /** Reads 4 bytes as big endian integer. */
+  static int readInt(byte[] bytes, int offset) {
+    int value = 0;
+    for (int i = offset; i < offset + Integer.BYTES; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  static double log2(double value) {
+    return Math.log(value) / Math.log(2);
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+/** An approximate membership filter: no false negatives, but false positives are possible. */
+public interface MembershipFilter {
+
+  /**
+   * @param element the element to look up
+   * @return false if the element was definitely not added, true if it probably was
+   */
+  boolean mightContain(byte[] element);
+
+  /** @return the number of added elements */
+  int size();
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Static xor filter (Graf and Lemire, "Xor Filters: Faster and Smaller Than Bloom and Cuckoo
+ * Filters") with the hashing and layout of the format described in the README. A xor filter can
+ * only be built from all elements at once and not be changed afterwards, which fits exports that
+ * are built once per release bucket. It needs about 1.23 * f bits per element for a false positive
+ * rate of 2^-f. Use {@link XorFilterWriter} and {@link XorFilterReader} to encode and decode it.
+ */
+public class XorFilter implements MembershipFilter {
+
+  private static final int MAX_ATTEMPTS = 100;
+
+  private final int segmentLength;
+  private final int bitsPerFingerprint;
+  private final long seed;
+  private final int size;
+  /** Three segments of segmentLength entries each. */
+  private final int[] fingerprints;
+
+  XorFilter(int segmentLength, int bitsPerFingerprint, long seed, int size, int[] fingerprints) {
+    this.segmentLength = segmentLength;
+    this.bitsPerFingerprint = bitsPerFingerprint;
+    this.seed = seed;
+    this.size = size;
+    this.fingerprints = fingerprints;
+  }
+
+  /**
+   * Builds a filter containing all given elements.
+   *
+   * @param elements the elements of the filter
+   * @param fpp the desired false positive probability, between 0 and 1 (exclusive)
+   * @return a filter containing all elements
+   */
+  public static XorFilter of(Collection<byte[]> elements, double fpp) {
+    if (!(fpp > 0 && fpp < 1)) {
+      throw new IllegalArgumentException("fpp must be between 0 and 1");
+    }
+    int bitsPerFingerprint =
+        Math.max(1, Math.min(Integer.SIZE, (int) Math.ceil(-FilterHashing.log2(fpp))));
+
+    // the construction fails for duplicates, so they are removed first
+    long[] keys = new long[elements.size()];
+    int count = 0;
+    for (byte[] element : elements) {
+      keys[count++] = key(element);
+    }
+    Arrays.sort(keys);
+    int uniqueKeys = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (i == 0 || keys[i] != keys[i - 1]) {
+        keys[uniqueKeys++] = keys[i];
+      }
+    }
+
+    int segmentLength = (int) Math.ceil((32 + Math.ceil(1.23 * uniqueKeys)) / 3);
+    int arrayLength = 3 * segmentLength;
+    long[] stackHashes = new long[uniqueKeys];
+    int[] stackIndexes = new int[uniqueKeys];
+    int[] counts = new int[arrayLength];
+    long[] xorHashes = new long[arrayLength];
+    int[] queue = new int[arrayLength];
+
+    for (long seed = 0; seed < MAX_ATTEMPTS; seed++) {
+      Arrays.fill(counts, 0);
+      Arrays.fill(xorHashes, 0);
+      for (int i = 0; i < uniqueKeys; i++) {
+        long hash = hash(keys[i], seed);
+        for (int j = 0; j < 3; j++) {
+          int index = position(hash, j, segmentLength);
+          counts[index]++;
+          xorHashes[index] ^= hash;
+        }
+      }
+
+      // peel off entries which belong to a single element, until none are left
+      int queueSize = 0;
+      for (int i = 0; i < arrayLength; i++) {
+        if (counts[i] == 1) {
+          queue[queueSize++] = i;
+        }
+      }
+      int stackSize = 0;
+      while (queueSize > 0) {
+        int index = queue[--queueSize];
+        if (counts[index] != 1) {
+          continue;
+        }
+        long hash = xorHashes[index];
+        stackHashes[stackSize] = hash;
+        stackIndexes[stackSize] = index;
+        stackSize++;
+        for (int j = 0; j < 3; j++) {
+          int other = position(hash, j, segmentLength);
+          counts[other]--;
+          xorHashes[other] ^= hash;
+          if (counts[other] == 1) {
+            queue[queueSize++] = other;
+          }
+        }
+      }
+      if (stackSize < uniqueKeys) {
+        continue;
+      }
+
+      // assign the fingerprints in reverse order, so every entry is only written once
+      int[] fingerprints = new int[arrayLength];
+      for (int i = stackSize - 1; i >= 0; i--) {
+        long hash = stackHashes[i];
+        fingerprints[stackIndexes[i]] =
+            fingerprint(hash, bitsPerFingerprint)
+                ^ fingerprints[position(hash, 0, segmentLength)]
+                ^ fingerprints[position(hash, 1, segmentLength)]
+                ^ fingerprints[position(hash, 2, segmentLength)];
+      }
+      return new XorFilter(segmentLength, bitsPerFingerprint, seed, elements.size(), fingerprints);
+    }
+    throw new IllegalStateException("Could not build xor filter in " + MAX_ATTEMPTS + " attempts");
+  }
+
+  @Override
+  public boolean mightContain(byte[] element) {
+    long hash = hash(key(element), seed);
+    int fingerprint =
+        fingerprints[position(hash, 0, segmentLength)]
+            ^ fingerprints[position(hash, 1, segmentLength)]
+            ^ fingerprints[position(hash, 2, segmentLength)];
+    return fingerprint == fingerprint(hash, bitsPerFingerprint);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public int getSegmentLength() {
+    return segmentLength;
+  }
+
+  public int getBitsPerFingerprint() {
+    return bitsPerFingerprint;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  int[] getFingerprints() {
+    return fingerprints;
+  }
+
+  /** The key of an element is the first 8 bytes of its SHA-256 hash. */
+  private static long key(byte[] element) {
+    return FilterHashing.readLong(FilterHashing.sha256(element), 0);
+  }
+
+  /** The finalizer of murmur3 (fmix64) applied to key + seed. */
+  private static long hash(long key, long seed) {
+    long hash = key + seed;
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /** The lowest 32 bits of hash rotated left by 0, 21 and 42 bits, mapped to segment j. */
+  private static int position(long hash, int j, int segmentLength) {
+    long rotated = Long.rotateLeft(hash, 21 * j);
+    return (int) (((rotated & 0xffffffffL) * segmentLength) >>> 32) + j * segmentLength;
+  }
+
+  /** The lowest f bits of hash xor (hash >>> 32). */
+  private static int fingerprint(long hash, int bitsPerFingerprint) {
+    return (int) ((hash ^ (hash >>> 32)) & ((1L << bitsPerFingerprint) - 1));
+  }
+}
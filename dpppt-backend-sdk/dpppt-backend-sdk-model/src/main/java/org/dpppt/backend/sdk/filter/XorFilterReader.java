@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Reads a {@link XorFilter} written by {@link XorFilterWriter}. */
+public class XorFilterReader {
+
+  private XorFilterReader() {}
+
+  /**
+   * Reads a filter from the stream. Only the bytes of the filter are consumed, the stream is not
+   * closed.
+   *
+   * @param in the stream positioned at the start of the header
+   * @return the filter
+   * @throws IOException if the stream ends early or doesn't contain a filter of a known version
+   */
+  public static XorFilter read(InputStream in) throws IOException {
+    DataInputStream dataIn = new DataInputStream(in);
+    byte[] magic = new byte[XorFilterWriter.MAGIC.length];
+    dataIn.readFully(magic);
+    if (!Arrays.equals(magic, XorFilterWriter.MAGIC)) {
+      throw new IOException("Not a xor filter");
+    }
+    int version = dataIn.readUnsignedByte();
+    if (version != XorFilterWriter.FORMAT_VERSION) {
+      throw new IOException("Unsupported xor filter version: " + version);
+    }
+    int hashAlgorithm = dataIn.readUnsignedByte();
+    if (hashAlgorithm != XorFilterWriter.HASH_SHA_256) {
+      throw new IOException("Unsupported xor filter hash: " + hashAlgorithm);
+    }
+    int bitsPerFingerprint = dataIn.readUnsignedByte();
+    dataIn.readUnsignedByte();
+    int segmentLength = dataIn.readInt();
+    int size = dataIn.readInt();
+    long seed = dataIn.readLong();
+    if (bitsPerFingerprint < 1
+        || bitsPerFingerprint > Integer.SIZE
+        || segmentLength < 1
+        || segmentLength > Integer.MAX_VALUE / 3
+        || size < 0) {
+      throw new IOException("Invalid xor filter header");
+    }
+    int entries = 3 * segmentLength;
+    byte[] packed = new byte[BitPacking.packedSize(entries, bitsPerFingerprint)];
+    dataIn.readFully(packed);
+    return new XorFilter(
+        segmentLength,
+        bitsPerFingerprint,
+        seed,
+        size,
+        BitPacking.unpack(packed, entries, bitsPerFingerprint));
+  }
+}
@@ -2,7 +2,10 @@
 
 import ch.ubique.openapi.docannotations.Documentation;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
 import javax.validation.constraints.NotNull;
@@ -11,6 +14,9 @@
 /**
  * A GaenKey is a Temporary Exposure Key of a person being infected, so it's also an Exposed Key. To
  * protect timing attacks, a key can be invalidated by the client by setting _fake_ to 1.
+ *
+ * <p>The key data is kept in the representation it was set with, either base64 (JSON) or raw bytes
+ * (database, exports), and is converted at most once when the other representation is needed.
  */
 public class GaenKey {
   public static final Integer GaenKeyDefaultRollingPeriod = 144;
@@ -20,6 +26,8 @@ public class GaenKey {
   @Documentation(description = "Represents the 16-byte Temporary Exposure Key in base64")
   private String keyData;
 
+  @JsonIgnore private byte[] keyBytes;
+
   @NotNull
   @Documentation(
       description =
@@ -88,11 +96,33 @@ public GaenKey(
   }
 
   public String getKeyData() {
+    if (this.keyData == null && this.keyBytes != null) {
+      this.keyData = Base64.getEncoder().encodeToString(this.keyBytes);
+    }
     return this.keyData;
   }
 
   public void setKeyData(String keyData) {
     this.keyData = keyData;
+    this.keyBytes = null;
+  }
+
+  /**
+   * @return the decoded key data, the returned array must not be modified
+   * @throws IllegalArgumentException if the key data is not valid base64
+   */
+  @JsonIgnore
+  public byte[] getKeyBytes() {
+    if (this.keyBytes == null && this.keyData != null) {
+      this.keyBytes = Base64.getDecoder().decode(this.keyData);
+    }
+    return this.keyBytes;
+  }
+
+  @JsonIgnore
+  public void setKeyBytes(byte[] keyBytes) {
+    this.keyBytes = keyBytes;
+    this.keyData = null;
   }
 
   public Integer getRollingStartNumber() {
@@ -170,7 +200,7 @@ public void setVisitedCountries(List<String> visitedCountries) {
   @Override
   public String toString() {
     return "GaenKey{" +
-            "keyData='" + keyData + '\'' +
+            "keyData='" + getKeyData() + '\'' +
             ", rollingStartNumber=" + rollingStartNumber +
             ", rollingPeriod=" + rollingPeriod +
             ", transmissionRiskLevel=" + transmissionRiskLevel +
@@ -17,8 +17,8 @@ public class Version implements Comparable<Version> {
 
   // Pattern copied from
   // https://semver.org/#is-there-a-suggested-regular-expression-regex-to-check-a-semver-string
-  // and adapted for the mobile strings.
-  private final Pattern semVerPattern =
+  // and adapted for the mobile strings. Compiled once and shared, a Pattern is thread safe.
+  private static final Pattern SEM_VER_PATTERN =
       Pattern.compile(
           "^(?:(?<platform>ios|android)-)?(?<major>0|[1-9]\\d*)(\\.(?<minor>0|[1-9]\\d*))?(\\.(?<patch>0|[1-9]\\d*))?(?:-(?<prerelease>(?:0|[1-9]\\d*|\\d*[a-zA-Z-][0-9a-zA-Z-]*)(?:\\.(?:0|[1-9]\\d*|\\d*[a-zA-Z-][0-9a-zA-Z-]*))*))?(?:\\+(?<buildmetadata>[0-9a-zA-Z-]+(?:\\.[0-9a-zA-Z-]+)*))?$");
 
@@ -33,7 +33,7 @@ public Version(String versionString) {
     this.minor = 0;
     this.patch = 0;
 
-    var matches = semVerPattern.matcher(versionString.trim());
+    var matches = SEM_VER_PATTERN.matcher(versionString.trim());
     if (matches.find()) {
       this.major = Integer.parseInt(matches.group("major"));
       if (matches.group("minor") != null) {
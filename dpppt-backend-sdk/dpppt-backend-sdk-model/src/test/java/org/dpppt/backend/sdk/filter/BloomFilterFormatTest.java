@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BloomFilterFormatTest {
+
+  private static final double FPP = 0.01;
+
+  @Test
+  void roundTripKeepsAllElements() throws Exception {
+    List<byte[]> elements = randomElements(10_000, 1);
+    CompactBloomFilter filter = CompactBloomFilter.of(elements, FPP);
+
+    CompactBloomFilter read = BloomFilterReader.read(new ByteArrayInputStream(write(filter)));
+
+    assertEquals(elements.size(), read.size());
+    assertEquals(filter.getNumBits(), read.getNumBits());
+    assertEquals(filter.getNumHashFunctions(), read.getNumHashFunctions());
+    assertArrayEquals(filter.getBits(), read.getBits());
+    for (byte[] element : elements) {
+      assertTrue(read.mightContain(element));
+    }
+  }
+
+  @Test
+  void falsePositiveRateIsBounded() throws Exception {
+    CompactBloomFilter filter =
+        BloomFilterReader.read(
+            new ByteArrayInputStream(write(CompactBloomFilter.of(randomElements(10_000, 2), FPP))));
+
+    int falsePositives = 0;
+    List<byte[]> others = randomElements(100_000, 3);
+    for (byte[] other : others) {
+      if (filter.mightContain(other)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < others.size() * FPP * 1.2, "false positives: " + falsePositives);
+  }
+
+  @Test
+  void headerDescribesTheFilter() throws Exception {
+    CompactBloomFilter filter = CompactBloomFilter.of(randomElements(1000, 4), FPP);
+    byte[] bytes = write(filter);
+
+    assertArrayEquals("DPBF".getBytes(), Arrays.copyOfRange(bytes, 0, 4));
+    assertEquals(1, bytes[4]);
+    assertEquals(1, bytes[5]);
+    // k = m / n ln(2) for m = -n ln(p) / ln(2)^2
+    assertEquals(7, bytes[6]);
+    assertEquals(9586, filter.getNumBits());
+    assertEquals(BloomFilterWriter.serializedSize(filter), bytes.length);
+  }
+
+  @Test
+  void unknownFormatsAreRejected() throws Exception {
+    byte[] bytes = write(CompactBloomFilter.of(randomElements(10, 5), FPP));
+
+    byte[] otherVersion = bytes.clone();
+    otherVersion[4] = 2;
+    assertThrows(
+        IOException.class, () -> BloomFilterReader.read(new ByteArrayInputStream(otherVersion)));
+
+    byte[] otherMagic = bytes.clone();
+    otherMagic[0] = 'X';
+    assertThrows(
+        IOException.class, () -> BloomFilterReader.read(new ByteArrayInputStream(otherMagic)));
+
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+    assertThrows(
+        IOException.class, () -> BloomFilterReader.read(new ByteArrayInputStream(truncated)));
+  }
+  private static byte[] write(CompactBloomFilter filter) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BloomFilterWriter.write(filter, out);
+    return out.toByteArray();
+  }
+
+  private static List<byte[]> randomElements(int count, long seed) {
+    Random random = new Random(seed);
+    List<byte[]> elements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] element = new byte[24];
+      random.nextBytes(element);
+      elements.add(element);
+    }
+    return elements;
+  }
+}
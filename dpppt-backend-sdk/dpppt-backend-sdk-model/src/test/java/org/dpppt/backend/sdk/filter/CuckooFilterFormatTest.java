@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CuckooFilterFormatTest {
+
+  private static final double FPP = 0.01;
+
+  @Test
+  void roundTripKeepsAllElements() throws Exception {
+    List<byte[]> elements = randomElements(10_000, 1);
+    CompactCuckooFilter filter = CompactCuckooFilter.of(elements, FPP);
+
+    CompactCuckooFilter read = CuckooFilterReader.read(new ByteArrayInputStream(write(filter)));
+
+    assertEquals(elements.size(), read.size());
+    assertEquals(filter.getNumBuckets(), read.getNumBuckets());
+    assertEquals(filter.getEntriesPerBucket(), read.getEntriesPerBucket());
+    assertEquals(filter.getBitsPerFingerprint(), read.getBitsPerFingerprint());
+    assertArrayEquals(filter.getTable(), read.getTable());
+    for (byte[] element : elements) {
+      assertTrue(read.mightContain(element));
+    }
+  }
+
+  @Test
+  void falsePositiveRateIsBounded() throws Exception {
+    CompactCuckooFilter filter =
+        CuckooFilterReader.read(
+            new ByteArrayInputStream(write(CompactCuckooFilter.of(randomElements(10_000, 2), FPP))));
+
+    int falsePositives = 0;
+    List<byte[]> others = randomElements(100_000, 3);
+    for (byte[] other : others) {
+      if (filter.mightContain(other)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < others.size() * FPP, "false positives: " + falsePositives);
+  }
+
+  @Test
+  void headerDescribesTheTable() throws Exception {
+    CompactCuckooFilter filter = CompactCuckooFilter.of(randomElements(1000, 4), FPP);
+    byte[] bytes = write(filter);
+
+    assertArrayEquals("DPCF".getBytes(), Arrays.copyOfRange(bytes, 0, 4));
+    assertEquals(1, bytes[4]);
+    assertEquals(1, bytes[5]);
+    assertEquals(10, bytes[6]);
+    assertEquals(4, bytes[7]);
+    assertEquals(CuckooFilterWriter.serializedSize(filter), bytes.length);
+    // 10 bit fingerprints at a load of up to 95%
+    assertTrue(bytes.length < 16 + 1000 * 10 / 8 / 0.9);
+  }
+
+  @Test
+  void bitsArePackedWithoutPadding() {
+    int[] entries = {1, 0, 0x1ff, 0x0aa, 3};
+    byte[] packed = BitPacking.pack(entries, 9);
+    assertEquals(6, packed.length);
+    assertArrayEquals(entries, BitPacking.unpack(packed, entries.length, 9));
+
+    int[] fullWidth = {-1, 0, Integer.MIN_VALUE, 42};
+    assertArrayEquals(fullWidth, BitPacking.unpack(BitPacking.pack(fullWidth, 32), 4, 32));
+  }
+
+  @Test
+  void unknownFormatsAreRejected() throws Exception {
+    byte[] bytes = write(CompactCuckooFilter.of(randomElements(10, 5), FPP));
+
+    byte[] otherVersion = bytes.clone();
+    otherVersion[4] = 2;
+    assertThrows(
+        IOException.class, () -> CuckooFilterReader.read(new ByteArrayInputStream(otherVersion)));
+
+    byte[] otherMagic = bytes.clone();
+    otherMagic[0] = 'X';
+    assertThrows(
+        IOException.class, () -> CuckooFilterReader.read(new ByteArrayInputStream(otherMagic)));
+
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+    assertThrows(
+        IOException.class, () -> CuckooFilterReader.read(new ByteArrayInputStream(truncated)));
+  }
+
+  @Test
+  void fullFilterIsLeftUnchanged() {
+    CompactCuckooFilter filter = CompactCuckooFilter.create(8, FPP);
+    List<byte[]> added = new ArrayList<>();
+    for (byte[] element : randomElements(100, 6)) {
+      int[] before = filter.getTable().clone();
+      if (filter.put(element)) {
+        added.add(element);
+      } else {
+        assertArrayEquals(before, filter.getTable());
+      }
+    }
+    assertEquals(added.size(), filter.size());
+    for (byte[] element : added) {
+      assertTrue(filter.mightContain(element));
+    }
+  }
+
+  private static byte[] write(CompactCuckooFilter filter) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CuckooFilterWriter.write(filter, out);
+    return out.toByteArray();
+  }
+
+  private static List<byte[]> randomElements(int count, long seed) {
+    Random random = new Random(seed);
+    List<byte[]> elements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] element = new byte[24];
+      random.nextBytes(element);
+      elements.add(element);
+    }
+    return elements;
+  }
+}
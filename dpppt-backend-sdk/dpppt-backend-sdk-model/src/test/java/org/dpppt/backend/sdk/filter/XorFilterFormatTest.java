@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.filter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class XorFilterFormatTest {
+
+  private static final double FPP = 0.01;
+
+  @Test
+  void roundTripKeepsAllElements() throws Exception {
+    List<byte[]> elements = randomElements(10_000, 1);
+    XorFilter filter = XorFilter.of(elements, FPP);
+
+    XorFilter read = XorFilterReader.read(new ByteArrayInputStream(write(filter)));
+
+    assertEquals(elements.size(), read.size());
+    assertEquals(filter.getSegmentLength(), read.getSegmentLength());
+    assertEquals(filter.getBitsPerFingerprint(), read.getBitsPerFingerprint());
+    assertEquals(filter.getSeed(), read.getSeed());
+    assertArrayEquals(filter.getFingerprints(), read.getFingerprints());
+    for (byte[] element : elements) {
+      assertTrue(read.mightContain(element));
+    }
+  }
+
+  @Test
+  void falsePositiveRateIsBounded() throws Exception {
+    XorFilter filter =
+        XorFilterReader.read(
+            new ByteArrayInputStream(write(XorFilter.of(randomElements(10_000, 2), FPP))));
+
+    int falsePositives = 0;
+    List<byte[]> others = randomElements(100_000, 3);
+    for (byte[] other : others) {
+      if (filter.mightContain(other)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < others.size() * FPP * 1.2, "false positives: " + falsePositives);
+  }
+
+  @Test
+  void headerDescribesTheFilter() throws Exception {
+    XorFilter filter = XorFilter.of(randomElements(1000, 4), FPP);
+    byte[] bytes = write(filter);
+
+    assertArrayEquals("DPXF".getBytes(), Arrays.copyOfRange(bytes, 0, 4));
+    assertEquals(1, bytes[4]);
+    assertEquals(1, bytes[5]);
+    // 2^-7 < 1%
+    assertEquals(7, bytes[6]);
+    // about 1.23 entries of 7 bits per element
+    assertTrue(bytes.length < 24 + (1.23 * 1000 + 35) * 7 / 8);
+    assertEquals(XorFilterWriter.serializedSize(filter), bytes.length);
+  }
+
+  @Test
+  void unknownFormatsAreRejected() throws Exception {
+    byte[] bytes = write(XorFilter.of(randomElements(10, 5), FPP));
+
+    byte[] otherVersion = bytes.clone();
+    otherVersion[4] = 2;
+    assertThrows(
+        IOException.class, () -> XorFilterReader.read(new ByteArrayInputStream(otherVersion)));
+
+    byte[] otherMagic = bytes.clone();
+    otherMagic[0] = 'X';
+    assertThrows(
+        IOException.class, () -> XorFilterReader.read(new ByteArrayInputStream(otherMagic)));
+
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+    assertThrows(
+        IOException.class, () -> XorFilterReader.read(new ByteArrayInputStream(truncated)));
+  }
+
+  @Test
+  void duplicatesAndEmptyInputsAreSupported() {
+    List<byte[]> elements = randomElements(100, 6);
+    List<byte[]> withDuplicates = new ArrayList<>(elements);
+    withDuplicates.addAll(elements);
+    XorFilter filter = XorFilter.of(withDuplicates, FPP);
+    for (byte[] element : elements) {
+      assertTrue(filter.mightContain(element));
+    }
+
+    XorFilter empty = XorFilter.of(List.of(), FPP);
+    assertEquals(0, empty.size());
+  }
+
+  private static byte[] write(XorFilter filter) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XorFilterWriter.write(filter, out);
+    return out.toByteArray();
+  }
+
+  private static List<byte[]> randomElements(int count, long seed) {
+    Random random = new Random(seed);
+    List<byte[]> elements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] element = new byte[24];
+      random.nextBytes(element);
+      elements.add(element);
+    }
+    return elements;
+  }
+}
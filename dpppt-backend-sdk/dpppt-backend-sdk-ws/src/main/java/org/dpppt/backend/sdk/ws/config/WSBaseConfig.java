@@ -15,27 +15,42 @@
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.hubspot.jackson.datatype.protobuf.ProtobufModule;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
 import net.javacrumbs.shedlock.core.LockProvider;
 import net.javacrumbs.shedlock.provider.jdbctemplate.JdbcTemplateLockProvider;
 import net.javacrumbs.shedlock.spring.annotation.EnableSchedulerLock;
-import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.dpppt.backend.sdk.data.JDBCRedeemDataServiceImpl;
 import org.dpppt.backend.sdk.data.RedeemDataService;
 import org.dpppt.backend.sdk.data.gaen.FakeKeyService;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
 import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.controller.GaenController;
+import org.dpppt.backend.sdk.ws.controller.GaenExceptionHandler;
 import org.dpppt.backend.sdk.ws.controller.GaenV2Controller;
 import org.dpppt.backend.sdk.ws.controller.GaenV2UMAController;
 import org.dpppt.backend.sdk.ws.filter.ResponseWrapperFilter;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
+import org.dpppt.backend.sdk.ws.insertmanager.UploadLog;
+import org.dpppt.backend.sdk.ws.insertmanager.UploadQueue;
+import org.dpppt.backend.sdk.ws.insertmanager.UserAgentCache;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.*;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionmodifier.IOSLegacyProblemRPLT144Modifier;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionmodifier.OldAndroid0RPModifier;
 import org.dpppt.backend.sdk.ws.interceptor.HeaderInjector;
 import org.dpppt.backend.sdk.ws.radarcovid.client.ValidationClientService;
+import org.dpppt.backend.sdk.ws.radarcovid.client.ValidationResultCache;
 import org.dpppt.backend.sdk.ws.radarcovid.client.impl.ValidationClientServiceImpl;
 import org.dpppt.backend.sdk.ws.radarcovid.client.service.ValidationRestClientService;
 import org.dpppt.backend.sdk.ws.radarcovid.client.service.impl.ValidationCircuitBreakerRestClientServiceImpl;
@@ -44,7 +59,17 @@
 import org.dpppt.backend.sdk.ws.security.KeyVault;
 import org.dpppt.backend.sdk.ws.security.NoValidateRequest;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
+import org.dpppt.backend.sdk.ws.security.signature.BloomKeyFilterEngine;
+import org.dpppt.backend.sdk.ws.security.signature.CuckooKeyFilterEngine;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngines;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.security.signature.XorKeyFilterEngine;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor;
+import org.dpppt.backend.sdk.ws.util.ExportCache;
+import org.dpppt.backend.sdk.ws.util.ExportPageTokens;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
+import org.dpppt.backend.sdk.ws.util.SignedExportHttpMessageConverter;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
@@ -57,26 +82,30 @@
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.time.Duration;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.javacrumbs.shedlock.provider.jdbctemplate.JdbcTemplateLockProvider.Configuration.builder;
 
@@ -122,6 +151,47 @@ public abstract class WSBaseConfig implements WebMvcConfigurer {
   @Value("${ws.exposedlist.requestTime: 1500}")
   long requestTime;
 
+  @Value("${ws.exposedlist.cache.enabled: false}")
+  boolean exportCacheEnabled;
+
+  @Value("${ws.exposedlist.cache.maxEntries: 1000}")
+  int exportCacheMaxEntries;
+
+  @Value("${ws.exposedlist.cache.maxBytes: 268435456}")
+  long exportCacheMaxBytes;
+
+  /** Size up to which an export is kept in memory until it is sent, larger ones are spilled. */
+  @Value("${ws.exposedlist.memoryThreshold: 1048576}")
+  int exportMemoryThreshold;
+
+  @Value("${ws.exposedlist.fetchSize: 1000}")
+  int exposedListFetchSize;
+
+  @Value("${ws.exposedlist.pageSize: 10000}")
+  int exposedListPageSize;
+
+  /**
+   * Base64 encoded secret of the continuation tokens, the same for all instances. Paginated
+   * downloads are disabled if not set.
+   */
+  @Value("${ws.exposedlist.continuationTokenSecret:}")
+  String continuationTokenSecret;
+
+  @Value("${ws.exposedlist.uma.filter: cuckoo}")
+  String umaFilterEngine;
+
+  @Value("${ws.exposedlist.uma.fpp: 0.03}")
+  double umaFilterFpp;
+
+  @Value("${ws.exposedlist.uma.allowedFpp.cuckoo: 0.001,0.01,0.03}")
+  List<Double> umaCuckooAllowedFpp;
+
+  @Value("${ws.exposedlist.uma.allowedFpp.bloom: 0.001,0.01,0.03}")
+  List<Double> umaBloomAllowedFpp;
+
+  @Value("${ws.exposedlist.uma.allowedFpp.xor: 0.001,0.01,0.03}")
+  List<Double> umaXorAllowedFpp;
+
   @Value("${ws.app.source}")
   String appSource;
 
@@ -161,6 +231,114 @@ public abstract class WSBaseConfig implements WebMvcConfigurer {
   @Value("${ws.app.efgs.report-type:1}")
   int efgsReportType;
 
+  @Value("${ws.app.jwt.redeemedCacheSize: 100000}")
+  int redeemedCacheSize;
+
+  @Value("${ws.app.gaen.insertmanager.async.queueCapacity: 10000}")
+  int uploadQueueCapacity;
+
+  @Value("${ws.app.gaen.insertmanager.async.writers: 2}")
+  int uploadQueueWriters;
+
+  @Value("${ws.app.gaen.insertmanager.async.maxBatchKeys: 2000}")
+  int uploadQueueMaxBatchKeys;
+
+  @Value("${ws.app.gaen.insertmanager.async.maxBatchDelay: 200}")
+  long uploadQueueMaxBatchDelay;
+
+  @Value("${ws.app.gaen.insertmanager.async.shutdownTimeout: 30000}")
+  long uploadQueueShutdownTimeout;
+
+  @Value("${ws.app.gaen.insertmanager.wal.directory:}")
+  String uploadLogDirectory;
+
+  @Value("${ws.app.gaen.insertmanager.wal.segmentSize: 67108864}")
+  int uploadLogSegmentSize;
+
+  @Value("${ws.app.gaen.insertmanager.wal.maxBatchKeys: 2000}")
+  int uploadLogMaxBatchKeys;
+
+  @Value("${ws.app.gaen.insertmanager.wal.replayInterval: 1000}")
+  long uploadLogReplayInterval;
+
+  @Value("${ws.app.gaen.insertmanager.userAgentCacheSize: 1000}")
+  int userAgentCacheSize;
+
+  @Value("${application.endpoint.validation.maxConnections: 50}")
+  int validationMaxConnections;
+
+  @Value("${application.endpoint.validation.connectTimeout: 1000}")
+  int validationConnectTimeout;
+
+  @Value("${application.endpoint.validation.readTimeout: 3000}")
+  int validationReadTimeout;
+
+  @Value("${application.endpoint.validation.connectionRequestTimeout: 500}")
+  int validationConnectionRequestTimeout;
+
+  @Value("${application.endpoint.validation.circuitbreaker.failureRateThreshold: 50}")
+  float validationFailureRateThreshold;
+
+  @Value("${application.endpoint.validation.circuitbreaker.slidingWindowSize: 20}")
+  int validationSlidingWindowSize;
+
+  @Value("${application.endpoint.validation.circuitbreaker.waitDurationInOpenState: 10000}")
+  long validationWaitDurationInOpenState;
+
+  @Value("${application.endpoint.validation.bulkhead.maxConcurrentCalls: 20}")
+  int validationMaxConcurrentCalls;
+
+  @Value("${application.endpoint.validation.bulkhead.maxWaitDuration: 0}")
+  long validationMaxWaitDuration;
+
+  @Value("${application.endpoint.validation.cache.validTtl: 60000}")
+  long validationCacheValidTtl;
+
+  @Value("${application.endpoint.validation.cache.invalidTtl: 10000}")
+  long validationCacheInvalidTtl;
+
+  @Value("${application.endpoint.validation.cache.maxSize: 10000}")
+  int validationCacheMaxSize;
+
+  @Value("${ws.executor.upload.poolSize: 20}")
+  int uploadExecutorPoolSize;
+
+  @Value("${ws.executor.upload.queueCapacity: 200}")
+  int uploadExecutorQueueCapacity;
+
+  @Value("${ws.executor.upload.timeout: 5000}")
+  long uploadExecutorTimeout;
+
+  @Value("${ws.executor.download.poolSize: 50}")
+  int downloadExecutorPoolSize;
+
+  @Value("${ws.executor.download.queueCapacity: 500}")
+  int downloadExecutorQueueCapacity;
+
+  @Value("${ws.executor.download.timeout: 30000}")
+  long downloadExecutorTimeout;
+
+  @Value("${ws.executor.buckets.poolSize: 4}")
+  int bucketsExecutorPoolSize;
+
+  @Value("${ws.executor.buckets.queueCapacity: 100}")
+  int bucketsExecutorQueueCapacity;
+
+  @Value("${ws.executor.buckets.timeout: 5000}")
+  long bucketsExecutorTimeout;
+
+  @Value("${ws.exposedlist.admission.maxInFlight: 400}")
+  int admissionMaxInFlight;
+
+  @Value("${ws.exposedlist.admission.maxAwaitingConnection: 5}")
+  int admissionMaxAwaitingConnection;
+
+  @Value("${ws.exposedlist.admission.minRetryAfter: 30000}")
+  long admissionMinRetryAfter;
+
+  @Value("${ws.exposedlist.admission.maxRetryAfter: 600000}")
+  long admissionMaxRetryAfter;
+
   @Autowired(required = false)
   ValidateRequest requestValidator;
 
@@ -190,25 +368,12 @@ public String getKeyIdentifier() {
   @Bean
   public FakeKeyService fakeKeyService() {
     try {
-      DataSource fakeDataSource =
-          new EmbeddedDatabaseBuilder()
-              .generateUniqueName(true)
-              .setType(EmbeddedDatabaseType.HSQL)
-              .build();
-      Flyway flyWay =
-          Flyway.configure()
-              .dataSource(fakeDataSource)
-              .locations("classpath:/db/migration/hsqldb")
-              .load();
-      flyWay.migrate();
-      GAENDataService fakeGaenService =
-          new SpanishJDBCGAENDataServiceImpl(
-              "hsql", fakeDataSource, Duration.ofMillis(releaseBucketDuration), timeSkew);
       return new FakeKeyService(
-          fakeGaenService,
           Integer.valueOf(randomkeyamount),
           Integer.valueOf(gaenKeySizeBytes),
           Duration.ofDays(retentionDays),
+          Duration.ofMillis(releaseBucketDuration),
+          timeSkew,
           randomkeysenabled,
           efgsCountryOrigin,
           efgsReportType);
@@ -237,6 +402,7 @@ public ProtoSignature gaenSigner() {
   @Bean
   public InsertManager insertManagerExposed() {
     var manager = new InsertManager(gaenDataService(), gaenValidationUtils());
+    manager.setUserAgentCache(userAgentCache());
     manager.addFilter(new AssertKeyFormat(gaenValidationUtils()));
     manager.addFilter(new EnforceMatchingJWTClaimsForExposed(gaenRequestValidator));
     //manager.addFilter(new RemoveKeysFromFuture());
@@ -250,6 +416,7 @@ public InsertManager insertManagerExposed() {
   @Bean
   public InsertManager insertManagerExposedNextDay() {
     var manager = new InsertManager(gaenDataService(), gaenValidationUtils());
+    manager.setUserAgentCache(userAgentCache());
     manager.addFilter(new AssertKeyFormat(gaenValidationUtils()));
     manager.addFilter(new EnforceMatchingJWTClaimsForExposedNextDay(gaenValidationUtils()));
     manager.addFilter(new RemoveKeysFromFuture());
@@ -260,6 +427,71 @@ public InsertManager insertManagerExposedNextDay() {
     return manager;
   }
 
+  /**
+   * Parsed User-Agent headers of the uploads, shared by both insert managers. Only the headers of
+   * the configured apps are cached.
+   */
+  @Bean
+  public UserAgentCache userAgentCache() {
+    return new UserAgentCache(
+        userAgentCacheSize, Set.copyOf(List.of(getBundleId(), getPackageName())));
+  }
+
+  /**
+   * Writes the uploaded keys in group commits instead of one transaction per upload. An upload is
+   * answered once its group is committed. Uploads are rejected with 503 while the queue is full or
+   * if their group couldn't be written.
+   */
+  @ConditionalOnProperty(
+      value = "ws.app.gaen.insertmanager.async.enabled",
+      havingValue = "true",
+      matchIfMissing = false)
+  @Bean(destroyMethod = "close")
+  public UploadQueue uploadQueue() {
+    var uploadQueue =
+        new UploadQueue(
+            gaenDataService(),
+            uploadQueueCapacity,
+            uploadQueueWriters,
+            uploadQueueMaxBatchKeys,
+            Duration.ofMillis(uploadQueueMaxBatchDelay),
+            Duration.ofMillis(uploadQueueShutdownTimeout));
+    insertManagerExposed().setUploadQueue(uploadQueue);
+    insertManagerExposedNextDay().setUploadQueue(uploadQueue);
+    return uploadQueue;
+  }
+
+  /**
+   * Appends the uploaded keys to a local write-ahead log, which is replayed into the database in
+   * the background. Uploads are still accepted while the database is unavailable. The directory
+   * must be an absolute path on a persistent volume, a path relative to the working directory could
+   * be lost with the container.
+   */
+  @ConditionalOnProperty(
+      value = "ws.app.gaen.insertmanager.wal.enabled",
+      havingValue = "true",
+      matchIfMissing = false)
+  @Bean(destroyMethod = "close")
+  public UploadLog uploadLog() throws IOException {
+    var directory = Path.of(uploadLogDirectory);
+    if (!directory.isAbsolute()) {
+      throw new IllegalStateException(
+          "ws.app.gaen.insertmanager.wal.directory must be an absolute path, but is '"
+              + uploadLogDirectory
+              + "'");
+    }
+    var uploadLog =
+        new UploadLog(
+            directory,
+            uploadLogSegmentSize,
+            gaenDataService(),
+            uploadLogMaxBatchKeys,
+            Duration.ofMillis(uploadLogReplayInterval));
+    insertManagerExposed().setUploadLog(uploadLog);
+    insertManagerExposedNextDay().setUploadLog(uploadLog);
+    return uploadLog;
+  }
+
   /**
    * Even though there are probably no android devices left that send TEKs with rollingPeriod of 0,
    * this modifier will not hurt. Every TEK with rollingPeriod of 0 will be reported.
@@ -297,24 +529,135 @@ public ValidationUtils gaenValidationUtils() {
         gaenKeySizeBytes, Duration.ofDays(retentionDays), releaseBucketDuration);
   }
 
+  /**
+   * RestTemplate of the validation service. It keeps up to maxConnections keep-alive connections
+   * and times out connecting, reading and waiting for a pooled connection, so a slow validation
+   * service cannot block upload threads indefinitely.
+   */
   @Bean
-  RestTemplate restTemplate(RestTemplateBuilder builder) {
-    return builder.build();
+  RestTemplate validationRestTemplate(RestTemplateBuilder builder) {
+    var connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(validationMaxConnections);
+    connectionManager.setDefaultMaxPerRoute(validationMaxConnections);
+    var requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(validationConnectTimeout)
+            .setSocketTimeout(validationReadTimeout)
+            .setConnectionRequestTimeout(validationConnectionRequestTimeout)
+            .build();
+    var httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+    return builder
+        .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+        .build();
   }
 
   @Bean
-  ValidationRestClientService validationRetryableRestClientService(RestTemplate restTemplate) {
+  ValidationRestClientService validationRetryableRestClientService(
+      @Qualifier("validationRestTemplate") RestTemplate restTemplate) {
     return new ValidationRetryableRestClientServiceImpl(restTemplate);
   }
 
+  /**
+   * Guards the validation service with a circuit breaker and a bulkhead. At most
+   * maxConcurrentCalls upload threads wait for the validation service, further uploads and all
+   * uploads while the circuit is open are rejected with 503. Client errors of the validation
+   * service do not open the circuit.
+   */
+  @Bean
+  ValidationRestClientService validationCircuitBreakerRestClientService(
+      @Qualifier("validationRetryableRestClientService")
+          ValidationRestClientService validationRestClientService,
+      MeterRegistry meterRegistry) {
+    var circuitBreakerRegistry =
+        CircuitBreakerRegistry.of(
+            CircuitBreakerConfig.custom()
+                .failureRateThreshold(validationFailureRateThreshold)
+                .slidingWindowSize(validationSlidingWindowSize)
+                .waitDurationInOpenState(Duration.ofMillis(validationWaitDurationInOpenState))
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build());
+    var bulkheadRegistry =
+        BulkheadRegistry.of(
+            BulkheadConfig.custom()
+                .maxConcurrentCalls(validationMaxConcurrentCalls)
+                .maxWaitDuration(Duration.ofMillis(validationMaxWaitDuration))
+                .build());
+    var circuitBreaker = circuitBreakerRegistry.circuitBreaker("validation");
+    var bulkhead = bulkheadRegistry.bulkhead("validation");
+    TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry)
+        .bindTo(meterRegistry);
+    TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+    return new ValidationCircuitBreakerRestClientServiceImpl(
+        validationRestClientService, circuitBreaker, bulkhead, meterRegistry);
+  }
+
+  /**
+   * Recent TAN validation results, so client retries of an upload do not call the validation
+   * service again. Concurrent validations of the same TAN share one call.
+   */
   @Bean
-  ValidationRestClientService validationCircuitBreakerRestClientService(@Qualifier("validationRetryableRestClientService") ValidationRestClientService validationRestClientService) {
-    return new ValidationCircuitBreakerRestClientServiceImpl(validationRestClientService);
+  ValidationResultCache validationResultCache() {
+    return new ValidationResultCache(
+        Duration.ofMillis(validationCacheValidTtl),
+        Duration.ofMillis(validationCacheInvalidTtl),
+        validationCacheMaxSize);
   }
 
   @Bean
   ValidationClientService validationClientService(@Qualifier("validationCircuitBreakerRestClientService") ValidationRestClientService validationRestClientService) {
-    return new ValidationClientServiceImpl(validationRestClientService);
+    return new ValidationClientServiceImpl(validationRestClientService, validationResultCache());
+  }
+
+  /**
+   * Every class of endpoints runs on an executor of its own, so a download storm after a bucket
+   * release can't starve the uploads. Requests are rejected with 503 while the queue of their
+   * executor is full or answered with 503 if they waited in the queue longer than the timeout.
+   */
+  @Bean
+  public EndpointExecutor uploadExecutor() {
+    return new EndpointExecutor(
+        "upload",
+        uploadExecutorPoolSize,
+        uploadExecutorQueueCapacity,
+        Duration.ofMillis(uploadExecutorTimeout));
+  }
+
+  @Bean
+  public EndpointExecutor downloadExecutor() {
+    return new EndpointExecutor(
+        "download",
+        downloadExecutorPoolSize,
+        downloadExecutorQueueCapacity,
+        Duration.ofMillis(downloadExecutorTimeout));
+  }
+
+  @Bean
+  public EndpointExecutor bucketsExecutor() {
+    return new EndpointExecutor(
+        "buckets",
+        bucketsExecutorPoolSize,
+        bucketsExecutorQueueCapacity,
+        Duration.ofMillis(bucketsExecutorTimeout));
+  }
+
+  /**
+   * Rejects downloads with 503 and a jittered Retry-After while too many downloads are in flight or
+   * the database pool is saturated, before they reach the database.
+   */
+  @Bean
+  public DownloadAdmissionControl downloadAdmissionControl() {
+    return new DownloadAdmissionControl(
+        downloadExecutor(),
+        admissionMaxInFlight,
+        dataSource(),
+        admissionMaxAwaitingConnection,
+        Duration.ofMillis(releaseBucketDuration),
+        Duration.ofMillis(admissionMinRetryAfter),
+        Duration.ofMillis(admissionMaxRetryAfter));
   }
 
   @Bean
@@ -334,7 +677,12 @@ public GaenController gaenController() {
         Duration.ofMillis(releaseBucketDuration),
         Duration.ofMillis(requestTime),
         Duration.ofMillis(exposedListCacheControl),
-        keyVault.get("nextDayJWT").getPrivate());
+        keyVault.get("nextDayJWT").getPrivate(),
+        requestTimeNormalizer(),
+        uploadExecutor(),
+        downloadExecutor(),
+        bucketsExecutor(),
+        downloadAdmissionControl());
   }
 
   @Bean
@@ -353,7 +701,13 @@ public GaenV2Controller gaenV2Controller() {
         Duration.ofMillis(releaseBucketDuration),
         Duration.ofMillis(requestTime),
         Duration.ofMillis(exposedListCacheControl),
-        Duration.ofDays(retentionDays));
+        Duration.ofDays(retentionDays),
+        exportCache(),
+        exportPageTokens(),
+        requestTimeNormalizer(),
+        uploadExecutor(),
+        downloadExecutor(),
+        downloadAdmissionControl());
   }
 
   @Bean
@@ -372,18 +726,93 @@ public GaenV2UMAController gaenV2UMAController() {
             Duration.ofMillis(releaseBucketDuration),
             Duration.ofMillis(requestTime),
             Duration.ofMillis(exposedListCacheControl),
-            Duration.ofDays(retentionDays));
+            Duration.ofDays(retentionDays),
+            exportCache(),
+            requestTimeNormalizer(),
+            keyFilterEngines(),
+            uploadExecutor(),
+            downloadExecutor(),
+            downloadAdmissionControl());
+  }
+
+  /** Maps the overload and server errors of the GAEN controllers. */
+  @Bean
+  public GaenExceptionHandler gaenExceptionHandler() {
+    return new GaenExceptionHandler();
+  }
+
+  /**
+   * The filters of the /v2UMA/gaen/exposed export. The engine and false positive probability can
+   * be chosen per request, the properties are used if a request doesn't. A request may only choose
+   * one of the allowed probabilities of its engine, or the default probability.
+   */
+  @Bean
+  public KeyFilterEngines keyFilterEngines() {
+    return KeyFilterEngines.withDefaults(
+        umaFilterEngine,
+        umaFilterFpp,
+        Map.of(
+            CuckooKeyFilterEngine.NAME, umaCuckooAllowedFpp,
+            BloomKeyFilterEngine.NAME, umaBloomAllowedFpp,
+            XorKeyFilterEngine.NAME, umaXorAllowedFpp));
+  }
+
+  /**
+   * The export cache is local to every instance, so it is filled and evicted by each instance on its
+   * own and the scheduled refresh is not guarded by a ShedLock.
+   */
+  @Bean
+  public ExportCache exportCache() {
+    return new ExportCache(
+        gaenDataService(),
+        gaenSigner(),
+        Duration.ofMillis(releaseBucketDuration),
+        Duration.ofDays(retentionDays),
+        exportCacheEnabled,
+        exportCacheMaxEntries,
+        keyFilterEngines().getDefault(),
+        exposedListPageSize,
+        exportCacheMaxBytes,
+        exportMemoryThreshold);
+  }
+
+  /**
+   * Signs the continuation tokens of paginated downloads. A token has to be valid on every instance
+   * behind the load balancer, so without a shared secret there are no tokens and the paginated
+   * downloads answer 501.
+   */
+  protected ExportPageTokens exportPageTokens() {
+    if (continuationTokenSecret.isBlank()) {
+      logger.warn(
+          "ws.exposedlist.continuationTokenSecret not set, paginated downloads are disabled");
+      return null;
+    }
+    return new ExportPageTokens(Base64.getDecoder().decode(continuationTokenSecret.trim()));
+  }
+
+  /**
+   * Completes the responses of the upload endpoints once the request time passed, without blocking
+   * a thread of the mvcTaskExecutor per request.
+   */
+  @Bean
+  public RequestTimeNormalizer requestTimeNormalizer() {
+    return new RequestTimeNormalizer();
   }
 
   @Bean
   public GAENDataService gaenDataService() {
     return new SpanishJDBCGAENDataServiceImpl(
-        getDbType(), dataSource(), Duration.ofMillis(releaseBucketDuration), timeSkew);
+        getDbType(),
+        dataSource(),
+        Duration.ofMillis(releaseBucketDuration),
+        timeSkew,
+        null,
+        exposedListFetchSize);
   }
 
   @Bean
   public RedeemDataService redeemDataService() {
-    return new JDBCRedeemDataServiceImpl(dataSource());
+    return new JDBCRedeemDataServiceImpl(getDbType(), dataSource(), redeemedCacheSize);
   }
 
   @Bean
@@ -404,6 +833,7 @@ public MappingJackson2HttpMessageConverter converter() {
   @Override
   public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
     converters.add(new ProtobufHttpMessageConverter());
+    converters.add(0, new SignedExportHttpMessageConverter());
     WebMvcConfigurer.super.extendMessageConverters(converters);
   }
 
@@ -466,8 +896,13 @@ public void scheduleCleanData() {
     logger.info("DB cleanup up");
   }
 
+  @Scheduled(fixedRate = 60 * 1000L, initialDelay = 60 * 1000L)
+  public void scheduleExportCacheRefresh() {
+    exportCache().refresh(UTCInstant.now());
+  }
+
+  // the fake keys are kept in memory by every instance, so every instance has to update them
   @Scheduled(cron = "0 0 2 * * *")
-  @SchedulerLock(name = "updateFakeKeys", lockAtLeastFor = "PT0S", lockAtMostFor = "1800000")
   public void scheduleUpdateFakeKeys() {
     logger.info("Start Update Fake Keys");
     fakeKeyService().updateFakeKeys();
@@ -31,6 +31,7 @@
 import org.dpppt.backend.sdk.ws.security.KeyVault.PublicKeyNoSuitableEncodingFoundException;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.flywaydb.core.Flyway;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -159,6 +160,7 @@ public static class DebugConfig {
     @Autowired DataSource dataSource;
     @Autowired ProtoSignature gaenSigner;
     @Autowired ValidateRequest backupValidator;
+    @Autowired RequestTimeNormalizer requestTimeNormalizer;
     @Autowired ValidationUtils gaenValidationUtils;
     @Autowired Environment env;
 
@@ -200,7 +202,8 @@ DebugController debugController() {
           backupValidator,
           insertManagerDebug(),
           Duration.ofMillis(releaseBucketDuration),
-          Duration.ofMillis(requestTime));
+          Duration.ofMillis(requestTime),
+          requestTimeNormalizer);
     }
   }
 }
@@ -12,9 +12,14 @@
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
 import org.apache.commons.lang3.StringUtils;
+import org.dpppt.backend.sdk.data.ReadReplicaDataSource;
 import org.dpppt.backend.sdk.data.gaen.DebugGAENDataService;
 import org.dpppt.backend.sdk.data.gaen.DebugJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.GaenPartitionManager;
+import org.dpppt.backend.sdk.data.radarcovid.gaen.SpanishJDBCGAENDataServiceImpl;
+import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.controller.DebugController;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.*;
@@ -23,6 +28,7 @@
 import org.dpppt.backend.sdk.ws.security.KeyVault.PublicKeyNoSuitableEncodingFoundException;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.flywaydb.core.Flyway;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +39,7 @@
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.scheduling.annotation.Scheduled;
 
 import javax.sql.DataSource;
 import java.time.Duration;
@@ -78,12 +85,44 @@ public class WSRadarCovidConfig extends WSBaseConfig {
   @Value("${datasource.connectionTimeout}")
   int dataSourceConnectionTimeout;
 
+  @Value("${datasource.read.url:}")
+  String readDataSourceUrl;
+
+  @Value("${datasource.read.username:${datasource.username}}")
+  String readDataSourceUser;
+
+  @Value("${datasource.read.password:${datasource.password}}")
+  String readDataSourcePassword;
+
+  @Value("${datasource.read.minimumIdle:${datasource.minimumIdle}}")
+  int readDataSourceMinimumIdle;
+
+  @Value("${datasource.read.maximumPoolSize:${datasource.maximumPoolSize}}")
+  int readDataSourceMaximumPoolSize;
+
+  @Value("${datasource.read.connectionTimeout:2000}")
+  int readDataSourceConnectionTimeout;
+
+  @Value("${datasource.read.retryInterval:30000}")
+  long readDataSourceRetryInterval;
+
+  @Value("${ws.exposedlist.partitions.daysAhead:7}")
+  int partitionDaysAhead;
+
+  @Value("${ws.exposedlist.snapshots.enabled: false}")
+  boolean bucketSnapshotsEnabled;
+
   @Value("${ws.ecdsa.credentials.privateKey:}")
   private String privateKey;
 
   @Value("${ws.ecdsa.credentials.publicKey:}")
   public String publicKey;
 
+  /**
+   * If datasource.read.url is set, read-only transactions, i.e. the downloads, are read from a
+   * second pool on that replica and fall back to the primary while the replica is unavailable or
+   * hasn't replayed the current bucket yet.
+   */
   @Bean(destroyMethod = "close")
   public DataSource dataSource() {
     HikariConfig config = new HikariConfig();
@@ -100,6 +139,37 @@ public DataSource dataSource() {
     config.setMaxLifetime(dataSourceMaxLifetime);
     config.setIdleTimeout(dataSourceIdleTimeout);
     config.setConnectionTimeout(dataSourceConnectionTimeout);
+    var primary = new HikariDataSource(config);
+    if (StringUtils.isEmpty(readDataSourceUrl)) {
+      return primary;
+    }
+    return new ReadReplicaDataSource(
+        primary,
+        readDataSource(),
+        Duration.ofMillis(readDataSourceRetryInterval),
+        Duration.ofMillis(releaseBucketDuration));
+  }
+
+  private HikariDataSource readDataSource() {
+    HikariConfig config = new HikariConfig();
+    Properties props = new Properties();
+    props.put("url", readDataSourceUrl);
+    props.put("user", readDataSourceUser);
+    props.put("password", readDataSourcePassword);
+    if (StringUtils.isNotEmpty(dataSourceSchema))
+      config.setSchema(dataSourceSchema);
+    config.setDataSourceProperties(props);
+    config.setDataSourceClassName(dataSourceDriver);
+    config.setPoolName("read");
+    config.setReadOnly(true);
+    config.setMinimumIdle(readDataSourceMinimumIdle);
+    config.setMaximumPoolSize(readDataSourceMaximumPoolSize);
+    config.setMaxLifetime(dataSourceMaxLifetime);
+    config.setIdleTimeout(dataSourceIdleTimeout);
+    // short, a request waits this long before it falls back to the primary
+    config.setConnectionTimeout(readDataSourceConnectionTimeout);
+    // the service starts even if the replica is down
+    config.setInitializationFailTimeout(-1);
     return new HikariDataSource(config);
   }
 
@@ -132,6 +202,39 @@ public String getDbType() {
     return "pgsql";
   }
 
+  @Bean
+  public GaenPartitionManager gaenPartitionManager() {
+    return new GaenPartitionManager(dataSource());
+  }
+
+  @Bean
+  @Override
+  public SpanishJDBCGAENDataServiceImpl gaenDataService() {
+    // t_gaen_exposed is partitioned by day, expired keys are removed by dropping partitions
+    return new SpanishJDBCGAENDataServiceImpl(
+        getDbType(),
+        dataSource(),
+        Duration.ofMillis(releaseBucketDuration),
+        timeSkew,
+        gaenPartitionManager(),
+        exposedListFetchSize,
+        bucketSnapshotsEnabled);
+  }
+
+  @Scheduled(fixedRate = 6 * 60 * 60 * 1000L, initialDelay = 60 * 1000L)
+  @SchedulerLock(name = "createGaenPartitions", lockAtLeastFor = "PT0S", lockAtMostFor = "1800000")
+  public void scheduleCreateGaenPartitions() {
+    gaenPartitionManager().createPartitions(UTCInstant.now(), partitionDaysAhead);
+  }
+
+  @Scheduled(fixedRate = 60 * 1000L, initialDelay = 60 * 1000L)
+  @SchedulerLock(name = "materializeGaenBuckets", lockAtLeastFor = "PT0S", lockAtMostFor = "1800000")
+  public void scheduleMaterializeGaenBuckets() {
+    if (bucketSnapshotsEnabled) {
+      gaenDataService().materializeBucketSnapshots(UTCInstant.now(), Duration.ofDays(retentionDays));
+    }
+  }
+
   @Bean
   KeyVault keyVault() {
     var privateKey = getPrivateKey();
@@ -181,6 +284,7 @@ public static class DebugConfig {
     @Autowired DataSource dataSource;
     @Autowired ProtoSignature gaenSigner;
     @Autowired ValidateRequest backupValidator;
+    @Autowired RequestTimeNormalizer requestTimeNormalizer;
     @Autowired ValidationUtils gaenValidationUtils;
     @Autowired Environment env;
 
@@ -222,7 +326,8 @@ DebugController debugController() {
           backupValidator,
           insertManagerDebug(),
           Duration.ofMillis(releaseBucketDuration),
-          Duration.ofMillis(requestTime));
+          Duration.ofMillis(requestTime),
+          requestTimeNormalizer);
     }
   }
 }
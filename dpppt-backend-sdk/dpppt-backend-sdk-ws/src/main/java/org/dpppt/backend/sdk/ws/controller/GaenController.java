@@ -18,7 +18,6 @@
 import org.dpppt.backend.sdk.model.gaen.GaenRequest;
 import org.dpppt.backend.sdk.model.gaen.GaenSecondDay;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
-import org.dpppt.backend.sdk.utils.DurationExpiredException;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
@@ -30,6 +29,11 @@
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.WrongScopeException;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature.ProtoSignatureWrapper;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl.DownloadsOverloadedException;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor.EndpointBusyException;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils.BadBatchReleaseTimeException;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils.DelayedKeyDateClaimIsMissing;
@@ -44,6 +48,7 @@
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.validation.Valid;
 import java.io.IOException;
@@ -59,7 +64,6 @@
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
-import java.util.concurrent.Callable;
 
 @Controller
 @RequestMapping("/v1/gaen")
@@ -92,6 +96,11 @@ public class GaenController {
   private final Duration exposedListCacheControl;
   private final PrivateKey secondDayKey;
   private final ProtoSignature gaenSigner;
+  private final RequestTimeNormalizer requestTimeNormalizer;
+  private final EndpointExecutor uploadExecutor;
+  private final EndpointExecutor downloadExecutor;
+  private final DownloadAdmissionControl downloadAdmission;
+  private final EndpointExecutor bucketsExecutor;
 
   public GaenController(
       InsertManager insertManagerExposed,
@@ -104,7 +113,12 @@ public GaenController(
       Duration releaseBucketDuration,
       Duration requestTime,
       Duration exposedListCacheControl,
-      PrivateKey secondDayKey) {
+      PrivateKey secondDayKey,
+      RequestTimeNormalizer requestTimeNormalizer,
+      EndpointExecutor uploadExecutor,
+      EndpointExecutor downloadExecutor,
+      EndpointExecutor bucketsExecutor,
+      DownloadAdmissionControl downloadAdmission) {
     this.insertManagerExposed = insertManagerExposed;
     this.insertManagerExposedNextDay = insertManagerExposedNextDay;
     this.dataService = dataService;
@@ -116,6 +130,11 @@ public GaenController(
     this.exposedListCacheControl = exposedListCacheControl;
     this.secondDayKey = secondDayKey;
     this.gaenSigner = gaenSigner;
+    this.requestTimeNormalizer = requestTimeNormalizer;
+    this.uploadExecutor = uploadExecutor;
+    this.downloadExecutor = downloadExecutor;
+    this.bucketsExecutor = bucketsExecutor;
+    this.downloadAdmission = downloadAdmission;
   }
 
   @GetMapping(value = "")
@@ -137,7 +156,7 @@ public GaenController(
         "403=>Authentication failed"
       })
   @Loggable
-  public @ResponseBody Callable<ResponseEntity<String>> addExposed(
+  public @ResponseBody DeferredResult<ResponseEntity<String>> addExposed(
       @Valid
           @RequestBody
           @Documentation(
@@ -156,11 +175,19 @@ public GaenController(
       @AuthenticationPrincipal
           @Documentation(description = "JWT token that can be verified by the backend server")
           Object principal)
-      throws DelayedKeyDateIsInvalid, InsertException, WrongScopeException {
+      throws WrongScopeException, EndpointBusyException {
     var now = UTCInstant.now();
 
     this.validateRequest.isValid(principal);
 
+    var pending =
+        uploadExecutor.submit(() -> insertExposed(gaenRequest, userAgent, principal, now));
+    return requestTimeNormalizer.normalize(now, requestTime, pending);
+  }
+
+  private ResponseEntity<String> insertExposed(
+      GaenRequest gaenRequest, String userAgent, Object principal, UTCInstant now)
+      throws DelayedKeyDateIsInvalid, InsertException {
     // Filter out non valid keys and insert them into the database (c.f. InsertManager and
     // configured Filters in the WSBaseConfig)
     insertManagerExposed.insertIntoDatabase(gaenRequest.getGaenKeys(), userAgent, principal, now);
@@ -187,16 +214,7 @@ public GaenController(
       responseBuilder.header("Authorization", "Bearer " + jwt);
       responseBuilder.header("X-Exposed-Token", "Bearer " + jwt);
     }
-    Callable<ResponseEntity<String>> cb =
-        () -> {
-          try {
-            now.normalizeDuration(requestTime);
-          } catch (DurationExpiredException e) {
-            logger.debug("Total time spent in endpoint is longer than requestTime");
-          }
-          return responseBuilder.body("OK");
-        };
-    return cb;
+    return responseBuilder.body("OK");
   }
 
   @PostMapping(value = "/exposednextday")
@@ -212,7 +230,7 @@ public GaenController(
         "403=>No delayedKeyDate claim in authentication"
       })
   @Loggable
-  public @ResponseBody Callable<ResponseEntity<String>> addExposedSecond(
+  public @ResponseBody DeferredResult<ResponseEntity<String>> addExposedSecond(
       @Valid @RequestBody @Documentation(description = "The last exposed key of the user")
           GaenSecondDay gaenSecondDay,
       @Documentation(
@@ -228,26 +246,23 @@ public GaenController(
                   "JWT token that can be verified by the backend server, must have been created by"
                       + " /v1/gaen/exposed and contain the delayedKeyDate")
           Object principal)
-      throws DelayedKeyDateClaimIsMissing, InsertException {
+      throws DelayedKeyDateClaimIsMissing, EndpointBusyException {
     var now = UTCInstant.now();
 
     // Throws an exception if the claim doesn't exist. The actual verification is done in the
     // filters.
     validationUtils.getDelayedKeyDateClaim(principal);
 
-    // Filter out non valid keys and insert them into the database (c.f. InsertManager and
-    // configured Filters in the WSBaseConfig)
-    insertManagerExposedNextDay.insertIntoDatabase(
-        List.of(gaenSecondDay.getDelayedKey()), userAgent, principal, now);
-
-    return () -> {
-      try {
-        now.normalizeDuration(requestTime);
-      } catch (DurationExpiredException e) {
-        logger.debug("Total time spent in endpoint is longer than requestTime");
-      }
-      return ResponseEntity.ok().body("OK");
-    };
+    var pending =
+        uploadExecutor.submit(
+            () -> {
+              // Filter out non valid keys and insert them into the database (c.f. InsertManager
+              // and configured Filters in the WSBaseConfig)
+              insertManagerExposedNextDay.insertIntoDatabase(
+                  List.of(gaenSecondDay.getDelayedKey()), userAgent, principal, now);
+              return ResponseEntity.ok().body("OK");
+            });
+    return requestTimeNormalizer.normalize(now, requestTime, pending);
   }
 
   @GetMapping(value = "/exposed/{keyDate}", produces = "application/zip")
@@ -260,7 +275,7 @@ public GaenController(
             + "- _publishedAfter_ is not at the beginning of a batch release time, currently 2h",
       })
   @Loggable
-  public @ResponseBody ResponseEntity<byte[]> getExposedKeys(
+  public @ResponseBody DeferredResult<ResponseEntity<byte[]>> getExposedKeys(
       @PathVariable
           @Documentation(
               description =
@@ -276,9 +291,17 @@ public GaenController(
                       + " milliseconds since Unix epoch (1970-01-01).",
               example = "1593043200000")
           Long publishedafter)
+      throws DownloadsOverloadedException, EndpointBusyException {
+    var now = UTCInstant.now();
+    // rejects the download without touching the database while overloaded
+    downloadAdmission.admit(now);
+    return downloadExecutor.submit(() -> exposedKeysResponse(keyDate, publishedafter, now));
+  }
+
+  private ResponseEntity<byte[]> exposedKeysResponse(
+      long keyDate, Long publishedafter, UTCInstant now)
       throws BadBatchReleaseTimeException, IOException, InvalidKeyException, SignatureException,
           NoSuchAlgorithmException {
-    var now = UTCInstant.now();
     var publishedAfterInstant = UTCInstant.ofEpochMillis(publishedafter);
     var keyDateInstant = UTCInstant.ofEpochMillis(keyDate);
 
@@ -324,15 +347,20 @@ public GaenController(
         "404=>invalid starting key date, points outside of the retention range"
       })
   @Loggable
-  public @ResponseBody ResponseEntity<DayBuckets> getBuckets(
+  public @ResponseBody DeferredResult<ResponseEntity<DayBuckets>> getBuckets(
       @PathVariable
           @Documentation(
               description = "Starting date for exposed key retrieval, as ISO-8601 format",
               example = "2020-06-27")
-          String dayDateStr) {
+          String dayDateStr)
+      throws EndpointBusyException {
+    var now = UTCInstant.now();
+    return bucketsExecutor.submit(() -> bucketsResponse(dayDateStr, now));
+  }
+
+  private ResponseEntity<DayBuckets> bucketsResponse(String dayDateStr, UTCInstant now) {
     var atStartOfDay = UTCInstant.parseDate(dayDateStr);
     var end = atStartOfDay.plusDays(1);
-    var now = UTCInstant.now();
     if (!validationUtils.isDateInRange(atStartOfDay, now)) {
       return ResponseEntity.notFound().build();
     }
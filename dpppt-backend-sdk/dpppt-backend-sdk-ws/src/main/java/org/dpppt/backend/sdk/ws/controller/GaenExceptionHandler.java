@@ -0,0 +1,51 @@
+package org.dpppt.backend.sdk.ws.controller;
+
+import org.dpppt.backend.sdk.ws.insertmanager.UploadQueue.UploadNotWrittenException;
+import org.dpppt.backend.sdk.ws.insertmanager.UploadQueue.UploadQueueFullException;
+import org.dpppt.backend.sdk.ws.radarcovid.exception.RadarCovidServerException;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl.DownloadsOverloadedException;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor.EndpointBusyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Maps the overload and server errors of the GAEN endpoints to their responses. The request
+ * validation errors stay with the controllers, as their responses differ.
+ */
+@ControllerAdvice(
+    assignableTypes = {GaenController.class, GaenV2Controller.class, GaenV2UMAController.class})
+public class GaenExceptionHandler {
+
+  private static final Logger logger = LoggerFactory.getLogger(GaenExceptionHandler.class);
+
+  @ExceptionHandler({
+    UploadQueueFullException.class,
+    UploadNotWrittenException.class,
+    EndpointBusyException.class
+  })
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  public ResponseEntity<Object> serviceUnavailable(Exception ex) {
+    logger.error("Exception ({}): {}", ex.getClass().getSimpleName(), ex.getMessage());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+  }
+
+  @ExceptionHandler({DownloadsOverloadedException.class})
+  public ResponseEntity<Object> downloadsOverloaded(DownloadsOverloadedException ex) {
+    logger.warn("Download rejected, retry after {}s", ex.getRetryAfter().getSeconds());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfter().getSeconds()))
+        .build();
+  }
+
+  @ExceptionHandler({RadarCovidServerException.class})
+  public ResponseEntity<Object> radarCovidServerError(RadarCovidServerException ex) {
+    logger.error("Exception ({}): {}", ex.getClass().getSimpleName(), ex.getMessage());
+    return ResponseEntity.status(ex.getHttpStatus()).build();
+  }
+}
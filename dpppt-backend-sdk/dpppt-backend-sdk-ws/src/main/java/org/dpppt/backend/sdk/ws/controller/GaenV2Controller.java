@@ -4,11 +4,8 @@
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.dpppt.backend.sdk.data.gaen.FakeKeyService;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenV2UploadKeysRequest;
-import org.dpppt.backend.sdk.utils.DurationExpiredException;
 import org.dpppt.backend.sdk.utils.UTCInstant;
-import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.AssertKeyFormat.KeyFormatException;
 import org.dpppt.backend.sdk.ws.radarcovid.annotation.Loggable;
@@ -17,17 +14,28 @@
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.InvalidDateException;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.WrongScopeException;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
-import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature.ProtoSignatureWrapper;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl.DownloadsOverloadedException;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor.EndpointBusyException;
+import org.dpppt.backend.sdk.ws.util.ExportCache;
+import org.dpppt.backend.sdk.ws.util.ExportCache.ExportFormat;
+import org.dpppt.backend.sdk.ws.util.ExportCache.SignedExport;
+import org.dpppt.backend.sdk.ws.util.ExportPage;
+import org.dpppt.backend.sdk.ws.util.ExportPageTokens;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils.BadBatchReleaseTimeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.validation.Valid;
 import java.io.IOException;
@@ -40,7 +48,6 @@
 import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.Callable;
 
 /** This is a new controller to simplify the sending and receiving of keys using ENv1.5/ENv2. */
 @Controller
@@ -62,8 +69,15 @@ public class GaenV2Controller {
   private final Duration requestTime;
   private final Duration exposedListCacheControl;
   private final Duration retentionPeriod;
+  private final ExportCache exportCache;
+  private final ExportPageTokens exportPageTokens;
+  private final RequestTimeNormalizer requestTimeNormalizer;
+  private final EndpointExecutor uploadExecutor;
+  private final EndpointExecutor downloadExecutor;
+  private final DownloadAdmissionControl downloadAdmission;
 
   private static final String HEADER_X_KEY_BUNDLE_TAG = "x-key-bundle-tag";
+  private static final String HEADER_X_CONTINUATION_TOKEN = "x-continuation-token";
 
   private static final DateTimeFormatter RFC1123_DATE_TIME_FORMATTER =
           DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'")
@@ -79,7 +93,13 @@ public GaenV2Controller(
       Duration releaseBucketDuration,
       Duration requestTime,
       Duration exposedListCacheControl,
-      Duration retentionPeriod) {
+      Duration retentionPeriod,
+      ExportCache exportCache,
+      ExportPageTokens exportPageTokens,
+      RequestTimeNormalizer requestTimeNormalizer,
+      EndpointExecutor uploadExecutor,
+      EndpointExecutor downloadExecutor,
+      DownloadAdmissionControl downloadAdmission) {
     this.insertManager = insertManager;
     this.validateRequest = validateRequest;
     this.validationUtils = validationUtils;
@@ -90,6 +110,12 @@ public GaenV2Controller(
     this.requestTime = requestTime;
     this.exposedListCacheControl = exposedListCacheControl;
     this.retentionPeriod = retentionPeriod;
+    this.exportCache = exportCache;
+    this.exportPageTokens = exportPageTokens;
+    this.requestTimeNormalizer = requestTimeNormalizer;
+    this.uploadExecutor = uploadExecutor;
+    this.downloadExecutor = downloadExecutor;
+    this.downloadAdmission = downloadAdmission;
   }
 
   @GetMapping(value = "")
@@ -112,7 +138,7 @@ public GaenV2Controller(
         "403=>Authentication failed"
       })
   @Loggable
-  public @ResponseBody Callable<ResponseEntity<String>> addExposed(
+  public @ResponseBody DeferredResult<ResponseEntity<String>> addExposed(
       @Documentation(description = "JSON Object containing all keys.") @Valid @RequestBody
           GaenV2UploadKeysRequest gaenV2Request,
       @RequestHeader(value = "User-Agent")
@@ -125,38 +151,39 @@ public GaenV2Controller(
       @AuthenticationPrincipal
           @Documentation(description = "JWT token that can be verified by the backend server")
           Object principal)
-      throws WrongScopeException, InsertException {
+      throws WrongScopeException, EndpointBusyException {
     var now = UTCInstant.now();
 
     this.validateRequest.isValid(principal);
 
-    // Filter out non valid keys and insert them into the database (c.f.
-    // InsertManager and
-    // configured Filters in the WSBaseConfig)
-    insertManager.insertIntoDatabase(gaenV2Request.getGaenKeys(), userAgent, principal, now);
-    var responseBuilder = ResponseEntity.ok();
-    Callable<ResponseEntity<String>> cb =
-        () -> {
-          try {
-            now.normalizeDuration(requestTime);
-          } catch (DurationExpiredException e) {
-            logger.debug("Total time spent in endpoint is longer than requestTime");
-          }
-          return responseBuilder.body("OK");
-        };
-    return cb;
+    var pending =
+        uploadExecutor.submit(
+            () -> {
+              // Filter out non valid keys and insert them into the database (c.f.
+              // InsertManager and
+              // configured Filters in the WSBaseConfig)
+              insertManager.insertIntoDatabase(
+                  gaenV2Request.getGaenKeys(), userAgent, principal, now);
+              return ResponseEntity.ok().body("OK");
+            });
+    return requestTimeNormalizer.normalize(now, requestTime, pending);
   }
 
   // GET for Key Download
   @GetMapping(value = "/exposed", produces = "application/zip")
   @Documentation(
-      description = "Requests keys published _after_ lastKeyBundleTag.",
+      description =
+          "Requests keys published _after_ lastKeyBundleTag. Paginated downloads return the keys"
+              + " in several exports, each with its batchNum and batchSize set, as long as the"
+              + " response contains an x-continuation-token header.",
       responses = {
-        "200 => zipped export.bin and export.sig of all keys in that interval",
-        "404 => Invalid _lastKeyBundleTag_"
+        "200 => zipped export.bin and export.sig of all keys in that interval, or of one page",
+        "400 => Invalid or expired _continuationToken_",
+        "404 => Invalid _lastKeyBundleTag_",
+        "501 => Paginated downloads are not configured on this server"
       })
   @Loggable
-  public @ResponseBody ResponseEntity<byte[]> getExposedKeys(
+  public @ResponseBody DeferredResult<ResponseEntity<SignedExport>> getExposedKeys(
       @Documentation(
               description =
                   "Only retrieve keys published after the specified key-bundle"
@@ -178,11 +205,57 @@ public GaenV2Controller(
                       + " all origin countries are returned",
               example = "IT, DE, PT")
       @RequestParam(required = false)
-              List<String> originCountries)
+              List<String> originCountries,
+      @Documentation(
+              description =
+                  "Splits the keys into pages of a bounded number of keys. Optional, if set the"
+                      + " first page is returned together with the token of the next one",
+              example = "true")
+          @RequestParam(required = false, defaultValue = "false")
+          boolean paginated,
+      @Documentation(
+              description =
+                  "Continuation token of the x-continuation-token header of the previous page."
+                      + " Replaces lastKeyBundleTag, the country filters must be the same as for"
+                      + " the first page",
+              example =
+                  "1593043200000.1593050400000.2.5.123456"
+                      + ".vG1f0rKQ8x2u2Ng3Zc1mUwB7C5PkIe0yXr9hL4aJd3s")
+          @RequestParam(required = false)
+          String continuationToken)
+      throws DownloadsOverloadedException, EndpointBusyException {
+    var now = UTCInstant.now();
+    // rejects the download without touching the database while overloaded
+    downloadAdmission.admit(now);
+    return downloadExecutor.submit(
+        () ->
+            exposedKeysResponse(
+                lastKeyBundleTag,
+                visitedCountries,
+                originCountries,
+                paginated,
+                continuationToken,
+                now));
+  }
+
+  private ResponseEntity<SignedExport> exposedKeysResponse(
+      Long lastKeyBundleTag,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      boolean paginated,
+      String continuationToken,
+      UTCInstant now)
       throws BadBatchReleaseTimeException, InvalidKeyException, SignatureException,
           NoSuchAlgorithmException, IOException {
-    var now = UTCInstant.now();
-    
+    if (paginated || continuationToken != null) {
+      if (exportPageTokens == null) {
+        // no shared continuation token secret configured
+        return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+      }
+      return getExposedKeysPage(
+          lastKeyBundleTag, continuationToken, visitedCountries, originCountries, now);
+    }
+
     Long minimumLastKeyBundleTag =
             now.minus(retentionPeriod).roundToNextBucket(releaseBucketDuration).getTimestamp();
     if (lastKeyBundleTag == null || lastKeyBundleTag < minimumLastKeyBundleTag) {
@@ -199,22 +272,74 @@ public GaenV2Controller(
     UTCInstant keyBundleTag = now.roundToBucketStart(releaseBucketDuration);
     UTCInstant expiration = now.roundToNextBucket(releaseBucketDuration);
 
-    List<GaenKey> exposedKeys = dataService.getSortedExposedSince(keysSince, now, visitedCountries, originCountries);
+    var export =
+        exportCache.getExport(
+            ExportFormat.V2, keysSince, now, visitedCountries, originCountries);
 
-    if (exposedKeys.isEmpty()) {
+    if (export.isEmpty()) {
       return ResponseEntity.noContent()
           //.cacheControl(CacheControl.maxAge(exposedListCacheControl))
           .header(HEADER_X_KEY_BUNDLE_TAG, Long.toString(keyBundleTag.getTimestamp()))
           .header("Expires", RFC1123_DATE_TIME_FORMATTER.format(expiration.getOffsetDateTime()))
           .build();
     }
-    ProtoSignatureWrapper payload = gaenSigner.getPayloadV2(exposedKeys);
 
     return ResponseEntity.ok()
         //.cacheControl(CacheControl.maxAge(exposedListCacheControl))
         .header(HEADER_X_KEY_BUNDLE_TAG, Long.toString(keyBundleTag.getTimestamp()))
         .header("Expires", RFC1123_DATE_TIME_FORMATTER.format(expiration.getOffsetDateTime()))
-        .body(payload.getZip());
+        .body(export);
+  }
+
+  private ResponseEntity<SignedExport> getExposedKeysPage(
+      Long lastKeyBundleTag,
+      String continuationToken,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      UTCInstant now)
+      throws BadBatchReleaseTimeException, InvalidKeyException, SignatureException,
+          NoSuchAlgorithmException, IOException {
+    var minimumLastKeyBundleTag =
+        now.minus(retentionPeriod).roundToNextBucket(releaseBucketDuration);
+    var currentBucket = now.roundToBucketStart(releaseBucketDuration);
+    ExportPage page;
+    if (continuationToken != null) {
+      page = exportPageTokens.parse(continuationToken);
+      // all pages are pinned to the bucket of the first one. A download can continue in the next
+      // bucket, older tokens have expired.
+      var keyBundleTag = page.getKeyBundleTag().getTimestamp();
+      if (keyBundleTag != currentBucket.getTimestamp()
+          && keyBundleTag != currentBucket.minus(releaseBucketDuration).getTimestamp()) {
+        throw new IllegalArgumentException("Expired continuation token");
+      }
+    } else {
+      var keysSince = minimumLastKeyBundleTag;
+      if (lastKeyBundleTag != null && lastKeyBundleTag > minimumLastKeyBundleTag.getTimestamp()) {
+        keysSince = UTCInstant.ofEpochMillis(lastKeyBundleTag);
+      }
+      page = ExportPage.first(keysSince, currentBucket);
+    }
+    if (page.getKeysSince().isBeforeEpochMillisOf(minimumLastKeyBundleTag)
+        || !validationUtils.isValidBatchReleaseTime(page.getKeysSince(), now)) {
+      return ResponseEntity.notFound().build();
+    }
+    UTCInstant keyBundleTag = page.getKeyBundleTag();
+    UTCInstant expiration = keyBundleTag.plus(releaseBucketDuration);
+
+    var export =
+        exportCache.getExportPage(
+            ExportFormat.V2, page, now, visitedCountries, originCountries);
+
+    var headers = new HttpHeaders();
+    headers.add(HEADER_X_KEY_BUNDLE_TAG, Long.toString(keyBundleTag.getTimestamp()));
+    headers.add("Expires", RFC1123_DATE_TIME_FORMATTER.format(expiration.getOffsetDateTime()));
+    if (export.isEmpty()) {
+      return ResponseEntity.noContent().headers(headers).build();
+    }
+    if (export.getNextPage() != null) {
+      headers.add(HEADER_X_CONTINUATION_TOKEN, exportPageTokens.toToken(export.getNextPage()));
+    }
+    return ResponseEntity.ok().headers(headers).body(export);
   }
 
   @ExceptionHandler({
@@ -4,11 +4,8 @@
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.dpppt.backend.sdk.data.gaen.FakeKeyService;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenV2UploadKeysRequest;
-import org.dpppt.backend.sdk.utils.DurationExpiredException;
 import org.dpppt.backend.sdk.utils.UTCInstant;
-import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.AssertKeyFormat.KeyFormatException;
 import org.dpppt.backend.sdk.ws.radarcovid.annotation.Loggable;
@@ -16,8 +13,16 @@
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.ClaimIsBeforeOnsetException;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.InvalidDateException;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.WrongScopeException;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngines;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
-import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature.ProtoSignatureWrapper;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl.DownloadsOverloadedException;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor.EndpointBusyException;
+import org.dpppt.backend.sdk.ws.util.ExportCache;
+import org.dpppt.backend.sdk.ws.util.ExportCache.ExportFormat;
+import org.dpppt.backend.sdk.ws.util.ExportCache.SignedExport;
+import org.dpppt.backend.sdk.ws.util.RequestTimeNormalizer;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils.BadBatchReleaseTimeException;
 import org.slf4j.Logger;
@@ -28,6 +33,7 @@
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.validation.Valid;
 import java.io.IOException;
@@ -40,7 +46,6 @@
 import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.Callable;
 
 /** This is a new controller to simplify the sending and receiving of keys using ENv1.5/ENv2 and a CuckooFilter. */
 @Controller
@@ -62,6 +67,12 @@ public class GaenV2UMAController {
   private final Duration requestTime;
   private final Duration exposedListCacheControl;
   private final Duration retentionPeriod;
+  private final ExportCache exportCache;
+  private final RequestTimeNormalizer requestTimeNormalizer;
+  private final EndpointExecutor uploadExecutor;
+  private final EndpointExecutor downloadExecutor;
+  private final DownloadAdmissionControl downloadAdmission;
+  private final KeyFilterEngines keyFilterEngines;
 
   private static final String HEADER_X_KEY_BUNDLE_TAG = "x-key-bundle-tag";
 
@@ -79,7 +90,13 @@ public GaenV2UMAController(
       Duration releaseBucketDuration,
       Duration requestTime,
       Duration exposedListCacheControl,
-      Duration retentionPeriod) {
+      Duration retentionPeriod,
+      ExportCache exportCache,
+      RequestTimeNormalizer requestTimeNormalizer,
+      KeyFilterEngines keyFilterEngines,
+      EndpointExecutor uploadExecutor,
+      EndpointExecutor downloadExecutor,
+      DownloadAdmissionControl downloadAdmission) {
     this.insertManager = insertManager;
     this.validateRequest = validateRequest;
     this.validationUtils = validationUtils;
@@ -90,6 +107,12 @@ public GaenV2UMAController(
     this.requestTime = requestTime;
     this.exposedListCacheControl = exposedListCacheControl;
     this.retentionPeriod = retentionPeriod;
+    this.exportCache = exportCache;
+    this.requestTimeNormalizer = requestTimeNormalizer;
+    this.keyFilterEngines = keyFilterEngines;
+    this.uploadExecutor = uploadExecutor;
+    this.downloadExecutor = downloadExecutor;
+    this.downloadAdmission = downloadAdmission;
   }
 
   @GetMapping(value = "")
@@ -112,7 +135,7 @@ public GaenV2UMAController(
         "403=>Authentication failed"
       })
   @Loggable
-  public @ResponseBody Callable<ResponseEntity<String>> addExposed(
+  public @ResponseBody DeferredResult<ResponseEntity<String>> addExposed(
       @Documentation(description = "JSON Object containing all keys.") @Valid @RequestBody
           GaenV2UploadKeysRequest gaenV2Request,
       @RequestHeader(value = "User-Agent")
@@ -125,26 +148,22 @@ public GaenV2UMAController(
       @AuthenticationPrincipal
           @Documentation(description = "JWT token that can be verified by the backend server")
           Object principal)
-      throws WrongScopeException, InsertException {
+      throws WrongScopeException, EndpointBusyException {
     var now = UTCInstant.now();
 
     this.validateRequest.isValid(principal);
 
-    // Filter out non valid keys and insert them into the database (c.f.
-    // InsertManager and
-    // configured Filters in the WSBaseConfig)
-    insertManager.insertIntoDatabase(gaenV2Request.getGaenKeys(), userAgent, principal, now);
-    var responseBuilder = ResponseEntity.ok();
-    Callable<ResponseEntity<String>> cb =
-        () -> {
-          try {
-            now.normalizeDuration(requestTime);
-          } catch (DurationExpiredException e) {
-            logger.debug("Total time spent in endpoint is longer than requestTime");
-          }
-          return responseBuilder.body("OK");
-        };
-    return cb;
+    var pending =
+        uploadExecutor.submit(
+            () -> {
+              // Filter out non valid keys and insert them into the database (c.f.
+              // InsertManager and
+              // configured Filters in the WSBaseConfig)
+              insertManager.insertIntoDatabase(
+                  gaenV2Request.getGaenKeys(), userAgent, principal, now);
+              return ResponseEntity.ok().body("OK");
+            });
+    return requestTimeNormalizer.normalize(now, requestTime, pending);
   }
 
   // GET for CuckooFilter Download containing keys
@@ -156,7 +175,7 @@ public GaenV2UMAController(
         "404 => Invalid _lastKeyBundleTag_"
       })
   @Loggable
-  public @ResponseBody ResponseEntity<byte[]> getExposedKeys(
+  public @ResponseBody DeferredResult<ResponseEntity<SignedExport>> getExposedKeys(
       @Documentation(
               description =
                   "Only retrieve keys published after the specified key-bundle"
@@ -178,11 +197,40 @@ public GaenV2UMAController(
                       + " all origin countries are returned",
               example = "IT, DE, PT")
       @RequestParam(required = false)
-              List<String> originCountries)
+              List<String> originCountries,
+      @Documentation(
+              description =
+                  "Filter of the keys: cuckoo, bloom or xor. Optional, if not set, the"
+                      + " configured default filter is returned",
+              example = "xor")
+          @RequestParam(required = false)
+          String filter,
+      @Documentation(
+              description =
+                  "False positive probability of the filter, one of the configured probabilities"
+                      + " of the filter. Optional, if not set, the configured default is used",
+              example = "0.01")
+          @RequestParam(required = false)
+          Double fpp)
+      throws DownloadsOverloadedException, EndpointBusyException {
+    var now = UTCInstant.now();
+    // rejects the download without touching the database while overloaded
+    downloadAdmission.admit(now);
+    return downloadExecutor.submit(
+        () ->
+            exposedKeysResponse(
+                lastKeyBundleTag, visitedCountries, originCountries, filter, fpp, now));
+  }
+
+  private ResponseEntity<SignedExport> exposedKeysResponse(
+      Long lastKeyBundleTag,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      String filter,
+      Double fpp,
+      UTCInstant now)
       throws BadBatchReleaseTimeException, InvalidKeyException, SignatureException,
           NoSuchAlgorithmException, IOException {
-    var now = UTCInstant.now();
-    
     Long minimumLastKeyBundleTag =
             now.minus(retentionPeriod).roundToNextBucket(releaseBucketDuration).getTimestamp();
     if (lastKeyBundleTag == null || lastKeyBundleTag < minimumLastKeyBundleTag) {
@@ -192,6 +240,8 @@ public GaenV2UMAController(
     		  minimumLastKeyBundleTag;
     }
     var keysSince = UTCInstant.ofEpochMillis(lastKeyBundleTag);
+    // throws an IllegalArgumentException (400) for unknown filters
+    var keyFilter = keyFilterEngines.resolve(filter, fpp);
 
     if (!validationUtils.isValidBatchReleaseTime(keysSince, now)) {
       return ResponseEntity.notFound().build();
@@ -199,22 +249,23 @@ public GaenV2UMAController(
     UTCInstant keyBundleTag = now.roundToBucketStart(releaseBucketDuration);
     UTCInstant expiration = now.roundToNextBucket(releaseBucketDuration);
 
-    List<GaenKey> exposedKeys = dataService.getSortedExposedSince(keysSince, now, visitedCountries, originCountries);
+    var export =
+        exportCache.getExport(
+            ExportFormat.V2UMA, keyFilter, keysSince, now, visitedCountries, originCountries);
 
-    if (exposedKeys.isEmpty()) {
+    if (export.isEmpty()) {
       return ResponseEntity.noContent()
           //.cacheControl(CacheControl.maxAge(exposedListCacheControl))
           .header(HEADER_X_KEY_BUNDLE_TAG, Long.toString(keyBundleTag.getTimestamp()))
           .header("Expires", RFC1123_DATE_TIME_FORMATTER.format(expiration.getOffsetDateTime()))
           .build();
     }
-    ProtoSignatureWrapper payload = gaenSigner.getPayloadV2UMA(exposedKeys);
 
     return ResponseEntity.ok()
         //.cacheControl(CacheControl.maxAge(exposedListCacheControl))
         .header(HEADER_X_KEY_BUNDLE_TAG, Long.toString(keyBundleTag.getTimestamp()))
         .header("Expires", RFC1123_DATE_TIME_FORMATTER.format(expiration.getOffsetDateTime()))
-        .body(payload.getZip());
+        .body(export);
   }
 
   @ExceptionHandler({
@@ -1,5 +1,6 @@
 package org.dpppt.backend.sdk.ws.insertmanager;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import org.dpppt.backend.sdk.data.gaen.DebugGAENDataService;
@@ -7,7 +8,9 @@
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.FusedKeyInsertionFilter;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.KeyInsertionFilter;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.KeyInsertionPredicate;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionmodifier.KeyInsertionModifier;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.slf4j.Logger;
@@ -20,6 +23,9 @@
  * remaining keys are then inserted into the database. If any of the modifiers filters throws an
  * {@Link InsertException} the process of insertions is aborted and the exception is propagated back
  * to the caller, which is responsible for handling the exception.
+ *
+ * <p>Consecutive filters which are a {@link KeyInsertionPredicate} are fused into a single {@link
+ * FusedKeyInsertionFilter}, so the keys are checked by all of them in one pass.
  */
 public class InsertManager {
 
@@ -29,10 +35,21 @@ public class InsertManager {
   private final GAENDataService dataService;
   private final ValidationUtils validationUtils;
 
+  // the fused filter at the end of the filter list, predicates added next are appended to it
+  private FusedKeyInsertionFilter lastFusedFilter;
+
   private DebugGAENDataService debugDataService;
 
+  private UploadQueue uploadQueue;
+
+  private UploadLog uploadLog;
+
+  private UserAgentCache userAgentCache;
+
   private static final Logger logger = LoggerFactory.getLogger(InsertManager.class);
 
+  private static final String DEFAULT_HEADER = "org.example.dp3t;1.0.0;0;Android;29";
+
   public InsertManager(GAENDataService dataService, ValidationUtils validationUtils) {
     this.dataService = dataService;
     this.validationUtils = validationUtils;
@@ -51,13 +68,50 @@ public static InsertManager getDebugInsertManager(
   }
 
   public void addFilter(KeyInsertionFilter filter) {
-    this.filterList.add(filter);
+    if (filter instanceof KeyInsertionPredicate) {
+      if (lastFusedFilter == null) {
+        lastFusedFilter = new FusedKeyInsertionFilter();
+        this.filterList.add(lastFusedFilter);
+      }
+      lastFusedFilter.add((KeyInsertionPredicate) filter);
+    } else {
+      lastFusedFilter = null;
+      this.filterList.add(filter);
+    }
   }
 
   public void addModifier(KeyInsertionModifier modifier) {
     this.modifierList.add(modifier);
   }
 
+  /**
+   * Writes the keys through the given queue in group commits with the keys of concurrent uploads.
+   *
+   * @param uploadQueue the queue, or null to write synchronously
+   */
+  public void setUploadQueue(UploadQueue uploadQueue) {
+    this.uploadQueue = uploadQueue;
+  }
+
+  /**
+   * Appends the keys to the given write-ahead log, which replays them into the database, instead
+   * of writing them directly. Takes precedence over an upload queue.
+   *
+   * @param uploadLog the log, or null to write directly
+   */
+  public void setUploadLog(UploadLog uploadLog) {
+    this.uploadLog = uploadLog;
+  }
+
+  /**
+   * Looks up the parsed User-Agent headers in the given cache instead of parsing every header.
+   *
+   * @param userAgentCache the cache, or null to parse every header
+   */
+  public void setUserAgentCache(UserAgentCache userAgentCache) {
+    this.userAgentCache = userAgentCache;
+  }
+
   /**
    * Inserts the keys into the database. The additional parameters are supplied to the configured
    * modifiers and filters.
@@ -67,7 +121,9 @@ public void addModifier(KeyInsertionModifier modifier) {
    * @param principal key upload authorization, for example a JWT token.
    * @param now current timestamp to work with.
    * @throws InsertException filters are allowed to throw errors, for example to signal client
-   *     errors in the key upload
+   *     errors in the key upload. If an upload queue is set and full, an {@link
+   *     UploadQueue.UploadQueueFullException} is thrown, if the group of the keys couldn't be
+   *     written an {@link UploadQueue.UploadNotWrittenException}
    */
   public void insertIntoDatabase(
       List<GaenKey> keys, String header, Object principal, UTCInstant now) throws InsertException {
@@ -79,7 +135,23 @@ public void insertIntoDatabase(
     // if no keys remain or this is a fake request, just return. Else, insert the
     // remaining keys.
     if (!internalKeys.isEmpty() && !validationUtils.jwtIsFake(principal)) {
-      dataService.upsertExposees(internalKeys, now);
+      write(internalKeys, now);
+    }
+  }
+
+  private void write(List<GaenKey> keys, UTCInstant now) throws InsertException {
+    if (uploadLog != null) {
+      try {
+        uploadLog.append(keys, now);
+        return;
+      } catch (IOException e) {
+        logger.error("Could not append to the upload log, writing the keys directly", e);
+      }
+    }
+    if (uploadQueue != null) {
+      uploadQueue.write(keys);
+    } else {
+      dataService.upsertExposees(keys, now);
     }
   }
 
@@ -103,19 +175,17 @@ private List<GaenKey> filterAndModify(
       logger.warn("DebugDataService is not null, don't use this in production!");
     }
     var internalKeys = keys;
-    var headerParts = header.split(";");
-    if (headerParts.length < 5) {
-      headerParts =
-          List.of("org.example.dp3t", "1.0.0", "0", "Android", "29").toArray(new String[0]);
+    var userAgent =
+        userAgentCache != null
+            ? userAgentCache.get(header, this::parseUserAgent)
+            : parseUserAgent(header);
+    if (userAgent == null) {
+      userAgent = parseUserAgent(DEFAULT_HEADER);
       logger.error("We received an invalid header, setting default.");
     }
-
-    // Map the given headers to os type, os version and app version. Examples are:
-    // ch.admin.bag.dp36;1.0.7;200724.1105.215;iOS;13.6
-    // ch.admin.bag.dp3t.dev;1.0.7;1595591959493;Android;29
-    var osType = exctractOS(headerParts[3]);
-    var osVersion = extractOsVersion(headerParts[4]);
-    var appVersion = extractAppVersion(headerParts[1], headerParts[2]);
+    var osType = userAgent.getOsType();
+    var osVersion = userAgent.getOsVersion();
+    var appVersion = userAgent.getAppVersion();
 
     for (KeyInsertionModifier modifier : modifierList) {
       internalKeys = modifier.modify(now, internalKeys, osType, osVersion, appVersion, principal);
@@ -127,6 +197,26 @@ private List<GaenKey> filterAndModify(
     return internalKeys;
   }
 
+  /**
+   * Parses the User-Agent header of an upload.
+   *
+   * @param header the User-Agent header of the upload
+   * @return the parsed user agent, or null if the header has too few parts
+   */
+  private UserAgent parseUserAgent(String header) {
+    var headerParts = header.split(";");
+    if (headerParts.length < 5) {
+      return null;
+    }
+    // Map the given headers to os type, os version and app version. Examples are:
+    // ch.admin.bag.dp36;1.0.7;200724.1105.215;iOS;13.6
+    // ch.admin.bag.dp3t.dev;1.0.7;1595591959493;Android;29
+    return new UserAgent(
+        exctractOS(headerParts[3]),
+        extractOsVersion(headerParts[4]),
+        extractAppVersion(headerParts[1], headerParts[2]));
+  }
+
   /**
    * Extracts the {@link OSType} from the osString that is given by the client request.
    *
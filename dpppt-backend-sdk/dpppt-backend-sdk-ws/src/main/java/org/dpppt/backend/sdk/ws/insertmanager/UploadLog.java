@@ -0,0 +1,430 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Local write-ahead log for the keys accepted by the {@link InsertManager}. Uploads are appended to
+ * memory-mapped segment files and only acknowledged once they are forced to disk. Concurrent
+ * appends are forced together: the first waiting upload forces everything appended so far. A
+ * background task replays the log into the {@link GAENDataService} in groups of maxBatchKeys keys
+ * and checkpoints the replayed position. While the database is unavailable the replay is postponed,
+ * so uploads are still accepted, and bursts larger than the database can take are absorbed by the
+ * log. Uploads which can't be written for any other reason, e.g. a constraint violation, are moved
+ * to the dead letter file of the directory, so they don't block the uploads after them.
+ *
+ * <p>A record consists of its payload length, a CRC32 of the rest of the record, the time of the
+ * upload and the keys as JSON. The length is written last, so a record is either complete or
+ * ends the segment. The replay is at least once, which is fine since existing keys are skipped by
+ * the insert. Like the {@link UploadQueue}, replayed keys get the release bucket of their replay,
+ * which is never before the bucket of their upload.
+ */
+public class UploadLog implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(UploadLog.class);
+
+  private static final String SEGMENT_SUFFIX = ".wal";
+  private static final String CHECKPOINT = "checkpoint";
+  private static final String DEAD_LETTER = "dead-letter";
+  // length, crc and upload time
+  private static final int HEADER_SIZE = 4 + 4 + 8;
+
+  private static final TypeReference<List<GaenKey>> KEY_LIST = new TypeReference<>() {};
+
+  private final Path directory;
+  private final int segmentSize;
+  private final GAENDataService dataService;
+  private final int maxBatchKeys;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ScheduledExecutorService replayer;
+
+  private final Object writeLock = new Object();
+  private final Object flushLock = new Object();
+
+  // guarded by writeLock
+  private long currentSegment;
+  private MappedByteBuffer currentBuffer;
+  private boolean closed = false;
+
+  // everything before this position is on disk and may be replayed
+  private volatile Position flushed;
+
+  // read-only mappings of the segments, reused by the replays until their segment is deleted.
+  // guarded by this
+  private final Map<Long, MappedByteBuffer> replayBuffers = new HashMap<>();
+
+  /**
+   * Opens the log in the given directory, uploads left by a previous run are replayed. New uploads
+   * are always appended to a new segment, so a record torn by a crash ends its segment.
+   *
+   * @param segmentSize the size of a segment file, an upload must fit into a single segment
+   * @param maxBatchKeys the maximum number of keys written to the database at once
+   * @param replayInterval the delay between two replays of the log
+   */
+  public UploadLog(
+      Path directory,
+      int segmentSize,
+      GAENDataService dataService,
+      int maxBatchKeys,
+      Duration replayInterval)
+      throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.dataService = dataService;
+    this.maxBatchKeys = maxBatchKeys;
+    Files.createDirectories(directory);
+    var segments = listSegments();
+    openSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1);
+    this.flushed = new Position(currentSegment, 0);
+    this.replayer =
+        Executors.newSingleThreadScheduledExecutor(
+            new CustomizableThreadFactory("upload-log-replay-"));
+    replayer.scheduleWithFixedDelay(
+        this::replayLogged,
+        replayInterval.toMillis(),
+        replayInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Appends the keys of one upload and returns once they are on disk.
+   *
+   * @param receivedAt the time of the upload
+   * @throws IOException if the keys could not be written, the upload is not logged then
+   */
+  public void append(List<GaenKey> keys, UTCInstant receivedAt) throws IOException {
+    byte[] payload = objectMapper.writeValueAsBytes(keys);
+    if (HEADER_SIZE + payload.length > segmentSize) {
+      throw new IOException("Upload of " + payload.length + " bytes exceeds the segment size");
+    }
+    var crc = new CRC32();
+    crc.update(ByteBuffer.allocate(8).putLong(0, receivedAt.getTimestamp()));
+    crc.update(payload);
+
+    Position written;
+    synchronized (writeLock) {
+      if (closed) {
+        throw new IOException("Upload log is closed");
+      }
+      if (currentBuffer.remaining() < HEADER_SIZE + payload.length) {
+        // everything of the full segment is forced before a later position is flushed
+        currentBuffer.force();
+        openSegment(currentSegment + 1);
+      }
+      int position = currentBuffer.position();
+      currentBuffer.putInt(position + 4, (int) crc.getValue());
+      currentBuffer.putLong(position + 8, receivedAt.getTimestamp());
+      currentBuffer.position(position + HEADER_SIZE);
+      currentBuffer.put(payload);
+      currentBuffer.putInt(position, payload.length);
+      written = new Position(currentSegment, currentBuffer.position());
+    }
+    flush(written);
+  }
+
+  private void flush(Position written) {
+    synchronized (flushLock) {
+      if (!flushed.isBefore(written)) {
+        // forced together with an earlier upload
+        return;
+      }
+      MappedByteBuffer buffer;
+      Position appended;
+      synchronized (writeLock) {
+        buffer = currentBuffer;
+        appended = new Position(currentSegment, currentBuffer.position());
+      }
+      buffer.force();
+      flushed = appended;
+    }
+  }
+
+  /**
+   * Replays all flushed uploads after the checkpoint into the database.
+   *
+   * @return the number of replayed uploads, including the ones moved to the dead letter file
+   * @throws DataAccessException if the database is temporarily unavailable, the uploads written so
+   *     far are checkpointed
+   */
+  public synchronized int replay() throws IOException {
+    var checkpoint = readCheckpoint();
+    var limit = flushed;
+    var group = new ArrayList<LoggedUpload>();
+    int groupKeys = 0;
+    int uploads = 0;
+    long oldestReceivedAt = Long.MAX_VALUE;
+    for (long segment : listSegments()) {
+      if (segment < checkpoint.segment || segment > limit.segment) {
+        continue;
+      }
+      var buffer = mapReadOnly(segment);
+      int position = segment == checkpoint.segment ? checkpoint.offset : 0;
+      int end = segment == limit.segment ? limit.offset : buffer.capacity();
+      while (position + HEADER_SIZE <= end) {
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER_SIZE + length > end) {
+          break;
+        }
+        var record = new byte[length];
+        buffer.duplicate().position(position + HEADER_SIZE).get(record);
+        long receivedAt = buffer.getLong(position + 8);
+        var crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, receivedAt));
+        crc.update(record);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+          logger.warn("Upload log segment {} ends with a torn record at {}", segment, position);
+          break;
+        }
+        position += HEADER_SIZE + length;
+        var upload = new LoggedUpload(receivedAt, record, new Position(segment, position));
+        try {
+          upload.keys = objectMapper.readValue(record, KEY_LIST);
+        } catch (JsonProcessingException e) {
+          deadLetter(upload, e);
+        }
+        group.add(upload);
+        groupKeys += upload.keys.size();
+        uploads++;
+        oldestReceivedAt = Math.min(oldestReceivedAt, receivedAt);
+        if (groupKeys >= maxBatchKeys) {
+          write(group);
+          group.clear();
+          groupKeys = 0;
+        }
+      }
+    }
+    if (!group.isEmpty()) {
+      write(group);
+    }
+    deleteSegmentsBefore(readCheckpoint().segment);
+    if (uploads > 0) {
+      logger.debug(
+          "Replayed {} uploads from the upload log, the oldest was received at {}",
+          uploads,
+          UTCInstant.ofEpochMillis(oldestReceivedAt));
+    }
+    return uploads;
+  }
+
+  /**
+   * Writes a group of uploads and checkpoints its end. If the group fails for another reason than
+   * a temporarily unavailable database, its uploads are written one by one and the ones which fail
+   * again are moved to the dead letter file.
+   */
+  private void write(List<LoggedUpload> group) throws IOException {
+    var keys = new ArrayList<GaenKey>();
+    for (var upload : group) {
+      keys.addAll(upload.keys);
+    }
+    try {
+      upsert(keys);
+      writeCheckpoint(group.get(group.size() - 1).end);
+      return;
+    } catch (RuntimeException e) {
+      if (isTemporary(e)) {
+        throw e;
+      }
+      logger.warn(
+          "Could not replay a group of {} uploads, replaying them one by one: {}",
+          group.size(),
+          e.getMessage());
+    }
+    for (var upload : group) {
+      try {
+        upsert(upload.keys);
+      } catch (RuntimeException e) {
+        if (isTemporary(e)) {
+          throw e;
+        }
+        deadLetter(upload, e);
+      }
+      writeCheckpoint(upload.end);
+    }
+  }
+
+  private void upsert(List<GaenKey> keys) {
+    if (!keys.isEmpty()) {
+      dataService.upsertExposees(keys, UTCInstant.now());
+    }
+  }
+
+  /**
+   * @return whether the replay may succeed later. Failures to connect are translated to a {@link
+   *     DataAccessResourceFailureException}, which is not a transient exception.
+   */
+  private static boolean isTemporary(RuntimeException e) {
+    return e instanceof TransientDataAccessException
+        || e instanceof RecoverableDataAccessException
+        || e instanceof DataAccessResourceFailureException;
+  }
+
+  /** Appends an upload which can never be replayed to the dead letter file and skips it. */
+  private void deadLetter(LoggedUpload upload, Exception cause) throws IOException {
+    logger.error(
+        "Upload received at {} can't be replayed, it is moved to {}",
+        UTCInstant.ofEpochMillis(upload.receivedAt),
+        directory.resolve(DEAD_LETTER),
+        cause);
+    var line = upload.receivedAt + " " + new String(upload.payload, StandardCharsets.UTF_8) + "\n";
+    Files.writeString(
+        directory.resolve(DEAD_LETTER),
+        line,
+        StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND,
+        StandardOpenOption.SYNC);
+    upload.keys = List.of();
+  }
+
+  private void replayLogged() {
+    try {
+      replay();
+    } catch (DataAccessException e) {
+      logger.warn("Database unavailable, replay of the upload log postponed: {}", e.getMessage());
+    } catch (IOException | RuntimeException e) {
+      logger.error("Could not replay the upload log", e);
+    }
+  }
+
+  /** Stops appending and replaying. Uploads which were not replayed yet stay in the log. */
+  @Override
+  public void close() throws InterruptedException {
+    synchronized (writeLock) {
+      closed = true;
+    }
+    replayer.shutdown();
+    replayer.awaitTermination(1, TimeUnit.MINUTES);
+    synchronized (this) {
+      replayBuffers.clear();
+    }
+  }
+
+  private void openSegment(long segment) throws IOException {
+    try (var channel =
+        FileChannel.open(
+            segmentPath(segment),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      // the mapping stays valid after the channel is closed
+      currentBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    currentSegment = segment;
+  }
+
+  private MappedByteBuffer mapReadOnly(long segment) throws IOException {
+    var buffer = replayBuffers.get(segment);
+    if (buffer == null) {
+      try (var channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+        // segments are created with their full size, so the mapping covers later appends
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      replayBuffers.put(segment, buffer);
+    }
+    return buffer;
+  }
+
+  private List<Long> listSegments() throws IOException {
+    try (var files = Files.list(directory)) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+          .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private void deleteSegmentsBefore(long segment) throws IOException {
+    for (long old : listSegments()) {
+      if (old < segment) {
+        replayBuffers.remove(old);
+        Files.delete(segmentPath(old));
+      }
+    }
+  }
+
+  private Path segmentPath(long segment) {
+    return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+  }
+
+  private Position readCheckpoint() throws IOException {
+    var file = directory.resolve(CHECKPOINT);
+    if (!Files.exists(file)) {
+      return new Position(0, 0);
+    }
+    var parts = Files.readString(file, StandardCharsets.UTF_8).trim().split(" ");
+    return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+  }
+
+  private void writeCheckpoint(Position position) throws IOException {
+    var file = directory.resolve(CHECKPOINT);
+    var tmp = directory.resolve(CHECKPOINT + ".tmp");
+    Files.writeString(
+        tmp,
+        position.segment + " " + position.offset,
+        StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.SYNC);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static class LoggedUpload {
+    private final long receivedAt;
+    private final byte[] payload;
+    // the position after the upload
+    private final Position end;
+    private List<GaenKey> keys = List.of();
+
+    LoggedUpload(long receivedAt, byte[] payload, Position end) {
+      this.receivedAt = receivedAt;
+      this.payload = payload;
+      this.end = end;
+    }
+  }
+
+  private static class Position {
+    private final long segment;
+    private final int offset;
+
+    Position(long segment, int offset) {
+      this.segment = segment;
+      this.offset = offset;
+    }
+
+    boolean isBefore(Position other) {
+      return segment < other.segment || (segment == other.segment && offset < other.offset);
+    }
+  }
+}
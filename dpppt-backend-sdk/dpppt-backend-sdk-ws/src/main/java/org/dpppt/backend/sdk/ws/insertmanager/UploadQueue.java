@@ -0,0 +1,233 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Group commit queue for the keys accepted by the {@link InsertManager}. Instead of writing every
+ * upload in its own transaction, the uploads are put on a bounded queue and a few writer threads
+ * drain it in group commits: a group is written with a single call to {@link
+ * GAENDataService#upsertExposees(List, UTCInstant)} once it contains maxBatchKeys keys or
+ * maxBatchDelay passed since its first upload. If the queue is full, uploads are rejected with an
+ * {@link UploadQueueFullException} instead of waiting for the database.
+ *
+ * <p>An upload is only answered once its group is committed. If the group can't be written, or it
+ * is still queued when the queue is closed, the upload fails with an {@link
+ * UploadNotWrittenException} and the client retries it. No upload is acknowledged without being
+ * written.
+ *
+ * <p>The keys of a group get the release bucket of the time they are written, which is never
+ * before the bucket of their upload. Keys are therefore never released before they would have been
+ * with a synchronous write, and keys written just after a bucket closed are not lost to the
+ * downloads of that bucket.
+ */
+public class UploadQueue implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(UploadQueue.class);
+
+  // how long an idle writer waits before it checks whether the queue was closed
+  private static final long IDLE_POLL_MILLIS = 100;
+
+  private final GAENDataService dataService;
+  private final BlockingQueue<Upload> queue;
+  private final int maxBatchKeys;
+  private final long maxBatchDelayNanos;
+  private final Duration shutdownTimeout;
+  private final ExecutorService writers;
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param capacity the maximum number of uploads waiting to be written
+   * @param writerCount the number of writer threads, each uses one database connection at a time
+   * @param maxBatchKeys a group is written as soon as it contains this many keys
+   * @param maxBatchDelay a group is written at the latest this long after its first upload
+   * @param shutdownTimeout how long {@link #close()} waits for the queue to be drained
+   */
+  public UploadQueue(
+      GAENDataService dataService,
+      int capacity,
+      int writerCount,
+      int maxBatchKeys,
+      Duration maxBatchDelay,
+      Duration shutdownTimeout) {
+    this.dataService = dataService;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.maxBatchKeys = maxBatchKeys;
+    this.maxBatchDelayNanos = maxBatchDelay.toNanos();
+    this.shutdownTimeout = shutdownTimeout;
+    this.writers =
+        Executors.newFixedThreadPool(writerCount, new CustomizableThreadFactory("upload-writer-"));
+    for (int i = 0; i < writerCount; i++) {
+      writers.execute(this::drain);
+    }
+  }
+
+  /**
+   * Queues the keys of one upload and waits until they are committed.
+   *
+   * @throws UploadQueueFullException if the queue is full or closed
+   * @throws UploadNotWrittenException if the keys could not be written
+   */
+  public void write(List<GaenKey> keys) throws UploadQueueFullException, UploadNotWrittenException {
+    var written = enqueue(keys);
+    try {
+      written.get();
+    } catch (ExecutionException e) {
+      throw new UploadNotWrittenException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UploadNotWrittenException(e);
+    }
+  }
+
+  /**
+   * Queues the keys of one upload.
+   *
+   * @return completed once the group of the keys is committed, or exceptionally if it could not be
+   *     written
+   * @throws UploadQueueFullException if the queue is full or closed
+   */
+  public CompletableFuture<Void> enqueue(List<GaenKey> keys) throws UploadQueueFullException {
+    var upload = new Upload(keys);
+    if (closed || !queue.offer(upload)) {
+      throw new UploadQueueFullException();
+    }
+    return upload.written;
+  }
+
+  /** @return the number of uploads waiting to be written */
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * Stops accepting uploads and waits up to the shutdown timeout for the writers to write all
+   * queued uploads. Uploads which are still queued afterwards fail, so their clients retry them.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    closed = true;
+    writers.shutdown();
+    try {
+      if (!writers.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        writers.shutdownNow();
+      }
+    } finally {
+      // also catches uploads which were queued while the writers stopped
+      var remaining = new ArrayList<Upload>();
+      queue.drainTo(remaining);
+      if (!remaining.isEmpty()) {
+        logger.error("Upload queue not drained on shutdown, {} uploads fail", remaining.size());
+        fail(remaining, new IllegalStateException("Upload queue closed"));
+      }
+    }
+  }
+
+  private void drain() {
+    // an interrupted writer stops, its remaining uploads are failed by close()
+    while ((!closed || !queue.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+      Upload first;
+      try {
+        first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (first != null) {
+        writeGroup(collectGroup(first));
+      }
+    }
+  }
+
+  /**
+   * Adds further uploads to the group until it is full or its delay passed. Uploads taken from the
+   * queue are always written, even if the writer is interrupted.
+   */
+  private List<Upload> collectGroup(Upload first) {
+    var group = new ArrayList<Upload>();
+    group.add(first);
+    int keyCount = first.keys.size();
+    long deadline = System.nanoTime() + maxBatchDelayNanos;
+    while (keyCount < maxBatchKeys) {
+      // once closed, the queue is drained without waiting for further uploads
+      long remaining = closed ? 0 : deadline - System.nanoTime();
+      Upload next;
+      try {
+        next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if (next == null) {
+        break;
+      }
+      group.add(next);
+      keyCount += next.keys.size();
+    }
+    return group;
+  }
+
+  private void writeGroup(List<Upload> group) {
+    var keys = new ArrayList<GaenKey>();
+    for (var upload : group) {
+      keys.addAll(upload.keys);
+    }
+    try {
+      dataService.upsertExposees(keys, UTCInstant.now());
+    } catch (RuntimeException e) {
+      logger.error("Could not write a group of {} uploaded keys", keys.size(), e);
+      fail(group, e);
+      return;
+    }
+    for (var upload : group) {
+      upload.written.complete(null);
+    }
+  }
+
+  private static void fail(List<Upload> uploads, Throwable cause) {
+    for (var upload : uploads) {
+      upload.written.completeExceptionally(cause);
+    }
+  }
+
+  private static class Upload {
+    private final List<GaenKey> keys;
+    private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+    Upload(List<GaenKey> keys) {
+      this.keys = keys;
+    }
+  }
+
+  public static class UploadQueueFullException extends InsertException {
+
+    /** */
+    private static final long serialVersionUID = 4326329150373651286L;
+  }
+
+  /** The upload was accepted by the queue, but its keys were not committed. */
+  public static class UploadNotWrittenException extends InsertException {
+
+    /** */
+    private static final long serialVersionUID = -2046571903548171243L;
+
+    public UploadNotWrittenException(Throwable cause) {
+      initCause(cause);
+    }
+  }
+}
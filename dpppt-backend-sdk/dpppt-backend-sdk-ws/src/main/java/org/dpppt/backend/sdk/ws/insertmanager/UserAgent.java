@@ -0,0 +1,33 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import org.dpppt.backend.sdk.semver.Version;
+
+/**
+ * The os type, os version and app version of the client, parsed from the User-Agent header of an
+ * upload. Instances are cached by the {@link UserAgentCache} and shared between uploads, so the
+ * versions must not be modified.
+ */
+public class UserAgent {
+
+  private final OSType osType;
+  private final Version osVersion;
+  private final Version appVersion;
+
+  public UserAgent(OSType osType, Version osVersion, Version appVersion) {
+    this.osType = osType;
+    this.osVersion = osVersion;
+    this.appVersion = appVersion;
+  }
+
+  public OSType getOsType() {
+    return osType;
+  }
+
+  public Version getOsVersion() {
+    return osVersion;
+  }
+
+  public Version getAppVersion() {
+    return appVersion;
+  }
+}
@@ -0,0 +1,127 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of parsed User-Agent headers. The apps only send a few hundred distinct headers,
+ * so almost every upload is served from the cache instead of splitting the header and matching the
+ * versions against the semver pattern. Once maxSize headers are cached, the least recently used one
+ * is evicted. If the app ids of the apps are known, only their headers are cached, so clients sending
+ * arbitrary headers can't evict the ones of the apps.
+ *
+ * <p>As a {@link MeterBinder} bean the cache reports the usual cache metrics {@code cache.gets}
+ * (tagged with result hit or miss), {@code cache.evictions} and {@code cache.size}, tagged with
+ * cache userAgent.
+ */
+public class UserAgentCache implements MeterBinder {
+
+  private static final String CACHE_NAME = "userAgent";
+
+  private final Map<String, UserAgent> userAgents;
+  private final Set<String> appIds;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** @param maxSize the maximum number of cached headers */
+  public UserAgentCache(int maxSize) {
+    this(maxSize, Set.of());
+  }
+
+  /**
+   * @param maxSize the maximum number of cached headers
+   * @param appIds the app ids (first part of the header) whose headers are cached, or empty to cache
+   *     every valid header
+   */
+  public UserAgentCache(int maxSize, Set<String> appIds) {
+    this.appIds = appIds;
+    this.userAgents =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, UserAgent> eldest) {
+            if (size() > maxSize) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Returns the cached user agent of the header or parses and caches it. Headers which the parser
+   * rejects by returning null and headers of unknown apps are not cached.
+   *
+   * @param header the User-Agent header of the upload
+   * @param parser parses the header, returns null if the header is invalid
+   * @return the user agent, or null if the header is invalid
+   */
+  public UserAgent get(String header, Function<String, UserAgent> parser) {
+    synchronized (userAgents) {
+      var userAgent = userAgents.get(header);
+      if (userAgent != null) {
+        hits.incrementAndGet();
+        return userAgent;
+      }
+    }
+    misses.incrementAndGet();
+    // parsed outside of the lock, concurrent misses of the same header parse it twice
+    var userAgent = parser.apply(header);
+    if (userAgent != null && isKnownApp(header)) {
+      synchronized (userAgents) {
+        userAgents.put(header, userAgent);
+      }
+    }
+    return userAgent;
+  }
+
+  private boolean isKnownApp(String header) {
+    if (appIds.isEmpty()) {
+      return true;
+    }
+    int end = header.indexOf(';');
+    return end >= 0 && appIds.contains(header.substring(0, end));
+  }
+
+  public int size() {
+    synchronized (userAgents) {
+      return userAgents.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("cache.gets", hits, AtomicLong::get)
+        .tags("cache", CACHE_NAME, "result", "hit")
+        .description("The number of times a parsed User-Agent was found in the cache")
+        .register(registry);
+    FunctionCounter.builder("cache.gets", misses, AtomicLong::get)
+        .tags("cache", CACHE_NAME, "result", "miss")
+        .description("The number of times a User-Agent had to be parsed")
+        .register(registry);
+    FunctionCounter.builder("cache.evictions", evictions, AtomicLong::get)
+        .tags("cache", CACHE_NAME)
+        .description("The number of User-Agents evicted from the cache")
+        .register(registry);
+    Gauge.builder("cache.size", this, UserAgentCache::size)
+        .tags("cache", CACHE_NAME)
+        .description("The number of cached User-Agents")
+        .register(registry);
+  }
+}
@@ -1,7 +1,5 @@
 package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
 
-import java.util.List;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
@@ -12,7 +10,7 @@
  * Rejects a batch of keys if any of them have an invalid base64 encoding or doesn't have the
  * correct length. Invalid base64 encodings or wrong key lengths point to a client error.
  */
-public class AssertKeyFormat implements KeyInsertionFilter {
+public class AssertKeyFormat implements KeyInsertionPredicate {
 
   private final ValidationUtils validationUtils;
 
@@ -21,22 +19,14 @@ public AssertKeyFormat(ValidationUtils validationUtils) {
   }
 
   @Override
-  public List<GaenKey> filter(
-      UTCInstant now,
-      List<GaenKey> content,
-      OSType osType,
-      Version osVersion,
-      Version appVersion,
-      Object principal)
-      throws InsertException {
-
-    var hasInvalidKeys =
-        content.stream().anyMatch(key -> !validationUtils.isValidKeyFormat(key.getKeyData()));
-
-    if (hasInvalidKeys) {
-      throw new KeyFormatException();
-    }
-    return content;
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal) {
+    return key -> {
+      if (!validationUtils.isValidKeyFormat(key)) {
+        throw new KeyFormatException();
+      }
+      return true;
+    };
   }
 
   public class KeyFormatException extends InsertException {
@@ -1,9 +1,5 @@
 package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
-import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.OSType;
@@ -16,7 +12,7 @@
  * in the JWT token: the supplied key must match `delayedKeyDate`, which has been set as a claim by
  * a previous call to `exposed`
  */
-public class EnforceMatchingJWTClaimsForExposedNextDay implements KeyInsertionFilter {
+public class EnforceMatchingJWTClaimsForExposedNextDay implements KeyInsertionPredicate {
 
   private final ValidationUtils validationUtils;
 
@@ -25,37 +21,18 @@ public EnforceMatchingJWTClaimsForExposedNextDay(ValidationUtils utils) {
   }
 
   @Override
-  public List<GaenKey> filter(
-      UTCInstant now,
-      List<GaenKey> content,
-      OSType osType,
-      Version osVersion,
-      Version appVersion,
-      Object principal) {
-    return content.stream()
-        .filter(
-            key -> {
-              try {
-                // getDelayedKeyDateClaim throws an exception if there is no delayedKeyDate claim
-                // available.
-                var delayedKeyDateClaim = validationUtils.getDelayedKeyDateClaim(principal);
-                var delayedKeyDate =
-                    UTCInstant.of(key.getRollingStartNumber(), GaenUnit.TenMinutes);
-                return delayedKeyDateClaim.equals(delayedKeyDate)
-                    && isValidDelayedKeyDate(now, delayedKeyDate);
-              } catch (DelayedKeyDateClaimIsMissing ex) {
-                return false;
-              }
-            })
-        .collect(Collectors.toList());
-  }
-
-  private boolean isValidDelayedKeyDate(UTCInstant now, UTCInstant delayedKeyDate) {
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal) {
+    UTCInstant delayedKeyDateClaim;
     try {
-      validationUtils.assertDelayedKeyDate(now, delayedKeyDate);
-      return true;
-    } catch (DelayedKeyDateIsInvalid ex) {
-      return false;
+      // getDelayedKeyDateClaim throws an exception if there is no delayedKeyDate claim available.
+      delayedKeyDateClaim = validationUtils.getDelayedKeyDateClaim(principal);
+      validationUtils.assertDelayedKeyDate(now, delayedKeyDateClaim);
+    } catch (DelayedKeyDateClaimIsMissing | DelayedKeyDateIsInvalid ex) {
+      return key -> false;
     }
+    // only keys of the claimed date remain, so the claim is the only date to validate
+    long delayedKeyDate = delayedKeyDateClaim.get10MinutesSince1970();
+    return key -> key.getRollingStartNumber() == delayedKeyDate;
   }
 }
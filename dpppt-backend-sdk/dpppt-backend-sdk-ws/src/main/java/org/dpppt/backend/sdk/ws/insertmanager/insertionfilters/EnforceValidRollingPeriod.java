@@ -1,8 +1,5 @@
 package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.OSType;
@@ -13,18 +10,11 @@
  * "https://github.com/google/exposure-notifications-server/blob/main/docs/server_functional_requirements.md#publishing-temporary-exposure-keys"
  * >EN documentation</a>
  */
-public class EnforceValidRollingPeriod implements KeyInsertionFilter {
+public class EnforceValidRollingPeriod implements KeyInsertionPredicate {
 
   @Override
-  public List<GaenKey> filter(
-      UTCInstant now,
-      List<GaenKey> content,
-      OSType osType,
-      Version osVersion,
-      Version appVersion,
-      Object principal) {
-    return content.stream()
-        .filter(key -> key.getRollingPeriod() >= 1 && key.getRollingPeriod() <= 144)
-        .collect(Collectors.toList());
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal) {
+    return key -> key.getRollingPeriod() >= 1 && key.getRollingPeriod() <= 144;
   }
 }
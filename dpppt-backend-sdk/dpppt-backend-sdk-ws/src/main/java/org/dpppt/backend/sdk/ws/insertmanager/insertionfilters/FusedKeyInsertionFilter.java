@@ -0,0 +1,72 @@
+package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.semver.Version;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
+import org.dpppt.backend.sdk.ws.insertmanager.OSType;
+
+/**
+ * Applies a sequence of {@link KeyInsertionPredicate} in a single pass. The predicates are compiled
+ * once per upload, then every key is checked by one predicate after the other until the first one
+ * rejects it. Only the remaining keys are copied into the result, instead of one new list per
+ * predicate. The result is the same as applying the predicates one after the other: a predicate
+ * only sees the keys kept by the predicates before it.
+ */
+public class FusedKeyInsertionFilter implements KeyInsertionFilter {
+
+  private final List<KeyInsertionPredicate> predicates = new ArrayList<>();
+
+  public FusedKeyInsertionFilter(KeyInsertionPredicate... predicates) {
+    for (KeyInsertionPredicate predicate : predicates) {
+      add(predicate);
+    }
+  }
+
+  /** Appends a predicate, it is evaluated after the ones added before. */
+  public void add(KeyInsertionPredicate predicate) {
+    predicates.add(predicate);
+  }
+
+  public List<KeyInsertionPredicate> getPredicates() {
+    return Collections.unmodifiableList(predicates);
+  }
+
+  @Override
+  public List<GaenKey> filter(
+      UTCInstant now,
+      List<GaenKey> content,
+      OSType osType,
+      Version osVersion,
+      Version appVersion,
+      Object principal)
+      throws InsertException {
+    if (content.isEmpty()) {
+      return content;
+    }
+    var checks = new KeyInsertionPredicate.KeyCheck[predicates.size()];
+    for (int i = 0; i < checks.length; i++) {
+      checks[i] = predicates.get(i).compile(now, osType, osVersion, appVersion, principal);
+    }
+    var result = new ArrayList<GaenKey>(content.size());
+    for (GaenKey key : content) {
+      if (accept(checks, key)) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  private static boolean accept(KeyInsertionPredicate.KeyCheck[] checks, GaenKey key)
+      throws InsertException {
+    for (KeyInsertionPredicate.KeyCheck check : checks) {
+      if (!check.test(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,66 @@
+package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.semver.Version;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.InsertException;
+import org.dpppt.backend.sdk.ws.insertmanager.InsertManager;
+import org.dpppt.backend.sdk.ws.insertmanager.OSType;
+
+/**
+ * A {@link KeyInsertionFilter} which decides about every key on its own. Consecutive predicates
+ * added to the {@link InsertManager} are evaluated together in a single pass over the keys, see
+ * {@link FusedKeyInsertionFilter}. Used on its own, a predicate still works like any other filter.
+ */
+public interface KeyInsertionPredicate extends KeyInsertionFilter {
+
+  /**
+   * Prepares the check of the keys of one upload. Everything that does not depend on the key, like
+   * the time boundaries derived from now or the claims of the principal, is computed here once.
+   *
+   * @param now current timestamp
+   * @param osType the os type of the client which uploaded the keys
+   * @param osVersion the os version of the client which uploaded the keys
+   * @param appVersion the app version of the client which uploaded the keys
+   * @param principal the authorization context which belongs to the uploaded keys
+   * @return the check deciding whether a key of this upload is kept
+   */
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal);
+
+  @Override
+  public default List<GaenKey> filter(
+      UTCInstant now,
+      List<GaenKey> content,
+      OSType osType,
+      Version osVersion,
+      Version appVersion,
+      Object principal)
+      throws InsertException {
+    if (content.isEmpty()) {
+      return content;
+    }
+    var check = compile(now, osType, osVersion, appVersion, principal);
+    var result = new ArrayList<GaenKey>(content.size());
+    for (GaenKey key : content) {
+      if (check.test(key)) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  /** The check of a single key, compiled for one upload. */
+  @FunctionalInterface
+  public interface KeyCheck {
+
+    /**
+     * @param key an uploaded key
+     * @return true if the key is kept, false if it is filtered out
+     * @throws InsertException to reject the whole upload
+     */
+    public boolean test(GaenKey key) throws InsertException;
+  }
+}
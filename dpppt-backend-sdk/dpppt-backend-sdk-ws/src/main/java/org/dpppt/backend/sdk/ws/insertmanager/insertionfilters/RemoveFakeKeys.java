@@ -1,23 +1,15 @@
 package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.OSType;
 
 /** Keep only Non-Fake keys, so that fake keys are not stored in the database. */
-public class RemoveFakeKeys implements KeyInsertionFilter {
+public class RemoveFakeKeys implements KeyInsertionPredicate {
 
   @Override
-  public List<GaenKey> filter(
-      UTCInstant now,
-      List<GaenKey> content,
-      OSType osType,
-      Version osVersion,
-      Version appVersion,
-      Object principal) {
-    return content.stream().filter(key -> key.getFake().equals(0)).collect(Collectors.toList());
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal) {
+    return key -> key.getFake().equals(0);
   }
 }
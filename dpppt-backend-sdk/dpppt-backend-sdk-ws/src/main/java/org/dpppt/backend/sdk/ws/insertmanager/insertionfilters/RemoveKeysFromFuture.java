@@ -1,9 +1,5 @@
 package org.dpppt.backend.sdk.ws.insertmanager.insertionfilters;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import org.dpppt.backend.sdk.model.gaen.GaenKey;
-import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.insertmanager.OSType;
@@ -11,23 +7,13 @@
 /**
  * Reject keys that are too far in the future. The `rollingStart` must not be later than tomorrow.
  */
-public class RemoveKeysFromFuture implements KeyInsertionFilter {
+public class RemoveKeysFromFuture implements KeyInsertionPredicate {
 
   @Override
-  public List<GaenKey> filter(
-      UTCInstant now,
-      List<GaenKey> content,
-      OSType osType,
-      Version osVersion,
-      Version appVersion,
-      Object principal) {
-    return content.stream()
-        .filter(
-            key -> {
-              var rollingStartNumberInstant =
-                  UTCInstant.of(key.getRollingStartNumber(), GaenUnit.TenMinutes);
-              return rollingStartNumberInstant.isBeforeDateOf(now.plusDays(2));
-            })
-        .collect(Collectors.toList());
+  public KeyCheck compile(
+      UTCInstant now, OSType osType, Version osVersion, Version appVersion, Object principal) {
+    // keys must start before the day after tomorrow
+    long firstRejected = now.plusDays(2).atStartOfDay().get10MinutesSince1970();
+    return key -> key.getRollingStartNumber() < firstRejected;
   }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2020 Gobierno de España
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.radarcovid.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.radarcovid.client.service.ValidationRestClientService;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived cache of TAN validation results. Clients retry uploads after timeouts, and each retry
+ * would call the validation service again. Valid and invalid results are kept for their own time
+ * to live, keyed by the SHA-256 hash of the TAN, so no TAN is kept in memory. Failed validations
+ * are not cached.
+ *
+ * <p>Concurrent validations of the same TAN are deduplicated: the first one calls the validation
+ * service and the others wait for its result or exception.
+ *
+ * <p>As a {@link MeterBinder} bean the cache reports {@code cache.gets} (tagged with result hit,
+ * miss or coalesced) and {@code cache.size}, tagged with cache tanValidation.
+ */
+public class ValidationResultCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "tanValidation";
+
+    private final long validTtlMillis;
+    private final long invalidTtlMillis;
+    // hashed TAN to the validation result, in the order of their validation
+    private final Map<String, Result> results;
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param validTtl how long a valid result is cached
+     * @param invalidTtl how long an invalid result is cached
+     * @param maxSize the maximum number of cached results, the oldest ones are evicted first
+     */
+    public ValidationResultCache(Duration validTtl, Duration invalidTtl, int maxSize) {
+        this.validTtlMillis = validTtl.toMillis();
+        this.invalidTtlMillis = invalidTtl.toMillis();
+        this.results = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                // expired results are removed one at a time while new ones are added
+                return size() > maxSize || eldest.getValue().expiresAt <= UTCInstant.now().getTimestamp();
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of the TAN, or validates it with the given service.
+     *
+     * @throws RuntimeException the exception of the validation service, also thrown to all
+     *     validations waiting for the same TAN
+     */
+    public boolean validate(String tan, ValidationRestClientService validationRestClientService) {
+        String key = hash(tan);
+        synchronized (results) {
+            Result result = results.get(key);
+            if (result != null && result.expiresAt > UTCInstant.now().getTimestamp()) {
+                hits.incrementAndGet();
+                return result.valid;
+            }
+        }
+        var validation = new CompletableFuture<Boolean>();
+        var running = inFlight.putIfAbsent(key, validation);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        misses.incrementAndGet();
+        try {
+            boolean valid = validationRestClientService.validate(tan);
+            long ttl = valid ? validTtlMillis : invalidTtlMillis;
+            synchronized (results) {
+                // cached before the validation leaves inFlight, so later validations find the result
+                results.put(key, new Result(valid, UTCInstant.now().getTimestamp() + ttl));
+            }
+            validation.complete(valid);
+            return valid;
+        } catch (RuntimeException e) {
+            validation.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, validation);
+        }
+    }
+
+    private static boolean await(CompletableFuture<Boolean> validation) {
+        try {
+            return validation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, AtomicLong::get)
+                .tags("cache", CACHE_NAME, "result", "hit")
+                .description("The number of TAN validations answered from the cache")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, AtomicLong::get)
+                .tags("cache", CACHE_NAME, "result", "miss")
+                .description("The number of TAN validations sent to the validation service")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", coalesced, AtomicLong::get)
+                .tags("cache", CACHE_NAME, "result", "coalesced")
+                .description("The number of TAN validations which waited for the same TAN")
+                .register(registry);
+        Gauge.builder("cache.size", this, ValidationResultCache::size)
+                .tags("cache", CACHE_NAME)
+                .description("The number of cached TAN validation results")
+                .register(registry);
+    }
+
+    private static String hash(String tan) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(tan.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Result {
+        private final boolean valid;
+        private final long expiresAt;
+
+        Result(boolean valid, long expiresAt) {
+            this.valid = valid;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
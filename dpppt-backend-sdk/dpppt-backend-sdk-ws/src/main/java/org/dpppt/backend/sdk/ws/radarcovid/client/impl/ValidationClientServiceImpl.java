@@ -11,6 +11,7 @@
 package org.dpppt.backend.sdk.ws.radarcovid.client.impl;
 
 import org.dpppt.backend.sdk.ws.radarcovid.client.ValidationClientService;
+import org.dpppt.backend.sdk.ws.radarcovid.client.ValidationResultCache;
 import org.dpppt.backend.sdk.ws.radarcovid.client.service.ValidationRestClientService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,15 +21,28 @@ public class ValidationClientServiceImpl implements ValidationClientService {
     private static final Logger logger = LoggerFactory.getLogger(ValidationClientServiceImpl.class);
 
     private final ValidationRestClientService validationRestClientService;
+    private final ValidationResultCache validationResultCache;
 
     public ValidationClientServiceImpl(ValidationRestClientService validationRestClientService) {
+        this(validationRestClientService, null);
+    }
+
+    /**
+     * @param validationResultCache cache of recent validation results, or null to call the validation
+     *     service for every TAN
+     */
+    public ValidationClientServiceImpl(ValidationRestClientService validationRestClientService,
+                                       ValidationResultCache validationResultCache) {
         this.validationRestClientService = validationRestClientService;
+        this.validationResultCache = validationResultCache;
     }
 
     @Override
     public boolean validate(String tan) {
         logger.debug("Entering validationClientServiceImpl.validate('{}')", tan);
-        boolean result = validationRestClientService.validate(tan);
+        boolean result = validationResultCache != null
+                ? validationResultCache.validate(tan, validationRestClientService)
+                : validationRestClientService.validate(tan);
         logger.debug("Leaving validationClientServiceImpl with: {}", result);
         return result;
     }
@@ -10,27 +10,78 @@
 
 package org.dpppt.backend.sdk.ws.radarcovid.client.service.impl;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.dpppt.backend.sdk.ws.radarcovid.client.service.ValidationRestClientService;
+import org.dpppt.backend.sdk.ws.radarcovid.exception.RadarCovidServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.ResourceAccessException;
 
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Guards the calls to the validation service with a bulkhead and a circuit breaker. The bulkhead
+ * limits the number of upload threads waiting for the validation service at the same time, the
+ * circuit breaker stops calling it while most calls fail. Rejected calls and calls that time out
+ * fail fast with a {@link RadarCovidServerException} with status 503, so the client retries later.
+ * The latency of every call is recorded in the timer {@code validation.client.requests}, tagged
+ * with its outcome.
+ */
 public class ValidationCircuitBreakerRestClientServiceImpl implements ValidationRestClientService {
 
     private static final Logger logger = LoggerFactory.getLogger(ValidationCircuitBreakerRestClientServiceImpl.class);
 
+    private static final String TIMER_NAME = "validation.client.requests";
+
     private final ValidationRestClientService validationRestClientService;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final MeterRegistry meterRegistry;
 
     public ValidationCircuitBreakerRestClientServiceImpl(
-            ValidationRestClientService validationRestClientService) {
+            ValidationRestClientService validationRestClientService,
+            CircuitBreaker circuitBreaker,
+            Bulkhead bulkhead,
+            MeterRegistry meterRegistry) {
         this.validationRestClientService = validationRestClientService;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
-    //@CircuitBreaker()
     public boolean validate(String tan) {
         logger.debug("Entering validationCircuitBreakerRestClientServiceImpl.validate('{}')", tan);
-        boolean result = validationRestClientService.validate(tan);
-        logger.debug("Leaving validationCircuitBreakerRestClientServiceImpl with: {}", result);
-        return result;
+        Supplier<Boolean> call = Bulkhead.decorateSupplier(bulkhead,
+                CircuitBreaker.decorateSupplier(circuitBreaker, () -> validationRestClientService.validate(tan)));
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            boolean result = call.get();
+            outcome = result ? "valid" : "invalid";
+            logger.debug("Leaving validationCircuitBreakerRestClientServiceImpl with: {}", result);
+            return result;
+        } catch (CallNotPermittedException | BulkheadFullException ex) {
+            outcome = "rejected";
+            logger.warn("Validation call rejected: {}", ex.getMessage());
+            throw new RadarCovidServerException(HttpStatus.SERVICE_UNAVAILABLE, "Validation service unavailable");
+        } catch (ResourceAccessException ex) {
+            outcome = "timeout";
+            logger.warn("Validation service not reachable: {}", ex.getMessage());
+            throw new RadarCovidServerException(HttpStatus.SERVICE_UNAVAILABLE, "Validation service unavailable");
+        } finally {
+            Timer.builder(TIMER_NAME)
+                    .tag("outcome", outcome)
+                    .description("Latency of the calls to the TAN validation service")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 }
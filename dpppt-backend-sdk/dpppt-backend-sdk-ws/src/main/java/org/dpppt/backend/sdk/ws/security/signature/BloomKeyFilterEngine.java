@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import org.dpppt.backend.sdk.filter.BloomFilterReader;
+import org.dpppt.backend.sdk.filter.BloomFilterWriter;
+import org.dpppt.backend.sdk.filter.CompactBloomFilter;
+import org.dpppt.backend.sdk.filter.MembershipFilter;
+
+/**
+ * Bloom filter, the fastest to build. For low false positive rates it is larger than the other
+ * filters.
+ */
+public class BloomKeyFilterEngine implements KeyFilterEngine {
+
+  public static final String NAME = "bloom";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void writeFilter(List<byte[]> elements, double fpp, OutputStream out)
+      throws IOException {
+    BloomFilterWriter.write(CompactBloomFilter.of(elements, fpp), out);
+  }
+
+  @Override
+  public MembershipFilter readFilter(InputStream in) throws IOException {
+    return BloomFilterReader.read(in);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import org.dpppt.backend.sdk.filter.MembershipFilter;
+
+/**
+ * Builds the approximate membership filter of the <code>/v2UMA/gaen/exposed</code> export. The
+ * engines trade download size against false positive rate and construction time, the formats are
+ * described in the README of org.dpppt.backend.sdk.filter.
+ */
+public interface KeyFilterEngine {
+
+  /** @return the name used to select the engine, e.g. in the filter request parameter */
+  String getName();
+
+  /**
+   * Writes a filter containing all elements.
+   *
+   * @param elements the elements of the filter
+   * @param fpp the false positive probability
+   * @param out the export.bin stream, which must not be closed
+   * @throws IOException
+   */
+  void writeFilter(List<byte[]> elements, double fpp, OutputStream out) throws IOException;
+
+  /**
+   * Reads a filter written by {@link #writeFilter(List, double, OutputStream)}.
+   *
+   * @param in the stream positioned at the start of the filter
+   * @return the filter
+   * @throws IOException
+   */
+  MembershipFilter readFilter(InputStream in) throws IOException;
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The available filter engines for the <code>/v2UMA/gaen/exposed</code> export, and the engine and
+ * false positive probability used if a request doesn't choose its own. A request may only choose
+ * one of the configured probabilities of its engine, so the exports cached per filter are bounded.
+ */
+public class KeyFilterEngines {
+
+  public static final double DEFAULT_FPP = 0.03;
+  // larger rates make the filter useless, smaller ones aren't needed for a few million keys
+  private static final double MAX_FPP = 0.5;
+  private static final double MIN_FPP = 1e-9;
+  private static final List<Double> DEFAULT_ALLOWED_FPP = List.of(0.001, 0.01, DEFAULT_FPP);
+
+  private final Map<String, KeyFilterEngine> engines = new LinkedHashMap<>();
+  private final Map<String, Set<Double>> allowedFpp = new HashMap<>();
+  private final KeyFilterSpec defaultSpec;
+
+  /**
+   * @param engines the available engines
+   * @param defaultEngine the name of the engine used if a request doesn't choose one
+   * @param defaultFpp the false positive probability used if a request doesn't choose one, it may
+   *     be chosen with every engine
+   * @param allowedFpp the false positive probabilities a request may choose, per engine name
+   */
+  public KeyFilterEngines(
+      List<KeyFilterEngine> engines,
+      String defaultEngine,
+      double defaultFpp,
+      Map<String, ? extends Collection<Double>> allowedFpp) {
+    for (KeyFilterEngine engine : engines) {
+      this.engines.put(engine.getName(), engine);
+      var allowed = new TreeSet<Double>();
+      allowed.add(checkFpp(defaultFpp));
+      for (double fpp : allowedFpp.getOrDefault(engine.getName(), List.of())) {
+        allowed.add(checkFpp(fpp));
+      }
+      this.allowedFpp.put(engine.getName(), allowed);
+    }
+    this.defaultSpec = new KeyFilterSpec(getEngine(defaultEngine), defaultFpp);
+  }
+
+  /** @return cuckoo, bloom and xor, with cuckoo at a false positive probability of 3% */
+  public static KeyFilterEngines withDefaults() {
+    return withDefaults(CuckooKeyFilterEngine.NAME, DEFAULT_FPP);
+  }
+
+  /**
+   * @return cuckoo, bloom and xor, with the given defaults. Every engine allows probabilities of
+   *     0.1%, 1% and 3%
+   */
+  public static KeyFilterEngines withDefaults(String defaultEngine, double defaultFpp) {
+    return withDefaults(
+        defaultEngine,
+        defaultFpp,
+        Map.of(
+            CuckooKeyFilterEngine.NAME, DEFAULT_ALLOWED_FPP,
+            BloomKeyFilterEngine.NAME, DEFAULT_ALLOWED_FPP,
+            XorKeyFilterEngine.NAME, DEFAULT_ALLOWED_FPP));
+  }
+
+  /** @return cuckoo, bloom and xor, with the given defaults and allowed probabilities */
+  public static KeyFilterEngines withDefaults(
+      String defaultEngine,
+      double defaultFpp,
+      Map<String, ? extends Collection<Double>> allowedFpp) {
+    return new KeyFilterEngines(
+        List.of(new CuckooKeyFilterEngine(), new BloomKeyFilterEngine(), new XorKeyFilterEngine()),
+        defaultEngine,
+        defaultFpp,
+        allowedFpp);
+  }
+
+  public KeyFilterSpec getDefault() {
+    return defaultSpec;
+  }
+
+  /**
+   * Resolves the filter of a request.
+   *
+   * @param engineName the requested engine, or null for the default engine
+   * @param fpp the requested false positive probability, or null for the default
+   * @return the filter to use
+   * @throws IllegalArgumentException if the engine is unknown or the probability not allowed for
+   *     the engine
+   */
+  public KeyFilterSpec resolve(String engineName, Double fpp) {
+    if (engineName == null && fpp == null) {
+      return defaultSpec;
+    }
+    var engine =
+        engineName == null ? defaultSpec.getEngine() : getEngine(engineName.trim().toLowerCase());
+    if (fpp == null) {
+      return new KeyFilterSpec(engine, defaultSpec.getFpp());
+    }
+    var allowed = allowedFpp.get(engine.getName());
+    if (!allowed.contains(fpp)) {
+      throw new IllegalArgumentException(
+          "False positive probability of " + engine.getName() + " must be one of " + allowed);
+    }
+    return new KeyFilterSpec(engine, fpp);
+  }
+
+  private KeyFilterEngine getEngine(String name) {
+    KeyFilterEngine engine = engines.get(name);
+    if (engine == null) {
+      throw new IllegalArgumentException(
+          "Unknown filter engine: " + name + ", available: " + engines.keySet());
+    }
+    return engine;
+  }
+
+  private static double checkFpp(double fpp) {
+    if (!(fpp >= MIN_FPP && fpp <= MAX_FPP)) {
+      throw new IllegalArgumentException(
+          "False positive probability must be between " + MIN_FPP + " and " + MAX_FPP);
+    }
+    return fpp;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import java.util.Objects;
+
+/** The filter engine and false positive probability used for one export. */
+public class KeyFilterSpec {
+
+  private final KeyFilterEngine engine;
+  private final double fpp;
+
+  public KeyFilterSpec(KeyFilterEngine engine, double fpp) {
+    this.engine = engine;
+    this.fpp = fpp;
+  }
+
+  public KeyFilterEngine getEngine() {
+    return engine;
+  }
+
+  public double getFpp() {
+    return fpp;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof KeyFilterSpec)) {
+      return false;
+    }
+    KeyFilterSpec other = (KeyFilterSpec) o;
+    return engine.getName().equals(other.engine.getName())
+        && Double.compare(fpp, other.fpp) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(engine.getName(), fpp);
+  }
+
+  @Override
+  public String toString() {
+    return engine.getName() + " (fpp " + fpp + ")";
+  }
+}
@@ -9,11 +9,14 @@
  */
 package org.dpppt.backend.sdk.ws.security.signature;
 
-import com.duprasville.guava.probably.CuckooFilter;
-import com.google.common.hash.Funnels;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.MessageDigest;
@@ -23,15 +26,16 @@
 import java.security.SignatureException;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Function;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import org.dpppt.backend.sdk.data.gaen.GaenKeySource;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.model.gaen.proto.TemporaryExposureKeyFormat;
 import org.dpppt.backend.sdk.model.gaen.proto.TemporaryExposureKeyFormat.SignatureInfo;
 import org.dpppt.backend.sdk.model.gaen.proto.v2.TemporaryExposureKeyFormatV2;
 import org.dpppt.backend.sdk.utils.UTCInstant;
-import org.springframework.util.SerializationUtils;
 
 public class ProtoSignature {
 
@@ -39,6 +43,12 @@ public class ProtoSignature {
     0x45, 0x4B, 0x20, 0x45, 0x78, 0x70, 0x6F, 0x72, 0x74, 0x20, 0x76, 0x31, 0x20, 0x20, 0x20, 0x20
   }; // "EK Export v1    "
 
+  // bounds the memory used to encode an export, independent of the number of keys
+  private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+  private static final KeyFilterSpec DEFAULT_KEY_FILTER =
+      KeyFilterEngines.withDefaults().getDefault();
+
   private final String algorithm;
   private final KeyPair keyPair;
   private final String appBundleId;
@@ -81,6 +91,26 @@ public ProtoSignature(
    */
   public ProtoSignatureWrapper getPayload(List<GaenKey> keys)
       throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+    byte[] hash = writePayload(keys, byteOut);
+    return new ProtoSignatureWrapper(hash, byteOut.toByteArray());
+  }
+
+  /**
+   * Writes a ZIP file containing the given keys and the corresponding signature to the given
+   * stream. The export is encoded key by key, so no copy of the whole export is kept in memory.
+   * The stream is not closed.
+   *
+   * @param keys
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayload(List<GaenKey> keys, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
     if (keys.isEmpty()) {
       throw new IOException("Keys should not be empty");
     }
@@ -88,39 +118,18 @@ public ProtoSignatureWrapper getPayload(List<GaenKey> keys)
     // Shuffle the keys so that the clients don't know the order of arrival of the keys.
     Collections.shuffle(keys);
 
-    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-    ZipOutputStream zip = new ZipOutputStream(byteOut);
-    ByteArrayOutputStream hashOut = new ByteArrayOutputStream();
-    var digest = MessageDigest.getInstance("SHA256");
     var keyDate = Duration.of(keys.get(0).getRollingStartNumber(), GaenUnit.TenMinutes);
-    var protoFile = getProtoKey(keys, keyDate);
-
-    zip.putNextEntry(new ZipEntry("export.bin"));
-    byte[] protoFileBytes = protoFile.toByteArray();
-    byte[] exportBin = new byte[EXPORT_MAGIC.length + protoFileBytes.length];
-    System.arraycopy(EXPORT_MAGIC, 0, exportBin, 0, EXPORT_MAGIC.length);
-    System.arraycopy(protoFileBytes, 0, exportBin, EXPORT_MAGIC.length, protoFileBytes.length);
-    zip.write(exportBin);
-    zip.closeEntry();
-
-    var signatureList = getSignatureObject(exportBin);
-    digest.update(exportBin);
-    digest.update(keyPair.getPublic().getEncoded());
-    hashOut.write(digest.digest());
-
-    byte[] exportSig = signatureList.toByteArray();
-    zip.putNextEntry(new ZipEntry("export.sig"));
-    zip.write(exportSig);
-    zip.closeEntry();
-
-    zip.flush();
-    zip.close();
-    byteOut.flush();
-    byteOut.close();
-    hashOut.flush();
-    hashOut.close();
-
-    return new ProtoSignatureWrapper(hashOut.toByteArray(), byteOut.toByteArray());
+    var header = getProtoHeader(keyDate);
+    return writeSignedExport(
+        out,
+        exportBin ->
+            writeProtoExport(
+                exportBin,
+                header,
+                TemporaryExposureKeyFormat.TemporaryExposureKeyExport.KEYS_FIELD_NUMBER,
+                keys,
+                this::getProtoKey),
+        this::getSignatureList);
   }
 
   /**
@@ -136,6 +145,25 @@ public ProtoSignatureWrapper getPayload(List<GaenKey> keys)
    */
   public ProtoSignatureWrapper getPayloadV2(List<GaenKey> keys)
       throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+    byte[] hash = writePayloadV2(keys, byteOut);
+    return new ProtoSignatureWrapper(hash, byteOut.toByteArray());
+  }
+
+  /**
+   * Streaming variant of {@link #getPayloadV2(List)}, see {@link #writePayload(List,
+   * OutputStream)}.
+   *
+   * @param keys
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayloadV2(List<GaenKey> keys, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
     if (keys.isEmpty()) {
       throw new IOException("Keys should not be empty");
     }
@@ -144,48 +172,91 @@ public ProtoSignatureWrapper getPayloadV2(List<GaenKey> keys)
     // This prevents the clients to know the order of arrival of the keys.
     Collections.shuffle(keys);
 
-    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-    ZipOutputStream zip = new ZipOutputStream(byteOut);
-    ByteArrayOutputStream hashOut = new ByteArrayOutputStream();
-    var digest = MessageDigest.getInstance("SHA256");
     var keyDate = Duration.of(keys.get(0).getRollingStartNumber(), GaenUnit.TenMinutes);
-    var protoFile = getProtoKeyV2(keys, keyDate);
-
-    if (true) {
-      for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : protoFile.getKeysList()) {
-        System.out.println(Arrays.toString(temporaryExposureKey.toByteArray()));
-      }
-    }
+    var header = getProtoHeaderV2(keyDate);
+    return writeSignedExport(
+        out,
+        exportBin ->
+            writeProtoExport(
+                exportBin,
+                header,
+                TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.KEYS_FIELD_NUMBER,
+                keys,
+                this::getProtoKeyV2),
+        this::getSignatureListV2);
+  }
 
-    zip.putNextEntry(new ZipEntry("export.bin"));
-    byte[] protoFileBytes = protoFile.toByteArray();
-    byte[] exportBin = new byte[EXPORT_MAGIC.length + protoFileBytes.length];
-    System.arraycopy(EXPORT_MAGIC, 0, exportBin, 0, EXPORT_MAGIC.length);
-    System.arraycopy(protoFileBytes, 0, exportBin, EXPORT_MAGIC.length, protoFileBytes.length);
-    zip.write(exportBin);
-    zip.closeEntry();
+  /**
+   * Streaming variant of {@link #writePayloadV2(List, OutputStream)} for keys which are read while
+   * the export is written, e.g. from a database cursor. Every key is encoded as soon as it arrives,
+   * so the memory used doesn't depend on the number of keys. The keys are not shuffled, the source
+   * must return them in an order which doesn't reveal when they were received. If the source has
+   * no keys, an export without keys is written.
+   *
+   * @param keys
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayloadV2(GaenKeySource keys, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return writePayloadV2(keys, 1, 1, out);
+  }
 
-    var signatureList = getSignatureObjectV2(exportBin);
-    digest.update(exportBin);
-    digest.update(keyPair.getPublic().getEncoded());
-    hashOut.write(digest.digest());
+  /**
+   * Same as {@link #writePayloadV2(GaenKeySource, OutputStream)} for one export of a download
+   * which is split into several batches.
+   *
+   * @param keys
+   * @param batchNum the number of this export within the batch, starting at 1
+   * @param batchSize the number of exports of the batch
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayloadV2(GaenKeySource keys, int batchNum, int batchSize, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return writeSignedExport(
+        out,
+        exportBin -> writeProtoExportV2(exportBin, keys, batchNum, batchSize),
+        exportSignature -> getSignatureListV2(exportSignature, batchNum, batchSize));
+  }
 
-    byte[] exportSig = signatureList.toByteArray();
-    zip.putNextEntry(new ZipEntry("export.sig"));
-    zip.write(exportSig);
-    zip.closeEntry();
+  public ProtoSignatureWrapper getPayloadV2UMA(List<GaenKey> keys)
+          throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return getPayloadV2UMA(keys, DEFAULT_KEY_FILTER);
+  }
 
-    zip.flush();
-    zip.close();
-    byteOut.flush();
-    byteOut.close();
-    hashOut.flush();
-    hashOut.close();
+  /**
+   * Creates a ZIP file containing a filter of the given keys and the corresponding signature.
+   *
+   * @param keys
+   * @param keyFilter the filter engine and its false positive probability
+   * @return
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public ProtoSignatureWrapper getPayloadV2UMA(List<GaenKey> keys, KeyFilterSpec keyFilter)
+          throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+    byte[] hash = writePayloadV2UMA(keys, keyFilter, byteOut);
+    return new ProtoSignatureWrapper(hash, byteOut.toByteArray());
+  }
 
-    return new ProtoSignatureWrapper(hashOut.toByteArray(), byteOut.toByteArray());
+  public byte[] writePayloadV2UMA(List<GaenKey> keys, OutputStream out)
+          throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return writePayloadV2UMA(keys, DEFAULT_KEY_FILTER, out);
   }
 
-  public ProtoSignatureWrapper getPayloadV2UMA(List<GaenKey> keys)
+  public byte[] writePayloadV2UMA(List<GaenKey> keys, KeyFilterSpec keyFilter, OutputStream out)
           throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
     if (keys.isEmpty()) {
       throw new IOException("Keys should not be empty");
@@ -195,85 +266,171 @@ public ProtoSignatureWrapper getPayloadV2UMA(List<GaenKey> keys)
     // This prevents the clients to know the order of arrival of the keys.
     Collections.shuffle(keys);
 
-    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-    ZipOutputStream zip = new ZipOutputStream(byteOut);
-    ByteArrayOutputStream hashOut = new ByteArrayOutputStream();
-    var digest = MessageDigest.getInstance("SHA256");
-    var keyDate = Duration.of(keys.get(0).getRollingStartNumber(), GaenUnit.TenMinutes);
-    var protoFile = getProtoKeyV2(keys, keyDate);
-
-    zip.putNextEntry(new ZipEntry("export.bin"));
-    byte[] protoCuckooFileBytes = protoToCuckooFilter(protoFile);
-    byte[] exportBin = new byte[EXPORT_MAGIC.length + protoCuckooFileBytes.length];
-    System.arraycopy(EXPORT_MAGIC, 0, exportBin, 0, EXPORT_MAGIC.length);
-    System.arraycopy(protoCuckooFileBytes, 0, exportBin, EXPORT_MAGIC.length, protoCuckooFileBytes.length);
-    zip.write(exportBin);
-    zip.closeEntry();
-
-    var signatureList = getSignatureObjectV2(exportBin);
-    digest.update(exportBin);
-    digest.update(keyPair.getPublic().getEncoded());
-    hashOut.write(digest.digest());
-
-    byte[] exportSig = signatureList.toByteArray();
-    zip.putNextEntry(new ZipEntry("export.sig"));
-    zip.write(exportSig);
-    zip.closeEntry();
-
-    zip.flush();
-    zip.close();
-    byteOut.flush();
-    byteOut.close();
-    hashOut.flush();
-    hashOut.close();
+    List<byte[]> elements = new ArrayList<>(keys.size());
+    for (GaenKey key : keys) {
+      elements.add(getProtoKeyV2(key).toByteArray());
+    }
+    return writeSignedExport(
+        out, exportBin -> writeKeyFilter(exportBin, elements, keyFilter), this::getSignatureListV2);
+  }
 
-    return new ProtoSignatureWrapper(hashOut.toByteArray(), byteOut.toByteArray());
+  /**
+   * Streaming variant of {@link #writePayloadV2UMA(List, KeyFilterSpec, OutputStream)}, see {@link
+   * #writePayloadV2(GaenKeySource, OutputStream)}. The filter is built from all keys at once, so
+   * only the encoded keys are kept until the filter is written.
+   *
+   * @param keys
+   * @param keyFilter the filter engine and its false positive probability
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayloadV2UMA(GaenKeySource keys, KeyFilterSpec keyFilter, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return writePayloadV2UMA(keys, keyFilter, 1, 1, out);
   }
 
-  private byte[] protoToCuckooFilter(TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport protoFile){
-    CuckooFilter<byte[]> cuckooFilter = CuckooFilter.create(Funnels.byteArrayFunnel(), protoFile.getKeysCount());
+  /**
+   * Same as {@link #writePayloadV2UMA(GaenKeySource, KeyFilterSpec, OutputStream)} for one export
+   * of a download which is split into several batches. Each export has its own filter.
+   *
+   * @param keys
+   * @param keyFilter the filter engine and its false positive probability
+   * @param batchNum the number of this export within the batch, starting at 1
+   * @param batchSize the number of exports of the batch
+   * @param out
+   * @return the hash of the export and the public key
+   * @throws IOException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws NoSuchAlgorithmException
+   */
+  public byte[] writePayloadV2UMA(
+      GaenKeySource keys, KeyFilterSpec keyFilter, int batchNum, int batchSize, OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    List<byte[]> elements = new ArrayList<>();
+    keys.forEachKey(
+        (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) ->
+            elements.add(getProtoKeyV2(keyData, rollingStartNumber, rollingPeriod).toByteArray()));
+    return writeSignedExport(
+        out,
+        exportBin -> writeKeyFilter(exportBin, elements, keyFilter),
+        exportSignature -> getSignatureListV2(exportSignature, batchNum, batchSize));
+  }
 
-    for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : protoFile.getKeysList()) {
-      cuckooFilter.add(temporaryExposureKey.toByteArray());
-    }
+  private void writeKeyFilter(
+      OutputStream exportBin, List<byte[]> elements, KeyFilterSpec keyFilter) throws IOException {
+    // see the README of org.dpppt.backend.sdk.filter for the formats
+    keyFilter.getEngine().writeFilter(elements, keyFilter.getFpp(), exportBin);
+  }
 
-    // PEQUEÑA PRUEBA DE FUNCIONAMIENTO
-    /*var filtroBytes = SerializationUtils.serialize(cuckooFilter);
-    var filtroDesdeBytes = (CuckooFilter<byte[]>)SerializationUtils.deserialize(filtroBytes);
+  /**
+   * Writes the export.bin and export.sig entries of a signed export. The export.bin content is
+   * signed and hashed while it is written to the zip.
+   */
+  private byte[] writeSignedExport(
+      OutputStream out,
+      ExportBinWriter exportBinWriter,
+      Function<byte[], MessageLite> signatureListFactory)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    Signature signature = Signature.getInstance(oidToJavaSignature.get(algorithm));
+    signature.initSign(keyPair.getPrivate());
+    var digest = MessageDigest.getInstance("SHA256");
 
-    for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : protoFile.getKeysList()) {
-      if (filtroDesdeBytes.contains(temporaryExposureKey.toByteArray())){
-        System.out.println("Key dentro del filtro");
-        System.out.println(temporaryExposureKey);
-      }
-    }*/
+    // the caller owns the target stream, only the zip and its deflater are closed here, also if
+    // writing fails
+    try (ZipOutputStream zip = new ZipOutputStream(new NonClosingOutputStream(out))) {
+      zip.putNextEntry(new ZipEntry("export.bin"));
+      var exportBin = new SigningOutputStream(zip, signature, digest);
+      exportBin.write(EXPORT_MAGIC);
+      exportBinWriter.writeTo(exportBin);
+      zip.closeEntry();
 
+      var signatureList = signatureListFactory.apply(signature.sign());
+      zip.putNextEntry(new ZipEntry("export.sig"));
+      signatureList.writeTo(zip);
+      zip.closeEntry();
+    }
 
-    //////////////////////////
+    digest.update(keyPair.getPublic().getEncoded());
+    return digest.digest();
+  }
 
+  /**
+   * Writes the header fields of the export followed by the keys. As all header fields have a
+   * lower field number than the keys, this is the same encoding as building the whole message.
+   */
+  private void writeProtoExport(
+      OutputStream exportBin,
+      MessageLite header,
+      int keysFieldNumber,
+      List<GaenKey> keys,
+      Function<GaenKey, MessageLite> protoKeyFactory)
+      throws IOException {
+    var coded = CodedOutputStream.newInstance(exportBin, STREAM_BUFFER_SIZE);
+    header.writeTo(coded);
+    for (var key : keys) {
+      coded.writeMessage(keysFieldNumber, protoKeyFactory.apply(key));
+    }
+    coded.flush();
+  }
 
-    return SerializationUtils.serialize(cuckooFilter);
+  /**
+   * Same as {@link #writeProtoExport(OutputStream, MessageLite, int, List, Function)} for a key
+   * source. The header is written together with the first key, as it contains the date of the
+   * first key.
+   */
+  private void writeProtoExportV2(
+      OutputStream exportBin, GaenKeySource keys, int batchNum, int batchSize) throws IOException {
+    var coded = CodedOutputStream.newInstance(exportBin, STREAM_BUFFER_SIZE);
+    boolean[] headerWritten = {false};
+    int count;
+    try {
+      count =
+          keys.forEachKey(
+              (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) -> {
+                try {
+                  if (!headerWritten[0]) {
+                    getProtoHeaderV2(
+                            Duration.of(rollingStartNumber, GaenUnit.TenMinutes),
+                            batchNum,
+                            batchSize)
+                        .writeTo(coded);
+                    headerWritten[0] = true;
+                  }
+                  coded.writeMessage(
+                      TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.KEYS_FIELD_NUMBER,
+                      getProtoKeyV2(keyData, rollingStartNumber, rollingPeriod));
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    if (count == 0) {
+      getProtoHeaderV2(Duration.ZERO, batchNum, batchSize).writeTo(coded);
+    }
+    coded.flush();
   }
 
-  private byte[] sign(byte[] data)
-      throws SignatureException, InvalidKeyException, NoSuchAlgorithmException {
-    Signature signature = Signature.getInstance(oidToJavaSignature.get(algorithm));
-    signature.initSign(keyPair.getPrivate());
-    signature.update(data);
-    return signature.sign();
+  private org.dpppt.backend.sdk.model.gaen.proto.v2.TemporaryExposureKeyFormatV2.TEKSignatureList
+      getSignatureListV2(byte[] exportSignature) {
+    return getSignatureListV2(exportSignature, 1, 1);
   }
 
   private org.dpppt.backend.sdk.model.gaen.proto.v2.TemporaryExposureKeyFormatV2.TEKSignatureList
-      getSignatureObjectV2(byte[] keyExport)
-          throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
-    byte[] exportSignature = sign(keyExport);
+      getSignatureListV2(byte[] exportSignature, int batchNum, int batchSize) {
     var signatureList = TemporaryExposureKeyFormatV2.TEKSignatureList.newBuilder();
     var theSignature = TemporaryExposureKeyFormatV2.TEKSignature.newBuilder();
     theSignature
         .setSignatureInfo(tekSignatureV2())
         .setSignature(ByteString.copyFrom(exportSignature))
-        .setBatchNum(1)
-        .setBatchSize(1);
+        .setBatchNum(batchNum)
+        .setBatchSize(batchSize);
     signatureList.addSignatures(theSignature);
     return signatureList.build();
   }
@@ -288,9 +445,7 @@ private byte[] sign(byte[] data)
     return tekSignature.build();
   }
 
-  private TemporaryExposureKeyFormat.TEKSignatureList getSignatureObject(byte[] keyExport)
-      throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
-    byte[] exportSignature = sign(keyExport);
+  private TemporaryExposureKeyFormat.TEKSignatureList getSignatureList(byte[] exportSignature) {
     var signatureList = TemporaryExposureKeyFormat.TEKSignatureList.newBuilder();
     var theSignature = TemporaryExposureKeyFormat.TEKSignature.newBuilder();
     theSignature
@@ -329,35 +484,22 @@ public byte[] getPayload(Map<String, List<GaenKey>> groupedBuckets)
       }
 
       var keyDate = Duration.of(keys.get(0).getRollingStartNumber(), GaenUnit.TenMinutes);
-      var protoFile = getProtoKeyV2(keys, keyDate);
+      var header = getProtoHeaderV2(keyDate);
       var zipFileName = new StringBuilder();
 
       zipFileName.append("key_export_").append(group);
 
       zipCollection.putNextEntry(new ZipEntry(zipFileName.toString()));
-      ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-      ZipOutputStream zip = new ZipOutputStream(byteOut);
-
-      zip.putNextEntry(new ZipEntry("export.bin"));
-      byte[] protoFileBytes = protoFile.toByteArray();
-      byte[] exportBin = new byte[EXPORT_MAGIC.length + protoFileBytes.length];
-      System.arraycopy(EXPORT_MAGIC, 0, exportBin, 0, EXPORT_MAGIC.length);
-      System.arraycopy(protoFileBytes, 0, exportBin, EXPORT_MAGIC.length, protoFileBytes.length);
-      zip.write(exportBin);
-      zip.closeEntry();
-
-      var signatureList = getSignatureObjectV2(exportBin);
-
-      byte[] exportSig = signatureList.toByteArray();
-      zip.putNextEntry(new ZipEntry("export.sig"));
-      zip.write(exportSig);
-      zip.closeEntry();
-      zip.flush();
-      zip.close();
-      byteOut.flush();
-      byteOut.close();
-      zipCollection.write(byteOut.toByteArray());
-
+      writeSignedExport(
+          zipCollection,
+          exportBin ->
+              writeProtoExport(
+                  exportBin,
+                  header,
+                  TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.KEYS_FIELD_NUMBER,
+                  keys,
+                  this::getProtoKeyV2),
+          this::getSignatureListV2);
       zipCollection.closeEntry();
     }
     zipCollection.flush();
@@ -380,24 +522,10 @@ public byte[] getPayload(Collection<List<GaenKey>> buckets)
     return getPayload(grouped);
   }
 
-  private TemporaryExposureKeyFormat.TemporaryExposureKeyExport getProtoKey(
-      List<GaenKey> exposedKeys, Duration batchReleaseTimeDuration) {
+  private TemporaryExposureKeyFormat.TemporaryExposureKeyExport getProtoHeader(
+      Duration batchReleaseTimeDuration) {
     var file = TemporaryExposureKeyFormat.TemporaryExposureKeyExport.newBuilder();
 
-    var tekList = new ArrayList<TemporaryExposureKeyFormat.TemporaryExposureKey>();
-    for (var key : exposedKeys) {
-      var protoKey =
-          TemporaryExposureKeyFormat.TemporaryExposureKey.newBuilder()
-              .setKeyData(ByteString.copyFrom(Base64.getDecoder().decode(key.getKeyData())))
-              .setRollingPeriod(key.getRollingPeriod())
-              .setRollingStartIntervalNumber(key.getRollingStartNumber())
-              .setTransmissionRiskLevel(key.getTransmissionRiskLevel())
-              .build();
-      tekList.add(protoKey);
-    }
-
-    file.addAllKeys(tekList);
-
     file.setRegion(gaenRegion)
         .setBatchNum(1)
         .setBatchSize(1)
@@ -409,27 +537,27 @@ private TemporaryExposureKeyFormat.TemporaryExposureKeyExport getProtoKey(
     return file.build();
   }
 
-  private TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport getProtoKeyV2(
-      List<GaenKey> exposedKeys, Duration batchReleaseTimeDuration) {
-    var file = TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.newBuilder();
+  private TemporaryExposureKeyFormat.TemporaryExposureKey getProtoKey(GaenKey key) {
+    return TemporaryExposureKeyFormat.TemporaryExposureKey.newBuilder()
+        .setKeyData(ByteString.copyFrom(key.getKeyBytes()))
+        .setRollingPeriod(key.getRollingPeriod())
+        .setRollingStartIntervalNumber(key.getRollingStartNumber())
+        .setTransmissionRiskLevel(key.getTransmissionRiskLevel())
+        .build();
+  }
 
-    var tekList = new ArrayList<TemporaryExposureKeyFormatV2.TemporaryExposureKey>();
-    for (var key : exposedKeys) {
-      var protoKey =
-          TemporaryExposureKeyFormatV2.TemporaryExposureKey.newBuilder()
-              .setKeyData(ByteString.copyFrom(Base64.getDecoder().decode(key.getKeyData())))
-              .setRollingPeriod(key.getRollingPeriod())
-              .setRollingStartIntervalNumber(key.getRollingStartNumber())
-              .setDaysSinceOnsetOfSymptoms(0) // hardcode to zero
-              .build();
-      tekList.add(protoKey);
-    }
+  private TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport getProtoHeaderV2(
+      Duration batchReleaseTimeDuration) {
+    return getProtoHeaderV2(batchReleaseTimeDuration, 1, 1);
+  }
 
-    file.addAllKeys(tekList);
+  private TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport getProtoHeaderV2(
+      Duration batchReleaseTimeDuration, int batchNum, int batchSize) {
+    var file = TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.newBuilder();
 
     file.setRegion(gaenRegion)
-        .setBatchNum(1)
-        .setBatchSize(1)
+        .setBatchNum(batchNum)
+        .setBatchSize(batchSize)
         .setStartTimestamp(batchReleaseTimeDuration.toSeconds())
         .setEndTimestamp(batchReleaseTimeDuration.toSeconds() + releaseBucketDuration.toSeconds());
 
@@ -438,6 +566,75 @@ private TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport getProtoKeyV2(
     return file.build();
   }
 
+  private TemporaryExposureKeyFormatV2.TemporaryExposureKey getProtoKeyV2(GaenKey key) {
+    return getProtoKeyV2(key.getKeyBytes(), key.getRollingStartNumber(), key.getRollingPeriod());
+  }
+
+  private TemporaryExposureKeyFormatV2.TemporaryExposureKey getProtoKeyV2(
+      byte[] keyData, int rollingStartNumber, int rollingPeriod) {
+    return TemporaryExposureKeyFormatV2.TemporaryExposureKey.newBuilder()
+        .setKeyData(ByteString.copyFrom(keyData))
+        .setRollingPeriod(rollingPeriod)
+        .setRollingStartIntervalNumber(rollingStartNumber)
+        .setDaysSinceOnsetOfSymptoms(0) // hardcode to zero
+        .build();
+  }
+
+  private interface ExportBinWriter {
+    void writeTo(OutputStream exportBin) throws IOException;
+  }
+
+  /** Passes everything written to the zip entry on to the signature and the digest. */
+  private static class SigningOutputStream extends FilterOutputStream {
+    private final Signature signature;
+    private final MessageDigest digest;
+
+    SigningOutputStream(OutputStream out, Signature signature, MessageDigest digest) {
+      super(out);
+      this.signature = signature;
+      this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      digest.update(b, off, len);
+      try {
+        signature.update(b, off, len);
+      } catch (SignatureException e) {
+        throw new IOException("Could not sign export", e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the zip entry is closed by the caller
+      flush();
+    }
+  }
+
+  private static class NonClosingOutputStream extends FilterOutputStream {
+
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
   public class ProtoSignatureWrapper {
     private final byte[] hash;
     private final byte[] zip;
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.dpppt.backend.sdk.data.ReadReplicaDataSource;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sheds download requests while the service is overloaded, e.g. when all clients poll right after
+ * a bucket release. A download is admitted unless more than maxInFlight downloads are running or
+ * queued on the download executor, or more than maxAwaitingConnection threads are waiting for a
+ * connection of the database pool the downloads are currently read from. Rejected downloads are
+ * answered with 503 before any database work is done.
+ *
+ * <p>The Retry-After of a rejected download is drawn at random between minRetryAfter and
+ * maxRetryAfter, so the retries of the clients are spread out. The exports don't change until the
+ * next bucket is released, so the retries are placed before the next release if possible. Close to
+ * the release, they are placed after it, spread over the same range.
+ */
+public class DownloadAdmissionControl implements MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(DownloadAdmissionControl.class);
+
+  private final EndpointExecutor downloadExecutor;
+  private final int maxInFlight;
+  // null if the downloads are read from a single database
+  private final ReadReplicaDataSource readReplica;
+  // the pool of the primary if the downloads are read from a replica
+  private final HikariDataSource pool;
+  private final HikariDataSource replicaPool;
+  private final int maxAwaitingConnection;
+  private final Duration releaseBucketDuration;
+  private final long minRetryAfterMillis;
+  private final long maxRetryAfterMillis;
+
+  private final AtomicLong rejectedInFlight = new AtomicLong();
+  private final AtomicLong rejectedDatabase = new AtomicLong();
+
+  /**
+   * @param maxInFlight the maximum number of running and queued downloads, 0 to disable the check
+   * @param dataSource the database of the downloads, its pool is only checked if it is a Hikari
+   *     pool. Of a {@link ReadReplicaDataSource}, the pool the reads are currently routed to is
+   *     checked
+   * @param maxAwaitingConnection the maximum number of threads waiting for a connection of the
+   *     pool, 0 to disable the check
+   */
+  public DownloadAdmissionControl(
+      EndpointExecutor downloadExecutor,
+      int maxInFlight,
+      DataSource dataSource,
+      int maxAwaitingConnection,
+      Duration releaseBucketDuration,
+      Duration minRetryAfter,
+      Duration maxRetryAfter) {
+    this.downloadExecutor = downloadExecutor;
+    this.maxInFlight = maxInFlight;
+    if (dataSource instanceof ReadReplicaDataSource) {
+      this.readReplica = (ReadReplicaDataSource) dataSource;
+      this.pool = unwrapPool(readReplica.getPrimary());
+      this.replicaPool = unwrapPool(readReplica.getReplica());
+    } else {
+      this.readReplica = null;
+      this.pool = unwrapPool(dataSource);
+      this.replicaPool = null;
+    }
+    this.maxAwaitingConnection = maxAwaitingConnection;
+    this.releaseBucketDuration = releaseBucketDuration;
+    this.minRetryAfterMillis = minRetryAfter.toMillis();
+    this.maxRetryAfterMillis = Math.max(minRetryAfter.toMillis(), maxRetryAfter.toMillis());
+  }
+
+  /**
+   * Checks whether a download may be started.
+   *
+   * @throws DownloadsOverloadedException if the download has to be rejected
+   */
+  public void admit(UTCInstant now) throws DownloadsOverloadedException {
+    if (maxInFlight > 0 && downloadExecutor.getInFlight() >= maxInFlight) {
+      rejectedInFlight.incrementAndGet();
+      throw new DownloadsOverloadedException(retryAfter(now));
+    }
+    var currentPool = currentPool();
+    if (maxAwaitingConnection > 0 && currentPool != null) {
+      HikariPoolMXBean poolBean = currentPool.getHikariPoolMXBean();
+      if (poolBean != null && poolBean.getThreadsAwaitingConnection() > maxAwaitingConnection) {
+        rejectedDatabase.incrementAndGet();
+        throw new DownloadsOverloadedException(retryAfter(now));
+      }
+    }
+  }
+
+  /** @return the pool the downloads are currently read from */
+  HikariDataSource currentPool() {
+    if (readReplica != null && readReplica.getReadDataSource() == readReplica.getReplica()) {
+      return replicaPool;
+    }
+    return pool;
+  }
+
+  /** @return the delay after which a rejected client should retry, in whole seconds */
+  Duration retryAfter(UTCInstant now) {
+    long untilRelease =
+        now.roundToNextBucket(releaseBucketDuration).getTimestamp() - now.getTimestamp();
+    long from = minRetryAfterMillis;
+    long to = Math.min(maxRetryAfterMillis, untilRelease);
+    if (to < from) {
+      from = untilRelease + minRetryAfterMillis;
+      to = untilRelease + maxRetryAfterMillis;
+    }
+    long retryAfter = from + ThreadLocalRandom.current().nextLong(to - from + 1);
+    return Duration.ofSeconds((retryAfter + 999) / 1000);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder(
+            "download.admission.rejected", rejectedInFlight, AtomicLong::doubleValue)
+        .description("The number of downloads rejected because the service was overloaded")
+        .tag("reason", "inFlight")
+        .register(registry);
+    FunctionCounter.builder(
+            "download.admission.rejected", rejectedDatabase, AtomicLong::doubleValue)
+        .description("The number of downloads rejected because the service was overloaded")
+        .tag("reason", "database")
+        .register(registry);
+  }
+
+  private static HikariDataSource unwrapPool(DataSource dataSource) {
+    try {
+      if (dataSource != null && dataSource.isWrapperFor(HikariDataSource.class)) {
+        return dataSource.unwrap(HikariDataSource.class);
+      }
+    } catch (SQLException e) {
+      logger.warn("Could not unwrap the connection pool, only in-flight downloads are checked", e);
+    }
+    return null;
+  }
+
+  public class DownloadsOverloadedException extends Exception {
+
+    /** */
+    private static final long serialVersionUID = 7790226424562145183L;
+
+    private final Duration retryAfter;
+
+    public DownloadsOverloadedException(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+      return retryAfter;
+    }
+  }
+}
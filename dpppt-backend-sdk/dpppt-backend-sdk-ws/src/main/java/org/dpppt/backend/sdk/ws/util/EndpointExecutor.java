@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Runs the requests of one class of endpoints (e.g. uploads or downloads) on a pool of its own, so
+ * a burst of requests of one class can't take the threads of the others. The request thread is
+ * released as soon as the request is queued. Every pool has a bounded queue; if the queue is full,
+ * requests are rejected with an {@link EndpointBusyException} instead of piling up. Requests which
+ * time out while queued are removed without running them and answered with 503. Started requests
+ * don't time out: they can't be cancelled safely, e.g. an upload would still be committed after
+ * its client was told to retry.
+ *
+ * <p>The pool is exposed with the executor.* metrics of Micrometer, tagged with the name of the
+ * executor, and an additional executor.rejected counter.
+ */
+public class EndpointExecutor implements MeterBinder, DisposableBean {
+
+  // a timeout of 0 disables the timeout of the servlet container
+  private static final long NO_TIMEOUT = 0L;
+
+  private final String name;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timeouts;
+  private final long timeoutMillis;
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param name the name of the executor, used for the thread names and the metrics
+   * @param poolSize the number of threads, i.e. the maximum number of requests run concurrently
+   * @param queueCapacity the maximum number of requests waiting for a thread
+   * @param timeout how long a request may wait in the queue before it is answered with 503
+   */
+  public EndpointExecutor(String name, int poolSize, int queueCapacity, Duration timeout) {
+    this.name = name;
+    this.timeoutMillis = timeout.toMillis();
+    this.executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new CustomizableThreadFactory(name + "-"),
+            new ThreadPoolExecutor.AbortPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
+    this.timeouts =
+        new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory(name + "-timeout-"));
+    // the timeouts of started requests are cancelled, they don't have to stay in the queue
+    this.timeouts.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Queues the given request.
+   *
+   * @param request the work of the request, exceptions are handled as if thrown by the controller
+   * @return a deferred result which is completed with the result of _request_
+   * @throws EndpointBusyException if the queue is full
+   */
+  public <T> DeferredResult<T> submit(Callable<T> request) throws EndpointBusyException {
+    DeferredResult<T> deferredResult = new DeferredResult<>(NO_TIMEOUT);
+    // set by whichever comes first, the start of the request or its timeout
+    var started = new AtomicBoolean();
+    var timeout = new AtomicReference<ScheduledFuture<?>>();
+    Future<?> future;
+    try {
+      future =
+          executor.submit(
+              () -> {
+                if (!started.compareAndSet(false, true)) {
+                  return;
+                }
+                cancel(timeout.get());
+                try {
+                  deferredResult.setResult(request.call());
+                } catch (Exception e) {
+                  deferredResult.setErrorResult(e);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      throw new EndpointBusyException();
+    }
+    var scheduled =
+        timeouts.schedule(
+            () -> {
+              if (started.compareAndSet(false, true)) {
+                // frees its place in the queue
+                executor.remove((Runnable) future);
+                deferredResult.setErrorResult(new AsyncRequestTimeoutException());
+              }
+            },
+            timeoutMillis,
+            TimeUnit.MILLISECONDS);
+    timeout.set(scheduled);
+    // the request may have started before its timeout was set
+    if (started.get()) {
+      cancel(scheduled);
+    }
+    return deferredResult;
+  }
+
+  private static void cancel(ScheduledFuture<?> timeout) {
+    if (timeout != null) {
+      timeout.cancel(false);
+    }
+  }
+
+  /** @return the number of scheduled queue timeouts */
+  int getPendingTimeouts() {
+    return timeouts.getQueue().size();
+  }
+
+  /** @return the number of requests running or waiting in the queue */
+  public int getInFlight() {
+    return executor.getActiveCount() + executor.getQueue().size();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    // tagged with name=<name>
+    new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry);
+    var tags = Tags.of("name", name);
+    FunctionCounter.builder("executor.rejected", rejected, AtomicLong::doubleValue)
+        .description("The number of requests rejected because the queue was full")
+        .tags(tags)
+        .register(registry);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+    timeouts.shutdownNow();
+  }
+
+  public class EndpointBusyException extends Exception {
+
+    /** */
+    private static final long serialVersionUID = 5381772946260314893L;
+  }
+}
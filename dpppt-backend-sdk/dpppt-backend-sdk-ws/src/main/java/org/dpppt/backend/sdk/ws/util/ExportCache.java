@@ -0,0 +1,722 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.data.gaen.GaenKeySource;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterSpec;
+import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the signed exports of the <code>/exposed</code> download endpoints. Within one release
+ * bucket every client asking for the same <code>lastKeyBundleTag</code> and country filters gets
+ * the same set of keys, so the export only has to be queried, built and signed once per bucket.
+ * Entries are keyed by (lastKeyBundleTag, keyBundleTag, normalized country filters, format, key
+ * filter, page number) and are evicted as soon as their bucket is over. Concurrent requests for an export which
+ * is not cached yet wait for the first one instead of building it again.
+ *
+ * <p>Uploads which started before a bucket closed may still commit keys to it for a short time, so
+ * the exports of a new bucket are only cached once its {@link #BUCKET_GRACE_PERIOD} passed. Until
+ * then they are built for every request, which includes the keys committed late.
+ *
+ * <p>The country filters come from the client, so only ISO 3166 alpha-2 codes are accepted and the
+ * cache is bounded both by its number of entries and by the total size of the cached zips.
+ *
+ * <p>If the cache is disabled or full, every call goes straight to the database. The keys are read
+ * with a database cursor and signed into a {@link SpillBuffer}, so the connection and its
+ * transaction are released before the response is sent and a database error still results in an
+ * error response instead of a truncated zip. Up to memoryThreshold bytes of a zip are kept in
+ * memory, larger zips are written to a temporary file, sent from there and never cached.
+ *
+ * <p>Paginated downloads split the export into pages of at most pageSize keys, see {@link
+ * ExportPage}. Every page is a separately signed export, which is cached like a whole export as
+ * long as it belongs to the current bucket.
+ */
+public class ExportCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportCache.class);
+
+  /** Number of keys per page of paginated downloads. */
+  public static final int DEFAULT_PAGE_SIZE = 10_000;
+
+  /** Total size of the cached zips. */
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  /** Size up to which a zip is kept in memory until it is sent. */
+  public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+  /** Time after the start of a bucket in which keys may still be committed to the previous one. */
+  public static final Duration BUCKET_GRACE_PERIOD = Duration.ofMinutes(5);
+
+  private static final Set<String> ISO_COUNTRIES = Set.of(Locale.getISOCountries());
+
+  public enum ExportFormat {
+    V2,
+    V2UMA
+  }
+
+  private final GAENDataService dataService;
+  private final ProtoSignature gaenSigner;
+  private final Duration releaseBucketDuration;
+  private final Duration retentionPeriod;
+  private final boolean enabled;
+  private final int maxEntries;
+  private final KeyFilterSpec defaultKeyFilter;
+  private final int pageSize;
+  private final long maxBytes;
+  private final int memoryThreshold;
+
+  private final ConcurrentHashMap<CacheKey, FutureTask<SignedExport>> cache =
+      new ConcurrentHashMap<>();
+  // sizes of the cached zips, guarded by this
+  private final Map<CacheKey, Integer> cachedSizes = new HashMap<>();
+  private long cachedBytes = 0;
+  private volatile long warmedBucket = -1;
+
+  public ExportCache(
+      GAENDataService dataService,
+      ProtoSignature gaenSigner,
+      Duration releaseBucketDuration,
+      Duration retentionPeriod,
+      boolean enabled,
+      int maxEntries,
+      KeyFilterSpec defaultKeyFilter) {
+    this(
+        dataService,
+        gaenSigner,
+        releaseBucketDuration,
+        retentionPeriod,
+        enabled,
+        maxEntries,
+        defaultKeyFilter,
+        DEFAULT_PAGE_SIZE);
+  }
+
+  /** @param pageSize the maximum number of keys per page of paginated downloads */
+  public ExportCache(
+      GAENDataService dataService,
+      ProtoSignature gaenSigner,
+      Duration releaseBucketDuration,
+      Duration retentionPeriod,
+      boolean enabled,
+      int maxEntries,
+      KeyFilterSpec defaultKeyFilter,
+      int pageSize) {
+    this(
+        dataService,
+        gaenSigner,
+        releaseBucketDuration,
+        retentionPeriod,
+        enabled,
+        maxEntries,
+        defaultKeyFilter,
+        pageSize,
+        DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param pageSize the maximum number of keys per page of paginated downloads
+   * @param maxBytes the maximum total size of the cached zips
+   */
+  public ExportCache(
+      GAENDataService dataService,
+      ProtoSignature gaenSigner,
+      Duration releaseBucketDuration,
+      Duration retentionPeriod,
+      boolean enabled,
+      int maxEntries,
+      KeyFilterSpec defaultKeyFilter,
+      int pageSize,
+      long maxBytes) {
+    this(
+        dataService,
+        gaenSigner,
+        releaseBucketDuration,
+        retentionPeriod,
+        enabled,
+        maxEntries,
+        defaultKeyFilter,
+        pageSize,
+        maxBytes,
+        DEFAULT_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * @param pageSize the maximum number of keys per page of paginated downloads
+   * @param maxBytes the maximum total size of the cached zips
+   * @param memoryThreshold the size up to which a zip is kept in memory, larger zips are written to
+   *     a temporary file
+   */
+  public ExportCache(
+      GAENDataService dataService,
+      ProtoSignature gaenSigner,
+      Duration releaseBucketDuration,
+      Duration retentionPeriod,
+      boolean enabled,
+      int maxEntries,
+      KeyFilterSpec defaultKeyFilter,
+      int pageSize,
+      long maxBytes,
+      int memoryThreshold) {
+    this.dataService = dataService;
+    this.gaenSigner = gaenSigner;
+    this.releaseBucketDuration = releaseBucketDuration;
+    this.retentionPeriod = retentionPeriod;
+    this.enabled = enabled;
+    this.maxEntries = maxEntries;
+    this.defaultKeyFilter = defaultKeyFilter;
+    this.pageSize = pageSize;
+    this.maxBytes = maxBytes;
+    this.memoryThreshold = memoryThreshold;
+  }
+
+  /**
+   * Returns the signed export of all keys released after keysSince, as it is valid for the bucket
+   * now is in.
+   *
+   * @param format the export format of the requesting endpoint
+   * @param keysSince must already be validated as a batch release time
+   * @param now the time of the request
+   * @param visitedCountries optional visited countries filter
+   * @param originCountries optional origin countries filter
+   * @return the export, which is empty if no keys were released
+   * @throws IllegalArgumentException if a country filter contains an unknown country code
+   */
+  public SignedExport getExport(
+      ExportFormat format,
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    return getExport(format, null, keysSince, now, visitedCountries, originCountries);
+  }
+
+  /**
+   * Same as {@link #getExport(ExportFormat, UTCInstant, UTCInstant, List, List)} with the filter
+   * of V2UMA exports chosen by the request.
+   *
+   * @param keyFilter the filter of V2UMA exports, or null for the default filter. Ignored for other
+   *     formats.
+   */
+  public SignedExport getExport(
+      ExportFormat format,
+      KeyFilterSpec keyFilter,
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    var filter = keyFilter(format, keyFilter);
+    var visited = normalizeCountries(visitedCountries);
+    var origin = normalizeCountries(originCountries);
+    if (!enabled || inGracePeriod(now)) {
+      return buildExport(format, filter, keysSince, now, visited, origin);
+    }
+
+    var keyBundleTag = now.roundToBucketStart(releaseBucketDuration).getTimestamp();
+    var key =
+        new CacheKey(
+            keysSince.getTimestamp(), keyBundleTag, visited, origin, format, filter, 0);
+    return cached(key, () -> buildExport(format, filter, keysSince, now, visited, origin));
+  }
+
+  /**
+   * Returns one page of a paginated export. The keys of the page are the ones released in
+   * [keysSince, keyBundleTag) of the page, so all pages of a download are consistent, even if it
+   * continues in a later bucket.
+   *
+   * @param format the export format of the requesting endpoint
+   * @param page the page, with keysSince already validated as a batch release time
+   * @param now the time of the request
+   * @param visitedCountries optional visited countries filter, the same for all pages
+   * @param originCountries optional origin countries filter, the same for all pages
+   * @return the export of the page with the next page, which is empty if the page has no keys
+   * @throws IllegalArgumentException if a country filter contains an unknown country code
+   */
+  public SignedExport getExportPage(
+      ExportFormat format,
+      ExportPage page,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    var filter = keyFilter(format, null);
+    var visited = normalizeCountries(visitedCountries);
+    var origin = normalizeCountries(originCountries);
+    var keyBundleTag = now.roundToBucketStart(releaseBucketDuration).getTimestamp();
+    // pages of earlier buckets would only be evicted after the next bucket, so they aren't cached
+    if (!enabled
+        || inGracePeriod(now)
+        || page.getKeyBundleTag().getTimestamp() != keyBundleTag) {
+      return buildExportPage(format, filter, page, visited, origin);
+    }
+
+    var key =
+        new CacheKey(
+            page.getKeysSince().getTimestamp(),
+            keyBundleTag,
+            visited,
+            origin,
+            format,
+            filter,
+            page.getBatchNum());
+    return cached(key, () -> buildExportPage(format, filter, page, visited, origin));
+  }
+
+  /**
+   * Returns the cached export or builds and caches it. Concurrent requests for the same key wait
+   * for the first one. If the cache is full, the export is built without caching it, and an export
+   * which doesn't fit into the remaining bytes or was spilled to a file is dropped from the cache
+   * once it is built.
+   */
+  private SignedExport cached(CacheKey key, ExportBuilder builder)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    var task = cache.get(key);
+    boolean built = false;
+    if (task == null) {
+      if (cache.size() >= maxEntries) {
+        logger.warn("Export cache is full ({} entries), building export uncached", maxEntries);
+        return builder.build();
+      }
+      FutureTask<SignedExport> newTask = new FutureTask<>(builder::build);
+      task = cache.putIfAbsent(key, newTask);
+      if (task == null) {
+        task = newTask;
+        task.run();
+        account(key, task);
+        built = true;
+      }
+    }
+    SignedExport export;
+    try {
+      export = task.get();
+    } catch (ExecutionException e) {
+      // don't cache failures, the next request will try again
+      cache.remove(key, task);
+      throw unwrap(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for export", e);
+    }
+    if (export.isSpilled() && !built) {
+      // a spilled export is sent once, by the request which built it
+      return builder.build();
+    }
+    return export;
+  }
+
+  /** Adds the size of a newly built export to the cache, or drops it if the cache has no room. */
+  private synchronized void account(CacheKey key, FutureTask<SignedExport> task) {
+    SignedExport export;
+    try {
+      export = task.get();
+    } catch (ExecutionException | InterruptedException e) {
+      // handled by the caller
+      return;
+    }
+    if (cache.get(key) != task) {
+      // evicted in the meantime
+      return;
+    }
+    if (export.isSpilled()) {
+      logger.warn("Export of {} bytes is too large to cache", export.getContentLength());
+      cache.remove(key, task);
+      return;
+    }
+    int size = export.isEmpty() ? 0 : export.getZip().length;
+    if (cachedBytes + size > maxBytes) {
+      logger.warn("Export cache is full ({} bytes), dropping export of {} bytes", maxBytes, size);
+      cache.remove(key, task);
+      return;
+    }
+    cachedSizes.put(key, size);
+    cachedBytes += size;
+  }
+
+  private synchronized void evictIf(Predicate<CacheKey> evict) {
+    for (var it = cache.keySet().iterator(); it.hasNext(); ) {
+      var key = it.next();
+      if (evict.test(key)) {
+        it.remove();
+        Integer size = cachedSizes.remove(key);
+        if (size != null) {
+          cachedBytes -= size;
+        }
+      }
+    }
+  }
+
+  /**
+   * Evicts the entries of closed buckets and, once per bucket and after its grace period,
+   * precomputes the exports most clients ask for: the full retention period and the last bucket,
+   * both without country filters.
+   *
+   * @param now current time
+   */
+  public void refresh(UTCInstant now) {
+    if (!enabled) {
+      return;
+    }
+    var bucketStart = now.roundToBucketStart(releaseBucketDuration);
+    if (bucketStart.getTimestamp() == warmedBucket) {
+      return;
+    }
+    var minimumKeysSince =
+        now.minus(retentionPeriod).roundToNextBucket(releaseBucketDuration).getTimestamp();
+    evictIf(
+        key ->
+            key.keyBundleTag != bucketStart.getTimestamp() || key.keysSince < minimumKeysSince);
+    if (inGracePeriod(now)) {
+      return;
+    }
+
+    var sinceList =
+        List.of(
+            UTCInstant.ofEpochMillis(minimumKeysSince), bucketStart.minus(releaseBucketDuration));
+    for (var format : ExportFormat.values()) {
+      for (var keysSince : sinceList) {
+        try {
+          // exports which are too large to cache are dropped again
+          getExport(format, keysSince, now, null, null).discard();
+        } catch (Exception e) {
+          logger.error("Could not precompute {} export since {}", format, keysSince, e);
+        }
+      }
+    }
+    warmedBucket = bucketStart.getTimestamp();
+    logger.info("Export cache warmed for bucket {}", bucketStart);
+  }
+
+  /** Whether keys may still be committed to the bucket before the one now is in. */
+  private boolean inGracePeriod(UTCInstant now) {
+    return now.minus(BUCKET_GRACE_PERIOD).roundToBucketStart(releaseBucketDuration).getTimestamp()
+        != now.roundToBucketStart(releaseBucketDuration).getTimestamp();
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  /** @return the total size of the cached zips */
+  public synchronized long bytes() {
+    return cachedBytes;
+  }
+
+  private SignedExport buildExport(
+      ExportFormat format,
+      KeyFilterSpec keyFilter,
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    int[] keyCount = {0};
+    var exposedKeys = keySource(keysSince, now, visitedCountries, originCountries);
+    var zip = new SpillBuffer(memoryThreshold);
+    try {
+      writeExport(
+          format, keyFilter, 1, 1, handler -> keyCount[0] = exposedKeys.forEachKey(handler), zip);
+    } catch (Exception e) {
+      zip.close();
+      throw e;
+    }
+    if (keyCount[0] == 0) {
+      zip.close();
+      return SignedExport.EMPTY;
+    }
+    return SignedExport.of(zip, null);
+  }
+
+  private SignedExport buildExportPage(
+      ExportFormat format,
+      KeyFilterSpec keyFilter,
+      ExportPage page,
+      List<String> visitedCountries,
+      List<String> originCountries)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    var keysSince = page.getKeysSince();
+    var keyBundleTag = page.getKeyBundleTag();
+    // the number of pages is computed with the first page and then passed on with the token. Keys
+    // committed to the bucket after the first page would be cut off by the last page, so the last
+    // page counts again and the download goes on with more pages if there are more keys now
+    int batchSize = page.getBatchSize();
+    if (batchSize == 0 || page.getBatchNum() >= batchSize) {
+      int count =
+          dataService.countExposedSince(keysSince, keyBundleTag, visitedCountries, originCountries);
+      if (count == 0 && batchSize == 0) {
+        return SignedExport.EMPTY;
+      }
+      batchSize = Math.max(page.getBatchNum(), (count + pageSize - 1) / pageSize);
+    }
+    var current = page.withBatchSize(batchSize);
+
+    int[] keyCount = {0};
+    Long[] lastId = {null};
+    GaenKeySource pageKeys =
+        handler -> {
+          lastId[0] =
+              dataService.streamExposedSincePage(
+                  keysSince,
+                  keyBundleTag,
+                  visitedCountries,
+                  originCountries,
+                  current.getAfterId(),
+                  pageSize,
+                  (keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel) -> {
+                    keyCount[0]++;
+                    handler.handleKey(
+                        keyData, rollingStartNumber, rollingPeriod, transmissionRiskLevel);
+                  });
+          return keyCount[0];
+        };
+    var zip = new SpillBuffer(memoryThreshold);
+    try {
+      writeExport(
+          format, keyFilter, current.getBatchNum(), current.getBatchSize(), pageKeys, zip);
+    } catch (Exception e) {
+      zip.close();
+      throw e;
+    }
+    if (keyCount[0] == 0) {
+      // the keys of later pages were removed since the first page was built
+      zip.close();
+      return SignedExport.EMPTY;
+    }
+    return SignedExport.of(zip, current.next(lastId[0]));
+  }
+
+  private GaenKeySource keySource(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    return handler ->
+        dataService.streamExposedSince(keysSince, now, visitedCountries, originCountries, handler);
+  }
+
+  private void writeExport(
+      ExportFormat format,
+      KeyFilterSpec keyFilter,
+      int batchNum,
+      int batchSize,
+      GaenKeySource exposedKeys,
+      OutputStream out)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    switch (format) {
+      case V2UMA:
+        gaenSigner.writePayloadV2UMA(exposedKeys, keyFilter, batchNum, batchSize, out);
+        break;
+      case V2:
+      default:
+        gaenSigner.writePayloadV2(exposedKeys, batchNum, batchSize, out);
+    }
+  }
+
+  /** The filter is part of the cache key, so it is only set for the format which uses it. */
+  private KeyFilterSpec keyFilter(ExportFormat format, KeyFilterSpec keyFilter) {
+    return format == ExportFormat.V2UMA
+        ? Objects.requireNonNullElse(keyFilter, defaultKeyFilter)
+        : null;
+  }
+
+  private static List<String> normalizeCountries(List<String> countries) {
+    if (countries == null || countries.isEmpty()) {
+      return Collections.emptyList();
+    }
+    var normalized = new TreeSet<String>();
+    for (var country : countries) {
+      if (country == null || country.isBlank()) {
+        continue;
+      }
+      var code = country.trim().toUpperCase(Locale.ROOT);
+      if (!ISO_COUNTRIES.contains(code)) {
+        throw new IllegalArgumentException("Unknown country code");
+      }
+      normalized.add(code);
+    }
+    return Collections.unmodifiableList(new ArrayList<>(normalized));
+  }
+
+  private static RuntimeException unwrap(ExecutionException e)
+      throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+    var cause = e.getCause();
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof InvalidKeyException) {
+      throw (InvalidKeyException) cause;
+    } else if (cause instanceof SignatureException) {
+      throw (SignatureException) cause;
+    } else if (cause instanceof NoSuchAlgorithmException) {
+      throw (NoSuchAlgorithmException) cause;
+    } else if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    return new IllegalStateException(cause);
+  }
+
+  /**
+   * A signed export zip, or no content if no keys were released. Pages of paginated downloads also
+   * hold the next page. A zip larger than the memory threshold stays in its temporary file, it can
+   * only be written once and is deleted afterwards.
+   */
+  public static class SignedExport {
+    static final SignedExport EMPTY = new SignedExport(null, null, null);
+
+    private final byte[] zip;
+    private final SpillBuffer spilled;
+    private final ExportPage nextPage;
+
+    private SignedExport(byte[] zip, SpillBuffer spilled, ExportPage nextPage) {
+      this.zip = zip;
+      this.spilled = spilled;
+      this.nextPage = nextPage;
+    }
+
+    static SignedExport ofZip(byte[] zip, ExportPage nextPage) {
+      return new SignedExport(zip, null, nextPage);
+    }
+
+    /** Takes over the buffer, which is closed once the export is written if it was spilled. */
+    static SignedExport of(SpillBuffer buffer, ExportPage nextPage) {
+      if (buffer.isSpilled()) {
+        return new SignedExport(null, buffer, nextPage);
+      }
+      return ofZip(buffer.toByteArray(), nextPage);
+    }
+
+    public boolean isEmpty() {
+      return zip == null && spilled == null;
+    }
+
+    /** @return whether the zip is in a temporary file instead of in memory */
+    public boolean isSpilled() {
+      return spilled != null;
+    }
+
+    /** @return the next page of a paginated download, or null if this is the last one */
+    public ExportPage getNextPage() {
+      return nextPage;
+    }
+
+    /** @return the size of the zip, or null if the export is empty */
+    public Long getContentLength() {
+      if (spilled != null) {
+        return spilled.size();
+      }
+      return zip != null ? (long) zip.length : null;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      if (spilled != null) {
+        try {
+          spilled.writeTo(out);
+        } finally {
+          spilled.close();
+        }
+      } else if (zip != null) {
+        out.write(zip);
+      }
+    }
+
+    /** Deletes the temporary file of an export which is not written. */
+    public void discard() throws IOException {
+      if (spilled != null) {
+        spilled.close();
+      }
+    }
+
+    /** @return the zip, or null if the export is empty or spilled */
+    public byte[] getZip() {
+      return zip;
+    }
+  }
+
+  private interface ExportBuilder {
+    SignedExport build()
+        throws IOException, InvalidKeyException, SignatureException, NoSuchAlgorithmException;
+  }
+
+  private static class CacheKey {
+    private final long keysSince;
+    private final long keyBundleTag;
+    private final List<String> visitedCountries;
+    private final List<String> originCountries;
+    private final ExportFormat format;
+    private final KeyFilterSpec keyFilter;
+    // 0 for exports which are not paginated. The position of a page isn't part of the key, it is
+    // the same for the same page number of the same bucket
+    private final int batchNum;
+
+    CacheKey(
+        long keysSince,
+        long keyBundleTag,
+        List<String> visitedCountries,
+        List<String> originCountries,
+        ExportFormat format,
+        KeyFilterSpec keyFilter,
+        int batchNum) {
+      this.keysSince = keysSince;
+      this.keyBundleTag = keyBundleTag;
+      this.visitedCountries = visitedCountries;
+      this.originCountries = originCountries;
+      this.format = format;
+      this.keyFilter = keyFilter;
+      this.batchNum = batchNum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return keysSince == other.keysSince
+          && keyBundleTag == other.keyBundleTag
+          && visitedCountries.equals(other.visitedCountries)
+          && originCountries.equals(other.originCountries)
+          && format == other.format
+          && Objects.equals(keyFilter, other.keyFilter)
+          && batchNum == other.batchNum;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          keysSince, keyBundleTag, visitedCountries, originCountries, format, keyFilter, batchNum);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.util.Objects;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+
+/**
+ * The position of one page of a paginated <code>/exposed</code> download, which is passed to the
+ * client as signed continuation token, see {@link ExportPageTokens}. All pages of a download are
+ * pinned to the bucket of its first page, so they contain the same set of keys even if the download
+ * continues in a later bucket. The pages are split by keyset pagination on pk_exposed_id: each page
+ * starts after the largest id of the previous page. The number of pages is computed with the first
+ * page and can grow on the last one, if keys were committed to the bucket in the meantime.
+ */
+public class ExportPage {
+
+  private static final String SEPARATOR = ".";
+
+  private final long keysSince;
+  private final long keyBundleTag;
+  private final int batchNum;
+  private final int batchSize;
+  private final long afterId;
+
+  private ExportPage(
+      long keysSince, long keyBundleTag, int batchNum, int batchSize, long afterId) {
+    this.keysSince = keysSince;
+    this.keyBundleTag = keyBundleTag;
+    this.batchNum = batchNum;
+    this.batchSize = batchSize;
+    this.afterId = afterId;
+  }
+
+  /**
+   * @param keysSince the lastKeyBundleTag of the download
+   * @param keyBundleTag the start of the bucket of the download
+   * @return the first page, for which the number of pages is not known yet
+   */
+  public static ExportPage first(UTCInstant keysSince, UTCInstant keyBundleTag) {
+    return new ExportPage(keysSince.getTimestamp(), keyBundleTag.getTimestamp(), 1, 0, 0);
+  }
+
+  /**
+   * Parses the page of a continuation token, see {@link #toPayload()}.
+   *
+   * @throws IllegalArgumentException if the payload is malformed
+   */
+  static ExportPage parsePayload(String payload) {
+    var parts = payload.split("\\" + SEPARATOR);
+    if (parts.length != 5) {
+      throw new IllegalArgumentException("Malformed continuation token");
+    }
+    var page =
+        new ExportPage(
+            Long.parseLong(parts[0]),
+            Long.parseLong(parts[1]),
+            Integer.parseInt(parts[2]),
+            Integer.parseInt(parts[3]),
+            Long.parseLong(parts[4]));
+    if (page.batchNum < 2 || page.batchNum > page.batchSize || page.afterId <= 0) {
+      throw new IllegalArgumentException("Invalid continuation token");
+    }
+    return page;
+  }
+
+  /** @return the page as part of a continuation token, which still has to be signed */
+  String toPayload() {
+    return String.join(
+        SEPARATOR,
+        Long.toString(keysSince),
+        Long.toString(keyBundleTag),
+        Integer.toString(batchNum),
+        Integer.toString(batchSize),
+        Long.toString(afterId));
+  }
+
+  /** @return the same page with the number of pages, once it is known */
+  ExportPage withBatchSize(int batchSize) {
+    return new ExportPage(keysSince, keyBundleTag, batchNum, batchSize, afterId);
+  }
+
+  /**
+   * @param lastId the largest pk_exposed_id of this page
+   * @return the next page, or null if this is the last one
+   */
+  ExportPage next(long lastId) {
+    if (batchNum >= batchSize) {
+      return null;
+    }
+    return new ExportPage(keysSince, keyBundleTag, batchNum + 1, batchSize, lastId);
+  }
+
+  public UTCInstant getKeysSince() {
+    return UTCInstant.ofEpochMillis(keysSince);
+  }
+
+  public UTCInstant getKeyBundleTag() {
+    return UTCInstant.ofEpochMillis(keyBundleTag);
+  }
+
+  /** @return the number of this page, starting at 1 */
+  public int getBatchNum() {
+    return batchNum;
+  }
+
+  /** @return the number of pages, or 0 if it is not known yet */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public long getAfterId() {
+    return afterId;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ExportPage)) {
+      return false;
+    }
+    ExportPage other = (ExportPage) o;
+    return keysSince == other.keysSince
+        && keyBundleTag == other.keyBundleTag
+        && batchNum == other.batchNum
+        && batchSize == other.batchSize
+        && afterId == other.afterId;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(keysSince, keyBundleTag, batchNum, batchSize, afterId);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Converts {@link ExportPage}s to the continuation tokens passed through the clients and back. A
+ * token is the page followed by an HMAC of it, so clients can't choose the page number, the number
+ * of pages or the position of a page, which are signed into the export. All instances behind the
+ * same load balancer need the same secret.
+ */
+public class ExportPageTokens {
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final String SEPARATOR = ".";
+  private static final int RANDOM_SECRET_LENGTH = 32;
+
+  private final SecretKeySpec secret;
+
+  public ExportPageTokens(byte[] secret) {
+    if (secret.length == 0) {
+      throw new IllegalArgumentException("The secret of the continuation tokens is empty");
+    }
+    this.secret = new SecretKeySpec(secret, ALGORITHM);
+  }
+
+  /** @return tokens which are only valid on this instance until it is restarted */
+  public static ExportPageTokens withRandomSecret() {
+    var secret = new byte[RANDOM_SECRET_LENGTH];
+    new SecureRandom().nextBytes(secret);
+    return new ExportPageTokens(secret);
+  }
+
+  public String toToken(ExportPage page) {
+    var payload = page.toPayload();
+    return payload + SEPARATOR + mac(payload);
+  }
+
+  /**
+   * Parses a continuation token of {@link #toToken(ExportPage)}.
+   *
+   * @throws IllegalArgumentException if the token is malformed or wasn't signed with the secret
+   */
+  public ExportPage parse(String token) {
+    int separator = token.lastIndexOf(SEPARATOR);
+    if (separator < 0) {
+      throw new IllegalArgumentException("Malformed continuation token");
+    }
+    var payload = token.substring(0, separator);
+    var expected = mac(payload).getBytes(StandardCharsets.US_ASCII);
+    var actual = token.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+    if (!MessageDigest.isEqual(expected, actual)) {
+      throw new IllegalArgumentException("Invalid continuation token signature");
+    }
+    return ExportPage.parsePayload(payload);
+  }
+
+  private String mac(String payload) {
+    try {
+      var mac = Mac.getInstance(ALGORITHM);
+      mac.init(secret);
+      var signature = mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    } catch (GeneralSecurityException e) {
+      // HmacSHA256 is available on every Java platform
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Pads the response time of requests to a fixed duration, so that the time a request takes doesn't
+ * reveal what it did (e.g. if the uploaded keys were fake). Instead of sleeping in a worker thread,
+ * the response is returned as a {@link DeferredResult} which a single timer thread completes once
+ * the request time is over. Pending responses therefore don't hold a thread, and the number of
+ * concurrent uploads is not limited by the size of a thread pool.
+ */
+public class RequestTimeNormalizer implements DisposableBean {
+
+  private static final Logger logger = LoggerFactory.getLogger(RequestTimeNormalizer.class);
+
+  private final ScheduledThreadPoolExecutor timer;
+
+  public RequestTimeNormalizer() {
+    this.timer =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "request-time-normalizer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * @param requestStart when the request was received
+   * @param requestTime the total duration every request should take
+   * @param result the response
+   * @return a deferred result which is completed with _result_ as soon as _requestTime_ passed
+   *     since _requestStart_
+   */
+  public <T> DeferredResult<T> normalize(UTCInstant requestStart, Duration requestTime, T result) {
+    DeferredResult<T> deferredResult = new DeferredResult<>();
+    complete(requestStart, requestTime, () -> deferredResult.setResult(result));
+    return deferredResult;
+  }
+
+  /**
+   * Same as {@link #normalize(UTCInstant, Duration, Object)} for responses which are computed
+   * asynchronously themselves. Errors are passed on with the same delay, the timeout of _pending_
+   * is kept.
+   */
+  public <T> DeferredResult<T> normalize(
+      UTCInstant requestStart, Duration requestTime, DeferredResult<T> pending) {
+    DeferredResult<T> deferredResult = new DeferredResult<>(pending.getTimeoutValue());
+    pending.setResultHandler(
+        result -> complete(requestStart, requestTime, () -> setResult(deferredResult, result)));
+    return deferredResult;
+  }
+
+  /**
+   * The result handler gets the value of _pending_ as Object, exceptions are passed on as error
+   * result so they are handled as if thrown by the controller.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> void setResult(DeferredResult<T> deferredResult, Object result) {
+    if (result instanceof Throwable) {
+      deferredResult.setErrorResult(result);
+    } else {
+      deferredResult.setResult((T) result);
+    }
+  }
+
+  private void complete(UTCInstant requestStart, Duration requestTime, Runnable completion) {
+    Duration timeFillUp = requestTime.minus(UTCInstant.now().getDuration(requestStart));
+    if (timeFillUp.isNegative() || timeFillUp.isZero()) {
+      logger.debug("Total time spent in endpoint is longer than requestTime");
+      completion.run();
+    } else {
+      timer.schedule(completion, timeFillUp.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    timer.shutdownNow();
+  }
+}
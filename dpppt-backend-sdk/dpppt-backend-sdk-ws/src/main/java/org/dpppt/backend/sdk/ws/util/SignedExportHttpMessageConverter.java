@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.io.IOException;
+import org.dpppt.backend.sdk.ws.util.ExportCache.SignedExport;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Writes a {@link SignedExport} to the response body. The zip is already signed, so writing it
+ * cannot fail after the status has been sent for any other reason than the connection.
+ */
+public class SignedExportHttpMessageConverter extends AbstractHttpMessageConverter<SignedExport> {
+
+  public static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+
+  public SignedExportHttpMessageConverter() {
+    super(APPLICATION_ZIP, MediaType.APPLICATION_OCTET_STREAM);
+  }
+
+  @Override
+  protected boolean supports(Class<?> clazz) {
+    return SignedExport.class.isAssignableFrom(clazz);
+  }
+
+  @Override
+  protected boolean canRead(MediaType mediaType) {
+    return false;
+  }
+
+  @Override
+  protected SignedExport readInternal(
+      Class<? extends SignedExport> clazz, HttpInputMessage inputMessage) {
+    throw new HttpMessageNotReadableException("Exports can only be written", inputMessage);
+  }
+
+  @Override
+  protected Long getContentLength(SignedExport export, MediaType contentType) {
+    return export.getContentLength();
+  }
+
+  @Override
+  protected void writeInternal(SignedExport export, HttpOutputMessage outputMessage)
+      throws IOException {
+    export.writeTo(outputMessage.getBody());
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Buffers an export until it is sent. The content is kept in memory up to memoryThreshold bytes and
+ * moved to a temporary file beyond, so the heap used per download is bounded while the export is
+ * still completely written before the response starts. Closing the buffer deletes the file.
+ */
+public class SpillBuffer extends OutputStream {
+
+  private final int memoryThreshold;
+  private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+  private Path file;
+  private OutputStream fileOut;
+  private long size = 0;
+
+  /** @param memoryThreshold the maximum number of bytes kept in memory */
+  public SpillBuffer(int memoryThreshold) {
+    this.memoryThreshold = memoryThreshold;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    reserve(1).write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    reserve(len).write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (fileOut != null) {
+      fileOut.flush();
+    }
+  }
+
+  private OutputStream reserve(int len) throws IOException {
+    if (file == null && size + len > memoryThreshold) {
+      file = Files.createTempFile("export", ".zip");
+      fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+      memory.writeTo(fileOut);
+      memory = null;
+    }
+    size += len;
+    return file != null ? fileOut : memory;
+  }
+
+  /** @return whether the content was moved to a temporary file */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  /** @return the content, which must not be spilled */
+  public byte[] toByteArray() {
+    if (isSpilled()) {
+      throw new IllegalStateException("Content was moved to " + file);
+    }
+    return memory.toByteArray();
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    if (isSpilled()) {
+      fileOut.flush();
+      Files.copy(file, out);
+    } else {
+      memory.writeTo(out);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      try {
+        fileOut.close();
+      } finally {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+}
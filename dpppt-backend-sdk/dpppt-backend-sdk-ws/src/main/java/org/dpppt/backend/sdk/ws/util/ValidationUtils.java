@@ -9,12 +9,12 @@
  */
 package org.dpppt.backend.sdk.ws.util;
 
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.springframework.security.oauth2.jwt.Jwt;
 
 import java.time.Duration;
-import java.util.Base64;
 
 /** Offers a set of methods to validate the incoming requests from the mobile devices. */
 public class ValidationUtils {
@@ -37,15 +37,16 @@ public ValidationUtils(int keyLengthBytes, Duration retentionPeriod, Long releas
   }
 
   /**
-   * Check the validity of a base64 encoded key by decoding it and checking the key length
+   * Check the validity of the base64 encoded key data by decoding it and checking the key length.
+   * The decoded key data is kept in the key, so it is only decoded once per upload.
    *
-   * @param value representation of a base64 value
-   * @return if _value_ is a valid representation
+   * @param key the key to check
+   * @return if the key data of _key_ is a valid representation
    */
-  public boolean isValidKeyFormat(String value) {
+  public boolean isValidKeyFormat(GaenKey key) {
     try {
-      byte[] key = Base64.getDecoder().decode(value);
-      return key.length == KEY_LENGTH_BYTES;
+      byte[] keyBytes = key.getKeyBytes();
+      return keyBytes.length == KEY_LENGTH_BYTES;
     } catch (Exception e) {
       return false;
     }
@@ -73,6 +74,16 @@ public boolean isBeforeRetention(UTCInstant timestamp, UTCInstant now) {
     return timestamp.isBeforeDateOf(now.minus(retentionPeriod));
   }
 
+  /**
+   * Get the start of the first day in the retention period. A timestamp is before the retention if
+   * and only if it is before this instant.
+   *
+   * @return midnight UTC of the day of now - retentionPeriod
+   */
+  public UTCInstant getRetentionStart(UTCInstant now) {
+    return now.minus(retentionPeriod).atStartOfDay();
+  }
+
   /**
    * Check if the given timestamp is a valid key date: Must be midnight UTC.
    *
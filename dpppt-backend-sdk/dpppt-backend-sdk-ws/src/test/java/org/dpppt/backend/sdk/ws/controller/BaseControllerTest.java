@@ -19,7 +19,6 @@
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-import com.duprasville.guava.probably.CuckooFilter;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -48,8 +47,10 @@
 import javax.servlet.Filter;
 import javax.sql.DataSource;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.SerializationUtils;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.filter.CompactCuckooFilter;
+import org.dpppt.backend.sdk.filter.CuckooFilterReader;
+import org.dpppt.backend.sdk.filter.MembershipFilter;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenRequest;
 import org.dpppt.backend.sdk.model.gaen.proto.TemporaryExposureKeyFormat;
@@ -59,6 +60,8 @@
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.filter.ResponseWrapperFilter;
 import org.dpppt.backend.sdk.ws.security.KeyVault;
+import org.dpppt.backend.sdk.ws.security.signature.CuckooKeyFilterEngine;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngine;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
 import org.dpppt.backend.sdk.ws.util.TestJDBCGaen;
 import org.junit.Before;
@@ -73,6 +76,8 @@
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -132,6 +137,22 @@ protected String json(Object o) throws IOException {
     return objectMapper.writeValueAsString(o);
   }
 
+  /**
+   * Performs the request and returns the result of its async dispatch, if it was handled
+   * asynchronously like the uploads and downloads.
+   */
+  protected ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+    return dispatchIfAsync(mockMvc.perform(requestBuilder));
+  }
+
+  protected ResultActions dispatchIfAsync(ResultActions resultActions) throws Exception {
+    MvcResult result = resultActions.andReturn();
+    if (result.getRequest().isAsyncStarted()) {
+      return mockMvc.perform(asyncDispatch(result));
+    }
+    return resultActions;
+  }
+
   protected PublicKey publicKey;
   protected PrivateKey privateKey;
 
@@ -277,7 +298,7 @@ protected void testNKeys(UTCInstant now, int n, boolean shouldSucceed) throws Ex
       response = requestBuilder.andExpect(request().asyncStarted()).andReturn();
       mockMvc.perform(asyncDispatch(response)).andExpect(status().is2xxSuccessful());
     } else {
-      response = requestBuilder.andExpect(status().is(400)).andReturn();
+      response = dispatchIfAsync(requestBuilder).andExpect(status().is(400)).andReturn();
       return;
     }
     response =
@@ -428,7 +449,20 @@ protected TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport getZipKeysV2(M
    * @return the filter in the zip file
    * @throws IOException
    */
-  protected CuckooFilter<byte[]> getZipCuckooFilter(MockHttpServletResponse response)
+  protected CompactCuckooFilter getZipCuckooFilter(MockHttpServletResponse response)
+          throws IOException {
+    return (CompactCuckooFilter) getZipFilter(response, new CuckooKeyFilterEngine());
+  }
+
+  /**
+   * Fetches the filter in a zip file returned from a `/v2UMA/gaen/exposed` response.
+   *
+   * @param response holding a zip file with the filter
+   * @param engine the engine which wrote the filter
+   * @return the filter in the zip file
+   * @throws IOException
+   */
+  protected MembershipFilter getZipFilter(MockHttpServletResponse response, KeyFilterEngine engine)
           throws IOException {
     ByteArrayInputStream baisZip = new ByteArrayInputStream(response.getContentAsByteArray());
     ZipInputStream keyZipInputstream = new ZipInputStream(baisZip);
@@ -447,7 +481,7 @@ protected CuckooFilter<byte[]> getZipCuckooFilter(MockHttpServletResponse respon
     }
 
     assertNotNull(keyProto);
-    return SerializationUtils.deserialize(keyProto);
+    return engine.readFilter(new ByteArrayInputStream(keyProto));
   }
 
   /** Verifies a zip response, checks if keys and signature is correct. */
@@ -543,7 +577,7 @@ protected void verifyFilterZip(
 
     TEKSignatureList list = TEKSignatureList.parseFrom(signatureProto);
     //TemporaryExposureKeyExport export = TemporaryExposureKeyExport.parseFrom(keyProto);
-    CuckooFilter<byte[]> export = SerializationUtils.deserialize(keyProto);
+    CompactCuckooFilter export = CuckooFilterReader.read(new ByteArrayInputStream(keyProto));
 
     var sig = list.getSignatures(0);
     java.security.Signature signatureVerifier =
@@ -23,8 +23,7 @@ public class GaenControllerNoFilledZipsTest extends BaseControllerTest {
   @Transactional
   public void testEmptyResponseWhenNoZipFill() throws Exception {
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + UTCInstant.today().minusDays(8).getTimestamp())
                     .header("User-Agent", "MockMVC"))
             .andExpect(status().isNoContent())
@@ -211,8 +211,7 @@ public void testCannotUploadMoreThan30Keys() throws Exception {
   public void testSecurityHeaders() throws Exception {
     var midnight = UTCInstant.today();
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().is2xxSuccessful())
@@ -585,8 +584,7 @@ public void keyNeedsToBeBase64() throws Exception {
     exposeeRequest.setGaenKeys(keys);
 
     String token = createToken(false, now.plusMinutes(5));
-    mockMvc
-        .perform(
+    performAsync(
             post("/v1/gaen/exposed")
                 .contentType(MediaType.APPLICATION_JSON)
                 .header("Authorization", "Bearer " + token)
@@ -1032,8 +1030,7 @@ public void delayedKeyDateBoundaryCheck() throws Exception {
             .getResponse();
       } else {
         MvcResult responseAsync =
-            mockMvc
-                .perform(
+            performAsync(
                     post("/v1/gaen/exposed")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Authorization", "Bearer " + token)
@@ -1121,8 +1118,7 @@ public void testShuffle() throws Exception {
     for (var i = 0; i < 2; i++) {
       var keys =
           getZipKeys(
-              mockMvc
-                  .perform(
+              performAsync(
                       get("/v1/gaen/exposed/" + midnight.getTimestamp())
                           .header("User-Agent", androidUserAgent))
                   .andExpect(status().is2xxSuccessful())
@@ -1158,8 +1154,7 @@ public void zipContainsFiles() throws Exception {
 
     // request the keys with key date 8 days ago. no publish until.
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", "MockMVC"))
             .andExpect(status().is2xxSuccessful())
@@ -1179,8 +1174,7 @@ public void zipContainsFiles() throws Exception {
     var bucketAfterSecondRelease = midnight.minusHours(12);
 
     MockHttpServletResponse responseWithPublishedAfter =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", "MockMVC")
                     .param(
@@ -1200,8 +1194,7 @@ public void testNonEmptyResponseAnd304() throws Exception {
     var midnight = now.atStartOfDay();
 
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().isOk())
@@ -1215,8 +1208,7 @@ public void testNonEmptyResponseAnd304() throws Exception {
   public void testTodayWeDontHaveKeys() throws Exception {
     var midnight = UTCInstant.today();
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.getTimestamp()).header("User-Agent", "MockMVC"))
             .andExpect(status().is(204))
             .andReturn()
@@ -1234,8 +1226,7 @@ public void testEtag() throws Exception {
 
     // request the keys with date date 1 day ago. no publish until.
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().is2xxSuccessful())
@@ -1247,8 +1238,7 @@ public void testEtag() throws Exception {
     var expectedEtag = response.getHeader("etag");
 
     response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().is2xxSuccessful())
@@ -1262,8 +1252,7 @@ public void testEtag() throws Exception {
     insertNKeysPerDay(midnight, 14, 10, midnight.minusHours(12), false);
 
     response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + midnight.minusDays(8).getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().is2xxSuccessful())
@@ -1331,8 +1320,7 @@ public void testUploadTodaysKeyWillBeReleasedTomorrow() throws Exception {
 
     var tooEarlyInstant = now.atStartOfDay();
     MockHttpServletResponse response =
-        mockMvc
-            .perform(
+        performAsync(
                 get("/v1/gaen/exposed/" + tooEarlyInstant.getTimestamp())
                     .header("User-Agent", androidUserAgent))
             .andExpect(status().is(204))
@@ -1344,8 +1332,7 @@ public void testUploadTodaysKeyWillBeReleasedTomorrow() throws Exception {
 
     try (var timeLock = UTCInstant.setClock(fourAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v1/gaen/exposed/" + tooEarlyInstant.getTimestamp())
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -0,0 +1,35 @@
+package org.dpppt.backend.sdk.ws.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+/** Starts without a continuation token secret, as the default configuration does. */
+@SpringBootTest(
+    properties = {
+      "ws.app.jwt.publickey=classpath://generated_pub.pem",
+      "ws.exposedlist.releaseBucketDuration=7200000",
+      "ws.exposedlist.continuationTokenSecret=",
+      "ws.gaen.randomkeysenabled=false"
+    })
+@Transactional
+public class GaenV2ControllerNoPaginationTest extends BaseControllerTest {
+  @Test
+  public void testDownloadWithoutContinuationTokenSecret() throws Exception {
+    performAsync(get("/v2/gaen/exposed").header("User-Agent", androidUserAgent))
+        .andExpect(status().is2xxSuccessful());
+  }
+
+  @Test
+  public void testPaginatedDownloadNotImplemented() throws Exception {
+    performAsync(get("/v2/gaen/exposed?paginated=true").header("User-Agent", androidUserAgent))
+        .andExpect(status().isNotImplemented());
+    performAsync(
+            get("/v2/gaen/exposed?continuationToken=1593043200000.1593050400000.2.5.123456.abc")
+                .header("User-Agent", androidUserAgent))
+        .andExpect(status().isNotImplemented());
+  }
+}
@@ -12,6 +12,7 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -49,6 +50,8 @@
       "ws.app.jwt.publickey=classpath://generated_pub.pem",
       "logging.level.org.springframework.security=DEBUG",
       "ws.exposedlist.releaseBucketDuration=7200000",
+      "ws.exposedlist.pageSize=10",
+      "ws.exposedlist.continuationTokenSecret=dGVzdC1jb250aW51YXRpb24tdG9rZW4tc2VjcmV0",
       "ws.gaen.randomkeysenabled=true",
       "ws.monitor.prometheus.user=prometheus",
       "ws.monitor.prometheus.password=prometheus",
@@ -149,8 +152,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
     mockMvc.perform(asyncDispatch(responseAsync)).andExpect(status().isOk());
 
     MockHttpServletResponse response =
-        mockMvc
-            .perform(get("/v2/gaen/exposed").header("User-Agent", androidUserAgent))
+        performAsync(get("/v2/gaen/exposed").header("User-Agent", androidUserAgent))
             .andExpect(status().is(204))
             .andReturn()
             .getResponse();
@@ -166,8 +168,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(oneAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -185,8 +186,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(fourAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -205,8 +205,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(eightAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
@@ -277,8 +276,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
       mockMvc.perform(asyncDispatch(responseAsync)).andExpect(status().isOk());
 
       MockHttpServletResponse response =
-          mockMvc
-              .perform(get("/v2/gaen/exposed").header("User-Agent", androidUserAgent))
+          performAsync(get("/v2/gaen/exposed").header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
               .andReturn()
               .getResponse();
@@ -295,8 +293,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(fourPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -314,8 +311,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(sixPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -333,8 +329,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(eightPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
@@ -342,4 +337,128 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
               .getResponse();
     }
   }
+
+  @Test
+  public void testPaginatedDownload() throws Exception {
+    var now = UTCInstant.now();
+    String keyBundleTag = uploadKeys(now);
+
+    try (var timeLock = UTCInstant.setClock(oneAMTomorrow(now))) {
+      MockHttpServletResponse response =
+          performAsync(
+                  get("/v2/gaen/exposed?paginated=true&lastKeyBundleTag=" + keyBundleTag)
+                      .header("User-Agent", androidUserAgent))
+              .andExpect(status().isOk())
+              .andReturn()
+              .getResponse();
+      verifyZipResponse(response, 10, 144);
+      String continuationToken = response.getHeader("x-continuation-token");
+      assertNotNull(continuationToken);
+
+      response =
+          performAsync(
+                  get("/v2/gaen/exposed?continuationToken=" + continuationToken)
+                      .header("User-Agent", androidUserAgent))
+              .andExpect(status().isOk())
+              .andReturn()
+              .getResponse();
+      verifyZipResponse(response, 4, 144);
+      assertNull(response.getHeader("x-continuation-token"));
+    }
+  }
+
+  @Test
+  public void testTamperedContinuationTokenFails() throws Exception {
+    var now = UTCInstant.now();
+    String keyBundleTag = uploadKeys(now);
+
+    try (var timeLock = UTCInstant.setClock(oneAMTomorrow(now))) {
+      String continuationToken = firstContinuationToken(keyBundleTag);
+      // page 2 of 2 claims to be page 2 of 3
+      var parts = continuationToken.split("\\.");
+      parts[3] = "3";
+      performAsync(
+              get("/v2/gaen/exposed?continuationToken=" + String.join(".", parts))
+                  .header("User-Agent", androidUserAgent))
+          .andExpect(status().is(400));
+    }
+  }
+
+  @Test
+  public void testExpiredContinuationTokenFails() throws Exception {
+    var now = UTCInstant.now();
+    String keyBundleTag = uploadKeys(now);
+
+    String continuationToken;
+    try (var timeLock = UTCInstant.setClock(oneAMTomorrow(now))) {
+      continuationToken = firstContinuationToken(keyBundleTag);
+    }
+    // a download may only continue in the bucket after the one of its first page
+    Clock fiveAMTomorrow =
+        Clock.fixed(now.atStartOfDay().plusDays(1).plusHours(5).getInstant(), ZoneOffset.UTC);
+    try (var timeLock = UTCInstant.setClock(fiveAMTomorrow)) {
+      performAsync(
+              get("/v2/gaen/exposed?continuationToken=" + continuationToken)
+                  .header("User-Agent", androidUserAgent))
+          .andExpect(status().is(400));
+    }
+  }
+
+  /**
+   * Uploads keys of the last 30 days, of which 14 are released tomorrow at 01:00 UTC.
+   *
+   * @return the key bundle tag of the bucket of the upload
+   */
+  private String uploadKeys(UTCInstant now) throws Exception {
+    List<GaenKey> keys = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      var tmpKey = new GaenKey();
+      tmpKey.setRollingStartNumber((int) now.atStartOfDay().minusDays(i).get10MinutesSince1970());
+      var keyData = String.format("testKey32Bytes%02d", i);
+      tmpKey.setKeyData(Base64.getEncoder().encodeToString(keyData.getBytes("UTF-8")));
+      tmpKey.setRollingPeriod(144);
+      tmpKey.setFake(0);
+      tmpKey.setTransmissionRiskLevel(0);
+      keys.add(tmpKey);
+    }
+    GaenV2UploadKeysRequest exposeeRequest = new GaenV2UploadKeysRequest();
+    exposeeRequest.setGaenKeys(keys);
+
+    String token = createToken(now.plusMinutes(5));
+    MvcResult responseAsync =
+        mockMvc
+            .perform(
+                post("/v2/gaen/exposed")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header("Authorization", "Bearer " + token)
+                    .header("User-Agent", androidUserAgent)
+                    .content(json(exposeeRequest)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    mockMvc.perform(asyncDispatch(responseAsync)).andExpect(status().isOk());
+
+    return performAsync(
+            get("/v2/gaen/exposed?paginated=true").header("User-Agent", androidUserAgent))
+        .andExpect(status().is(204))
+        .andReturn()
+        .getResponse()
+        .getHeader("x-key-bundle-tag");
+  }
+
+  private String firstContinuationToken(String keyBundleTag) throws Exception {
+    String continuationToken =
+        performAsync(
+                get("/v2/gaen/exposed?paginated=true&lastKeyBundleTag=" + keyBundleTag)
+                    .header("User-Agent", androidUserAgent))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getHeader("x-continuation-token");
+    assertNotNull(continuationToken);
+    return continuationToken;
+  }
+
+  private static Clock oneAMTomorrow(UTCInstant now) {
+    return Clock.fixed(now.atStartOfDay().plusDays(1).plusHours(1).getInstant(), ZoneOffset.UTC);
+  }
 }
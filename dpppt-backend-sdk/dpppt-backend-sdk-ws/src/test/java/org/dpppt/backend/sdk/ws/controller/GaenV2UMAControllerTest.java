@@ -10,11 +10,12 @@
 
 package org.dpppt.backend.sdk.ws.controller;
 
-import com.duprasville.guava.probably.CuckooFilter;
 import com.google.protobuf.ByteString;
 import com.jayway.jsonpath.internal.function.numeric.Average;
 import com.opencsv.CSVWriter;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.filter.CompactCuckooFilter;
+import org.dpppt.backend.sdk.filter.MembershipFilter;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.model.gaen.GaenRequest;
 import org.dpppt.backend.sdk.model.gaen.GaenUnit;
@@ -24,6 +25,7 @@
 import org.dpppt.backend.sdk.utils.UTCInstant;
 import org.dpppt.backend.sdk.ws.security.KeyVault;
 import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.security.signature.XorKeyFilterEngine;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -139,8 +141,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
     mockMvc.perform(asyncDispatch(responseAsync)).andExpect(status().isOk());
 
     MockHttpServletResponse response =
-        mockMvc
-            .perform(get("/v2UMA/gaen/exposed").header("User-Agent", androidUserAgent))
+        performAsync(get("/v2UMA/gaen/exposed").header("User-Agent", androidUserAgent))
             .andExpect(status().is(204))
             .andReturn()
             .getResponse();
@@ -156,8 +157,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(oneAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -175,8 +175,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(fourAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -195,8 +194,7 @@ private void testUploadTodaysKeyWillBeReleasedTomorrow(boolean useV2Upload) thro
 
     try (var timeLock = UTCInstant.setClock(eightAMTomorrow)) {
       response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
@@ -266,8 +264,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
       mockMvc.perform(asyncDispatch(responseAsync)).andExpect(status().isOk());
 
       MockHttpServletResponse response =
-          mockMvc
-              .perform(get("/v2UMA/gaen/exposed").header("User-Agent", androidUserAgent))
+          performAsync(get("/v2UMA/gaen/exposed").header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
               .andReturn()
               .getResponse();
@@ -284,8 +281,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(fourPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -303,8 +299,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(sixPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().isOk())
@@ -322,8 +317,7 @@ private void testUploadWithShortenedRollingPeriod(boolean useV2Upload) throws Ex
 
     try (var timeLock = UTCInstant.setClock(eightPMToday)) {
       MockHttpServletResponse response =
-          mockMvc
-              .perform(
+          performAsync(
                   get("/v2UMA/gaen/exposed?lastKeyBundleTag=" + keyBundleTag)
                       .header("User-Agent", androidUserAgent))
               .andExpect(status().is(204))
@@ -343,8 +337,7 @@ public void zipContainsFilter() throws Exception {
 
     // request the keys with key date 8 days ago. no publish until.
     MockHttpServletResponse response =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2UMA/gaen/exposed")
                                     .header("User-Agent", "MockMVC"))
                     .andExpect(status().is2xxSuccessful())
@@ -366,8 +359,7 @@ public void zipContainsFilter() throws Exception {
     insertNKeysPerDay(midnight, 14, 5, midnight.minusHours(12), false);
 
     MockHttpServletResponse responseWithPublishedAfter =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2UMA/gaen/exposed")
                                     .header("User-Agent", "MockMVC")
                                     .param(
@@ -392,8 +384,7 @@ public void clientUseCase() throws Exception {
 
     // request the keys with key date 8 days ago. no publish until.
     MockHttpServletResponse response =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2UMA/gaen/exposed")
                                     .header("User-Agent", "MockMVC"))
                     .andExpect(status().is2xxSuccessful())
@@ -423,18 +414,18 @@ public void clientUseCase() throws Exception {
 
 
     // Get the filter with contact
-    CuckooFilter<byte[]> receivedContacts = getZipCuckooFilter(response);
+    CompactCuckooFilter receivedContacts = getZipCuckooFilter(response);
 
     // Not infected key is not in the filter
     for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : getTemporaryKeyFromGaen(notInfectedList)) {
-      assertFalse(receivedContacts.contains(temporaryExposureKey.toByteArray()));
+      assertFalse(receivedContacts.mightContain(temporaryExposureKey.toByteArray()));
     }
 
 
     // Infected key is in the filter
     for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : getTemporaryKeyFromGaen(infectedList)) {
       System.out.println(Arrays.toString(temporaryExposureKey.toByteArray()));
-      assertTrue(receivedContacts.contains(temporaryExposureKey.toByteArray()));
+      assertTrue(receivedContacts.mightContain(temporaryExposureKey.toByteArray()));
     }
 
     // The not infected key now is infected
@@ -444,8 +435,7 @@ public void clientUseCase() throws Exception {
     testGaenDataService.upsertExposees(notInfectedList, midnight.minusDays(1));
 
     response =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2UMA/gaen/exposed")
                                     .header("User-Agent", "MockMVC"))
                     .andExpect(status().is2xxSuccessful())
@@ -459,9 +449,50 @@ public void clientUseCase() throws Exception {
     receivedContacts = getZipCuckooFilter(response);
 
     for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : getTemporaryKeyFromGaen(notInfectedList)) {
-      assertTrue(receivedContacts.contains(temporaryExposureKey.toByteArray()));
+      assertTrue(receivedContacts.mightContain(temporaryExposureKey.toByteArray()));
+    }
+
+  }
+
+  @Test
+  @Transactional
+  public void filterCanBeChosenPerRequest() throws Exception {
+    var midnight = UTCInstant.today();
+    List<GaenKey> infectedList = insertNKeysPerDay(midnight, 2, 1, midnight.minusDays(1), false);
+
+    MockHttpServletResponse response =
+            performAsync(
+                            get("/v2UMA/gaen/exposed")
+                                    .param("filter", "xor")
+                                    .param("fpp", "0.01")
+                                    .header("User-Agent", "MockMVC"))
+                    .andExpect(status().is2xxSuccessful())
+                    .andReturn()
+                    .getResponse();
+
+    MembershipFilter receivedContacts = getZipFilter(response, new XorKeyFilterEngine());
+    assertEquals(1, receivedContacts.size());
+    for (TemporaryExposureKeyFormatV2.TemporaryExposureKey temporaryExposureKey : getTemporaryKeyFromGaen(infectedList)) {
+      assertTrue(receivedContacts.mightContain(temporaryExposureKey.toByteArray()));
     }
 
+    performAsync(
+                    get("/v2UMA/gaen/exposed")
+                            .param("filter", "unknown")
+                            .header("User-Agent", "MockMVC"))
+            .andExpect(status().isBadRequest());
+    performAsync(
+                    get("/v2UMA/gaen/exposed")
+                            .param("fpp", "0.9")
+                            .header("User-Agent", "MockMVC"))
+            .andExpect(status().isBadRequest());
+    // in range, but not one of the allowed probabilities
+    performAsync(
+                    get("/v2UMA/gaen/exposed")
+                            .param("filter", "xor")
+                            .param("fpp", "0.0123")
+                            .header("User-Agent", "MockMVC"))
+            .andExpect(status().isBadRequest());
   }
 
   @Test
@@ -485,20 +516,18 @@ public void perfomanceTestVsV2() throws Exception {
 
 
     MockHttpServletResponse responseV2UMA =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2UMA/gaen/exposed")
                                     .header("User-Agent", "MockMVC"))
                     .andExpect(status().is2xxSuccessful())
                     .andReturn()
                     .getResponse();
 
-    CuckooFilter<byte[]> receivedContactsV2UMA = getZipCuckooFilter(responseV2UMA);
+    CompactCuckooFilter receivedContactsV2UMA = getZipCuckooFilter(responseV2UMA);
 
 
     MockHttpServletResponse responseV2 =
-            mockMvc
-                    .perform(
+            performAsync(
                             get("/v2/gaen/exposed")
                                     .header("User-Agent", "MockMVC"))
                     .andExpect(status().is2xxSuccessful())
@@ -517,9 +546,9 @@ public void perfomanceTestVsV2() throws Exception {
       long startTime = System.nanoTime();
 
       if (i == 0) {
-        assertTrue(receivedContactsV2UMA.contains(referenceKeyBytes));
+        assertTrue(receivedContactsV2UMA.mightContain(referenceKeyBytes));
       } else {
-        receivedContactsV2UMA.contains(referenceKeyBytes);
+        receivedContactsV2UMA.mightContain(referenceKeyBytes);
         long elapsedTime = System.nanoTime() - startTime;
         executionV2UMA.add(elapsedTime);
       }
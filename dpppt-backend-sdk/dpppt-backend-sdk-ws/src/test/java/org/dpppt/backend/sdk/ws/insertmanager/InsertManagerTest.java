@@ -5,8 +5,16 @@
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.AppenderBase;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.model.gaen.GaenUnit;
 import org.dpppt.backend.sdk.semver.Version;
 import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.AssertKeyFormat;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.EnforceRetentionPeriod;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.EnforceValidRollingPeriod;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.FusedKeyInsertionFilter;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.KeyInsertionPredicate;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.RemoveFakeKeys;
+import org.dpppt.backend.sdk.ws.insertmanager.insertionfilters.RemoveKeysFromFuture;
 import org.dpppt.backend.sdk.ws.insertmanager.insertionmodifier.OldAndroid0RPModifier;
 import org.dpppt.backend.sdk.ws.util.ValidationUtils;
 import org.junit.Test;
@@ -16,6 +24,7 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -123,6 +132,65 @@ public void iosRP0ShouldLog() throws Exception {
     }
   }
 
+  @Test
+  public void fusedFiltersKeepTheSameKeys() throws Exception {
+    var validationUtils =
+        new ValidationUtils(16, Duration.ofDays(14), Duration.ofHours(2).toMillis());
+    var now = UTCInstant.parseDateTime("2020-10-20T13:37:00");
+    var keys = new ArrayList<GaenKey>();
+    for (int day = -16; day <= 3; day++) {
+      for (int rollingPeriod : new int[] {0, 144, 145}) {
+        for (int fake = 0; fake <= 1; fake++) {
+          keys.add(
+              new GaenKey(
+                  "AAAAAAAAAAAAAAAAAAAAAA==",
+                  (int) now.atStartOfDay().plusDays(day).get10MinutesSince1970(),
+                  rollingPeriod,
+                  0,
+                  "ES",
+                  1,
+                  1L,
+                  true,
+                  Collections.singletonList("ES")));
+          keys.get(keys.size() - 1).setFake(fake);
+        }
+      }
+    }
+    var predicates =
+        new KeyInsertionPredicate[] {
+          new AssertKeyFormat(validationUtils),
+          new RemoveKeysFromFuture(),
+          new EnforceRetentionPeriod(validationUtils),
+          new RemoveFakeKeys(),
+          new EnforceValidRollingPeriod()
+        };
+
+    List<GaenKey> sequential = keys;
+    for (var predicate : predicates) {
+      sequential = predicate.filter(now, sequential, OSType.ANDROID, null, null, null);
+    }
+    var fused =
+        new FusedKeyInsertionFilter(predicates)
+            .filter(now, keys, OSType.ANDROID, null, null, null);
+    var expected =
+        keys.stream()
+            .filter(
+                key -> {
+                  var keyDate = UTCInstant.of(key.getRollingStartNumber(), GaenUnit.TenMinutes);
+                  return keyDate.isBeforeDateOf(now.plusDays(2))
+                      && !validationUtils.isBeforeRetention(keyDate, now)
+                      && key.getFake() == 0
+                      && key.getRollingPeriod() >= 1
+                      && key.getRollingPeriod() <= 144;
+                })
+            .collect(Collectors.toList());
+
+    // today, the 14 days before and tomorrow
+    assertEquals(16, expected.size());
+    assertEquals(expected, sequential);
+    assertEquals(expected, fused);
+  }
+
   class TestAppender extends AppenderBase<ILoggingEvent> {
     private final List<ILoggingEvent> log = new ArrayList<ILoggingEvent>();
 
@@ -3,6 +3,7 @@
 import java.time.Duration;
 import java.util.List;
 import org.dpppt.backend.sdk.data.gaen.GAENDataService;
+import org.dpppt.backend.sdk.data.gaen.GaenKeyHandler;
 import org.dpppt.backend.sdk.model.gaen.GaenKey;
 import org.dpppt.backend.sdk.utils.UTCInstant;
 
@@ -42,4 +43,44 @@ public List<GaenKey> getSortedExposedSince(UTCInstant keysSince, UTCInstant now,
 	// TODO Auto-generated method stub
 	return null;
   }
+
+  @Override
+  public int streamExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      GaenKeyHandler handler) {
+    return 0;
+  }
+
+  @Override
+  public boolean hasExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    return false;
+  }
+
+  @Override
+  public int countExposedSince(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries) {
+    return 0;
+  }
+
+  @Override
+  public Long streamExposedSincePage(
+      UTCInstant keysSince,
+      UTCInstant now,
+      List<String> visitedCountries,
+      List<String> originCountries,
+      long afterId,
+      int pageSize,
+      GaenKeyHandler handler) {
+    return null;
+  }
 }
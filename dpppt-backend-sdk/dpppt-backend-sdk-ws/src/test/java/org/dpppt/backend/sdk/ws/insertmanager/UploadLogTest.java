@@ -0,0 +1,176 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+public class UploadLogTest {
+
+  // the tests replay the log themselves
+  private static final Duration NO_REPLAY = Duration.ofHours(1);
+
+  private static final String POISON_KEY = "/////////////////////w==";
+
+  private Path directory;
+  private RecordingDataSource dataService;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("upload-wal");
+    dataService = new RecordingDataSource();
+  }
+
+  @Test
+  public void appendedUploadsAreReplayed() throws Exception {
+    var log = new UploadLog(directory, 1 << 20, dataService, 1000, NO_REPLAY);
+    log.append(getKeys("AAAAAAAAAAAAAAAAAAAAAA==", "AQAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+    log.append(getKeys("AgAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+
+    assertEquals(2, log.replay());
+    assertEquals(
+        List.of("AAAAAAAAAAAAAAAAAAAAAA==", "AQAAAAAAAAAAAAAAAAAAAA==", "AgAAAAAAAAAAAAAAAAAAAA=="),
+        dataService.getKeyData());
+    // checkpointed
+    assertEquals(0, log.replay());
+    log.close();
+  }
+
+  @Test
+  public void replayWaitsForTheDatabase() throws Exception {
+    var log = new UploadLog(directory, 1 << 20, dataService, 1000, NO_REPLAY);
+    log.append(getKeys("AAAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+
+    dataService.setAvailable(false);
+    try {
+      log.replay();
+      fail("replayed without database");
+    } catch (DataAccessResourceFailureException e) {
+      // the upload stays in the log
+    }
+    dataService.setAvailable(true);
+    assertEquals(1, log.replay());
+    assertEquals(1, dataService.getKeyData().size());
+    log.close();
+  }
+
+  @Test
+  public void poisonUploadsAreMovedToTheDeadLetterFile() throws Exception {
+    var log = new UploadLog(directory, 1 << 20, dataService, 1000, NO_REPLAY);
+    log.append(getKeys("AAAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+    log.append(getKeys(POISON_KEY), UTCInstant.now());
+    log.append(getKeys("AgAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+
+    assertEquals(3, log.replay());
+    assertEquals(
+        List.of("AAAAAAAAAAAAAAAAAAAAAA==", "AgAAAAAAAAAAAAAAAAAAAA=="), dataService.getKeyData());
+    var deadLetters = Files.readAllLines(directory.resolve("dead-letter"));
+    assertEquals(1, deadLetters.size());
+    assertTrue(deadLetters.get(0).contains(POISON_KEY));
+    // checkpointed past the poison upload
+    assertEquals(0, log.replay());
+    log.close();
+  }
+
+  @Test
+  public void uploadsSurviveARestart() throws Exception {
+    var log = new UploadLog(directory, 1 << 20, dataService, 1000, NO_REPLAY);
+    log.append(getKeys("AAAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+    log.close();
+
+    var reopened = new UploadLog(directory, 1 << 20, dataService, 1000, NO_REPLAY);
+    reopened.append(getKeys("AQAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+    assertEquals(2, reopened.replay());
+    assertEquals(2, dataService.getKeyData().size());
+    reopened.close();
+  }
+
+  @Test
+  public void fullSegmentsAreReplacedAndDeleted() throws Exception {
+    var log = new UploadLog(directory, 1024, dataService, 3, NO_REPLAY);
+    for (int i = 0; i < 20; i++) {
+      log.append(getKeys("AAAAAAAAAAAAAAAAAAAAAA=="), UTCInstant.now());
+    }
+    assertTrue(countSegments() > 1);
+
+    assertEquals(20, log.replay());
+    assertEquals(20, dataService.getKeyData().size());
+    // groups of at most 3 keys
+    assertTrue(dataService.getGroupCount() >= 7);
+    assertEquals(1, countSegments());
+    log.close();
+  }
+
+  private long countSegments() throws Exception {
+    try (var files = Files.list(directory)) {
+      return files.filter(file -> file.toString().endsWith(".wal")).count();
+    }
+  }
+
+  private static List<GaenKey> getKeys(String... keyData) {
+    var keys = new ArrayList<GaenKey>();
+    for (var key : keyData) {
+      keys.add(
+          new GaenKey(
+              key,
+              (int) UTCInstant.now().get10MinutesSince1970(),
+              144,
+              0,
+              "ES",
+              1,
+              1L,
+              true,
+              Collections.singletonList("ES")));
+    }
+    return keys;
+  }
+
+  /**
+   * Records the written keys, or fails like an unavailable database. Groups containing {@link
+   * #POISON_KEY} always fail.
+   */
+  private static class RecordingDataSource extends MockDataSource {
+
+    private final List<String> keyData = new ArrayList<>();
+    private int groupCount = 0;
+    private boolean available = true;
+
+    @Override
+    public void upsertExposees(List<GaenKey> keys, UTCInstant now) {
+      if (!available) {
+        throw new DataAccessResourceFailureException("database unavailable");
+      }
+      if (keys.stream().anyMatch(key -> POISON_KEY.equals(key.getKeyData()))) {
+        throw new DataIntegrityViolationException("poison key");
+      }
+      groupCount++;
+      for (var key : keys) {
+        keyData.add(key.getKeyData());
+      }
+    }
+
+    void setAvailable(boolean available) {
+      this.available = available;
+    }
+
+    List<String> getKeyData() {
+      return keyData;
+    }
+
+    int getGroupCount() {
+      return groupCount;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.UploadQueue.UploadNotWrittenException;
+import org.dpppt.backend.sdk.ws.insertmanager.UploadQueue.UploadQueueFullException;
+import org.junit.Test;
+
+public class UploadQueueTest {
+
+  @Test
+  public void uploadsAreWrittenInGroups() throws Exception {
+    var dataService = new RecordingDataSource(null);
+    var queue =
+        new UploadQueue(dataService, 100, 1, 1000, Duration.ofSeconds(1), Duration.ofSeconds(5));
+    var written = new ArrayList<CompletableFuture<Void>>();
+    for (int i = 0; i < 10; i++) {
+      written.add(queue.enqueue(getKeys(3)));
+    }
+    queue.close();
+
+    assertEquals(30, dataService.getKeyCount());
+    for (var upload : written) {
+      assertTrue(upload.isDone());
+      assertFalse(upload.isCompletedExceptionally());
+    }
+    // the uploads arrive well within the batch delay
+    assertTrue(dataService.getGroups().size() < 10);
+  }
+
+  @Test
+  public void groupsAreLimitedByKeyCount() throws Exception {
+    var dataService = new RecordingDataSource(null);
+    var queue =
+        new UploadQueue(dataService, 100, 1, 4, Duration.ofSeconds(1), Duration.ofSeconds(5));
+    for (int i = 0; i < 10; i++) {
+      queue.enqueue(getKeys(2));
+    }
+    queue.close();
+
+    assertEquals(20, dataService.getKeyCount());
+    for (var group : dataService.getGroups()) {
+      assertTrue(group <= 4);
+    }
+  }
+
+  @Test(expected = UploadQueueFullException.class)
+  public void fullQueueRejectsUploads() throws Exception {
+    var writing = new CountDownLatch(1);
+    var dataService = new RecordingDataSource(writing);
+    var queue = new UploadQueue(dataService, 1, 1, 1, Duration.ZERO, Duration.ofSeconds(5));
+    try {
+      // taken by the writer, which blocks
+      queue.enqueue(getKeys(1));
+      assertTrue(dataService.awaitWrite());
+      // fills the queue
+      queue.enqueue(getKeys(1));
+      queue.enqueue(getKeys(1));
+    } finally {
+      writing.countDown();
+      queue.close();
+    }
+  }
+
+  @Test(expected = UploadNotWrittenException.class)
+  public void failedGroupsFailTheirUploads() throws Exception {
+    var dataService =
+        new MockDataSource() {
+          @Override
+          public void upsertExposees(List<GaenKey> keys, UTCInstant now) {
+            throw new IllegalStateException("database unavailable");
+          }
+        };
+    var queue = new UploadQueue(dataService, 10, 1, 10, Duration.ZERO, Duration.ofSeconds(5));
+    try {
+      queue.write(getKeys(1));
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void uploadsQueuedAtShutdownFail() throws Exception {
+    var writing = new CountDownLatch(1);
+    var dataService = new RecordingDataSource(writing);
+    var queue = new UploadQueue(dataService, 10, 1, 1, Duration.ZERO, Duration.ofMillis(100));
+    // taken by the writer, which blocks until it is interrupted by the shutdown
+    var first = queue.enqueue(getKeys(1));
+    assertTrue(dataService.awaitWrite());
+    var second = queue.enqueue(getKeys(1));
+    queue.close();
+
+    // the group which was being written is still committed
+    first.get(5, TimeUnit.SECONDS);
+    assertTrue(second.isCompletedExceptionally());
+  }
+
+  @Test(expected = UploadQueueFullException.class)
+  public void closedQueueRejectsUploads() throws Exception {
+    var queue =
+        new UploadQueue(
+            new RecordingDataSource(null), 10, 1, 10, Duration.ZERO, Duration.ofSeconds(5));
+    queue.close();
+    queue.enqueue(getKeys(1));
+  }
+
+  private static List<GaenKey> getKeys(int count) {
+    var keys = new ArrayList<GaenKey>();
+    for (int i = 0; i < count; i++) {
+      keys.add(
+          new GaenKey(
+              "POSTMAN+POSTMAN+",
+              (int) UTCInstant.now().get10MinutesSince1970(),
+              144,
+              0,
+              "ES",
+              1,
+              1L,
+              true,
+              Collections.singletonList("ES")));
+    }
+    return keys;
+  }
+
+  /** Records the size of every written group, optionally blocking until the latch is released. */
+  private static class RecordingDataSource extends MockDataSource {
+
+    private final List<Integer> groups = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release;
+    private final CountDownLatch written = new CountDownLatch(1);
+
+    RecordingDataSource(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void upsertExposees(List<GaenKey> keys, UTCInstant now) {
+      groups.add(keys.size());
+      written.countDown();
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    boolean awaitWrite() throws InterruptedException {
+      return written.await(5, TimeUnit.SECONDS);
+    }
+
+    List<Integer> getGroups() {
+      return groups;
+    }
+
+    int getKeyCount() {
+      return groups.stream().mapToInt(Integer::intValue).sum();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package org.dpppt.backend.sdk.ws.insertmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dpppt.backend.sdk.semver.Version;
+import org.junit.Test;
+
+public class UserAgentCacheTest {
+
+  private final AtomicInteger parsed = new AtomicInteger();
+
+  @Test
+  public void headersAreParsedOnce() {
+    var cache = new UserAgentCache(10);
+    var header = "ch.admin.bag.dp3t.dev;1.0.7;1595591959493;Android;29";
+    var first = cache.get(header, this::parse);
+    var second = cache.get(header, this::parse);
+
+    assertSame(first, second);
+    assertEquals(1, parsed.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedHeaderIsEvicted() {
+    var cache = new UserAgentCache(2);
+    cache.get("a", this::parse);
+    cache.get("b", this::parse);
+    cache.get("a", this::parse);
+    cache.get("c", this::parse);
+    assertEquals(2, cache.size());
+
+    // b was evicted, a is still cached
+    cache.get("a", this::parse);
+    cache.get("b", this::parse);
+    assertEquals(4, parsed.get());
+
+    var registry = new SimpleMeterRegistry();
+    cache.bindTo(registry);
+    assertEquals(2.0, registry.get("cache.gets").tag("result", "hit").functionCounter().count(), 0);
+    assertEquals(2.0, registry.get("cache.evictions").functionCounter().count(), 0);
+  }
+
+  @Test
+  public void invalidHeadersAreNotCached() {
+    var cache = new UserAgentCache(10);
+    assertNull(cache.get("invalid", header -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void headersOfUnknownAppsAreNotCached() {
+    var cache = new UserAgentCache(10, Set.of("ch.admin.bag.dp3t.dev"));
+    var app = "ch.admin.bag.dp3t.dev;1.0.7;1595591959493;Android;29";
+    cache.get(app, this::parse);
+    cache.get("random.app;1.0.7;1595591959493;Android;29", this::parse);
+    cache.get("no parts", this::parse);
+    assertEquals(1, cache.size());
+
+    cache.get(app, this::parse);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  private UserAgent parse(String header) {
+    parsed.incrementAndGet();
+    return new UserAgent(OSType.ANDROID, new Version("29"), new Version("1.0.7"));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020 Gobierno de España
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.radarcovid.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dpppt.backend.sdk.ws.radarcovid.client.impl.ValidationClientServiceImpl;
+import org.dpppt.backend.sdk.ws.radarcovid.client.service.impl.ValidationCircuitBreakerRestClientServiceImpl;
+import org.dpppt.backend.sdk.ws.radarcovid.client.service.impl.ValidationRetryableRestClientServiceImpl;
+import org.dpppt.backend.sdk.ws.radarcovid.exception.RadarCovidServerException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+/** Runs the validation client against a local stub of the validation service. */
+public class ValidationClientTest {
+
+    private static final String TAN = "123456789012";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch received = new CountDownLatch(1);
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/verify/tan", exchange -> {
+            requests.incrementAndGet();
+            received.countDown();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void validationResultsAreReturned() {
+        var client = createClient(CircuitBreakerConfig.ofDefaults(), BulkheadConfig.ofDefaults());
+        assertTrue(client.validate(TAN));
+        status = 404;
+        assertFalse(client.validate(TAN));
+
+        assertEquals(1, meterRegistry.get("validation.client.requests").tag("outcome", "valid").timer().count());
+        assertEquals(1, meterRegistry.get("validation.client.requests").tag("outcome", "invalid").timer().count());
+    }
+
+    @Test
+    public void slowServiceTimesOut() {
+        var client = createClient(CircuitBreakerConfig.ofDefaults(), BulkheadConfig.ofDefaults());
+        delayMillis = 2000;
+        try {
+            client.validate(TAN);
+            fail("validated without an answer");
+        } catch (RadarCovidServerException e) {
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getHttpStatus());
+        }
+    }
+
+    @Test
+    public void openCircuitRejectsWithoutCallingTheService() {
+        var circuitBreakerConfig = CircuitBreakerConfig.custom()
+                .slidingWindowSize(2)
+                .minimumNumberOfCalls(2)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build();
+        var client = createClient(circuitBreakerConfig, BulkheadConfig.ofDefaults());
+        status = 500;
+        for (int i = 0; i < 2; i++) {
+            try {
+                client.validate(TAN);
+                fail("validated with a failing service");
+            } catch (HttpServerErrorException e) {
+                // recorded by the circuit breaker
+            }
+        }
+        try {
+            client.validate(TAN);
+            fail("validated with an open circuit");
+        } catch (RadarCovidServerException e) {
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getHttpStatus());
+        }
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void fullBulkheadRejectsFurtherUploads() throws Exception {
+        var bulkheadConfig = BulkheadConfig.custom()
+                .maxConcurrentCalls(1)
+                .maxWaitDuration(Duration.ZERO)
+                .build();
+        var client = createClient(CircuitBreakerConfig.ofDefaults(), bulkheadConfig);
+        delayMillis = 500;
+        var waiting = Executors.newSingleThreadExecutor();
+        var first = waiting.submit(() -> client.validate(TAN));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        try {
+            client.validate(TAN);
+            fail("validated with a full bulkhead");
+        } catch (RadarCovidServerException e) {
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getHttpStatus());
+        }
+        assertTrue(first.get());
+        assertEquals(1, requests.get());
+        waiting.shutdown();
+    }
+
+    private ValidationClientService createClient(
+            CircuitBreakerConfig circuitBreakerConfig, BulkheadConfig bulkheadConfig) {
+        var requestFactory = new HttpComponentsClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(500);
+        requestFactory.setReadTimeout(1000);
+        var retryable = new ValidationRetryableRestClientServiceImpl(new RestTemplate(requestFactory));
+        ReflectionTestUtils.setField(retryable, "validationUrl",
+                "http://localhost:" + server.getAddress().getPort() + "/v1/verify/tan");
+        return new ValidationClientServiceImpl(new ValidationCircuitBreakerRestClientServiceImpl(
+                retryable,
+                CircuitBreaker.of("validation", circuitBreakerConfig),
+                Bulkhead.of("validation", bulkheadConfig),
+                meterRegistry));
+    }
+}
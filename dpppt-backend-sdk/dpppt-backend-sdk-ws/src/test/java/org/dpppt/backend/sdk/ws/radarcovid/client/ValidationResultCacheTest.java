@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020 Gobierno de España
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.radarcovid.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.radarcovid.client.service.ValidationRestClientService;
+import org.junit.Test;
+
+public class ValidationResultCacheTest {
+
+    private static final String TAN = "123456789012";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void resultsAreCachedForTheirTimeToLive() {
+        var cache = new ValidationResultCache(Duration.ofMinutes(1), Duration.ofSeconds(10), 100);
+        var now = Instant.parse("2020-10-20T10:00:00Z");
+        try (var timeLock = UTCInstant.setClock(Clock.fixed(now, ZoneOffset.UTC))) {
+            assertTrue(cache.validate(TAN, tan -> count(true)));
+            assertFalse(cache.validate("000000000000", tan -> count(false)));
+            assertTrue(cache.validate(TAN, tan -> count(true)));
+            assertFalse(cache.validate("000000000000", tan -> count(false)));
+            assertEquals(2, calls.get());
+        }
+        var later = now.plusSeconds(30);
+        try (var timeLock = UTCInstant.setClock(Clock.fixed(later, ZoneOffset.UTC))) {
+            // the invalid result expired, the valid one did not
+            assertTrue(cache.validate(TAN, tan -> count(true)));
+            assertFalse(cache.validate("000000000000", tan -> count(false)));
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    public void failedValidationsAreNotCached() {
+        var cache = new ValidationResultCache(Duration.ofMinutes(1), Duration.ofSeconds(10), 100);
+        try {
+            cache.validate(TAN, tan -> {
+                calls.incrementAndGet();
+                throw new IllegalStateException("validation service unavailable");
+            });
+            fail("validated with a failing service");
+        } catch (IllegalStateException e) {
+            // not cached
+        }
+        assertTrue(cache.validate(TAN, tan -> count(true)));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void concurrentValidationsOfTheSameTanShareOneCall() throws Exception {
+        var cache = new ValidationResultCache(Duration.ofMinutes(1), Duration.ofSeconds(10), 100);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        ValidationRestClientService slowService = tan -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return count(true);
+        };
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var first = executor.submit(() -> cache.validate(TAN, slowService));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            var waiting = executor.submit(() -> cache.validate(TAN, slowService));
+            // give the second validation time to join the running one
+            Thread.sleep(100);
+            release.countDown();
+            assertTrue(first.get());
+            assertTrue(waiting.get());
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void waitingValidationsGetTheException() throws Exception {
+        var cache = new ValidationResultCache(Duration.ofMinutes(1), Duration.ofSeconds(10), 100);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        ValidationRestClientService failingService = tan -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("validation service unavailable");
+        };
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var first = executor.submit(() -> cache.validate(TAN, failingService));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            var waiting = executor.submit(() -> cache.validate(TAN, failingService));
+            Thread.sleep(100);
+            release.countDown();
+            for (var validation : List.of(first, waiting)) {
+                try {
+                    validation.get();
+                    fail("validated with a failing service");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private boolean count(boolean result) {
+        calls.incrementAndGet();
+        return result;
+    }
+}
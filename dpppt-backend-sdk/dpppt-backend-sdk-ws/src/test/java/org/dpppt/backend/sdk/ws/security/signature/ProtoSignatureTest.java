@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipInputStream;
+import org.dpppt.backend.sdk.model.gaen.GaenKey;
+import org.dpppt.backend.sdk.model.gaen.proto.v2.TemporaryExposureKeyFormatV2;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.Test;
+
+public class ProtoSignatureTest {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+
+  private final KeyPair keyPair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+  private final ProtoSignature signer =
+      new ProtoSignature(
+          "1.2.840.10045.4.3.2",
+          keyPair,
+          "org.dpppt.ios.demo",
+          "org.dpppt.android.demo",
+          "v1",
+          "228",
+          "ch",
+          BUCKET);
+
+  @Test
+  public void streamedExportMatchesProtoMessage() throws Exception {
+    var keys = getKeys(50);
+    var out = new ByteArrayOutputStream();
+    var hash = signer.writePayloadV2(keys, out);
+
+    Map<String, byte[]> entries = unzip(out.toByteArray());
+    byte[] exportBin = entries.get("export.bin");
+    byte[] magic = Arrays.copyOf(exportBin, 16);
+    assertArrayEquals("EK Export v1    ".getBytes(), magic);
+
+    var export =
+        TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.parseFrom(
+            Arrays.copyOfRange(exportBin, 16, exportBin.length));
+    assertEquals(keys.size(), export.getKeysCount());
+    assertEquals("ch", export.getRegion());
+    assertEquals(1, export.getSignatureInfosCount());
+
+    // the streamed encoding is the same as serializing the whole message at once
+    var expected = export.toBuilder().build().toByteArray();
+    assertArrayEquals(expected, Arrays.copyOfRange(exportBin, 16, exportBin.length));
+
+    var signatureList =
+        TemporaryExposureKeyFormatV2.TEKSignatureList.parseFrom(entries.get("export.sig"));
+    Signature verifier = Signature.getInstance("SHA256withECDSA");
+    verifier.initVerify(keyPair.getPublic());
+    verifier.update(exportBin);
+    assertTrue(verifier.verify(signatureList.getSignatures(0).getSignature().toByteArray()));
+
+    var digest = MessageDigest.getInstance("SHA256");
+    digest.update(exportBin);
+    digest.update(keyPair.getPublic().getEncoded());
+    assertArrayEquals(digest.digest(), hash);
+  }
+
+  @Test
+  public void payloadWrapperContainsStreamedZip() throws Exception {
+    var keys = getKeys(3);
+    var wrapper = signer.getPayloadV2(keys);
+    var entries = unzip(wrapper.getZip());
+    assertTrue(entries.containsKey("export.bin"));
+    assertTrue(entries.containsKey("export.sig"));
+
+    var export =
+        TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport.parseFrom(
+            Arrays.copyOfRange(entries.get("export.bin"), 16, entries.get("export.bin").length));
+    var keyData = new ArrayList<ByteString>();
+    export.getKeysList().forEach(k -> keyData.add(k.getKeyData()));
+    for (var key : keys) {
+      assertTrue(
+          keyData.contains(ByteString.copyFrom(Base64.getDecoder().decode(key.getKeyData()))));
+    }
+  }
+
+  private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+    Map<String, byte[]> entries = new HashMap<>();
+    try (var zipIn = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (var entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+        entries.put(entry.getName(), zipIn.readAllBytes());
+      }
+    }
+    return entries;
+  }
+
+  private static List<GaenKey> getKeys(int count) {
+    var rollingStart = (int) UTCInstant.today().minusDays(1).get10MinutesSince1970();
+    var keys = new ArrayList<GaenKey>();
+    for (int i = 0; i < count; i++) {
+      var key = new GaenKey();
+      key.setKeyData(
+          Base64.getEncoder().encodeToString(String.format("testKey32Bytes%02d", i).getBytes()));
+      key.setRollingStartNumber(rollingStart);
+      key.setRollingPeriod(144);
+      key.setTransmissionRiskLevel(0);
+      keys.add(key);
+    }
+    return keys;
+  }
+}
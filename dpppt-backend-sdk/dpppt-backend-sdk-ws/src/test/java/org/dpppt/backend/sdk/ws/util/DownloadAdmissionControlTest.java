@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.data.ReadReplicaDataSource;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.util.DownloadAdmissionControl.DownloadsOverloadedException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class DownloadAdmissionControlTest {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+
+  private final EndpointExecutor executor =
+      new EndpointExecutor("test", 1, 10, Duration.ofSeconds(5));
+
+  @After
+  public void tearDown() {
+    executor.destroy();
+  }
+
+  @Test
+  public void downloadsAreRejectedWhileTooManyAreInFlight() throws Exception {
+    var admission =
+        new DownloadAdmissionControl(
+            executor, 2, null, 0, BUCKET, Duration.ofSeconds(30), Duration.ofMinutes(10));
+    var registry = new SimpleMeterRegistry();
+    admission.bindTo(registry);
+    var now = UTCInstant.now();
+    admission.admit(now);
+
+    var running = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    try {
+      executor.submit(
+          () -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+          });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      // waits in the queue
+      executor.submit(() -> "queued");
+      try {
+        admission.admit(now);
+        fail("download admitted with too many downloads in flight");
+      } catch (DownloadsOverloadedException e) {
+        assertTrue(e.getRetryAfter().getSeconds() >= 30);
+      }
+      assertEquals(
+          1,
+          registry
+              .get("download.admission.rejected")
+              .tag("reason", "inFlight")
+              .functionCounter()
+              .count(),
+          0);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void thePoolOfTheCurrentReadDatabaseIsChecked() throws Exception {
+    var primary = pool("admission-primary");
+    var replica = pool("admission-replica");
+    new JdbcTemplate(replica)
+        .execute(
+            "create function pg_last_xact_replay_timestamp() returns timestamp with time zone"
+                + " return current_timestamp");
+    try (var dataSource =
+        new ReadReplicaDataSource(primary, replica, Duration.ofSeconds(30), BUCKET)) {
+      var admission =
+          new DownloadAdmissionControl(
+              executor, 0, dataSource, 1, BUCKET, Duration.ofSeconds(30), Duration.ofMinutes(10));
+      // until the replica is known to have replayed the current bucket
+      assertSame(primary, admission.currentPool());
+
+      var transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+      transaction.setReadOnly(true);
+      transaction.execute(
+          status -> new JdbcTemplate(dataSource).queryForObject("values 1", Integer.class));
+      assertSame(replica, admission.currentPool());
+    }
+  }
+
+  @Test
+  public void retriesAreSpreadBeforeTheNextRelease() {
+    var admission =
+        new DownloadAdmissionControl(
+            executor, 0, null, 0, BUCKET, Duration.ofSeconds(30), Duration.ofMinutes(10));
+    // one hour before the next release
+    var now = UTCInstant.ofEpochMillis(BUCKET.toMillis() * 1000 + Duration.ofHours(1).toMillis());
+    for (int i = 0; i < 100; i++) {
+      var retryAfter = admission.retryAfter(now);
+      assertTrue(retryAfter.getSeconds() >= 30);
+      assertTrue(retryAfter.compareTo(Duration.ofMinutes(10)) <= 0);
+    }
+  }
+
+  @Test
+  public void retriesCloseToTheReleaseArePlacedAfterIt() {
+    var admission =
+        new DownloadAdmissionControl(
+            executor, 0, null, 0, BUCKET, Duration.ofSeconds(30), Duration.ofMinutes(10));
+    // ten seconds before the next release
+    var now =
+        UTCInstant.ofEpochMillis(BUCKET.toMillis() * 1001 - Duration.ofSeconds(10).toMillis());
+    for (int i = 0; i < 100; i++) {
+      var retryAfter = admission.retryAfter(now);
+      assertTrue(retryAfter.getSeconds() >= 40);
+      assertTrue(retryAfter.compareTo(Duration.ofSeconds(610)) <= 0);
+    }
+  }
+
+  private static HikariDataSource pool(String name) {
+    var config = new HikariConfig();
+    config.setJdbcUrl("jdbc:hsqldb:mem:" + name);
+    config.setUsername("sa");
+    config.setPoolName(name);
+    return new HikariDataSource(config);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.dpppt.backend.sdk.ws.util.EndpointExecutor.EndpointBusyException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.DeferredResult;
+
+public class EndpointExecutorTest {
+
+  private final EndpointExecutor executor =
+      new EndpointExecutor("test", 1, 1, Duration.ofSeconds(5));
+
+  @After
+  public void tearDown() {
+    executor.destroy();
+  }
+
+  @Test
+  public void resultsAndErrorsArePassedOn() throws Exception {
+    assertEquals("OK", awaitResult(executor.submit(() -> "OK")));
+
+    var error = new IllegalArgumentException();
+    assertEquals(
+        error,
+        awaitResult(
+            executor.submit(
+                () -> {
+                  throw error;
+                })));
+  }
+
+  @Test
+  public void timeoutsOfStartedRequestsAreCancelled() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      Integer request = i;
+      assertEquals(request, awaitResult(executor.submit(() -> request)));
+    }
+    assertEquals(0, executor.getPendingTimeouts());
+  }
+
+  @Test
+  public void requestsAreRejectedWhileTheQueueIsFull() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    executor.bindTo(registry);
+    var running = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    try {
+      executor.submit(
+          () -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+          });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      // waits in the queue
+      executor.submit(() -> "queued");
+      try {
+        executor.submit(() -> "rejected");
+        fail("request accepted with a full queue");
+      } catch (EndpointBusyException e) {
+        // expected
+      }
+      assertEquals(1, registry.get("executor.queued").tag("name", "test").gauge().value(), 0);
+      assertEquals(
+          1, registry.get("executor.rejected").tag("name", "test").functionCounter().count(), 0);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void onlyQueuedRequestsTimeOut() throws Exception {
+    var shortTimeout = new EndpointExecutor("timeout", 1, 1, Duration.ofMillis(100));
+    var running = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var queuedRan = new AtomicBoolean();
+    try {
+      var slow =
+          shortTimeout.submit(
+              () -> {
+                running.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+              });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      var queued = shortTimeout.submit(() -> queuedRan.getAndSet(true));
+
+      assertTrue(awaitResult(queued) instanceof AsyncRequestTimeoutException);
+      // removed from the queue
+      assertEquals(1, shortTimeout.getInFlight());
+      // the running request is completed although it took longer than the timeout
+      release.countDown();
+      assertEquals(true, awaitResult(slow));
+      assertFalse(queuedRan.get());
+    } finally {
+      release.countDown();
+      shortTimeout.destroy();
+    }
+  }
+
+  private static Object awaitResult(DeferredResult<?> result) throws InterruptedException {
+    var latch = new CountDownLatch(1);
+    var value = new Object[1];
+    result.setResultHandler(
+        r -> {
+          value[0] = r;
+          latch.countDown();
+        });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    return value[0];
+  }
+}
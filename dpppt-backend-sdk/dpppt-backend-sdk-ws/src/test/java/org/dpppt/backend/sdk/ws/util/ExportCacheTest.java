@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipInputStream;
+import org.dpppt.backend.sdk.data.gaen.GaenKeyHandler;
+import org.dpppt.backend.sdk.model.gaen.proto.v2.TemporaryExposureKeyFormatV2.TemporaryExposureKeyExport;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.dpppt.backend.sdk.ws.insertmanager.MockDataSource;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterEngines;
+import org.dpppt.backend.sdk.ws.security.signature.KeyFilterSpec;
+import org.dpppt.backend.sdk.ws.security.signature.ProtoSignature;
+import org.dpppt.backend.sdk.ws.util.ExportCache.ExportFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportCacheTest {
+
+  private static final Duration BUCKET = Duration.ofHours(2);
+  private static final Duration RETENTION = Duration.ofDays(14);
+  private static final KeyFilterSpec DEFAULT_FILTER = KeyFilterEngines.withDefaults().getDefault();
+
+  private CountingDataService dataService;
+  private ProtoSignature signer;
+
+  @Before
+  public void setup() {
+    dataService = new CountingDataService();
+    signer =
+        new ProtoSignature(
+            "1.2.840.10045.4.3.2",
+            Keys.keyPairFor(SignatureAlgorithm.ES256),
+            "org.dpppt.ios.demo",
+            "org.dpppt.android.demo",
+            "v1",
+            "228",
+            "ch",
+            BUCKET);
+  }
+
+  @Test
+  public void sameBucketIsOnlyBuiltOnce() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    var first = cache.getExport(ExportFormat.V2, since, now, List.of("IT", "DE"), null);
+    var second = cache.getExport(ExportFormat.V2, since, now, List.of("DE", "IT", "DE"), null);
+
+    assertFalse(first.isEmpty());
+    assertArrayEquals(first.getZip(), second.getZip());
+    assertEquals(1, dataService.queries);
+
+    cache.getExport(ExportFormat.V2UMA, since, now, List.of("DE", "IT"), null);
+    assertEquals(2, dataService.queries);
+  }
+
+  @Test
+  public void filtersAreCachedSeparately() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+    var filters = KeyFilterEngines.withDefaults();
+
+    cache.getExport(ExportFormat.V2UMA, since, now, null, null);
+    cache.getExport(ExportFormat.V2UMA, filters.resolve("cuckoo", 0.03), since, now, null, null);
+    assertEquals(1, dataService.queries);
+
+    cache.getExport(ExportFormat.V2UMA, filters.resolve("xor", null), since, now, null, null);
+    cache.getExport(ExportFormat.V2UMA, filters.resolve("cuckoo", 0.01), since, now, null, null);
+    assertEquals(3, dataService.queries);
+
+    // the filter doesn't change the other formats
+    cache.getExport(ExportFormat.V2, filters.resolve("xor", null), since, now, null, null);
+    cache.getExport(ExportFormat.V2, since, now, null, null);
+    assertEquals(4, dataService.queries);
+  }
+
+  @Test
+  public void disabledCacheAlwaysQueries() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, false, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    cache.getExport(ExportFormat.V2, since, now, null, null);
+    cache.getExport(ExportFormat.V2, since, now, null, null);
+    cache.refresh(now);
+
+    assertEquals(2, dataService.queries);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void emptyExportsAreCached() throws Exception {
+    dataService.keyCount = 0;
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    assertTrue(cache.getExport(ExportFormat.V2, since, now, null, null).isEmpty());
+    assertTrue(cache.getExport(ExportFormat.V2, since, now, null, null).isEmpty());
+    assertEquals(1, dataService.queries);
+  }
+
+  @Test
+  public void refreshEvictsClosedBucketsAndWarmsTheNewOne() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+    cache.getExport(ExportFormat.V2, since, now, List.of("IT"), null);
+    assertEquals(1, cache.size());
+
+    var nextBucket = now.roundToNextBucket(BUCKET);
+    // keys may still be committed to the closed bucket, so the new one isn't warmed yet
+    cache.refresh(nextBucket);
+    assertEquals(0, cache.size());
+    assertEquals(1, dataService.queries);
+
+    var afterGracePeriod = nextBucket.plus(ExportCache.BUCKET_GRACE_PERIOD);
+    cache.refresh(afterGracePeriod);
+    // two formats, each for the full retention period and the last bucket
+    assertEquals(4, cache.size());
+    assertEquals(5, dataService.queries);
+
+    // a second refresh within the same bucket does nothing
+    cache.refresh(afterGracePeriod.plusMinutes(1));
+    assertEquals(5, dataService.queries);
+
+    cache.getExport(ExportFormat.V2, nextBucket.minus(BUCKET), afterGracePeriod, null, null);
+    assertEquals(5, dataService.queries);
+  }
+
+  @Test
+  public void newBucketIsNotCachedDuringGracePeriod() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var bucketStart = now().roundToBucketStart(BUCKET);
+    var since = bucketStart.minus(BUCKET);
+
+    cache.getExport(ExportFormat.V2, since, bucketStart.plusMinutes(1), null, null);
+    // a late upload commits a key to the closed bucket
+    dataService.keyCount = 4;
+    var export = cache.getExport(ExportFormat.V2, since, bucketStart.plusMinutes(2), null, null);
+    var bin = exportBin(export.getZip());
+    var proto = TemporaryExposureKeyExport.parseFrom(Arrays.copyOfRange(bin, 16, bin.length));
+    assertEquals(4, proto.getKeysCount());
+    assertEquals(0, cache.size());
+    assertEquals(2, dataService.queries);
+
+    var afterGracePeriod = bucketStart.plus(ExportCache.BUCKET_GRACE_PERIOD);
+    cache.getExport(ExportFormat.V2, since, afterGracePeriod, null, null);
+    cache.getExport(ExportFormat.V2, since, afterGracePeriod.plusMinutes(1), null, null);
+    assertEquals(1, cache.size());
+    assertEquals(3, dataService.queries);
+  }
+
+  /** A time within the current bucket, after its grace period. */
+  private static UTCInstant now() {
+    return UTCInstant.now().roundToBucketStart(BUCKET).plusMinutes(30);
+  }
+
+  @Test
+  public void fullCacheStillServesExports() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 1, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    cache.getExport(ExportFormat.V2, since, now, List.of("IT"), null);
+    var uncached = cache.getExport(ExportFormat.V2, since, now, List.of("PT"), null);
+
+    assertFalse(uncached.isEmpty());
+    assertEquals(1, cache.size());
+    assertEquals(2, dataService.queries);
+  }
+
+  @Test
+  public void unknownCountriesAreRejected() throws Exception {
+    var cache = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    cache.getExport(ExportFormat.V2, since, now, List.of("it"), null);
+    cache.getExport(ExportFormat.V2, since, now, List.of(" IT "), null);
+    assertEquals(1, cache.size());
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> cache.getExport(ExportFormat.V2, since, now, List.of("IT", "XX1"), null));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> cache.getExport(ExportFormat.V2, since, now, null, List.of("ZZ")));
+    assertEquals(1, cache.size());
+    assertEquals(1, dataService.queries);
+  }
+
+  @Test
+  public void cacheIsBoundedByBytes() throws Exception {
+    var probe = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+    int zipSize = probe.getExport(ExportFormat.V2, since, now, null, null).getZip().length;
+
+    // room for one zip only
+    var cache =
+        new ExportCache(
+            dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER, 2, zipSize + 10);
+    cache.getExport(ExportFormat.V2, since, now, List.of("IT"), null);
+    assertEquals(1, cache.size());
+    assertTrue(cache.bytes() > 0);
+
+    var dropped = cache.getExport(ExportFormat.V2, since, now, List.of("PT"), null);
+    assertFalse(dropped.isEmpty());
+    assertEquals(1, cache.size());
+
+    cache.refresh(now.roundToNextBucket(BUCKET));
+    assertTrue(cache.bytes() <= zipSize + 10);
+    cache.refresh(now.roundToNextBucket(BUCKET).plus(BUCKET));
+    assertTrue(cache.bytes() <= zipSize + 10);
+  }
+
+  private static byte[] exportBin(byte[] zip) throws Exception {
+    try (var in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (var entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        if (entry.getName().equals("export.bin")) {
+          return in.readAllBytes();
+        }
+      }
+    }
+    throw new AssertionError("export.bin missing");
+  }
+
+  @Test
+  public void uncachedExportMatchesCachedExport() throws Exception {
+    var cached = new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER);
+    var uncached =
+        new ExportCache(dataService, signer, BUCKET, RETENTION, false, 100, DEFAULT_FILTER);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    for (var format : ExportFormat.values()) {
+      var uncachedExport = uncached.getExport(format, since, now, null, null);
+      // the zip is built before the response is written, so its length is known
+      assertEquals(uncachedExport.getZip().length, (long) uncachedExport.getContentLength());
+      assertArrayEquals(
+          exportBin(cached.getExport(format, since, now, null, null).getZip()),
+          exportBin(uncachedExport.getZip()));
+    }
+
+    dataService.keyCount = 0;
+    assertTrue(uncached.getExport(ExportFormat.V2, since, now, null, null).isEmpty());
+  }
+
+  @Test
+  public void largeExportsAreSpilledAndNotCached() throws Exception {
+    var inMemory =
+        new ExportCache(dataService, signer, BUCKET, RETENTION, false, 100, DEFAULT_FILTER);
+    var cache =
+        new ExportCache(
+            dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER, 2, 1_000_000, 16);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    var expected = inMemory.getExport(ExportFormat.V2, since, now, null, null);
+    var spilled = cache.getExport(ExportFormat.V2, since, now, null, null);
+    assertTrue(spilled.isSpilled());
+    assertEquals(0, cache.size());
+
+    var out = new ByteArrayOutputStream();
+    spilled.writeTo(out);
+    assertEquals((long) out.size(), (long) spilled.getContentLength());
+    assertArrayEquals(exportBin(expected.getZip()), exportBin(out.toByteArray()));
+  }
+
+  @Test
+  public void pagesSplitTheExport() throws Exception {
+    dataService.keyCount = 5;
+    var cache =
+        new ExportCache(dataService, signer, BUCKET, RETENTION, true, 100, DEFAULT_FILTER, 2);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    var tokens = ExportPageTokens.withRandomSecret();
+
+    var firstPage = ExportPage.first(since, now.roundToBucketStart(BUCKET));
+    var page = firstPage;
+    int batchNum = 0;
+    int keys = 0;
+    while (page != null) {
+      var export = cache.getExportPage(ExportFormat.V2, page, now, null, null);
+      var bin = exportBin(export.getZip());
+      var proto = TemporaryExposureKeyExport.parseFrom(Arrays.copyOfRange(bin, 16, bin.length));
+      assertEquals(++batchNum, proto.getBatchNum());
+      assertEquals(3, proto.getBatchSize());
+      keys += proto.getKeysCount();
+      // the next page is passed through the client as token
+      var next = export.getNextPage();
+      page = next == null ? null : tokens.parse(tokens.toToken(next));
+    }
+    assertEquals(3, batchNum);
+    assertEquals(5, keys);
+    // one query per page and a count for the first and the last page
+    assertEquals(5, dataService.queries);
+
+    cache.getExportPage(ExportFormat.V2, firstPage, now, null, null);
+    assertEquals(5, dataService.queries);
+
+    dataService.keyCount = 0;
+    var emptyPage = ExportPage.first(since.minus(BUCKET), now.roundToBucketStart(BUCKET));
+    assertTrue(cache.getExportPage(ExportFormat.V2, emptyPage, now, null, null).isEmpty());
+  }
+
+  @Test
+  public void lastPageContinuesWithKeysAddedDuringTheDownload() throws Exception {
+    dataService.keyCount = 5;
+    var cache =
+        new ExportCache(dataService, signer, BUCKET, RETENTION, false, 100, DEFAULT_FILTER, 2);
+    var now = now();
+    var since = now.roundToBucketStart(BUCKET).minus(BUCKET);
+
+    var page = ExportPage.first(since, now.roundToBucketStart(BUCKET));
+    int batchNum = 0;
+    int keys = 0;
+    while (page != null) {
+      var export = cache.getExportPage(ExportFormat.V2, page, now, null, null);
+      var bin = exportBin(export.getZip());
+      var proto = TemporaryExposureKeyExport.parseFrom(Arrays.copyOfRange(bin, 16, bin.length));
+      assertEquals(++batchNum, proto.getBatchNum());
+      keys += proto.getKeysCount();
+      if (batchNum == 2) {
+        // committed to the bucket after the number of pages was computed
+        dataService.keyCount = 7;
+      }
+      page = export.getNextPage();
+    }
+    assertEquals(4, batchNum);
+    assertEquals(7, keys);
+  }
+
+  private static class CountingDataService extends MockDataSource {
+    int queries = 0;
+    int keyCount = 3;
+
+    @Override
+    public int streamExposedSince(
+        UTCInstant keysSince,
+        UTCInstant now,
+        List<String> visitedCountries,
+        List<String> originCountries,
+        GaenKeyHandler handler) {
+      queries++;
+      for (int i = 0; i < keyCount; i++) {
+        handler.handleKey(
+            String.format("testKey32Bytes%02d", i).getBytes(),
+            (int) now.atStartOfDay().minusDays(1).get10MinutesSince1970(),
+            144,
+            0);
+      }
+      return keyCount;
+    }
+
+    @Override
+    public boolean hasExposedSince(
+        UTCInstant keysSince,
+        UTCInstant now,
+        List<String> visitedCountries,
+        List<String> originCountries) {
+      queries++;
+      return keyCount > 0;
+    }
+
+    @Override
+    public int countExposedSince(
+        UTCInstant keysSince,
+        UTCInstant now,
+        List<String> visitedCountries,
+        List<String> originCountries) {
+      queries++;
+      return keyCount;
+    }
+
+    @Override
+    public Long streamExposedSincePage(
+        UTCInstant keysSince,
+        UTCInstant now,
+        List<String> visitedCountries,
+        List<String> originCountries,
+        long afterId,
+        int pageSize,
+        GaenKeyHandler handler) {
+      queries++;
+      // the keys have the ids 1 to keyCount
+      Long lastId = null;
+      for (long id = afterId + 1; id <= Math.min(keyCount, afterId + pageSize); id++) {
+        handler.handleKey(
+            String.format("testKey32Bytes%02d", id).getBytes(),
+            (int) now.atStartOfDay().minusDays(1).get10MinutesSince1970(),
+            144,
+            0);
+        lastId = id;
+      }
+      return lastId;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.dpppt.backend.sdk.utils.UTCInstant;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+public class RequestTimeNormalizerTest {
+
+  private final RequestTimeNormalizer normalizer = new RequestTimeNormalizer();
+
+  @After
+  public void tearDown() {
+    normalizer.destroy();
+  }
+
+  @Test
+  public void resultIsDelayedUntilRequestTimePassed() throws Exception {
+    var start = UTCInstant.now();
+    var requestTime = Duration.ofMillis(300);
+    var result = normalizer.normalize(start, requestTime, "OK");
+    assertFalse(result.hasResult());
+
+    var completed = awaitResult(result);
+    assertTrue(UTCInstant.now().getDuration(start).compareTo(requestTime) >= 0);
+    assertEquals("OK", completed);
+  }
+
+  @Test
+  public void slowRequestsAreCompletedRightAway() {
+    var start = UTCInstant.now().minus(Duration.ofSeconds(2));
+    var result = normalizer.normalize(start, Duration.ofMillis(300), "OK");
+    assertTrue(result.hasResult());
+    assertEquals("OK", result.getResult());
+  }
+
+  @Test
+  public void pendingResultsAreDelayed() throws Exception {
+    var start = UTCInstant.now();
+    var requestTime = Duration.ofMillis(300);
+    var pending = new DeferredResult<String>();
+    var result = normalizer.normalize(start, requestTime, pending);
+
+    pending.setResult("OK");
+    assertFalse(result.hasResult());
+    assertEquals("OK", awaitResult(result));
+    assertTrue(UTCInstant.now().getDuration(start).compareTo(requestTime) >= 0);
+  }
+
+  @Test
+  public void pendingErrorsArePassedOn() throws Exception {
+    var pending = new DeferredResult<String>();
+    var result = normalizer.normalize(UTCInstant.now(), Duration.ofMillis(100), pending);
+
+    var error = new IllegalStateException();
+    pending.setErrorResult(error);
+    assertSame(error, awaitResult(result));
+  }
+
+  @Test
+  public void manyPendingRequestsShareOneTimer() throws Exception {
+    var start = UTCInstant.now();
+    var requests = 10_000;
+    var latch = new CountDownLatch(requests);
+    for (int i = 0; i < requests; i++) {
+      var result = normalizer.normalize(start, Duration.ofMillis(500), i);
+      result.setResultHandler(r -> latch.countDown());
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  private static Object awaitResult(DeferredResult<?> result) throws InterruptedException {
+    var latch = new CountDownLatch(1);
+    var value = new Object[1];
+    result.setResultHandler(
+        r -> {
+          value[0] = r;
+          latch.countDown();
+        });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    return value[0];
+  }
+}
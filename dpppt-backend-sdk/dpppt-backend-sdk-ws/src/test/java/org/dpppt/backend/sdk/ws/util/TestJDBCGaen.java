@@ -70,7 +70,7 @@ public void upsertExposees(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
               + " constraint gaen_exposed_key do nothing";
     } else {
       sql =
-          "merge into t_gaen_exposed using (values(cast(:key as varchar(24)),"
+          "merge into t_gaen_exposed using (values(cast(:key as varbinary(16)),"
               + " :rolling_start_number, :rolling_period, :transmission_risk_level, :received_at, :expiry))"
               + " as vals(key, rolling_start_number, rolling_period, transmission_risk_level,"
               + " received_at, expiry) on t_gaen_exposed.key = vals.key when not matched then insert (key,"
@@ -82,7 +82,7 @@ public void upsertExposees(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
     for (var gaenKey : gaenKeys) {
       var exiry = UTCInstant.of(gaenKey.getRollingStartNumber() + gaenKey.getRollingPeriod(), GaenUnit.TenMinutes).plus(Duration.ofHours(2));
       MapSqlParameterSource params = new MapSqlParameterSource();
-      params.addValue("key", gaenKey.getKeyData());
+      params.addValue("key", gaenKey.getKeyBytes());
       params.addValue("rolling_start_number", gaenKey.getRollingStartNumber());
       params.addValue("rolling_period", gaenKey.getRollingPeriod());
       params.addValue("transmission_risk_level", gaenKey.getTransmissionRiskLevel());
@@ -104,7 +104,7 @@ public void upsertExposeesDebug(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
               + " 'test') on conflict on constraint debug_gaen_exposed_key do nothing";
     } else {
       sql =
-          "merge into t_debug_gaen_exposed using (values(cast(:key as varchar(24)),"
+          "merge into t_debug_gaen_exposed using (values(cast(:key as varbinary(16)),"
               + " :rolling_start_number, :rolling_period, :transmission_risk_level, :received_at,"
               + " 'test')) as vals(key, rolling_start_number, rolling_period,"
               + " transmission_risk_level, received_at, device_name) on t_debug_gaen_exposed.key ="
@@ -116,7 +116,7 @@ public void upsertExposeesDebug(List<GaenKey> gaenKeys, UTCInstant receivedAt) {
     var parameterList = new ArrayList<MapSqlParameterSource>();
     for (var gaenKey : gaenKeys) {
       MapSqlParameterSource params = new MapSqlParameterSource();
-      params.addValue("key", gaenKey.getKeyData());
+      params.addValue("key", gaenKey.getKeyBytes());
       params.addValue("rolling_start_number", gaenKey.getRollingStartNumber());
       params.addValue("rolling_period", gaenKey.getRollingPeriod());
       params.addValue("transmission_risk_level", gaenKey.getTransmissionRiskLevel());